@@ -0,0 +1,90 @@
+package hr.fer.zemris.java.raytracer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import hr.fer.zemris.java.raytracer.io.SceneFile;
+import hr.fer.zemris.java.raytracer.io.SceneGenerator;
+import hr.fer.zemris.java.raytracer.model.Point3D;
+import hr.fer.zemris.java.raytracer.model.Ray;
+import hr.fer.zemris.java.raytracer.model.Scene;
+
+/**
+ * Class that creates the procedural scenes and the rays of the benchmarks. The
+ * scenes are generated by {@link SceneGenerator} with a fixed seed, so every
+ * run of a benchmark sees the same scene, and are seen by the default camera.
+ *
+ * @author Dinz
+ *
+ */
+final class BenchmarkScenes {
+	/**
+	 * Seed of the generated scenes and rays.
+	 */
+	static final long SEED = 42;
+	/**
+	 * Eye position of the default camera.
+	 */
+	static final Point3D EYE = new Point3D(10, 0, 0);
+	/**
+	 * View position of the default camera.
+	 */
+	static final Point3D VIEW = new Point3D(0, 0, 0);
+	/**
+	 * View-up vector of the default camera.
+	 */
+	static final Point3D VIEW_UP = new Point3D(0, 0, 10);
+	/**
+	 * Horizontal and vertical width of the space observed by the default
+	 * camera.
+	 */
+	static final double SIZE = 20;
+
+	/**
+	 * Private constructor, the class only offers static methods.
+	 */
+	private BenchmarkScenes() {
+	}
+
+	/**
+	 * Generates a scene of randomly placed spheres and lights.
+	 *
+	 * @param spheres
+	 *            Number of spheres.
+	 * @param lights
+	 *            Number of lights.
+	 * @return Generated scene.
+	 * @throws IOException
+	 *             If the temporary file of the scene can not be written.
+	 */
+	static Scene generate(int spheres, int lights) throws IOException {
+		Path file = Files.createTempFile("benchmark", ".bin");
+		try {
+			SceneGenerator.writeRandomScene(file, spheres, lights, SEED);
+			return SceneFile.load(file);
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	/**
+	 * Creates primary rays of the default camera through random points of the
+	 * observed space.
+	 *
+	 * @param count
+	 *            Number of rays.
+	 * @return Rays.
+	 */
+	static Ray[] primaryRays(int count) {
+		Random random = new Random(SEED);
+		Ray[] rays = new Ray[count];
+		for (int i = 0; i < count; i++) {
+			Point3D screenPoint = new Point3D(VIEW.x, SIZE * (random.nextDouble() - 0.5),
+					SIZE * (random.nextDouble() - 0.5));
+			rays[i] = Ray.fromPoints(EYE, screenPoint);
+		}
+		return rays;
+	}
+}
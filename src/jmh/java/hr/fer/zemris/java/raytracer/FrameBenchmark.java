@@ -0,0 +1,129 @@
+package hr.fer.zemris.java.raytracer;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import hr.fer.zemris.java.raytracer.model.SceneBVH;
+
+/**
+ * End-to-end benchmark of a whole frame of the default camera, rendered by the
+ * {@link RenderEngine} with the given execution strategy and number of
+ * threads, across resolutions and numbers of spheres. The time per frame over
+ * the number of threads shows how the renderer scales with the cores, as long
+ * as the machine has that many.
+ *
+ * @author Dinz
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class FrameBenchmark {
+	/**
+	 * Width and height of the frame in pixels.
+	 */
+	@Param({ "256", "512", "1024" })
+	int resolution;
+	/**
+	 * Number of spheres.
+	 */
+	@Param({ "100", "10000", "100000" })
+	int spheres;
+	/**
+	 * Number of lights.
+	 */
+	@Param({ "3" })
+	int lights;
+	/**
+	 * Number of the rendering threads.
+	 */
+	@Param({ "1", "2", "4", "8" })
+	int threads;
+	/**
+	 * Execution strategy, "forkjoin" or "pool", each with its own threads.
+	 */
+	@Param({ "forkjoin", "pool" })
+	String strategy;
+	/**
+	 * Number of samples per pixel, 1 for no supersampling.
+	 */
+	@Param({ "1" })
+	int samples;
+
+	/**
+	 * Accelerated scene.
+	 */
+	private SceneBVH scene;
+	/**
+	 * Pool of the rendering threads.
+	 */
+	private ForkJoinPool pool;
+	/**
+	 * Engine which renders the frames.
+	 */
+	private RenderEngine engine;
+	/**
+	 * Number of the last request.
+	 */
+	private long requestNo;
+
+	/**
+	 * Generates the scene and starts the threads.
+	 *
+	 * @throws IOException
+	 *             If the scene can not be generated.
+	 */
+	@Setup
+	public void setup() throws IOException {
+		scene = new SceneBVH(BenchmarkScenes.generate(spheres, lights));
+		pool = new ForkJoinPool(threads);
+		ExecutionStrategy execution = strategy.equals("pool") ? ExecutionStrategy.fixedPool(threads)
+				: ExecutionStrategy.forkJoin(pool);
+		engine = new RenderEngine(execution, RenderEngine.DEFAULT_TILE_SIZE);
+	}
+
+	/**
+	 * Stops the threads.
+	 */
+	@TearDown
+	public void tearDown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Measures the rendering of a frame, including the refinement of the edges
+	 * when supersampled.
+	 *
+	 * @return Rendered frame.
+	 */
+	@Benchmark
+	public PackedFrame frame() {
+		PackedFrame frame = new PackedFrame(resolution, resolution);
+		RaycasterParallel.Coloring coloring = RaycasterParallel.createColoring(scene, BenchmarkScenes.EYE,
+				BenchmarkScenes.VIEW, BenchmarkScenes.VIEW_UP, BenchmarkScenes.SIZE, BenchmarkScenes.SIZE, frame,
+				samples);
+		long request = ++requestNo;
+		engine.render(resolution, resolution, request, coloring);
+		if (coloring.isSupersampled()) {
+			engine.render(resolution, resolution, request, coloring::refine);
+		}
+		return frame;
+	}
+}
@@ -0,0 +1,236 @@
+package hr.fer.zemris.java.raytracer;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import hr.fer.zemris.java.raytracer.model.Point3D;
+import hr.fer.zemris.java.raytracer.model.Ray;
+import hr.fer.zemris.java.raytracer.model.RayIntersection;
+import hr.fer.zemris.java.raytracer.model.RayPacket;
+import hr.fer.zemris.java.raytracer.model.SceneBVH;
+import hr.fer.zemris.java.raytracer.model.Sphere;
+
+/**
+ * Micro-benchmarks of the intersection of rays with a single sphere and with
+ * procedural scenes of different sizes, one ray and one packet of rays at a
+ * time. Each invocation takes the next of a fixed set of primary rays, so the
+ * hits and the misses stay mixed as in a frame.
+ *
+ * @author Dinz
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntersectionBenchmark {
+	/**
+	 * Number of the prepared rays, a power of two.
+	 */
+	private static final int RAYS = 1 << 12;
+	/**
+	 * Number of the rays of a packet, as in the tracer.
+	 */
+	static final int PACKET_SIZE = 8;
+
+	/**
+	 * Class that holds the prepared rays.
+	 *
+	 * @author Dinz
+	 *
+	 */
+	@State(Scope.Thread)
+	public static class Rays {
+		/**
+		 * Prepared primary rays.
+		 */
+		Ray[] rays;
+		/**
+		 * Index of the next ray.
+		 */
+		int next;
+
+		/**
+		 * Prepares the rays.
+		 */
+		@Setup
+		public void setup() {
+			rays = BenchmarkScenes.primaryRays(RAYS);
+		}
+
+		/**
+		 * Gets the next ray.
+		 *
+		 * @return Next ray.
+		 */
+		Ray next() {
+			return rays[next++ & RAYS - 1];
+		}
+	}
+
+	/**
+	 * Class that holds a sphere in the middle of the observed space, hit by about
+	 * a quarter of the rays.
+	 *
+	 * @author Dinz
+	 *
+	 */
+	@State(Scope.Thread)
+	public static class SingleSphere {
+		/**
+		 * Sphere.
+		 */
+		Sphere sphere;
+
+		/**
+		 * Creates the sphere.
+		 */
+		@Setup
+		public void setup() {
+			sphere = new Sphere(new Point3D(0, 0, 0), 6, 1, 1, 1, 0.5, 0.5, 0.5, 10);
+		}
+	}
+
+	/**
+	 * Class that holds an accelerated procedural scene.
+	 *
+	 * @author Dinz
+	 *
+	 */
+	@State(Scope.Thread)
+	public static class Spheres {
+		/**
+		 * Number of spheres.
+		 */
+		@Param({ "100", "10000", "1000000" })
+		int spheres;
+		/**
+		 * Accelerated scene.
+		 */
+		SceneBVH scene;
+		/**
+		 * Packet of the rays.
+		 */
+		RayPacket packet;
+		/**
+		 * Container for the intersections of the packet.
+		 */
+		RayIntersection[] intersections;
+
+		/**
+		 * Generates the scene.
+		 *
+		 * @throws IOException
+		 *             If the scene can not be generated.
+		 */
+		@Setup
+		public void setup() throws IOException {
+			scene = new SceneBVH(BenchmarkScenes.generate(spheres, 3));
+			packet = new RayPacket(PACKET_SIZE);
+			intersections = new RayIntersection[packet.size()];
+		}
+
+		/**
+		 * Fills the packet with the next rays.
+		 *
+		 * @param rays
+		 *            Prepared rays.
+		 */
+		void fill(Rays rays) {
+			packet.clear();
+			for (int lane = 0, n = packet.size(); lane < n; lane++) {
+				packet.set(lane, rays.next(), Double.POSITIVE_INFINITY);
+			}
+		}
+	}
+
+	/**
+	 * Measures the distance test of a sphere, without creating the
+	 * intersection.
+	 *
+	 * @param sphere
+	 *            Sphere.
+	 * @param rays
+	 *            Prepared rays.
+	 * @return Distance of the intersection.
+	 */
+	@Benchmark
+	public double sphereDistance(SingleSphere sphere, Rays rays) {
+		Ray ray = rays.next();
+		return sphere.sphere.intersect(ray.start.x, ray.start.y, ray.start.z, ray.direction.x, ray.direction.y,
+				ray.direction.z);
+	}
+
+	/**
+	 * Measures the closest intersection of a sphere, with the intersection
+	 * created for the hits.
+	 *
+	 * @param sphere
+	 *            Sphere.
+	 * @param rays
+	 *            Prepared rays.
+	 * @return Intersection, or null.
+	 */
+	@Benchmark
+	public RayIntersection sphereIntersection(SingleSphere sphere, Rays rays) {
+		return sphere.sphere.findClosestRayIntersection(rays.next());
+	}
+
+	/**
+	 * Measures the closest intersection of a ray with the scene.
+	 *
+	 * @param scene
+	 *            Scene.
+	 * @param rays
+	 *            Prepared rays.
+	 * @return Intersection, or null.
+	 */
+	@Benchmark
+	public RayIntersection sceneRay(Spheres scene, Rays rays) {
+		return scene.scene.findClosestIntersection(rays.next());
+	}
+
+	/**
+	 * Measures the closest intersections of a packet of rays with the scene.
+	 *
+	 * @param scene
+	 *            Scene.
+	 * @param rays
+	 *            Prepared rays.
+	 * @return Intersections.
+	 */
+	@Benchmark
+	public RayIntersection[] scenePacket(Spheres scene, Rays rays) {
+		scene.fill(rays);
+		scene.scene.findClosestIntersections(scene.packet, scene.intersections);
+		return scene.intersections;
+	}
+
+	/**
+	 * Measures the occlusion test of a ray, the test of a shadow ray, over the
+	 * whole scene.
+	 *
+	 * @param scene
+	 *            Scene.
+	 * @param rays
+	 *            Prepared rays.
+	 * @return Whether the ray is occluded.
+	 */
+	@Benchmark
+	public boolean sceneOcclusion(Spheres scene, Rays rays) {
+		return scene.scene.isOccluded(rays.next(), 30, 0);
+	}
+}
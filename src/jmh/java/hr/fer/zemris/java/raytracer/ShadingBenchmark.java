@@ -0,0 +1,161 @@
+package hr.fer.zemris.java.raytracer;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import hr.fer.zemris.java.raytracer.model.LightTree;
+import hr.fer.zemris.java.raytracer.model.Ray;
+import hr.fer.zemris.java.raytracer.model.RayIntersection;
+import hr.fer.zemris.java.raytracer.model.RayPacket;
+import hr.fer.zemris.java.raytracer.model.Scene;
+import hr.fer.zemris.java.raytracer.model.SceneBVH;
+
+/**
+ * Micro-benchmarks of the tracer of a packet of primary rays, with and without
+ * the search of the closest intersections, over procedural scenes with a
+ * growing number of lights. The lights are shaded either one by one or through
+ * a {@link LightTree}, so the crossing point of the two can be followed.
+ *
+ * @author Dinz
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShadingBenchmark {
+	/**
+	 * Number of the prepared packets, a power of two.
+	 */
+	private static final int PACKETS = 1 << 9;
+
+	/**
+	 * Number of lights.
+	 */
+	@Param({ "3", "64", "512" })
+	int lights;
+	/**
+	 * Whether the lights are shaded through a light tree.
+	 */
+	@Param({ "false", "true" })
+	boolean lightTree;
+	/**
+	 * Number of spheres.
+	 */
+	@Param({ "10000" })
+	int spheres;
+
+	/**
+	 * Accelerated scene.
+	 */
+	private SceneBVH scene;
+	/**
+	 * Tree of the lights, or null.
+	 */
+	private LightTree tree;
+	/**
+	 * Prepared primary rays.
+	 */
+	private Ray[] rays;
+	/**
+	 * Prepared packets of primary rays, already traced.
+	 */
+	private RayPacket[] packets;
+	/**
+	 * Intersections of the prepared packets.
+	 */
+	private RayIntersection[][] hits;
+	/**
+	 * Packet of the traced rays.
+	 */
+	private RayPacket packet;
+	/**
+	 * Packet used for the shadow rays.
+	 */
+	private RayPacket shadows;
+	/**
+	 * Container for the intersections of a packet.
+	 */
+	private RayIntersection[] intersections;
+	/**
+	 * RGB color containers of a packet.
+	 */
+	private short[][] rgb;
+	/**
+	 * Index of the next packet.
+	 */
+	private int next;
+
+	/**
+	 * Generates the scene and prepares the packets and their intersections.
+	 *
+	 * @throws IOException
+	 *             If the scene can not be generated.
+	 */
+	@Setup
+	public void setup() throws IOException {
+		Scene generated = BenchmarkScenes.generate(spheres, lights);
+		scene = new SceneBVH(generated);
+		tree = lightTree ? new LightTree(generated.getLights()) : null;
+
+		int size = IntersectionBenchmark.PACKET_SIZE;
+		rays = BenchmarkScenes.primaryRays(PACKETS * size);
+		packets = new RayPacket[PACKETS];
+		hits = new RayIntersection[PACKETS][size];
+		for (int i = 0; i < PACKETS; i++) {
+			packets[i] = new RayPacket(size);
+			for (int lane = 0; lane < size; lane++) {
+				packets[i].set(lane, rays[i * size + lane], Double.POSITIVE_INFINITY);
+			}
+			scene.findClosestIntersections(packets[i], hits[i]);
+		}
+		packet = new RayPacket(size);
+		shadows = new RayPacket(size);
+		intersections = new RayIntersection[size];
+		rgb = new short[size][3];
+	}
+
+	/**
+	 * Measures the tracer of a packet, from the search of the closest
+	 * intersections to the colors.
+	 *
+	 * @return Colors of the packet.
+	 */
+	@Benchmark
+	public short[][] tracer() {
+		int first = (next++ & PACKETS - 1) * packet.size();
+		packet.clear();
+		for (int lane = 0, n = packet.size(); lane < n; lane++) {
+			packet.set(lane, rays[first + lane], Double.POSITIVE_INFINITY);
+		}
+		RaycasterParallel.tracer(scene, tree, packet, shadows, intersections, rgb);
+		return rgb;
+	}
+
+	/**
+	 * Measures the shading of the already found intersections of a packet,
+	 * which casts only the shadow rays.
+	 *
+	 * @return Colors of the packet.
+	 */
+	@Benchmark
+	public short[][] shade() {
+		int index = next++ & PACKETS - 1;
+		RaycasterParallel.shade(scene, tree, packets[index], shadows, hits[index], rgb);
+		return rgb;
+	}
+}
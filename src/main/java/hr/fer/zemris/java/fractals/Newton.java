@@ -1,7 +1,10 @@
 package hr.fer.zemris.java.fractals;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Scanner;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
@@ -14,6 +17,7 @@ import hr.fer.zemris.java.fractals.viewer.FractalViewer;
 import hr.fer.zemris.java.fractals.viewer.IFractalProducer;
 import hr.fer.zemris.java.fractals.viewer.IFractalResultObserver;
 import hr.fer.zemris.math.Complex;
+import hr.fer.zemris.math.ComplexFunction;
 import hr.fer.zemris.math.ComplexPolynomial;
 import hr.fer.zemris.math.ComplexRootedPolynomial;
 
@@ -27,12 +31,24 @@ import hr.fer.zemris.math.ComplexRootedPolynomial;
  */
 public class Newton {
 	/**
-	 * Method that runs the program.
+	 * Method that runs the program. If a name of an analytic function ("sin",
+	 * "exp" for e^z - 1 or "zexp" for z * e^z - 1) is given as the only argument,
+	 * the fractal of that function is shown instead of asking for the roots.
 	 * 
 	 * @param args
 	 *            Arguments from the command line.
 	 */
 	public static void main(String[] args) {
+		if (args.length == 1) {
+			ComplexFunction function = functionOf(args[0]);
+			if (function == null) {
+				System.out.println("Unknown function: " + args[0]);
+				return;
+			}
+			FractalViewer.show(new FractalProducer(function));
+			return;
+		}
+
 		System.out.println("Welcome to Newton-Raphson iteration-based fractal viewer.");
 		System.out.println("Please enter at least two roots one root per line. Enter 'done' when done.");
 
@@ -64,6 +80,26 @@ public class Newton {
 
 	}
 
+	/**
+	 * Method that gets the analytic function of the given name.
+	 * 
+	 * @param name
+	 *            Name of the function.
+	 * @return Analytic function, or null if there is no function of that name.
+	 */
+	private static ComplexFunction functionOf(String name) {
+		switch (name) {
+		case "sin":
+			return ComplexFunction.sin();
+		case "exp":
+			return ComplexFunction.expMinusOne();
+		case "zexp":
+			return ComplexFunction.zExpMinusOne();
+		default:
+			return null;
+		}
+	}
+
 	/**
 	 * Method that parses the user input into a valid complex number format.
 	 * 
@@ -146,6 +182,11 @@ public class Newton {
 		 * Convergence threshold.
 		 */
 		private static final double CONV_THRESHOLD = 1E-3;
+		/**
+		 * Smale's constant (13 - 3 * sqrt(17)) / 4 bounding alpha of the certified
+		 * approximate zeros.
+		 */
+		private static final double ALPHA_0 = (13 - 3 * Math.sqrt(17)) / 4;
 		/**
 		 * Minimum real component.
 		 */
@@ -190,6 +231,10 @@ public class Newton {
 		 * Complex roots.
 		 */
 		Complex[] roots;
+		/**
+		 * Total number of iterations done.
+		 */
+		private long iterations;
 
 		public Calculation(double reMin, double reMax, double imMin, double imMax, int width, int height, int yMin,
 				int yMax, int m, short[] data, Complex[] roots) {
@@ -212,23 +257,35 @@ public class Newton {
 			int offset = yMin * width;
 			ComplexRootedPolynomial crp = new ComplexRootedPolynomial(roots);
 			ComplexPolynomial cp = crp.toComplexPolynom();
+			ComplexPolynomial derived = cp.derive();
+			double separation = minimumSeparation(roots);
+			double[] taylor = new double[cp.order() + 1];
 			for (int y = yMin; y <= yMax; y++) {
 				for (int x = 0; x < width; x++) {
 					Complex c = mapToComplexPlain(x, y, width, height, reMin, reMax, imMin, imMax);
 					Complex zn = c;
 					int iter = 0;
+					int certified = -1;
 					double module = 0;
 					do {
 						Complex numerator = crp.apply(zn);
-						Complex denominator = cp.derive().apply(zn);
+						Complex denominator = derived.apply(zn);
 						Complex fraction = numerator.divide(denominator);
+						module = fraction.module();
+						if (module < separation / 4) {
+							certified = certify(cp, zn, module, denominator.module(), taylor);
+							if (certified != -1) {
+								iter++;
+								break;
+							}
+						}
 						Complex zn1 = zn.sub(fraction);
-						module = zn1.sub(zn).module();
 						iter++;
 						zn = zn1;
 					} while (iter < m && module > CONV_THRESHOLD);
+					iterations += iter;
 
-					int index = crp.indexOfClosestRootFor(zn, CONV_THRESHOLD);
+					int index = certified != -1 ? certified : crp.indexOfClosestRootFor(zn, CONV_THRESHOLD);
 					if (index == -1) {
 						data[offset++] = 0;
 					} else {
@@ -240,6 +297,74 @@ public class Newton {
 			return null;
 		}
 
+		/**
+		 * Tries to certify that the Newton iteration started in the given complex
+		 * number converges to one of the roots. By Smale's alpha theorem, if
+		 * alpha = beta * gamma is smaller than {@link #ALPHA_0}, the iteration
+		 * converges quadratically to a zero which is at most 2 * beta away from z.
+		 * Since all the zeros of the polynom are known, the zero is the only root
+		 * inside of that disc when 2 * beta is smaller than half of the minimum
+		 * root separation, which the caller ensures.
+		 * 
+		 * @param cp
+		 *            Polynom in the standard format.
+		 * @param z
+		 *            Current iteration value.
+		 * @param beta
+		 *            Length of the Newton step in z.
+		 * @param derivativeModule
+		 *            Module of the first derivation in z.
+		 * @param taylor
+		 *            Array for the bounds of the Taylor coefficients of the
+		 *            polynom, reused between the calls.
+		 * @return Index of the certified root, or -1 if z can not be certified.
+		 */
+		private int certify(ComplexPolynomial cp, Complex z, double beta, double derivativeModule,
+				double[] taylor) {
+			double alpha = beta * cp.gamma(z, derivativeModule, taylor);
+			if (!(alpha < ALPHA_0)) {
+				return -1;
+			}
+
+			int index = -1;
+			double minimum = 0;
+			for (int i = 0; i < roots.length; i++) {
+				double distance = z.sub(roots[i]).module();
+				if (index == -1 || distance < minimum) {
+					minimum = distance;
+					index = i;
+				}
+			}
+
+			return minimum <= 2 * beta ? index : -1;
+		}
+
+		/**
+		 * Calculates the minimum distance between any two of the given roots.
+		 * 
+		 * @param roots
+		 *            Complex roots.
+		 * @return Minimum distance between the roots.
+		 */
+		private static double minimumSeparation(Complex[] roots) {
+			double minimum = Double.POSITIVE_INFINITY;
+			for (int i = 0; i < roots.length; i++) {
+				for (int j = i + 1; j < roots.length; j++) {
+					minimum = Math.min(minimum, roots[i].sub(roots[j]).module());
+				}
+			}
+			return minimum;
+		}
+
+		/**
+		 * Gets the total number of iterations done by this calculation.
+		 * 
+		 * @return Total number of iterations.
+		 */
+		public long getIterations() {
+			return iterations;
+		}
+
 		/**
 		 * Method that converts the current position on the map into a valid complex
 		 * number in complex plain.
@@ -272,6 +397,150 @@ public class Newton {
 
 	}
 
+	/**
+	 * Class that runs the Newton-Raphson iteration of an analytic function over a
+	 * band of rows. Each row is iterated in bulk: the function is evaluated over
+	 * all the pixels of the row which have not converged yet, and the converged
+	 * ones are dropped from the iteration. The point each pixel converged to is
+	 * stored so the basins can be assigned by clustering once all the bands are
+	 * done.
+	 * 
+	 * @author Dinz
+	 *
+	 */
+	public static class FunctionCalculation implements Callable<Void> {
+		/**
+		 * Convergence threshold.
+		 */
+		private static final double CONV_THRESHOLD = 1E-6;
+		/**
+		 * Minimum real component.
+		 */
+		double reMin;
+		/**
+		 * Maximum real component.
+		 */
+		double reMax;
+		/**
+		 * Minimum imaginary component.
+		 */
+		double imMin;
+		/**
+		 * Maximum imaginary component.
+		 */
+		double imMax;
+		/**
+		 * Width.
+		 */
+		int width;
+		/**
+		 * Height.
+		 */
+		int height;
+		/**
+		 * Minimum y.
+		 */
+		int yMin;
+		/**
+		 * Maximum y.
+		 */
+		int yMax;
+		/**
+		 * Maximum iterations.
+		 */
+		int m;
+		/**
+		 * Real components of the converged points, NaN for the pixels which did not
+		 * converge.
+		 */
+		double[] pointsRe;
+		/**
+		 * Imaginary components of the converged points.
+		 */
+		double[] pointsIm;
+		/**
+		 * Analytic function.
+		 */
+		ComplexFunction function;
+		/**
+		 * Total number of iterations done.
+		 */
+		private long iterations;
+
+		public FunctionCalculation(double reMin, double reMax, double imMin, double imMax, int width, int height,
+				int yMin, int yMax, int m, double[] pointsRe, double[] pointsIm, ComplexFunction function) {
+			this.reMin = reMin;
+			this.reMax = reMax;
+			this.imMin = imMin;
+			this.imMax = imMax;
+			this.width = width;
+			this.height = height;
+			this.yMin = yMin;
+			this.yMax = yMax;
+			this.m = m;
+			this.pointsRe = pointsRe;
+			this.pointsIm = pointsIm;
+			this.function = function;
+		}
+
+		@Override
+		public Void call() throws Exception {
+			double[] re = new double[width];
+			double[] im = new double[width];
+			double[] valueRe = new double[width];
+			double[] valueIm = new double[width];
+			double[] derivativeRe = new double[width];
+			double[] derivativeIm = new double[width];
+			int[] pixels = new int[width];
+
+			for (int y = yMin; y <= yMax; y++) {
+				int active = width;
+				for (int x = 0; x < width; x++) {
+					re[x] = reMin + ((reMax - reMin) * x) / (width - 1);
+					im[x] = imMin + ((imMax - imMin) * (height - 1 - y)) / (height - 1);
+					pixels[x] = y * width + x;
+					pointsRe[pixels[x]] = Double.NaN;
+					pointsIm[pixels[x]] = Double.NaN;
+				}
+
+				for (int iter = 0; iter < m && active > 0; iter++) {
+					function.evaluate(re, im, active, valueRe, valueIm, derivativeRe, derivativeIm);
+					iterations += active;
+
+					int remaining = 0;
+					for (int i = 0; i < active; i++) {
+						double denominator = derivativeRe[i] * derivativeRe[i] + derivativeIm[i] * derivativeIm[i];
+						double stepRe = (valueRe[i] * derivativeRe[i] + valueIm[i] * derivativeIm[i]) / denominator;
+						double stepIm = (valueIm[i] * derivativeRe[i] - valueRe[i] * derivativeIm[i]) / denominator;
+						double nextRe = re[i] - stepRe;
+						double nextIm = im[i] - stepIm;
+						double module = stepRe * stepRe + stepIm * stepIm;
+
+						if (module < CONV_THRESHOLD * CONV_THRESHOLD) {
+							pointsRe[pixels[i]] = nextRe;
+							pointsIm[pixels[i]] = nextIm;
+						} else if (Double.isFinite(nextRe) && Double.isFinite(nextIm)) {
+							re[remaining] = nextRe;
+							im[remaining] = nextIm;
+							pixels[remaining++] = pixels[i];
+						}
+					}
+					active = remaining;
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Gets the total number of iterations done by this calculation.
+		 * 
+		 * @return Total number of iterations.
+		 */
+		public long getIterations() {
+			return iterations;
+		}
+	}
+
 	/**
 	 * Class that produces a fractal from the given roots. It uses a multi-thread
 	 * technique and showcases a given fractal to the user.
@@ -289,20 +558,46 @@ public class Newton {
 		 */
 		private static final int PROCESSOR_MULTIPLIER = 8;
 		/**
-		 * Complex roots.
+		 * Distance under which the converged points of an analytic function belong
+		 * to the same basin.
+		 */
+		private static final double CLUSTER_TOLERANCE = 1E-3;
+		/**
+		 * Complex roots, or null if the producer iterates an analytic function.
 		 */
 		private Complex[] roots;
+		/**
+		 * Analytic function, or null if the producer iterates the polynom of the
+		 * roots.
+		 */
+		private ComplexFunction function;
 
 		public FractalProducer(Complex[] roots) {
 			this.roots = roots;
 		}
 
+		/**
+		 * Constructs a producer of the Newton fractal of the given analytic
+		 * function. Basins are assigned by clustering the points the pixels
+		 * converge to.
+		 * 
+		 * @param function
+		 *            Analytic function.
+		 */
+		public FractalProducer(ComplexFunction function) {
+			this.function = Objects.requireNonNull(function);
+		}
+
 		/**
 		 * Main method of the class that does all the work.
 		 */
 		@Override
 		public void produce(double reMin, double reMax, double imMin, double imMax, int width, int height,
 				long requestNo, IFractalResultObserver observer) {
+			if (function != null) {
+				produceFunction(reMin, reMax, imMin, imMax, width, height, requestNo, observer);
+				return;
+			}
 
 			System.out.println("Starting calculation.");
 
@@ -316,6 +611,7 @@ public class Newton {
 			ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
 					new DaemonicThreadFactory());
 			List<Future<Void>> results = new ArrayList<>();
+			List<Calculation> calculations = new ArrayList<>();
 
 			for (int i = 0; i < trackNumber; i++) {
 				int yMin = i * yPerTrack;
@@ -326,6 +622,7 @@ public class Newton {
 
 				Calculation calculation = new Calculation(reMin, reMax, imMin, imMax, width, height, yMin, yMax,
 						maxIterations, data, roots);
+				calculations.add(calculation);
 				results.add(pool.submit(calculation));
 
 			}
@@ -338,11 +635,157 @@ public class Newton {
 			}
 
 			pool.shutdown();
+			long iterations = 0;
+			for (Calculation calculation : calculations) {
+				iterations += calculation.getIterations();
+			}
 			System.out.println("Calculation ended.");
+			System.out.printf("Average iterations per pixel: %.2f%n", (double) iterations / (width * height));
 			ComplexRootedPolynomial crp = new ComplexRootedPolynomial(roots);
 			observer.acceptResult(data, (short) (crp.toComplexPolynom().order() + 1), requestNo);
 		}
 
+		/**
+		 * Produces the Newton fractal of the analytic function.
+		 * 
+		 * @param reMin
+		 *            Minimum real component.
+		 * @param reMax
+		 *            Maximum real component.
+		 * @param imMin
+		 *            Minimum imaginary component.
+		 * @param imMax
+		 *            Maximum imaginary component.
+		 * @param width
+		 *            Width.
+		 * @param height
+		 *            Height.
+		 * @param requestNo
+		 *            Number of the request.
+		 * @param observer
+		 *            Result observer.
+		 */
+		private void produceFunction(double reMin, double reMax, double imMin, double imMax, int width, int height,
+				long requestNo, IFractalResultObserver observer) {
+			System.out.println("Starting calculation.");
+
+			double[] pointsRe = new double[width * height];
+			double[] pointsIm = new double[width * height];
+
+			int trackNumber = PROCESSOR_MULTIPLIER * Runtime.getRuntime().availableProcessors();
+			int yPerTrack = height / trackNumber;
+
+			ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+					new DaemonicThreadFactory());
+			List<Future<Void>> results = new ArrayList<>();
+			List<FunctionCalculation> calculations = new ArrayList<>();
+
+			for (int i = 0; i < trackNumber; i++) {
+				int yMin = i * yPerTrack;
+				int yMax = (i + 1) * yPerTrack - 1;
+				if (i == trackNumber - 1) {
+					yMax = height - 1;
+				}
+
+				FunctionCalculation calculation = new FunctionCalculation(reMin, reMax, imMin, imMax, width, height,
+						yMin, yMax, MAX_ITERATIONS, pointsRe, pointsIm, function);
+				calculations.add(calculation);
+				results.add(pool.submit(calculation));
+			}
+			for (Future<Void> calculation : results) {
+				try {
+					calculation.get();
+				} catch (InterruptedException | ExecutionException e) {
+					System.out.println("Error while executing.");
+				}
+			}
+
+			pool.shutdown();
+			long iterations = 0;
+			for (FunctionCalculation calculation : calculations) {
+				iterations += calculation.getIterations();
+			}
+
+			short[] data = new short[width * height];
+			int clusters = cluster(pointsRe, pointsIm, data);
+			System.out.println("Calculation ended.");
+			System.out.printf("Average iterations per pixel: %.2f, basins found: %d%n",
+					(double) iterations / (width * height), clusters);
+			observer.acceptResult(data, (short) (clusters + 1), requestNo);
+		}
+
+		/**
+		 * Assigns a basin to each of the converged points. Points closer than
+		 * {@link #CLUSTER_TOLERANCE} to the first point of an existing basin join
+		 * it, otherwise they start a new one. Basins are looked up in a grid of
+		 * cells of the tolerance size, so each point visits only its neighbouring
+		 * cells.
+		 * 
+		 * @param pointsRe
+		 *            Real components of the converged points, NaN for the points
+		 *            which did not converge.
+		 * @param pointsIm
+		 *            Imaginary components of the converged points.
+		 * @param data
+		 *            Data that stores the basin index plus one for each point, or
+		 *            zero for the points which did not converge.
+		 * @return Number of basins.
+		 */
+		private static int cluster(double[] pointsRe, double[] pointsIm, short[] data) {
+			Map<Long, List<Integer>> cells = new HashMap<>();
+			List<Complex> centers = new ArrayList<>();
+
+			for (int i = 0; i < pointsRe.length; i++) {
+				double re = pointsRe[i];
+				double im = pointsIm[i];
+				if (Double.isNaN(re)) {
+					data[i] = 0;
+					continue;
+				}
+
+				long cellRe = (long) Math.floor(re / CLUSTER_TOLERANCE);
+				long cellIm = (long) Math.floor(im / CLUSTER_TOLERANCE);
+				int basin = -1;
+				search: for (long dr = -1; dr <= 1; dr++) {
+					for (long di = -1; di <= 1; di++) {
+						List<Integer> cell = cells.get(cellKey(cellRe + dr, cellIm + di));
+						if (cell == null) {
+							continue;
+						}
+						for (int index : cell) {
+							Complex center = centers.get(index);
+							if (center.sub(new Complex(re, im)).module() < CLUSTER_TOLERANCE) {
+								basin = index;
+								break search;
+							}
+						}
+					}
+				}
+
+				if (basin == -1) {
+					basin = centers.size();
+					centers.add(new Complex(re, im));
+					cells.computeIfAbsent(cellKey(cellRe, cellIm), k -> new ArrayList<>()).add(basin);
+				}
+				data[i] = (short) (basin % Short.MAX_VALUE + 1);
+			}
+
+			return Math.min(centers.size(), Short.MAX_VALUE - 1);
+		}
+
+		/**
+		 * Calculates the key of the grid cell.
+		 * 
+		 * @param cellRe
+		 *            Real index of the cell.
+		 * @param cellIm
+		 *            Imaginary index of the cell.
+		 * @return Key of the cell.
+		 */
+		private static long cellKey(long cellRe, long cellIm) {
+			return cellRe * 0x9E3779B97F4A7C15L ^ cellIm;
+		}
+
 	}
 
 	/**
@@ -0,0 +1,232 @@
+package hr.fer.zemris.java.raytracer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+/**
+ * Interface that represents the way the {@link RenderEngine} runs the tiles of
+ * a frame. A strategy runs a task for each index of a range, in any order and
+ * on any threads, and returns once all of them are done. The tasks are given
+ * in Morton order of the tiles, so strategies which keep neighbouring indices
+ * on the same thread keep it within a compact region of the image.
+ *
+ * @author Dinz
+ *
+ */
+public interface ExecutionStrategy {
+	/**
+	 * Runs the task for each index from 0, inclusive, to the count, exclusive,
+	 * and waits for all of them.
+	 *
+	 * @param count
+	 *            Number of the indices.
+	 * @param task
+	 *            Task run for each index.
+	 */
+	void execute(int count, IntConsumer task);
+
+	/**
+	 * Checks whether the strategy may run the tasks on several threads at once.
+	 * The size of the tiles matters only to such strategies, so the others are
+	 * not calibrated.
+	 *
+	 * @return True if the tasks may run in parallel, false otherwise.
+	 */
+	default boolean isParallel() {
+		return true;
+	}
+
+	/**
+	 * Gets the strategy which runs the tasks one after the other on the calling
+	 * thread.
+	 *
+	 * @return Sequential strategy.
+	 */
+	static ExecutionStrategy sequential() {
+		return new ExecutionStrategy() {
+			@Override
+			public void execute(int count, IntConsumer task) {
+				for (int i = 0; i < count; i++) {
+					task.accept(i);
+				}
+			}
+
+			@Override
+			public boolean isParallel() {
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Gets the strategy which runs the tasks on the common "fork-join" pool.
+	 *
+	 * @return Fork-join strategy.
+	 */
+	static ExecutionStrategy forkJoin() {
+		return forkJoin(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Gets the strategy which runs the tasks on the "fork-join" pool. The range
+	 * of the indices is divided in halves until single indices are left, so the
+	 * idle threads steal the largest contiguous ranges.
+	 *
+	 * @param pool
+	 *            Pool which runs the tasks.
+	 * @return Fork-join strategy.
+	 */
+	static ExecutionStrategy forkJoin(ForkJoinPool pool) {
+		return (count, task) -> pool.invoke(new RangeTask(0, count, task));
+	}
+
+	/**
+	 * Gets the strategy which runs the tasks on a fixed pool of daemon threads,
+	 * created once for the strategy. Each thread takes the next index from a
+	 * shared counter until none are left.
+	 *
+	 * @param threads
+	 *            Number of the threads.
+	 * @return Fixed pool strategy.
+	 * @throws IllegalArgumentException
+	 *             If the number of threads is not positive.
+	 */
+	static ExecutionStrategy fixedPool(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Number of threads must be positive.");
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+			Thread thread = new Thread(r, "Tile renderer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		return (count, task) -> {
+			AtomicInteger next = new AtomicInteger();
+			List<Future<?>> futures = new ArrayList<>();
+			for (int i = 0, n = Math.min(threads, count); i < n; i++) {
+				futures.add(executor.submit(() -> {
+					for (int index = next.getAndIncrement(); index < count; index = next.getAndIncrement()) {
+						task.accept(index);
+					}
+				}));
+			}
+			awaitAll(futures);
+		};
+	}
+
+	/**
+	 * Gets the strategy which runs each task on its own virtual thread. Virtual
+	 * threads are looked up at run time, so on the platforms without them the
+	 * tasks are run on the common "fork-join" pool instead.
+	 *
+	 * @return Virtual thread strategy, or the fork-join strategy.
+	 */
+	static ExecutionStrategy virtualThreads() {
+		ExecutorService executor;
+		try {
+			executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException ex) {
+			return forkJoin();
+		}
+		return (count, task) -> {
+			List<Future<?>> futures = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				int index = i;
+				futures.add(executor.submit(() -> task.accept(index)));
+			}
+			awaitAll(futures);
+		};
+	}
+
+	/**
+	 * Gets the strategy of the given name, one of "sequential", "forkjoin",
+	 * "pool" and "virtual". The fixed pool has a thread for each processor.
+	 *
+	 * @param name
+	 *            Name of the strategy, in any case.
+	 * @return Strategy.
+	 * @throws IllegalArgumentException
+	 *             If there is no strategy of the name.
+	 */
+	static ExecutionStrategy forName(String name) {
+		switch (name.toLowerCase(Locale.ROOT)) {
+		case "sequential":
+			return sequential();
+		case "forkjoin":
+			return forkJoin();
+		case "pool":
+			return fixedPool(Runtime.getRuntime().availableProcessors());
+		case "virtual":
+			return virtualThreads();
+		default:
+			throw new IllegalArgumentException("Unknown execution strategy " + name + ".");
+		}
+	}
+
+	/**
+	 * Waits for all the futures, rethrowing the failure of a task.
+	 *
+	 * @param futures
+	 *            Futures of the tasks.
+	 * @throws RuntimeException
+	 *             If a task failed or the waiting was interrupted.
+	 */
+	private static void awaitAll(List<Future<?>> futures) {
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while waiting for the tiles.", ex);
+			} catch (ExecutionException ex) {
+				Throwable cause = ex.getCause();
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				}
+				if (cause instanceof Error) {
+					throw (Error) cause;
+				}
+				throw new RuntimeException(cause);
+			}
+		}
+	}
+
+	/**
+	 * Class that runs a contiguous range of the indices, divided in halves until
+	 * single indices are left.
+	 *
+	 * @author Dinz
+	 *
+	 */
+	class RangeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		int from;
+		int to;
+		IntConsumer task;
+
+		public RangeTask(int from, int to, IntConsumer task) {
+			this.from = from;
+			this.to = to;
+			this.task = task;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 1) {
+				int split = (from + to) >>> 1;
+				invokeAll(new RangeTask(from, split, task), new RangeTask(split, to, task));
+			} else if (to > from) {
+				task.accept(from);
+			}
+		}
+	}
+}
@@ -0,0 +1,217 @@
+package hr.fer.zemris.java.raytracer;
+
+/**
+ * Class that chooses the quality of the interactive frames so they are
+ * rendered within a target frame time. The rate of the traced primary rays and
+ * the time spent on each frame besides the rays, like its scaling and
+ * delivery, are measured on each rendered frame and smoothed over the frames,
+ * and the next frame gets the best quality whose rays fit into the rest of the
+ * budget: the full resolution with the pixels on the edges supersampled, the
+ * full resolution with one ray per pixel, or the resolution divided by the
+ * smallest scale which fits. Frames rendered at a lower resolution are scaled
+ * up for the display.
+ *
+ * @author Dinz
+ *
+ */
+public class FrameBudget {
+	/**
+	 * Largest divisor of the resolution.
+	 */
+	public static final int MAX_SCALE = 8;
+	/**
+	 * Divisor of the resolution of the first frame, rendered before any rate is
+	 * measured.
+	 */
+	private static final int INITIAL_SCALE = 4;
+	/**
+	 * Weight of the newest measurement in the smoothed rate.
+	 */
+	private static final double SMOOTHING = 0.5;
+	/**
+	 * Part of the frame time which is planned, leaving the rest for the
+	 * variations of the frames.
+	 */
+	private static final double HEADROOM = 0.9;
+
+	/**
+	 * Target frame time in nanoseconds.
+	 */
+	private final long frameTime;
+	/**
+	 * Smoothed rate of the traced primary rays per second, zero until measured.
+	 */
+	private double raysPerSecond;
+	/**
+	 * Smoothed time of a frame besides its rays in nanoseconds.
+	 */
+	private double overhead;
+	/**
+	 * Traced primary rays per pixel of the last supersampled frame, or zero if
+	 * none was rendered yet.
+	 */
+	private double supersampledRays;
+
+	/**
+	 * Constructs a new budget.
+	 *
+	 * @param frameTime
+	 *            Target frame time in nanoseconds.
+	 * @throws IllegalArgumentException
+	 *             If the frame time is not positive.
+	 */
+	public FrameBudget(long frameTime) {
+		if (frameTime <= 0) {
+			throw new IllegalArgumentException("Frame time must be positive.");
+		}
+		this.frameTime = frameTime;
+	}
+
+	/**
+	 * Gets the target frame time.
+	 *
+	 * @return Frame time in nanoseconds.
+	 */
+	public long getFrameTime() {
+		return frameTime;
+	}
+
+	/**
+	 * Gets the smoothed rate of the traced primary rays.
+	 *
+	 * @return Rays per second, or zero if no frame was measured yet.
+	 */
+	public synchronized double getRaysPerSecond() {
+		return raysPerSecond;
+	}
+
+	/**
+	 * Chooses the quality of the next frame of the given resolution.
+	 *
+	 * @param width
+	 *            Width of the frame.
+	 * @param height
+	 *            Height of the frame.
+	 * @param samples
+	 *            Number of samples of the pixels on the edges at full quality.
+	 * @return Quality of the frame.
+	 */
+	public synchronized Quality choose(int width, int height, int samples) {
+		if (raysPerSecond == 0) {
+			return new Quality(INITIAL_SCALE, 1);
+		}
+		double rays = raysPerSecond * Math.max(0, frameTime * HEADROOM - overhead) / 1E9;
+		long pixels = (long) width * height;
+		// until a supersampled frame is measured, every pixel is taken to be an edge
+		double perPixel = supersampledRays > 0 ? supersampledRays : samples;
+		if (samples > 1 && pixels * perPixel <= rays) {
+			return new Quality(1, samples);
+		}
+		for (int scale = 1; scale < MAX_SCALE; scale++) {
+			if ((double) scaled(width, scale) * scaled(height, scale) <= rays) {
+				return new Quality(scale, 1);
+			}
+		}
+		return new Quality(MAX_SCALE, 1);
+	}
+
+	/**
+	 * Records the measurement of a rendered frame.
+	 *
+	 * @param quality
+	 *            Quality of the frame.
+	 * @param pixels
+	 *            Number of the rendered pixels.
+	 * @param rays
+	 *            Number of the traced primary rays.
+	 * @param renderTime
+	 *            Time of the rays in nanoseconds.
+	 * @param frameTime
+	 *            Time of the whole frame in nanoseconds.
+	 */
+	public synchronized void record(Quality quality, long pixels, long rays, long renderTime, long frameTime) {
+		if (rays <= 0 || renderTime <= 0) {
+			return;
+		}
+		double rate = rays * 1E9 / renderTime;
+		double rest = Math.max(0, frameTime - renderTime);
+		if (raysPerSecond == 0) {
+			raysPerSecond = rate;
+			overhead = rest;
+		} else {
+			raysPerSecond = SMOOTHING * rate + (1 - SMOOTHING) * raysPerSecond;
+			overhead = SMOOTHING * rest + (1 - SMOOTHING) * overhead;
+		}
+		if (quality.getSamples() > 1) {
+			supersampledRays = (double) rays / pixels;
+		}
+	}
+
+	/**
+	 * Divides the dimension by the scale, rounding up, so the scaled frame is
+	 * never smaller than two pixels.
+	 *
+	 * @param dimension
+	 *            Width or height of the frame.
+	 * @param scale
+	 *            Divisor of the resolution.
+	 * @return Scaled dimension.
+	 */
+	public static int scaled(int dimension, int scale) {
+		return Math.max(2, (dimension + scale - 1) / scale);
+	}
+
+	/**
+	 * Class that represents the quality of a frame, the divisor of its
+	 * resolution and the number of samples of the pixels on the edges.
+	 *
+	 * @author Dinz
+	 *
+	 */
+	public static class Quality {
+		/**
+		 * Divisor of the resolution.
+		 */
+		private final int scale;
+		/**
+		 * Number of samples of the pixels on the edges.
+		 */
+		private final int samples;
+
+		/**
+		 * Constructs a new quality.
+		 *
+		 * @param scale
+		 *            Divisor of the resolution.
+		 * @param samples
+		 *            Number of samples of the pixels on the edges.
+		 */
+		public Quality(int scale, int samples) {
+			this.scale = scale;
+			this.samples = samples;
+		}
+
+		/**
+		 * Gets the divisor of the resolution.
+		 *
+		 * @return Scale, 1 for the full resolution.
+		 */
+		public int getScale() {
+			return scale;
+		}
+
+		/**
+		 * Gets the number of samples of the pixels on the edges.
+		 *
+		 * @return Samples, 1 for no supersampling.
+		 */
+		public int getSamples() {
+			return samples;
+		}
+
+		@Override
+		public String toString() {
+			return "1/" + scale + " resolution, " + samples + " samples";
+		}
+	}
+}
@@ -0,0 +1,428 @@
+package hr.fer.zemris.java.raytracer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import hr.fer.zemris.java.raytracer.model.Point3D;
+import hr.fer.zemris.java.raytracer.model.Ray;
+import hr.fer.zemris.java.raytracer.model.RayIntersection;
+
+/**
+ * Class that represents a geometry buffer, which keeps the primary hit of each
+ * pixel of a frame: the distance along the primary ray, the normal, the
+ * identifier of the hit object and the index of its material. A frame with the
+ * same camera and geometry as the frame of the buffer can be shaded straight
+ * from it, without casting any primary ray, which is the case when only the
+ * lights change.
+ * <p>
+ * The buffer is keyed by the camera parameters and by the geometry, an object
+ * which is replaced whenever the objects of the scene change. The objects of
+ * the library can not be changed, so a changed material means a replaced
+ * object, which invalidates the buffer like any other change of the geometry.
+ * <p>
+ * The hit point is not stored, since it lies at the stored distance along the
+ * primary ray, and the materials are kept once in a table shared by the
+ * pixels. A buffer of the same size can be {@link #reset} for another frame,
+ * so moving the camera does not allocate a new buffer for each frame.
+ *
+ * @author Dinz
+ *
+ */
+public class GBuffer {
+	/**
+	 * Eye position.
+	 */
+	private Point3D eye;
+	/**
+	 * View position.
+	 */
+	private Point3D view;
+	/**
+	 * View-up vector.
+	 */
+	private Point3D viewUp;
+	/**
+	 * Horizontal width of the observed space.
+	 */
+	private double horizontal;
+	/**
+	 * Vertical height of the observed space.
+	 */
+	private double vertical;
+	/**
+	 * Geometry of the scene.
+	 */
+	private Object geometry;
+	/**
+	 * Whether all the pixels of the frame are stored.
+	 */
+	private boolean complete;
+	/**
+	 * Width in pixels.
+	 */
+	private final int width;
+	/**
+	 * Height in pixels.
+	 */
+	private final int height;
+	/**
+	 * Identifiers of the hit objects, -1 for the pixels which miss the scene.
+	 */
+	private final int[] ids;
+	/**
+	 * Distances of the hits along the primary rays.
+	 */
+	private final double[] distances;
+	/**
+	 * Components of the normals, three for each pixel.
+	 */
+	private final float[] normals;
+	/**
+	 * Indices of the materials in the material table.
+	 */
+	private final int[] materials;
+	/**
+	 * Whether the ray of each pixel hits its object from the outside.
+	 */
+	private final boolean[] outer;
+	/**
+	 * Material table, each material in the order kdr, kdg, kdb, krr, krg, krb
+	 * and krn.
+	 */
+	private final List<double[]> materialTable = new ArrayList<>();
+	/**
+	 * Indices of the materials of the table.
+	 */
+	private final Map<List<Double>, Integer> materialIndices = new HashMap<>();
+
+	/**
+	 * Constructs a new empty buffer of the given size.
+	 *
+	 * @param width
+	 *            Width in pixels.
+	 * @param height
+	 *            Height in pixels.
+	 */
+	public GBuffer(int width, int height) {
+		this.width = width;
+		this.height = height;
+		ids = new int[width * height];
+		distances = new double[width * height];
+		normals = new float[width * height * 3];
+		materials = new int[width * height];
+		outer = new boolean[width * height];
+	}
+
+	/**
+	 * Gets the width.
+	 *
+	 * @return Width in pixels.
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Gets the height.
+	 *
+	 * @return Height in pixels.
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Prepares the buffer to store the hits of a new frame. The buffer matches
+	 * no frame until it is marked {@link #complete()}.
+	 *
+	 * @param eye
+	 *            Eye position.
+	 * @param view
+	 *            View position.
+	 * @param viewUp
+	 *            View-up vector.
+	 * @param horizontal
+	 *            Horizontal width of the observed space.
+	 * @param vertical
+	 *            Vertical height of the observed space.
+	 * @param geometry
+	 *            Geometry of the scene, compared by identity.
+	 */
+	public synchronized void reset(Point3D eye, Point3D view, Point3D viewUp, double horizontal, double vertical,
+			Object geometry) {
+		this.eye = eye;
+		this.view = view;
+		this.viewUp = viewUp;
+		this.horizontal = horizontal;
+		this.vertical = vertical;
+		this.geometry = geometry;
+		complete = false;
+		materialTable.clear();
+		materialIndices.clear();
+	}
+
+	/**
+	 * Marks that the hits of all the pixels of the frame are stored.
+	 */
+	public synchronized void complete() {
+		complete = true;
+	}
+
+	/**
+	 * Checks whether all the pixels of the frame are stored.
+	 *
+	 * @return True if the buffer is complete, false otherwise.
+	 */
+	public synchronized boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * Checks whether the frame of the given parameters sees the same primary
+	 * hits as the frame of the buffer.
+	 *
+	 * @param eye
+	 *            Eye position.
+	 * @param view
+	 *            View position.
+	 * @param viewUp
+	 *            View-up vector.
+	 * @param horizontal
+	 *            Horizontal width of the observed space.
+	 * @param vertical
+	 *            Vertical height of the observed space.
+	 * @param width
+	 *            Width in pixels.
+	 * @param height
+	 *            Height in pixels.
+	 * @param geometry
+	 *            Geometry of the scene.
+	 * @return True if the buffer can be used for the frame, false otherwise.
+	 */
+	public synchronized boolean matches(Point3D eye, Point3D view, Point3D viewUp, double horizontal,
+			double vertical, int width, int height, Object geometry) {
+		return complete && this.geometry == geometry && this.width == width && this.height == height
+				&& this.horizontal == horizontal && this.vertical == vertical && equal(this.eye, eye)
+				&& equal(this.view, view) && equal(this.viewUp, viewUp);
+	}
+
+	/**
+	 * Creates a writer of the hits. Writers keep the last material they have
+	 * looked up, so each thread should use its own.
+	 *
+	 * @return Writer.
+	 */
+	public Writer writer() {
+		return new Writer();
+	}
+
+	/**
+	 * Gets the identifier of the object hit by the pixel.
+	 *
+	 * @param offset
+	 *            Offset of the pixel.
+	 * @return Identifier, or -1 if the pixel misses the scene.
+	 */
+	public int getId(int offset) {
+		return ids[offset];
+	}
+
+	/**
+	 * Gets the primary hit of the pixel.
+	 *
+	 * @param offset
+	 *            Offset of the pixel.
+	 * @param ray
+	 *            Primary ray of the pixel.
+	 * @return Intersection, or null if the pixel misses the scene.
+	 */
+	public RayIntersection getIntersection(int offset, Ray ray) {
+		if (ids[offset] == -1) {
+			return null;
+		}
+		double distance = distances[offset];
+		Point3D start = ray.start;
+		Point3D direction = ray.direction;
+		Point3D point = new Point3D(start.x + direction.x * distance, start.y + direction.y * distance,
+				start.z + direction.z * distance);
+		return new BufferedIntersection(point, distance, outer[offset], offset);
+	}
+
+	/**
+	 * Gets the index of the material in the table, adding it if it is not there
+	 * yet.
+	 *
+	 * @param material
+	 *            Material.
+	 * @return Index of the material.
+	 */
+	private synchronized int indexOf(double[] material) {
+		List<Double> key = Arrays.asList(material[0], material[1], material[2], material[3], material[4],
+				material[5], material[6]);
+		Integer index = materialIndices.get(key);
+		if (index == null) {
+			index = materialTable.size();
+			materialTable.add(material.clone());
+			materialIndices.put(key, index);
+		}
+		return index;
+	}
+
+	/**
+	 * Checks whether two points are equal.
+	 *
+	 * @param a
+	 *            First point.
+	 * @param b
+	 *            Second point.
+	 * @return True if the points have equal components, false otherwise.
+	 */
+	private static boolean equal(Point3D a, Point3D b) {
+		return a.x == b.x && a.y == b.y && a.z == b.z;
+	}
+
+	/**
+	 * Class that stores the hits of the pixels into the buffer. Neighbouring
+	 * pixels mostly hit the same material, so the writer looks up the material
+	 * table only when the material changes.
+	 *
+	 * @author Dinz
+	 *
+	 */
+	public class Writer {
+		/**
+		 * Last material looked up.
+		 */
+		private final double[] material = new double[7];
+		/**
+		 * Index of the last material, or -1.
+		 */
+		private int materialIndex = -1;
+
+		/**
+		 * Constructs a new writer.
+		 */
+		private Writer() {
+		}
+
+		/**
+		 * Stores the primary hit of the pixel.
+		 *
+		 * @param offset
+		 *            Offset of the pixel.
+		 * @param id
+		 *            Identifier of the hit object.
+		 * @param intersection
+		 *            Intersection, or null if the pixel misses the scene.
+		 */
+		public void store(int offset, int id, RayIntersection intersection) {
+			if (intersection == null) {
+				ids[offset] = -1;
+				return;
+			}
+			ids[offset] = id;
+			outer[offset] = intersection.isOuter();
+			distances[offset] = intersection.getDistance();
+			Point3D normal = intersection.getNormal();
+			int n = offset * 3;
+			normals[n] = (float) normal.x;
+			normals[n + 1] = (float) normal.y;
+			normals[n + 2] = (float) normal.z;
+
+			double kdr = intersection.getKdr(), kdg = intersection.getKdg(), kdb = intersection.getKdb();
+			double krr = intersection.getKrr(), krg = intersection.getKrg(), krb = intersection.getKrb();
+			double krn = intersection.getKrn();
+			if (materialIndex == -1 || material[0] != kdr || material[1] != kdg || material[2] != kdb
+					|| material[3] != krr || material[4] != krg || material[5] != krb || material[6] != krn) {
+				material[0] = kdr;
+				material[1] = kdg;
+				material[2] = kdb;
+				material[3] = krr;
+				material[4] = krg;
+				material[5] = krb;
+				material[6] = krn;
+				materialIndex = indexOf(material);
+			}
+			materials[offset] = materialIndex;
+		}
+	}
+
+	/**
+	 * Class that represents an intersection read from the buffer.
+	 *
+	 * @author Dinz
+	 *
+	 */
+	private class BufferedIntersection extends RayIntersection {
+		/**
+		 * Offset of the pixel.
+		 */
+		private final int offset;
+		/**
+		 * Material of the pixel.
+		 */
+		private final double[] material;
+
+		/**
+		 * Constructs a new intersection.
+		 *
+		 * @param point
+		 *            Point of the intersection.
+		 * @param distance
+		 *            Distance from the ray origin.
+		 * @param outer
+		 *            Whether the ray hits the object from the outside.
+		 * @param offset
+		 *            Offset of the pixel.
+		 */
+		BufferedIntersection(Point3D point, double distance, boolean outer, int offset) {
+			super(point, distance, outer);
+			this.offset = offset;
+			this.material = materialTable.get(materials[offset]);
+		}
+
+		@Override
+		public Point3D getNormal() {
+			int n = offset * 3;
+			return new Point3D(normals[n], normals[n + 1], normals[n + 2]);
+		}
+
+		@Override
+		public double getKdr() {
+			return material[0];
+		}
+
+		@Override
+		public double getKdg() {
+			return material[1];
+		}
+
+		@Override
+		public double getKdb() {
+			return material[2];
+		}
+
+		@Override
+		public double getKrr() {
+			return material[3];
+		}
+
+		@Override
+		public double getKrg() {
+			return material[4];
+		}
+
+		@Override
+		public double getKrb() {
+			return material[5];
+		}
+
+		@Override
+		public double getKrn() {
+			return material[6];
+		}
+	}
+}
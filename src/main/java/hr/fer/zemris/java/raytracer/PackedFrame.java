@@ -0,0 +1,200 @@
+package hr.fer.zemris.java.raytracer;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+/**
+ * Class that represents a frame whose pixels are packed into one int each, in
+ * the ARGB layout of {@link BufferedImage#TYPE_INT_ARGB} with an opaque alpha.
+ * The tracer threads write the pixels directly, which takes 4 bytes per pixel
+ * instead of the 6 bytes of three short channels, and the frame can be seen as
+ * a {@link BufferedImage} without copying the pixels.
+ *
+ * @author Dinz
+ *
+ */
+public class PackedFrame {
+	/**
+	 * Opaque alpha of the pixels.
+	 */
+	public static final int OPAQUE = 0xFF000000;
+
+	/**
+	 * Width in pixels.
+	 */
+	private final int width;
+	/**
+	 * Height in pixels.
+	 */
+	private final int height;
+	/**
+	 * Pixels, row by row.
+	 */
+	private final int[] pixels;
+
+	/**
+	 * Constructs a new black frame.
+	 *
+	 * @param width
+	 *            Width in pixels.
+	 * @param height
+	 *            Height in pixels.
+	 * @throws IllegalArgumentException
+	 *             If a dimension is not positive.
+	 */
+	public PackedFrame(int width, int height) {
+		if (width < 1 || height < 1) {
+			throw new IllegalArgumentException("Frame dimensions must be positive.");
+		}
+		this.width = width;
+		this.height = height;
+		pixels = new int[width * height];
+	}
+
+	/**
+	 * Gets the width.
+	 *
+	 * @return Width in pixels.
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Gets the height.
+	 *
+	 * @return Height in pixels.
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Gets the pixels, which are shared with the frame.
+	 *
+	 * @return Pixels, row by row.
+	 */
+	public int[] getPixels() {
+		return pixels;
+	}
+
+	/**
+	 * Packs the color into a pixel. The components are clamped between 0 and
+	 * 255, so a component out of the range never spills into the others.
+	 *
+	 * @param r
+	 *            Red component.
+	 * @param g
+	 *            Green component.
+	 * @param b
+	 *            Blue component.
+	 * @return Packed pixel.
+	 */
+	public static int pack(int r, int g, int b) {
+		return OPAQUE | clamp(r) << 16 | clamp(g) << 8 | clamp(b);
+	}
+
+	/**
+	 * Clamps the color component between 0 and 255.
+	 *
+	 * @param component
+	 *            Color component.
+	 * @return Clamped component.
+	 */
+	public static int clamp(int component) {
+		return Math.max(0, Math.min(255, component));
+	}
+
+	/**
+	 * Creates an opaque image backed by the pixels of the frame, so the changes
+	 * of the frame are seen by the image and the other way round. The image
+	 * ignores the alpha of the pixels.
+	 *
+	 * @return Image of the frame.
+	 */
+	public BufferedImage toImage() {
+		DirectColorModel model = new DirectColorModel(24, 0xFF0000, 0xFF00, 0xFF);
+		WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(pixels, pixels.length), width, height,
+				width, model.getMasks(), null);
+		return new BufferedImage(model, raster, false, null);
+	}
+
+	/**
+	 * Resamples the frame into the target frame of any size, interpolating the
+	 * colors bilinearly. The corner pixels of both frames are aligned, as the
+	 * rays of the corner pixels go through the corners of the observed space
+	 * whatever the resolution.
+	 *
+	 * @param target
+	 *            Frame into which the pixels are written.
+	 */
+	public void scaleInto(PackedFrame target) {
+		int[] out = target.pixels;
+		double fx = target.width > 1 ? (width - 1.0) / (target.width - 1) : 0;
+		double fy = target.height > 1 ? (height - 1.0) / (target.height - 1) : 0;
+		// columns and weights, in 256ths, are the same for all the rows
+		int[] x0 = new int[target.width];
+		int[] x1 = new int[target.width];
+		int[] wx = new int[target.width];
+		for (int x = 0; x < target.width; x++) {
+			double sx = x * fx;
+			x0[x] = Math.min((int) sx, width - 1);
+			x1[x] = Math.min(x0[x] + 1, width - 1);
+			wx[x] = (int) ((sx - x0[x]) * 256 + 0.5);
+		}
+		for (int y = 0, i = 0; y < target.height; y++) {
+			double sy = y * fy;
+			int y0 = Math.min((int) sy, height - 1);
+			int row0 = y0 * width;
+			int row1 = Math.min(y0 + 1, height - 1) * width;
+			int wy = (int) ((sy - y0) * 256 + 0.5);
+			for (int x = 0; x < target.width; x++, i++) {
+				int top = lerp(pixels[row0 + x0[x]], pixels[row0 + x1[x]], wx[x]);
+				int bottom = lerp(pixels[row1 + x0[x]], pixels[row1 + x1[x]], wx[x]);
+				out[i] = OPAQUE | lerp(top, bottom, wy);
+			}
+		}
+	}
+
+	/**
+	 * Interpolates the colors of two pixels linearly. The red and blue channels
+	 * are interpolated together, as each of them fits into its half of an int
+	 * with the room for the weights.
+	 *
+	 * @param a
+	 *            First pixel.
+	 * @param b
+	 *            Second pixel.
+	 * @param weight
+	 *            Weight of the second pixel, between 0 and 256.
+	 * @return Interpolated color, without the alpha.
+	 */
+	private static int lerp(int a, int b, int weight) {
+		int rest = 256 - weight;
+		int redBlue = ((a & 0xFF00FF) * rest + (b & 0xFF00FF) * weight + 0x800080) >>> 8 & 0xFF00FF;
+		int green = ((a & 0xFF00) * rest + (b & 0xFF00) * weight + 0x8000) >>> 8 & 0xFF00;
+		return redBlue | green;
+	}
+
+	/**
+	 * Unpacks the pixels into three channels.
+	 *
+	 * @param red
+	 *            Red channel.
+	 * @param green
+	 *            Green channel.
+	 * @param blue
+	 *            Blue channel.
+	 */
+	public void unpack(short[] red, short[] green, short[] blue) {
+		for (int i = 0; i < pixels.length; i++) {
+			int pixel = pixels[i];
+			red[i] = (short) (pixel >> 16 & 0xFF);
+			green[i] = (short) (pixel >> 8 & 0xFF);
+			blue[i] = (short) (pixel & 0xFF);
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package hr.fer.zemris.java.raytracer;
+
+import hr.fer.zemris.java.raytracer.model.IRayTracerResultObserver;
+
+/**
+ * Interface that represents an observer of the frames rendered into a
+ * {@link PackedFrame}.
+ *
+ * @author Dinz
+ *
+ */
+@FunctionalInterface
+public interface PackedResultObserver {
+	/**
+	 * Accepts a rendered frame. The frame may be changed after the method
+	 * returns, so the observer copies what it keeps.
+	 *
+	 * @param frame
+	 *            Rendered frame.
+	 * @param requestNo
+	 *            Number of the request of the frame.
+	 */
+	void acceptResult(PackedFrame frame, long requestNo);
+
+	/**
+	 * Adapts an observer of three color channels, handing it the unpacked
+	 * channels of each frame.
+	 *
+	 * @param observer
+	 *            Observer of the channels.
+	 * @return Observer of the packed frames.
+	 */
+	static PackedResultObserver adapt(IRayTracerResultObserver observer) {
+		return (frame, requestNo) -> {
+			int size = frame.getWidth() * frame.getHeight();
+			short[] red = new short[size];
+			short[] green = new short[size];
+			short[] blue = new short[size];
+			frame.unpack(red, green, blue);
+			observer.acceptResult(red, green, blue, requestNo);
+		};
+	}
+}
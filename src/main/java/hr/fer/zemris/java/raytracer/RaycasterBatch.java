@@ -0,0 +1,321 @@
+package hr.fer.zemris.java.raytracer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.imageio.ImageIO;
+
+import hr.fer.zemris.java.raytracer.io.SceneFile;
+import hr.fer.zemris.java.raytracer.model.Point3D;
+import hr.fer.zemris.java.raytracer.model.Scene;
+import hr.fer.zemris.java.raytracer.model.SceneBVH;
+import hr.fer.zemris.java.raytracer.viewer.RayTracerViewer;
+
+/**
+ * Class that renders a sequence of frames without the viewer. The frames are
+ * seen from the cameras of a camera path and rendered back to back by one
+ * {@link RenderEngine}, while a writer thread saves the finished frames as PNG
+ * images. The throughput is reported in frames and primary rays per second.
+ * <p>
+ * Each non-empty line of a camera path file which does not start with '#'
+ * holds ten numbers: the eye position, the view position, the view-up vector
+ * and the horizontal field of view in degrees.
+ *
+ * @author Dinz
+ *
+ */
+public class RaycasterBatch {
+	/**
+	 * Number of finished frames which can wait for the writer.
+	 */
+	private static final int QUEUE_SIZE = 4;
+	/**
+	 * Frame which tells the writer that there are no more frames.
+	 */
+	private static final Frame END = new Frame(-1, null);
+
+	/**
+	 * Main method that renders a camera path. The arguments are the scene, which
+	 * is the path of a binary scene file or "predefined", the path of the camera
+	 * path file, the width and the height of the frames, the output directory and
+	 * optionally the number of samples of the pixels on the edges.
+	 *
+	 * @param args
+	 *            Scene, cameras, width, height, output directory and samples.
+	 */
+	public static void main(String[] args) {
+		if (args.length < 5 || args.length > 6) {
+			System.out.println("Expected the scene, the camera path, the width, the height, the output directory "
+					+ "and optionally the number of samples.");
+			return;
+		}
+		try {
+			int width = Integer.parseInt(args[2]);
+			int height = Integer.parseInt(args[3]);
+			int samples = args.length == 6 ? Integer.parseInt(args[5]) : 1;
+			if (width < 2 || height < 2) {
+				System.out.println("Frames must be at least 2 pixels wide and high.");
+				return;
+			}
+			Scene scene = args[0].equals("predefined") ? RayTracerViewer.createPredefinedScene()
+					: SceneFile.load(Paths.get(args[0]));
+			List<Camera> cameras = readCameras(Paths.get(args[1]));
+			Path directory = Paths.get(args[4]);
+			Files.createDirectories(directory);
+			render(scene, cameras, width, height, samples, directory);
+		} catch (NumberFormatException ex) {
+			System.out.println("Invalid number: " + ex.getMessage());
+		} catch (NoSuchFileException ex) {
+			System.out.println("File not found: " + ex.getMessage());
+		} catch (IOException | IllegalArgumentException ex) {
+			System.out.println("Error: " + ex.getMessage());
+		} catch (InterruptedException ex) {
+			System.out.println("Rendering interrupted.");
+		}
+	}
+
+	/**
+	 * Renders the frames of the cameras into numbered PNG images of the
+	 * directory and prints the throughput.
+	 *
+	 * @param scene
+	 *            Scene.
+	 * @param cameras
+	 *            Cameras of the frames.
+	 * @param width
+	 *            Width of the frames.
+	 * @param height
+	 *            Height of the frames.
+	 * @param samples
+	 *            Number of samples of the pixels on the edges, where 1 turns off
+	 *            the supersampling.
+	 * @param directory
+	 *            Output directory.
+	 * @throws IOException
+	 *             If a frame can not be written.
+	 * @throws InterruptedException
+	 *             If the thread is interrupted while waiting for the writer.
+	 */
+	public static void render(Scene scene, List<Camera> cameras, int width, int height, int samples,
+			Path directory) throws IOException, InterruptedException {
+		RenderEngine engine = new RenderEngine();
+		SceneBVH bvh = new SceneBVH(scene);
+		BlockingQueue<Frame> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+		AtomicReference<IOException> failure = new AtomicReference<>();
+		Thread writer = new Thread(() -> write(queue, directory, failure), "Frame writer");
+		writer.start();
+
+		long start = System.nanoTime();
+		long renderTime = 0;
+		long rays = 0;
+		try {
+			// frames are not rendered once the writer has failed
+			for (int i = 0, n = cameras.size(); i < n && failure.get() == null; i++) {
+				Camera camera = cameras.get(i);
+				PackedFrame frame = new PackedFrame(width, height);
+				double horizontal = camera.getHorizontal();
+				RaycasterParallel.Coloring coloring = RaycasterParallel.createColoring(bvh, camera.eye, camera.view,
+						camera.viewUp, horizontal, horizontal * height / width, frame, samples);
+
+				long frameStart = System.nanoTime();
+				engine.render(width, height, i, coloring);
+				if (coloring.isSupersampled()) {
+					engine.render(width, height, i, coloring::refine);
+				}
+				renderTime += System.nanoTime() - frameStart;
+				rays += coloring.getSampleCount();
+				queue.put(new Frame(i, frame));
+			}
+		} finally {
+			queue.put(END);
+			writer.join();
+		}
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+
+		long total = System.nanoTime() - start;
+		int frames = cameras.size();
+		System.out.printf("Rendered %d frames of %dx%d in %.1f ms (%.1f ms written).%n", frames, width, height,
+				renderTime / 1E6, total / 1E6);
+		System.out.printf("Throughput: %.2f frames/s, %.0f primary rays/s, %.2f frames/s with writing.%n",
+				frames / (renderTime / 1E9), rays / (renderTime / 1E9), frames / (total / 1E9));
+	}
+
+	/**
+	 * Reads the cameras of a camera path file.
+	 *
+	 * @param path
+	 *            Path of the file.
+	 * @return Cameras.
+	 * @throws IOException
+	 *             If the file can not be read.
+	 * @throws IllegalArgumentException
+	 *             If a line is not a valid camera.
+	 */
+	public static List<Camera> readCameras(Path path) throws IOException {
+		List<Camera> cameras = new ArrayList<>();
+		List<String> lines = Files.readAllLines(path);
+		for (int i = 0; i < lines.size(); i++) {
+			String line = lines.get(i).trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			String[] parts = line.split("\\s+");
+			if (parts.length != 10) {
+				throw new IllegalArgumentException("Line " + (i + 1) + " does not have ten numbers.");
+			}
+			double[] values = new double[10];
+			try {
+				for (int j = 0; j < values.length; j++) {
+					values[j] = Double.parseDouble(parts[j]);
+				}
+			} catch (NumberFormatException ex) {
+				throw new IllegalArgumentException("Line " + (i + 1) + " has an invalid number.");
+			}
+			if (values[9] <= 0 || values[9] >= 180) {
+				throw new IllegalArgumentException("Line " + (i + 1) + " has an invalid field of view.");
+			}
+			cameras.add(new Camera(new Point3D(values[0], values[1], values[2]),
+					new Point3D(values[3], values[4], values[5]), new Point3D(values[6], values[7], values[8]),
+					values[9]));
+		}
+		return cameras;
+	}
+
+	/**
+	 * Writes the frames of the queue until the end frame, remembering the first
+	 * error. Errors of the image encoder are remembered as well, wrapped into an
+	 * {@link IOException}. Frames which arrive after an error are dropped, so
+	 * the renderer is never blocked.
+	 *
+	 * @param queue
+	 *            Queue of the finished frames.
+	 * @param directory
+	 *            Output directory.
+	 * @param failure
+	 *            Container for the first error.
+	 */
+	private static void write(BlockingQueue<Frame> queue, Path directory, AtomicReference<IOException> failure) {
+		try {
+			for (Frame frame = queue.take(); frame != END; frame = queue.take()) {
+				if (failure.get() != null) {
+					continue;
+				}
+				try {
+					frame.write(directory.resolve(String.format("frame%05d.png", frame.index)));
+				} catch (IOException ex) {
+					failure.set(ex);
+				} catch (RuntimeException ex) {
+					failure.set(new IOException("Frame " + frame.index + " can not be written.", ex));
+				}
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Class that represents a camera of the camera path.
+	 *
+	 * @author Dinz
+	 *
+	 */
+	public static class Camera {
+		/**
+		 * Eye position.
+		 */
+		private final Point3D eye;
+		/**
+		 * View position.
+		 */
+		private final Point3D view;
+		/**
+		 * View-up vector.
+		 */
+		private final Point3D viewUp;
+		/**
+		 * Horizontal field of view in degrees.
+		 */
+		private final double fov;
+
+		/**
+		 * Constructs a new camera.
+		 *
+		 * @param eye
+		 *            Eye position.
+		 * @param view
+		 *            View position.
+		 * @param viewUp
+		 *            View-up vector.
+		 * @param fov
+		 *            Horizontal field of view in degrees.
+		 */
+		public Camera(Point3D eye, Point3D view, Point3D viewUp, double fov) {
+			this.eye = eye;
+			this.view = view;
+			this.viewUp = viewUp;
+			this.fov = fov;
+		}
+
+		/**
+		 * Gets the horizontal width of the observed space, which lies in the plane
+		 * of the view position.
+		 *
+		 * @return Horizontal width.
+		 */
+		public double getHorizontal() {
+			return 2 * view.sub(eye).norm() * Math.tan(Math.toRadians(fov) / 2);
+		}
+	}
+
+	/**
+	 * Class that represents a finished frame waiting for the writer.
+	 *
+	 * @author Dinz
+	 *
+	 */
+	private static class Frame {
+		/**
+		 * Index of the frame.
+		 */
+		private final int index;
+		/**
+		 * Pixels of the frame.
+		 */
+		private final PackedFrame pixels;
+
+		/**
+		 * Constructs a new frame.
+		 *
+		 * @param index
+		 *            Index of the frame.
+		 * @param pixels
+		 *            Pixels of the frame.
+		 */
+		Frame(int index, PackedFrame pixels) {
+			this.index = index;
+			this.pixels = pixels;
+		}
+
+		/**
+		 * Writes the frame as a PNG image.
+		 *
+		 * @param file
+		 *            Path of the image.
+		 * @throws IOException
+		 *             If the image can not be written.
+		 */
+		void write(Path file) throws IOException {
+			ImageIO.write(pixels.toImage(), "png", file.toFile());
+		}
+	}
+}
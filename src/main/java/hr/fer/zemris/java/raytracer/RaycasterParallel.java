@@ -1,15 +1,32 @@
 package hr.fer.zemris.java.raytracer;
 
-import java.util.concurrent.ForkJoinPool;
-import java.util.concurrent.RecursiveAction;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
+import hr.fer.zemris.java.raytracer.io.ObjFile;
+import hr.fer.zemris.java.raytracer.io.SceneFile;
+import hr.fer.zemris.java.raytracer.model.BoundingBox;
+import hr.fer.zemris.java.raytracer.model.Frustum;
 import hr.fer.zemris.java.raytracer.model.IRayTracerProducer;
 import hr.fer.zemris.java.raytracer.model.IRayTracerResultObserver;
+import hr.fer.zemris.java.raytracer.model.Instance;
 import hr.fer.zemris.java.raytracer.model.LightSource;
+import hr.fer.zemris.java.raytracer.model.LightTree;
 import hr.fer.zemris.java.raytracer.model.Point3D;
 import hr.fer.zemris.java.raytracer.model.Ray;
 import hr.fer.zemris.java.raytracer.model.RayIntersection;
+import hr.fer.zemris.java.raytracer.model.RayPacket;
 import hr.fer.zemris.java.raytracer.model.Scene;
+import hr.fer.zemris.java.raytracer.model.SceneBVH;
+import hr.fer.zemris.java.raytracer.model.TriangleMesh;
 import hr.fer.zemris.java.raytracer.viewer.RayTracerViewer;
 
 /**
@@ -18,8 +35,11 @@ import hr.fer.zemris.java.raytracer.viewer.RayTracerViewer;
  * is finding out the intersections between objects and light rays and
  * calculating the color based on the depth of the object. Basic coloring
  * consist of ambient, diffuse and specular component. This class works with a
- * multi-threading concept by using "fork-join" and dividing the work into equal
- * partings for the optimum execution.
+ * multi-threading concept by using a {@link RenderEngine}, which renders the
+ * picture tile by tile through an {@link ExecutionStrategy}, by default on a
+ * shared "fork-join" pool, and drops the requests superseded by newer ones. The
+ * sequential {@link Raycaster} uses the same engine with the sequential
+ * strategy.
  * 
  * @author Dinz
  *
@@ -29,70 +49,629 @@ public class RaycasterParallel {
 	 * Treshold used for operations with doubles.
 	 */
 	private static final double TRESHOLD = 1E-4;
+	/**
+	 * Number of neighbouring pixels of a row traced together as one ray packet.
+	 */
+	private static final int PACKET_SIZE = 8;
+	/**
+	 * Step of the first pass of the progressive rendering.
+	 */
+	private static final int PROGRESSIVE_STEP = 8;
+	/**
+	 * Default number of samples of the pixels on the edges.
+	 */
+	private static final int DEFAULT_SAMPLES = 4;
+	/**
+	 * Largest difference of a color channel between neighbouring pixels which
+	 * are not treated as an edge.
+	 */
+	private static final int EDGE_THRESHOLD = 16;
+	/**
+	 * Smallest number of lights which are shaded through a light tree instead
+	 * of one by one.
+	 */
+	private static final int LIGHT_TREE_THRESHOLD = 256;
+	/**
+	 * Largest error bound of a light cluster relative to the estimated lighting
+	 * of the shaded point.
+	 */
+	private static final double LIGHT_ERROR = 0.02;
+	/**
+	 * Largest number of light clusters shaded for one point.
+	 */
+	private static final int MAX_CUT = 128;
+	/**
+	 * Largest extent of the meshes loaded from OBJ files once they are fit into
+	 * the view.
+	 */
+	private static final double MESH_SIZE = 8;
+	/**
+	 * Prefix of the argument which sets the frame budget in milliseconds.
+	 */
+	private static final String BUDGET_PREFIX = "budget=";
+	/**
+	 * Largest number of the objects in the frustum of a tile which are tested
+	 * one by one by its primary rays, instead of traversing the hierarchy.
+	 */
+	private static final int MAX_TILE_CANDIDATES = 16;
 
 	/**
-	 * Main method that executes the raycaster.
+	 * Main method that executes the raycaster. The argument "progressive" turns
+	 * on the progressive rendering, and a number argument sets the number of
+	 * samples of the pixels on the edges, where 1 turns off the supersampling.
+	 * The names "sequential", "forkjoin", "pool" and "virtual" choose the
+	 * execution strategy of the tiles, and the argument "budget=" followed by a
+	 * number of milliseconds sets the target frame time of the interactive
+	 * frames. Any other argument is the path of a binary scene file to be
+	 * rendered instead of the predefined scene, or of an OBJ file whose mesh is
+	 * rendered with the lights of the predefined scene.
 	 */
 	public static void main(String[] args) {
-		RayTracerViewer.show(getIRayTracerProducer(), new Point3D(10, 0, 0), new Point3D(0, 0, 0),
-				new Point3D(0, 0, 10), 20, 20);
+		boolean progressive = false;
+		int samples = DEFAULT_SAMPLES;
+		ExecutionStrategy strategy = null;
+		FrameBudget budget = null;
+		Scene scene = null;
+		for (String arg : args) {
+			if (arg.equals("progressive")) {
+				progressive = true;
+				continue;
+			}
+			if (arg.startsWith(BUDGET_PREFIX)) {
+				try {
+					budget = new FrameBudget(
+							TimeUnit.MILLISECONDS.toNanos(Long.parseLong(arg.substring(BUDGET_PREFIX.length()))));
+				} catch (IllegalArgumentException ex) {
+					System.out.println("Frame budget must be a positive number of milliseconds.");
+					return;
+				}
+				continue;
+			}
+			try {
+				strategy = ExecutionStrategy.forName(arg);
+				continue;
+			} catch (IllegalArgumentException ignorable) {
+			}
+			try {
+				samples = Integer.parseInt(arg);
+			} catch (NumberFormatException ex) {
+				try {
+					scene = arg.endsWith(".obj") ? loadMesh(Paths.get(arg)) : SceneFile.load(Paths.get(arg));
+				} catch (IOException | RuntimeException e) {
+					System.out.println("Could not load the scene " + arg + ": " + e.getMessage());
+					return;
+				}
+				continue;
+			}
+			if (samples < 1 || samples > RayPacket.MAX_SIZE) {
+				System.out.println("Number of samples must be between 1 and " + RayPacket.MAX_SIZE + ".");
+				return;
+			}
+		}
+		if (scene == null) {
+			scene = RayTracerViewer.createPredefinedScene();
+		}
+		if (strategy == null) {
+			strategy = ExecutionStrategy.forkJoin();
+		}
+		RayTracerViewer.show(getIRayTracerProducer(scene, progressive, samples, strategy, budget),
+				new Point3D(10, 0, 0), new Point3D(0, 0, 0), new Point3D(0, 0, 10), 20, 20);
+	}
+
+	/**
+	 * Method that creates a scene of the mesh of the OBJ file, lit by the lights
+	 * of the predefined scene. The mesh is placed by an {@link Instance} which
+	 * centers it at the origin and scales it to fit the view, whatever the units
+	 * of the file.
+	 * 
+	 * @param path
+	 *            Path of the OBJ file.
+	 * @return Scene.
+	 * @throws IOException
+	 *             If the file can not be loaded.
+	 */
+	private static Scene loadMesh(Path path) throws IOException {
+		Scene scene = new Scene();
+		RayTracerViewer.createPredefinedScene().getLights().forEach(scene::add);
+		TriangleMesh mesh = ObjFile.load(path, 1, 1, 1, 0.5, 0.5, 0.5, 10);
+		System.out.println("Loaded " + mesh.getTriangleCount() + " triangles.");
+		BoundingBox box = mesh.getBoundingBox();
+		double extent = Math.max(box.maxX - box.minX, Math.max(box.maxY - box.minY, box.maxZ - box.minZ));
+		if (!(extent > 0)) {
+			return scene.add(mesh);
+		}
+		double scale = MESH_SIZE / extent;
+		Point3D position = new Point3D(box.minX + box.maxX, box.minY + box.maxY, box.minZ + box.maxZ)
+				.scalarMultiply(-0.5 * scale);
+		return scene.add(Instance.at(mesh, position, scale));
+	}
+
+	/**
+	 * Method that run the ray tracer producer and generates a final 3D picture to
+	 * the screen using ray tracing techniques, with the tiles run by the given
+	 * strategy. The frames are rendered into a {@link PackedFrame} and handed to
+	 * the observer through an adapter which unpacks them into channels. The
+	 * progressive producer delivers a coarse picture first and refines it in
+	 * passes, each delivered to the observer under the same request number.
+	 * Once the whole picture is traced with one ray per pixel, the pixels on the
+	 * edges of the objects and shadows are refined with additional samples.
+	 * Scenes with many lights are shaded through a {@link LightTree}, built
+	 * again for each frame, so the lights can change between the frames. Unless
+	 * the strategy is sequential, the size of the tiles is calibrated on the
+	 * first frame, by rendering it at half the resolution with each of the tried
+	 * sizes.
+	 * 
+	 * @param scene
+	 *            Scene.
+	 * @param progressive
+	 *            Whether the picture is rendered progressively.
+	 * @param samples
+	 *            Number of samples of the pixels on the edges, rounded down to a
+	 *            square, where 1 turns off the supersampling.
+	 * @param strategy
+	 *            Strategy which runs the tiles.
+	 * @return Ray tracer producer.
+	 */
+	public static IRayTracerProducer getIRayTracerProducer(Scene scene, boolean progressive, int samples,
+			ExecutionStrategy strategy) {
+		return getIRayTracerProducer(scene, progressive, samples, strategy, null);
 	}
 
 	/**
 	 * Method that run the ray tracer producer and generates a final 3D picture to
-	 * the screen using ray tracing techniques.
+	 * the screen using ray tracing techniques, as
+	 * {@link #getIRayTracerProducer(Scene, boolean, int, ExecutionStrategy)}
+	 * does, within the given frame budget. Each frame is rendered at the quality
+	 * chosen by the budget from the measured rate of the rays, and the frames
+	 * rendered at a lower resolution are scaled up for the display. Once no newer
+	 * request arrives for one frame time, that is once the camera stops, the
+	 * frame is rendered again at full quality in the background and delivered
+	 * under the same request number. The size of the tiles is calibrated in the
+	 * background, at half the reduced resolution of the first frame, so the
+	 * first frame keeps to the budget as well.
 	 * 
+	 * @param scene
+	 *            Scene.
+	 * @param progressive
+	 *            Whether the frames for which the budget chooses the full
+	 *            quality are rendered progressively. The full quality renders
+	 *            in the background are never progressive, since the reduced
+	 *            frame they replace is already shown.
+	 * @param samples
+	 *            Number of samples of the pixels on the edges at full quality,
+	 *            rounded down to a square, where 1 turns off the supersampling.
+	 * @param strategy
+	 *            Strategy which runs the tiles.
+	 * @param budget
+	 *            Frame budget, or null to render every frame at full quality.
 	 * @return Ray tracer producer.
 	 */
-	private static IRayTracerProducer getIRayTracerProducer() {
+	public static IRayTracerProducer getIRayTracerProducer(Scene scene, boolean progressive, int samples,
+			ExecutionStrategy strategy, FrameBudget budget) {
+		RenderEngine engine = new RenderEngine(strategy, RenderEngine.DEFAULT_TILE_SIZE);
+		ScheduledExecutorService background = budget == null ? null
+				: Executors.newSingleThreadScheduledExecutor(r -> {
+					Thread thread = new Thread(r, "Full quality renderer");
+					thread.setDaemon(true);
+					return thread;
+				});
 
 		return new IRayTracerProducer() {
+			/**
+			 * Accelerated scene, built again when the geometry of the scene changes.
+			 */
+			private SceneBVH bvh = new SceneBVH(scene);
+			/**
+			 * Geometry buffer of the last frame, taken by each frame while it is
+			 * rendered, so its arrays are reused by the next frame of the same
+			 * size.
+			 */
+			private final AtomicReference<GBuffer> lastGBuffer = new AtomicReference<>();
+			/**
+			 * Whether the size of the tiles is calibrated or being calibrated.
+			 * Sequential strategies are not calibrated at all.
+			 */
+			private boolean calibrated = !strategy.isParallel();
+
 			@Override
 			public void produce(Point3D eye, Point3D view, Point3D viewUp, double horizontal, double vertical,
 					int width, int height, long requestNo, IRayTracerResultObserver observer) {
 
 				System.out.println("Započinjem izračune...");
-				short[] red = new short[width * height];
-				short[] green = new short[width * height];
-				short[] blue = new short[width * height];
-
-				Point3D eyeView = view.sub(eye).normalize();
+				SceneBVH bvh = currentBVH();
+				PackedResultObserver packedObserver = PackedResultObserver.adapt(observer);
+				if (budget == null) {
+					if (startCalibration()) {
+						calibrate(bvh, eye, view, viewUp, horizontal, vertical, width, height);
+					}
+				} else {
+					FrameBudget.Quality quality = budget.choose(width, height, samples);
+					if (startCalibration()) {
+						int calibrationWidth = FrameBudget.scaled(width, quality.getScale());
+						int calibrationHeight = FrameBudget.scaled(height, quality.getScale());
+						background.execute(() -> calibrate(bvh, eye, view, viewUp, horizontal, vertical,
+								calibrationWidth, calibrationHeight));
+					}
+					if (quality.getScale() > 1 || quality.getSamples() < samples) {
+						if (renderReduced(bvh, eye, view, viewUp, horizontal, vertical, width, height, quality,
+								requestNo, packedObserver)) {
+							background.schedule(() -> {
+								if (!engine.isCancelled(requestNo)) {
+									System.out.println("Kamera miruje, započinjem izračune pune kvalitete...");
+									// the coarse passes would be worse than the reduced frame shown
+									renderFull(bvh, eye, view, viewUp, horizontal, vertical, width, height, false,
+											requestNo, packedObserver);
+								}
+							}, budget.getFrameTime(), TimeUnit.NANOSECONDS);
+						}
+						return;
+					}
+				}
+				renderFull(bvh, eye, view, viewUp, horizontal, vertical, width, height, progressive, requestNo,
+						packedObserver);
+			}
 
-				Point3D yAxis = viewUp.sub(eyeView.scalarMultiply(eyeView.scalarProduct(viewUp))).normalize();
+			/**
+			 * Renders the frame at full quality and delivers it to the observer. The
+			 * frame takes the geometry buffer of the last frame, and either shades
+			 * from it or fills it again, reusing its arrays if the size matches.
+			 * 
+			 * @param bvh
+			 *            Accelerated scene.
+			 * @param eye
+			 *            Eye position.
+			 * @param view
+			 *            View position.
+			 * @param viewUp
+			 *            View-up vector.
+			 * @param horizontal
+			 *            Horizontal width of the observed space.
+			 * @param vertical
+			 *            Vertical height of the observed space.
+			 * @param width
+			 *            Width of the frame.
+			 * @param height
+			 *            Height of the frame.
+			 * @param progressive
+			 *            Whether the frame is rendered progressively.
+			 * @param requestNo
+			 *            Request number of the frame.
+			 * @param packedObserver
+			 *            Observer of the frame.
+			 */
+			private void renderFull(SceneBVH bvh, Point3D eye, Point3D view, Point3D viewUp, double horizontal,
+					double vertical, int width, int height, boolean progressive, long requestNo,
+					PackedResultObserver packedObserver) {
+				long start = System.nanoTime();
+				GBuffer gbuffer = lastGBuffer.getAndSet(null);
+				boolean reuse = gbuffer != null
+						&& gbuffer.matches(eye, view, viewUp, horizontal, vertical, width, height, bvh);
+				if (reuse) {
+					System.out.println("Primarne zrake preuzete iz G-spremnika...");
+				} else {
+					if (gbuffer == null || gbuffer.getWidth() != width || gbuffer.getHeight() != height) {
+						gbuffer = new GBuffer(width, height);
+					}
+					gbuffer.reset(eye, view, viewUp, horizontal, vertical, bvh);
+				}
+				try {
+					renderFull(bvh, eye, view, viewUp, horizontal, vertical, width, height, progressive, requestNo,
+							packedObserver, start, gbuffer, reuse);
+				} finally {
+					// a cancelled frame leaves an incomplete buffer, kept only for its arrays
+					if (gbuffer.isComplete()) {
+						lastGBuffer.set(gbuffer);
+					} else {
+						lastGBuffer.compareAndSet(null, gbuffer);
+					}
+				}
+			}
 
-				Point3D xAxis = eyeView.vectorProduct(yAxis).normalize();
+			/**
+			 * Renders the frame at full quality into the given geometry buffer, or
+			 * from it if it is reused, and delivers the frame to the observer. The
+			 * buffer is marked complete once all its pixels are stored.
+			 * 
+			 * @param bvh
+			 *            Accelerated scene.
+			 * @param eye
+			 *            Eye position.
+			 * @param view
+			 *            View position.
+			 * @param viewUp
+			 *            View-up vector.
+			 * @param horizontal
+			 *            Horizontal width of the observed space.
+			 * @param vertical
+			 *            Vertical height of the observed space.
+			 * @param width
+			 *            Width of the frame.
+			 * @param height
+			 *            Height of the frame.
+			 * @param progressive
+			 *            Whether the frame is rendered progressively.
+			 * @param requestNo
+			 *            Request number of the frame.
+			 * @param packedObserver
+			 *            Observer of the frame.
+			 * @param start
+			 *            Start time of the frame.
+			 * @param gbuffer
+			 *            Geometry buffer of the frame.
+			 * @param reuse
+			 *            Whether the buffer already holds the hits of the frame.
+			 */
+			private void renderFull(SceneBVH bvh, Point3D eye, Point3D view, Point3D viewUp, double horizontal,
+					double vertical, int width, int height, boolean progressive, long requestNo,
+					PackedResultObserver packedObserver, long start, GBuffer gbuffer, boolean reuse) {
+				PackedFrame frame = new PackedFrame(width, height);
 
-				Point3D screenCorner = view.sub((xAxis.scalarMultiply(horizontal / 2.0)))
-						.add(yAxis.scalarMultiply(vertical / 2.0));
+				Coloring coloring = createColoring(bvh, eye, view, viewUp, horizontal, vertical, frame, samples);
+				coloring.useGBuffer(gbuffer, reuse);
+				RenderEngine.FrameStatistics statistics;
+				if (progressive) {
+					statistics = engine.renderProgressive(width, height, requestNo, PROGRESSIVE_STEP, coloring,
+							step -> {
+								if (step > 1) {
+									packedObserver.acceptResult(frame, requestNo);
+								}
+							});
+				} else {
+					statistics = engine.render(width, height, requestNo, coloring);
+				}
+				if (statistics == null) {
+					System.out.println("Izračuni prekinuti zbog novijeg zahtjeva...");
+					return;
+				}
 
-				Scene scene = RayTracerViewer.createPredefinedScene();
+				long time = statistics.getFrameTime();
+				if (coloring.isSupersampled()) {
+					RenderEngine.FrameStatistics refinement = engine.render(width, height, requestNo,
+							coloring::refine);
+					if (refinement == null) {
+						System.out.println("Izračuni prekinuti zbog novijeg zahtjeva...");
+						return;
+					}
+					System.out.println("Refinement: " + refinement);
+					time += refinement.getFrameTime();
+				}
 
-				Coloring coloring = new Coloring(0, height - 1, scene, height, width, screenCorner, xAxis, yAxis, eye,
-						horizontal, vertical, red, blue, green);
-				ForkJoinPool pool = new ForkJoinPool();
-				pool.invoke(coloring);
-				pool.shutdown();
+				if (!reuse) {
+					gbuffer.complete();
+				}
 
 				System.out.println("Izračuni gotovi...");
-				observer.acceptResult(red, green, blue, requestNo);
+				System.out.println(statistics);
+				long pixels = (long) width * height;
+				long traced = coloring.getSampleCount();
+				System.out.printf("Samples: %d for %d pixels (%.1f%% above one per pixel), %d edge pixels%n", traced,
+						pixels, 100.0 * (traced - pixels) / pixels, coloring.getEdgeCount());
+				packedObserver.acceptResult(frame, requestNo);
+				if (budget != null && !reuse) {
+					budget.record(new FrameBudget.Quality(1, coloring.isSupersampled() ? samples : 1), pixels, traced,
+							time, System.nanoTime() - start);
+				}
 				System.out.println("Dojava gotova...");
 			}
+
+			/**
+			 * Renders the frame at the reduced quality, scales it up to the full
+			 * resolution and delivers it to the observer. The time of the rays and
+			 * of the whole frame, including the scaling and the delivery, are
+			 * recorded into the budget.
+			 * 
+			 * @param bvh
+			 *            Accelerated scene.
+			 * @param eye
+			 *            Eye position.
+			 * @param view
+			 *            View position.
+			 * @param viewUp
+			 *            View-up vector.
+			 * @param horizontal
+			 *            Horizontal width of the observed space.
+			 * @param vertical
+			 *            Vertical height of the observed space.
+			 * @param width
+			 *            Width of the frame.
+			 * @param height
+			 *            Height of the frame.
+			 * @param quality
+			 *            Quality of the frame.
+			 * @param requestNo
+			 *            Request number of the frame.
+			 * @param packedObserver
+			 *            Observer of the frame.
+			 * @return True if the frame was delivered, false if it was cancelled.
+			 */
+			private boolean renderReduced(SceneBVH bvh, Point3D eye, Point3D view, Point3D viewUp,
+					double horizontal, double vertical, int width, int height, FrameBudget.Quality quality,
+					long requestNo, PackedResultObserver packedObserver) {
+				long start = System.nanoTime();
+				int scale = quality.getScale();
+				PackedFrame reduced = new PackedFrame(FrameBudget.scaled(width, scale),
+						FrameBudget.scaled(height, scale));
+				Coloring coloring = createColoring(bvh, eye, view, viewUp, horizontal, vertical, reduced,
+						quality.getSamples());
+				RenderEngine.FrameStatistics statistics = engine.render(reduced.getWidth(), reduced.getHeight(),
+						requestNo, coloring);
+				if (statistics == null) {
+					System.out.println("Izračuni prekinuti zbog novijeg zahtjeva...");
+					return false;
+				}
+				if (coloring.isSupersampled()
+						&& engine.render(reduced.getWidth(), reduced.getHeight(), requestNo, coloring::refine) == null) {
+					System.out.println("Izračuni prekinuti zbog novijeg zahtjeva...");
+					return false;
+				}
+				long renderTime = System.nanoTime() - start;
+
+				PackedFrame frame = reduced;
+				if (scale > 1) {
+					frame = new PackedFrame(width, height);
+					reduced.scaleInto(frame);
+				}
+				System.out.println("Izračuni gotovi u smanjenoj kvaliteti: " + quality + "...");
+				System.out.println(statistics);
+				packedObserver.acceptResult(frame, requestNo);
+				budget.record(quality, (long) reduced.getWidth() * reduced.getHeight(), coloring.getSampleCount(),
+						renderTime, System.nanoTime() - start);
+				System.out.printf("Dojava gotova, %.0f zraka u sekundi...%n", budget.getRaysPerSecond());
+				return true;
+			}
+
+			/**
+			 * Checks whether the size of the tiles is still to be calibrated, and
+			 * marks it calibrated, so it is calibrated only once.
+			 * 
+			 * @return True if the calling frame should calibrate, false otherwise.
+			 */
+			private synchronized boolean startCalibration() {
+				if (calibrated) {
+					return false;
+				}
+				calibrated = true;
+				return true;
+			}
+
+			/**
+			 * Calibrates the size of the tiles on a frame of the given resolution,
+			 * rendered at half of it without supersampling.
+			 * 
+			 * @param bvh
+			 *            Accelerated scene.
+			 * @param eye
+			 *            Eye position.
+			 * @param view
+			 *            View position.
+			 * @param viewUp
+			 *            View-up vector.
+			 * @param horizontal
+			 *            Horizontal width of the observed space.
+			 * @param vertical
+			 *            Vertical height of the observed space.
+			 * @param width
+			 *            Width of the frame.
+			 * @param height
+			 *            Height of the frame.
+			 */
+			private void calibrate(SceneBVH bvh, Point3D eye, Point3D view, Point3D viewUp, double horizontal,
+					double vertical, int width, int height) {
+				PackedFrame frame = new PackedFrame(Math.max(2, width / 2), Math.max(2, height / 2));
+				Coloring coloring = createColoring(bvh, eye, view, viewUp, horizontal, vertical, frame, 1);
+				int tileSize = engine.calibrate(frame.getWidth(), frame.getHeight(), coloring);
+				System.out.println("Veličina pločica nakon kalibracije: " + tileSize);
+			}
+
+			/**
+			 * Gets the accelerated scene, building it again if the objects of the
+			 * scene have changed.
+			 * 
+			 * @return Accelerated scene.
+			 */
+			private synchronized SceneBVH currentBVH() {
+				if (!bvh.isCurrent()) {
+					bvh = new SceneBVH(scene);
+				}
+				return bvh;
+			}
 		};
 	}
 
 	/**
-	 * Assistent class that runs the coloring of elements in the 3D picture by using
-	 * a recursive action method. The class divides the job into appropriate equal
-	 * parts for optimal execution and runs the logic recursively.
+	 * Method that creates the coloring of a frame seen from the given camera.
+	 * Scenes with many lights are shaded through a {@link LightTree} built from
+	 * their current lights.
+	 * 
+	 * @param scene
+	 *            Accelerated scene.
+	 * @param eye
+	 *            Eye position.
+	 * @param view
+	 *            View position.
+	 * @param viewUp
+	 *            View-up vector.
+	 * @param horizontal
+	 *            Horizontal width of the observed space.
+	 * @param vertical
+	 *            Vertical height of the observed space.
+	 * @param width
+	 *            Width in pixels.
+	 * @param height
+	 *            Height in pixels.
+	 * @param red
+	 *            Red channel of the frame.
+	 * @param green
+	 *            Green channel of the frame.
+	 * @param blue
+	 *            Blue channel of the frame.
+	 * @param samples
+	 *            Number of samples of the pixels on the edges.
+	 * @return Coloring of the frame.
+	 */
+	public static Coloring createColoring(SceneBVH scene, Point3D eye, Point3D view, Point3D viewUp,
+			double horizontal, double vertical, int width, int height, short[] red, short[] green, short[] blue,
+			int samples) {
+		Point3D eyeView = view.sub(eye).normalize();
+
+		Point3D yAxis = viewUp.sub(eyeView.scalarMultiply(eyeView.scalarProduct(viewUp))).normalize();
+
+		Point3D xAxis = eyeView.vectorProduct(yAxis).normalize();
+
+		Point3D screenCorner = view.sub((xAxis.scalarMultiply(horizontal / 2.0)))
+				.add(yAxis.scalarMultiply(vertical / 2.0));
+
+		Coloring coloring = new Coloring(scene, height, width, screenCorner, xAxis, yAxis, eye, horizontal, vertical,
+				red, blue, green, samples);
+		List<LightSource> lights = scene.getScene().getLights();
+		if (lights.size() >= LIGHT_TREE_THRESHOLD) {
+			coloring.useLightTree(new LightTree(lights));
+		}
+		return coloring;
+	}
+
+	/**
+	 * Method that creates the coloring of a frame seen from the given camera,
+	 * which writes the colors into the packed frame.
+	 * 
+	 * @param scene
+	 *            Accelerated scene.
+	 * @param eye
+	 *            Eye position.
+	 * @param view
+	 *            View position.
+	 * @param viewUp
+	 *            View-up vector.
+	 * @param horizontal
+	 *            Horizontal width of the observed space.
+	 * @param vertical
+	 *            Vertical height of the observed space.
+	 * @param frame
+	 *            Packed frame.
+	 * @param samples
+	 *            Number of samples of the pixels on the edges.
+	 * @return Coloring of the frame.
+	 */
+	public static Coloring createColoring(SceneBVH scene, Point3D eye, Point3D view, Point3D viewUp,
+			double horizontal, double vertical, PackedFrame frame, int samples) {
+		Coloring coloring = createColoring(scene, eye, view, viewUp, horizontal, vertical, frame.getWidth(),
+				frame.getHeight(), null, null, null, samples);
+		coloring.usePackedOutput(frame.getPixels());
+		return coloring;
+	}
+
+	/**
+	 * Assistent class that runs the coloring of elements in the 3D picture. The
+	 * render engine calls it for each tile of the picture, once or in each pass
+	 * of the progressive rendering. With the supersampling turned on, it keeps the
+	 * color and the hit object of each traced pixel, so the pixels which differ
+	 * from their neighbours can be refined afterwards.
 	 * 
 	 * @author Dinz
 	 *
 	 */
-	public static class Coloring extends RecursiveAction {
-		private static final long serialVersionUID = 1L;
-		int minimum;
-		int maximum;
-		Scene scene;
+	public static class Coloring implements RenderEngine.ProgressiveRenderer {
+		SceneBVH scene;
 		int height;
 		int width;
 		Point3D screenCorner;
@@ -105,16 +684,73 @@ public class RaycasterParallel {
 		short[] blue;
 		short[] green;
 		/**
-		 * Threshold for the work division.
+		 * Packed pixels of the frame, written instead of the channels, or null.
+		 */
+		int[] pixels;
+		/**
+		 * First column of the window of the frame covered by the output.
+		 */
+		int windowX;
+		/**
+		 * First row of the window of the frame covered by the output.
+		 */
+		int windowY;
+		/**
+		 * Width of the window of the frame covered by the output.
+		 */
+		int windowWidth;
+		/**
+		 * Number of samples along each axis of the pixels on the edges.
+		 */
+		int samplesPerAxis;
+		/**
+		 * Identifiers of the objects hit by the pixels, if supersampled.
+		 */
+		int[] ids;
+		/**
+		 * Packed colors of the pixels traced with one ray, without the alpha, if
+		 * supersampled. The channels are packed through
+		 * {@link PackedFrame#pack(int, int, int)}, so they are clamped the same
+		 * way as the output.
+		 */
+		int[] colors;
+		/**
+		 * Number of traced primary rays.
+		 */
+		LongAdder sampleCount = new LongAdder();
+		/**
+		 * Number of refined pixels.
+		 */
+		LongAdder edgeCount = new LongAdder();
+		/**
+		 * Geometry buffer of the primary hits, or null.
 		 */
-		protected final int THRESHOLD = 32; 
+		GBuffer gbuffer;
+		/**
+		 * Whether the primary hits are read from the geometry buffer instead of
+		 * being traced into it.
+		 */
+		boolean reuse;
+		/**
+		 * Tree of the lights of the scene, or null if the lights are shaded one by
+		 * one.
+		 */
+		LightTree lightTree;
+
+		public Coloring(SceneBVH scene, int height, int width, Point3D screenCorner, Point3D xAxis, Point3D yAxis,
+				Point3D eye, double horizontal, double vertical, short[] red, short[] blue, short[] green) {
+			this(scene, height, width, screenCorner, xAxis, yAxis, eye, horizontal, vertical, red, blue, green, 1);
+		}
 
-		public Coloring(int minimum, int maximum, Scene scene, int height, int width, Point3D screenCorner,
-				Point3D xAxis, Point3D yAxis, Point3D eye, double horizontal, double vertical, short[] red,
-				short[] blue, short[] green) {
+		public Coloring(SceneBVH scene, int height, int width, Point3D screenCorner, Point3D xAxis, Point3D yAxis,
+				Point3D eye, double horizontal, double vertical, short[] red, short[] blue, short[] green,
+				int samples) {
 			super();
-			this.minimum = minimum;
-			this.maximum = maximum;
+			this.samplesPerAxis = (int) Math.sqrt(samples);
+			if (samplesPerAxis > 1) {
+				ids = new int[width * height];
+				colors = new int[width * height];
+			}
 			this.scene = scene;
 			this.height = height;
 			this.width = width;
@@ -127,42 +763,361 @@ public class RaycasterParallel {
 			this.red = red;
 			this.blue = blue;
 			this.green = green;
+			this.windowWidth = width;
 		}
 
+		/**
+		 * Method that calculates the color of the pixels of the tile in a pass.
+		 * Neighbouring pixels of a row are traced together as ray packets. The
+		 * objects are culled against the frustum of the tile first, and if only a
+		 * few of them are left, the primary rays are tested against those alone.
+		 */
 		@Override
-		protected void compute() {
-			if (maximum - minimum < THRESHOLD) {
-				computeDirectly();
-				return;
+		public void render(int x0, int y0, int x1, int y1, int step, boolean first) {
+			int[] candidates = reuse ? null : scene.cull(frustum(x0, y0, x1, y1), MAX_TILE_CANDIDATES);
+			RayPacket packet = new RayPacket(PACKET_SIZE);
+			RayPacket shadows = new RayPacket(PACKET_SIZE);
+			RayIntersection[] intersections = new RayIntersection[PACKET_SIZE];
+			short[][] rgb = new short[PACKET_SIZE][3];
+			int[] columns = new int[PACKET_SIZE];
+			GBuffer.Writer writer = gbuffer != null && !reuse ? gbuffer.writer() : null;
+			for (int y = y0; y < y1; y += step) {
+				// rows rendered by the previous pass only miss the odd columns
+				boolean rendered = !first && y % (2 * step) == 0;
+				int xStep = rendered ? 2 * step : step;
+				for (int x = rendered ? x0 + step : x0; x < x1;) {
+					int lanes = 0;
+					packet.clear();
+					for (; lanes < PACKET_SIZE && x < x1; lanes++, x += xStep) {
+						packet.set(lanes, ray(x, y), Double.POSITIVE_INFINITY);
+						columns[lanes] = x;
+					}
+
+					if (reuse) {
+						for (int lane = 0; lane < lanes; lane++) {
+							int offset = y * width + columns[lane];
+							intersections[lane] = gbuffer.getIntersection(offset, packet.rays[lane]);
+							packet.hit[lane] = gbuffer.getId(offset);
+						}
+						shade(scene, lightTree, packet, shadows, intersections, rgb);
+					} else {
+						tracer(scene, lightTree, packet, shadows, intersections, rgb, candidates);
+						sampleCount.add(lanes);
+					}
+					for (int lane = 0; lane < lanes; lane++) {
+						fill(columns[lane], y, Math.min(columns[lane] + step, x1), Math.min(y + step, y1), rgb[lane]);
+						int offset = y * width + columns[lane];
+						if (writer != null) {
+							writer.store(offset, packet.hit[lane], intersections[lane]);
+						}
+						if (ids != null) {
+							ids[offset] = packet.hit[lane];
+							colors[offset] = (pixels != null ? pixels[offset]
+									: PackedFrame.pack(red[offset], green[offset], blue[offset])) & 0xFFFFFF;
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * Method that sets the geometry buffer of the primary hits. A buffer which
+		 * is not reused is filled with the traced hits, while a reused buffer
+		 * replaces the tracing of the primary rays.
+		 * 
+		 * @param gbuffer
+		 *            Geometry buffer.
+		 * @param reuse
+		 *            Whether the buffer already holds the hits of this frame.
+		 */
+		public void useGBuffer(GBuffer gbuffer, boolean reuse) {
+			this.gbuffer = gbuffer;
+			this.reuse = reuse;
+		}
+
+		/**
+		 * Method that sets the packed pixels into which the colors are written
+		 * instead of the channels.
+		 * 
+		 * @param pixels
+		 *            Packed pixels of the frame, or null to write the channels.
+		 */
+		public void usePackedOutput(int[] pixels) {
+			this.pixels = pixels;
+		}
+
+		/**
+		 * Method that makes the output cover only a window of the frame, starting
+		 * at the given pixel, so a part of the frame can be rendered into smaller
+		 * arrays. Only the pixels inside the window may be rendered.
+		 * 
+		 * @param x
+		 *            First column of the window.
+		 * @param y
+		 *            First row of the window.
+		 * @param width
+		 *            Width of the window.
+		 * @throws IllegalStateException
+		 *             If the pixels on the edges are refined, which needs the
+		 *             whole frame.
+		 */
+		public void useWindow(int x, int y, int width) {
+			if (isSupersampled()) {
+				throw new IllegalStateException("Supersampled frames can not be rendered in windows.");
+			}
+			windowX = x;
+			windowY = y;
+			windowWidth = width;
+		}
+
+		/**
+		 * Method that creates a coloring of the same frame which writes the
+		 * colors of a window of the frame into the packed pixels, as
+		 * {@link #usePackedOutput(int[])} and {@link #useWindow(int, int, int)}
+		 * do. The camera and the light tree are shared with this coloring, so
+		 * the colorings of many small windows are cheap to create.
+		 * 
+		 * @param x
+		 *            First column of the window.
+		 * @param y
+		 *            First row of the window.
+		 * @param width
+		 *            Width of the window.
+		 * @param pixels
+		 *            Packed pixels of the window.
+		 * @return Coloring of the window.
+		 * @throws IllegalStateException
+		 *             If the pixels on the edges are refined, which needs the
+		 *             whole frame.
+		 */
+		public Coloring window(int x, int y, int width, int[] pixels) {
+			if (isSupersampled()) {
+				throw new IllegalStateException("Supersampled frames can not be rendered in windows.");
 			}
+			Coloring coloring = new Coloring(scene, height, this.width, screenCorner, xAxis, yAxis, eye, horizontal,
+					vertical, null, null, null);
+			coloring.useLightTree(lightTree);
+			coloring.usePackedOutput(pixels);
+			coloring.useWindow(x, y, width);
+			return coloring;
+		}
+
+		/**
+		 * Method that sets the tree through which the lights are shaded.
+		 * 
+		 * @param lightTree
+		 *            Tree of the lights of the scene, or null to shade the lights
+		 *            one by one.
+		 */
+		public void useLightTree(LightTree lightTree) {
+			this.lightTree = lightTree;
+		}
+
+		/**
+		 * Method that refines the pixels of the tile which lie on edges. Each such
+		 * pixel is traced again with a regular grid of samples, whose average
+		 * color replaces the color of the single ray.
+		 * 
+		 * @param x0
+		 *            First column, inclusive.
+		 * @param y0
+		 *            First row, inclusive.
+		 * @param x1
+		 *            Last column, exclusive.
+		 * @param y1
+		 *            Last row, exclusive.
+		 */
+		public void refine(int x0, int y0, int x1, int y1) {
+			int n = samplesPerAxis * samplesPerAxis;
+			RayPacket packet = new RayPacket(n);
+			RayPacket shadows = new RayPacket(n);
+			RayIntersection[] intersections = new RayIntersection[n];
+			short[][] rgb = new short[n][3];
+			for (int y = y0; y < y1; y++) {
+				for (int x = x0; x < x1; x++) {
+					if (!isEdge(x, y)) {
+						continue;
+					}
 
-			int split = (maximum + minimum) / 2;
+					packet.clear();
+					for (int i = 0; i < samplesPerAxis; i++) {
+						for (int j = 0; j < samplesPerAxis; j++) {
+							packet.set(i * samplesPerAxis + j, ray(x + (j + 0.5) / samplesPerAxis - 0.5,
+									y + (i + 0.5) / samplesPerAxis - 0.5), Double.POSITIVE_INFINITY);
+						}
+					}
+					tracer(scene, lightTree, packet, shadows, intersections, rgb);
+
+					int r = 0;
+					int g = 0;
+					int b = 0;
+					for (int lane = 0; lane < n; lane++) {
+						r += PackedFrame.clamp(rgb[lane][0]);
+						g += PackedFrame.clamp(rgb[lane][1]);
+						b += PackedFrame.clamp(rgb[lane][2]);
+					}
+					int offset = y * width + x;
+					if (pixels != null) {
+						pixels[offset] = PackedFrame.pack((r + n / 2) / n, (g + n / 2) / n, (b + n / 2) / n);
+					} else {
+						red[offset] = (short) ((r + n / 2) / n);
+						green[offset] = (short) ((g + n / 2) / n);
+						blue[offset] = (short) ((b + n / 2) / n);
+					}
+					sampleCount.add(n);
+					edgeCount.increment();
+				}
+			}
+		}
 
-			invokeAll(
-					new Coloring(minimum, split, scene, height, width, screenCorner, xAxis, yAxis, eye, horizontal, vertical,
-							red, blue, green),
-					new Coloring(split + 1, maximum, scene, height, width, screenCorner, xAxis, yAxis, eye,
-							horizontal, vertical, red, blue, green));
+		/**
+		 * Method that checks whether the pixel lies on an edge, that is whether
+		 * any of its four neighbours hits another object or differs in color by
+		 * more than {@link RaycasterParallel#EDGE_THRESHOLD} in any channel.
+		 * 
+		 * @param x
+		 *            Column of the pixel.
+		 * @param y
+		 *            Row of the pixel.
+		 * @return True if the pixel lies on an edge, false otherwise.
+		 */
+		private boolean isEdge(int x, int y) {
+			int offset = y * width + x;
+			return x > 0 && differs(offset, offset - 1) || x < width - 1 && differs(offset, offset + 1)
+					|| y > 0 && differs(offset, offset - width) || y < height - 1 && differs(offset, offset + width);
+		}
 
+		/**
+		 * Method that checks whether two traced pixels hit different objects or
+		 * differ in color.
+		 * 
+		 * @param first
+		 *            Offset of the first pixel.
+		 * @param second
+		 *            Offset of the second pixel.
+		 * @return True if the pixels differ, false otherwise.
+		 */
+		private boolean differs(int first, int second) {
+			if (ids[first] != ids[second]) {
+				return true;
+			}
+			int a = colors[first];
+			int b = colors[second];
+			return Math.abs((a >> 16) - (b >> 16)) > EDGE_THRESHOLD
+					|| Math.abs((a >> 8 & 0xFF) - (b >> 8 & 0xFF)) > EDGE_THRESHOLD
+					|| Math.abs((a & 0xFF) - (b & 0xFF)) > EDGE_THRESHOLD;
 		}
 
 		/**
-		 * Method that calculates the color of each pixel on a screen.
+		 * Method that checks whether the pixels on the edges are refined.
+		 * 
+		 * @return True if the supersampling is turned on, false otherwise.
 		 */
-		protected void computeDirectly() {
-			short[] rgb = new short[3];
-			int offset = minimum * width;
-			for (int y = minimum; y < maximum + 1; y++) {
-				for (int x = 0; x < width; x++) {
-					Point3D screenPoint = screenCorner.add(xAxis.scalarMultiply((x * horizontal) / (width - 1)))
-							.sub(yAxis.scalarMultiply((vertical * y) / (height - 1)));
-					Ray ray = Ray.fromPoints(eye, screenPoint);
-
-					tracer(scene, ray, rgb);
-					red[offset] = rgb[0] > 255 ? 255 : rgb[0];
-					green[offset] = rgb[1] > 255 ? 255 : rgb[1];
-					blue[offset] = rgb[2] > 255 ? 255 : rgb[2];
-					offset++;
+		public boolean isSupersampled() {
+			return ids != null;
+		}
+
+		/**
+		 * Method that gets the number of traced primary rays.
+		 * 
+		 * @return Number of samples.
+		 */
+		public long getSampleCount() {
+			return sampleCount.sum();
+		}
+
+		/**
+		 * Method that gets the number of refined pixels.
+		 * 
+		 * @return Number of edge pixels.
+		 */
+		public long getEdgeCount() {
+			return edgeCount.sum();
+		}
+
+		/**
+		 * Method that creates the primary ray through the point of the screen.
+		 * 
+		 * @param x
+		 *            Column of the point, fractional within the pixel.
+		 * @param y
+		 *            Row of the point, fractional within the pixel.
+		 * @return Ray from the eye.
+		 */
+		private Ray ray(double x, double y) {
+			return Ray.fromPoints(eye, screenPoint(x, y));
+		}
+
+		/**
+		 * Method that calculates the point of the screen seen by the pixel.
+		 * 
+		 * @param x
+		 *            Column of the pixel, possibly fractional.
+		 * @param y
+		 *            Row of the pixel, possibly fractional.
+		 * @return Point of the screen.
+		 */
+		private Point3D screenPoint(double x, double y) {
+			return screenCorner.add(xAxis.scalarMultiply((x * horizontal) / (width - 1)))
+					.sub(yAxis.scalarMultiply((vertical * y) / (height - 1)));
+		}
+
+		/**
+		 * Method that calculates the frustum of the tile, widened by half a pixel
+		 * on each side, so it holds all the primary rays of the tile.
+		 * 
+		 * @param x0
+		 *            First column, inclusive.
+		 * @param y0
+		 *            First row, inclusive.
+		 * @param x1
+		 *            Last column, exclusive.
+		 * @param y1
+		 *            Last row, exclusive.
+		 * @return Frustum of the tile.
+		 */
+		private Frustum frustum(int x0, int y0, int x1, int y1) {
+			double left = x0 - 0.5;
+			double right = x1 - 0.5;
+			double top = y0 - 0.5;
+			double bottom = y1 - 0.5;
+			return new Frustum(eye, screenPoint(left, top), screenPoint(right, top), screenPoint(right, bottom),
+					screenPoint(left, bottom));
+		}
+
+		/**
+		 * Method that fills the block of pixels with the color, clamped between 0
+		 * and 255.
+		 * 
+		 * @param x0
+		 *            First column, inclusive.
+		 * @param y0
+		 *            First row, inclusive.
+		 * @param x1
+		 *            Last column, exclusive.
+		 * @param y1
+		 *            Last row, exclusive.
+		 * @param rgb
+		 *            RGB color container.
+		 */
+		private void fill(int x0, int y0, int x1, int y1, short[] rgb) {
+			short r = (short) PackedFrame.clamp(rgb[0]);
+			short g = (short) PackedFrame.clamp(rgb[1]);
+			short b = (short) PackedFrame.clamp(rgb[2]);
+			if (pixels != null) {
+				int pixel = PackedFrame.pack(r, g, b);
+				for (int y = y0; y < y1; y++) {
+					int row = (y - windowY) * windowWidth - windowX;
+					Arrays.fill(pixels, row + x0, row + x1, pixel);
+				}
+				return;
+			}
+			for (int y = y0; y < y1; y++) {
+				int row = (y - windowY) * windowWidth - windowX;
+				for (int offset = row + x0, end = row + x1; offset < end; offset++) {
+					red[offset] = r;
+					green[offset] = g;
+					blue[offset] = b;
 				}
 			}
 		}
@@ -170,86 +1125,169 @@ public class RaycasterParallel {
 	}
 
 	/**
-	 * Method that calculates the color of the intersection between the scene and
-	 * the light ray using ray tracing.
+	 * Method that calculates the colors of the intersections between the scene
+	 * and the active rays of the packet using ray tracing. Shadow rays toward each
+	 * light are traced as a packet as well.
 	 * 
 	 * @param scene
-	 *            Scene.
-	 * @param ray
-	 *            Ray.
+	 *            Accelerated scene.
+	 * @param lightTree
+	 *            Tree of the lights of the scene, or null.
+	 * @param packet
+	 *            Packet of the rays.
+	 * @param shadows
+	 *            Packet used for the shadow rays, of the same size.
+	 * @param intersections
+	 *            Container for the intersections of the rays.
 	 * @param rgb
-	 *            RGB color container.
+	 *            RGB color containers, one for each lane.
 	 */
-	protected static void tracer(Scene scene, Ray ray, short[] rgb) {
-		rgb[0] = 15;
-		rgb[1] = 15;
-		rgb[2] = 15;
-		RayIntersection closest = findClosestIntersection(scene, ray);
-		if (closest == null) {
-			return;
-		}
-		determineColor(scene, ray, rgb, closest);
+	protected static void tracer(SceneBVH scene, LightTree lightTree, RayPacket packet, RayPacket shadows,
+			RayIntersection[] intersections, short[][] rgb) {
+		tracer(scene, lightTree, packet, shadows, intersections, rgb, null);
+	}
 
+	/**
+	 * Method that calculates the colors of the intersections between the scene
+	 * and the active rays of the packet, as
+	 * {@link #tracer(SceneBVH, LightTree, RayPacket, RayPacket, RayIntersection[], short[][])}
+	 * does, testing the rays only against the given candidate objects.
+	 * 
+	 * @param scene
+	 *            Accelerated scene.
+	 * @param lightTree
+	 *            Tree of the lights of the scene, or null.
+	 * @param packet
+	 *            Packet of the rays.
+	 * @param shadows
+	 *            Packet used for the shadow rays, of the same size.
+	 * @param intersections
+	 *            Container for the intersections of the rays.
+	 * @param rgb
+	 *            RGB color containers, one for each lane.
+	 * @param candidates
+	 *            Indices of the bounded objects which may be hit by the rays, or
+	 *            null to test all the objects.
+	 */
+	protected static void tracer(SceneBVH scene, LightTree lightTree, RayPacket packet, RayPacket shadows,
+			RayIntersection[] intersections, short[][] rgb, int[] candidates) {
+		scene.findClosestIntersections(packet, intersections, candidates);
+		shade(scene, lightTree, packet, shadows, intersections, rgb);
 	}
 
 	/**
-	 * Method that finds the closest intersection between the scene and the ray.
+	 * Method that calculates the colors of the already found intersections of
+	 * the active rays of the packet, casting only the shadow rays. Without a light
+	 * tree the shadow rays toward each light are traced as a packet, while with it
+	 * each point casts its own shadow rays toward the clusters of its cut.
 	 * 
 	 * @param scene
-	 *            Scene
-	 * @param ray
-	 *            Ray
-	 * @return Intersection.
+	 *            Accelerated scene.
+	 * @param lightTree
+	 *            Tree of the lights of the scene, or null.
+	 * @param packet
+	 *            Packet of the rays.
+	 * @param shadows
+	 *            Packet used for the shadow rays, of the same size.
+	 * @param intersections
+	 *            Intersections of the rays, null for the rays which miss the
+	 *            scene.
+	 * @param rgb
+	 *            RGB color containers, one for each lane.
 	 */
-	private static RayIntersection findClosestIntersection(Scene scene, Ray ray) {
-		int closestIntersection = -1;
-		for (int i = 0, j = scene.getObjects().size(); i < j; i++) {
-			RayIntersection ri = scene.getObjects().get(i).findClosestRayIntersection(ray);
-			if (closestIntersection == -1 && ri != null) {
-				closestIntersection = i;
-			} else if (ri != null && scene.getObjects().get(closestIntersection).findClosestRayIntersection(ray)
-					.getDistance() > ri.getDistance()) {
-				closestIntersection = i;
-			}
+	protected static void shade(SceneBVH scene, LightTree lightTree, RayPacket packet, RayPacket shadows,
+			RayIntersection[] intersections, short[][] rgb) {
+		int active = packet.active;
+		for (int lane = 0, n = packet.size(); lane < n; lane++) {
+			rgb[lane][0] = 15;
+			rgb[lane][1] = 15;
+			rgb[lane][2] = 15;
+		}
 
+		if (lightTree != null) {
+			int[] cut = new int[MAX_CUT];
+			for (int lanes = active; lanes != 0; lanes &= lanes - 1) {
+				int lane = Integer.numberOfTrailingZeros(lanes);
+				RayIntersection intersection = intersections[lane];
+				if (intersection == null) {
+					continue;
+				}
+				Ray ray = packet.rays[lane];
+				for (int k = 0, n = lightTree.cut(intersection, ray.start, LIGHT_ERROR, cut); k < n; k++) {
+					int node = cut[k];
+					Point3D position = lightTree.getPoint(node);
+					if (!facesLight(position, intersection)) {
+						continue;
+					}
+					double intersectionToLightDistance = intersection.getPoint().sub(position).norm();
+					if (!scene.isOccluded(Ray.fromPoints(position, intersection.getPoint()),
+							intersectionToLightDistance - TRESHOLD, node)) {
+						addDiffusse(position, lightTree.getR(node), lightTree.getG(node), lightTree.getB(node),
+								intersection, rgb[lane]);
+						addReflective(position, lightTree.getR(node), lightTree.getG(node), lightTree.getB(node),
+								intersection, rgb[lane], ray);
+					}
+				}
+			}
+			return;
 		}
-		if (closestIntersection == -1) {
-			return null;
 
+		List<LightSource> lights = scene.getScene().getLights();
+		for (int i = 0, j = lights.size(); i < j; i++) {
+			LightSource light = lights.get(i);
+			shadows.clear();
+			for (int lanes = active; lanes != 0; lanes &= lanes - 1) {
+				int lane = Integer.numberOfTrailingZeros(lanes);
+				RayIntersection intersection = intersections[lane];
+				if (intersection != null && facesLight(light.getPoint(), intersection)) {
+					double intersectionToLightDistance = intersection.getPoint().sub(light.getPoint()).norm();
+					shadows.set(lane, Ray.fromPoints(light.getPoint(), intersection.getPoint()),
+							intersectionToLightDistance - TRESHOLD);
+				}
+			}
+
+			int lit = shadows.active & ~scene.findOccluded(shadows, i);
+			for (int lanes = lit; lanes != 0; lanes &= lanes - 1) {
+				int lane = Integer.numberOfTrailingZeros(lanes);
+				addDiffusse(light, intersections[lane], rgb[lane]);
+				addReflective(light, intersections[lane], rgb[lane], packet.rays[lane]);
+			}
 		}
-		return scene.getObjects().get(closestIntersection).findClosestRayIntersection(ray);
 	}
 
 	/**
-	 * Method that determines the color at the certain point on the scene.
+	 * Method that calculates the color of the intersection between the scene and
+	 * the light ray using ray tracing, as a packet of a single ray.
 	 * 
 	 * @param scene
-	 *            Scene
+	 *            Accelerated scene.
 	 * @param ray
-	 *            Ray
+	 *            Ray.
 	 * @param rgb
-	 *            EGB color container.
-	 * @param intersection
-	 *            Intersection between the ray and the scene.
+	 *            RGB color container.
 	 */
-	private static void determineColor(Scene scene, Ray ray, short[] rgb, RayIntersection intersection) {
-		for (int i = 0, j = scene.getLights().size(); i < j; i++) {
-
-			Ray lightIntersection = Ray.fromPoints(scene.getLights().get(i).getPoint(), intersection.getPoint());
-			RayIntersection ciSR = findClosestIntersection(scene, lightIntersection);
-
-			if (ciSR != null) {
-				double cisrToLightDistance = ciSR.getPoint().sub(scene.getLights().get(i).getPoint()).norm();
-				double intersectionToLightDistance = intersection.getPoint().sub(scene.getLights().get(i).getPoint())
-						.norm();
-
-				if (Math.abs(cisrToLightDistance - intersectionToLightDistance) < TRESHOLD) {
-					addDiffusse(scene.getLights().get(i), ciSR, rgb);
-					addReflective(scene.getLights().get(i), ciSR, rgb, ray);
-				}
+	protected static void tracer(SceneBVH scene, Ray ray, short[] rgb) {
+		RayPacket packet = new RayPacket(1);
+		packet.set(0, ray, Double.POSITIVE_INFINITY);
+		short[][] colors = { rgb };
+		tracer(scene, null, packet, new RayPacket(1), new RayIntersection[1], colors);
+	}
 
-			}
-		}
+	/**
+	 * Method that checks whether the light lies in front of the surface at the
+	 * intersection. The normals of the two-sided surfaces, like the triangles of
+	 * an open mesh, face the ray, so a light behind such a surface is not
+	 * occluded by the surface itself and has to be left out of the coloring, as
+	 * it would subtract its diffusse component.
+	 * 
+	 * @param position
+	 *            Position of the light.
+	 * @param intersection
+	 *            Intersection point.
+	 * @return True if the light is in front of the surface, false otherwise.
+	 */
+	private static boolean facesLight(Point3D position, RayIntersection intersection) {
+		return intersection.getNormal().scalarProduct(position.sub(intersection.getPoint())) > 0;
 	}
 
 	/**
@@ -263,13 +1301,35 @@ public class RaycasterParallel {
 	 *            RGB color container.
 	 */
 	private static void addDiffusse(LightSource source, RayIntersection intersection, short[] rgb) {
-		Point3D L = source.getPoint().sub(intersection.getPoint());
+		addDiffusse(source.getPoint(), source.getR(), source.getG(), source.getB(), intersection, rgb);
+	}
+
+	/**
+	 * Method that adds a diffusse component of a light given by its position
+	 * and intensities to the coloring.
+	 * 
+	 * @param position
+	 *            Position of the light.
+	 * @param r
+	 *            Red intensity.
+	 * @param g
+	 *            Green intensity.
+	 * @param b
+	 *            Blue intensity.
+	 * @param intersection
+	 *            Intersection point.
+	 * @param rgb
+	 *            RGB color container.
+	 */
+	private static void addDiffusse(Point3D position, int r, int g, int b, RayIntersection intersection,
+			short[] rgb) {
+		Point3D L = position.sub(intersection.getPoint());
 		Point3D N = intersection.getNormal();
 		double LN = N.normalize().scalarProduct(L.normalize());
 
-		rgb[0] += (short) (source.getR() * LN * intersection.getKdr());
-		rgb[1] += (short) (source.getG() * LN * intersection.getKdg());
-		rgb[2] += (short) (source.getB() * LN * intersection.getKdb());
+		rgb[0] = add(rgb[0], r * LN * intersection.getKdr());
+		rgb[1] = add(rgb[1], g * LN * intersection.getKdg());
+		rgb[2] = add(rgb[2], b * LN * intersection.getKdb());
 	}
 
 	/**
@@ -285,7 +1345,31 @@ public class RaycasterParallel {
 	 *            Ray.
 	 */
 	private static void addReflective(LightSource source, RayIntersection intersection, short[] rgb, Ray ray) {
-		Point3D L = source.getPoint().sub(intersection.getPoint());
+		addReflective(source.getPoint(), source.getR(), source.getG(), source.getB(), intersection, rgb, ray);
+	}
+
+	/**
+	 * Method that adds a reflective component of a light given by its position
+	 * and intensities to the coloring.
+	 * 
+	 * @param position
+	 *            Position of the light.
+	 * @param r
+	 *            Red intensity.
+	 * @param g
+	 *            Green intensity.
+	 * @param b
+	 *            Blue intensity.
+	 * @param intersection
+	 *            Intersection point.
+	 * @param rgb
+	 *            RGB color container.
+	 * @param ray
+	 *            Ray.
+	 */
+	private static void addReflective(Point3D position, int r, int g, int b, RayIntersection intersection,
+			short[] rgb, Ray ray) {
+		Point3D L = position.sub(intersection.getPoint());
 		Point3D N = intersection.getNormal();
 
 		Point3D LN = N.scalarMultiply(L.scalarProduct(N));
@@ -294,9 +1378,24 @@ public class RaycasterParallel {
 
 		double RV = Math.pow(R.scalarProduct(V), intersection.getKrn());
 
-		rgb[0] += (short) (source.getR() * RV * intersection.getKrr());
-		rgb[1] += (short) (source.getG() * RV * intersection.getKrg());
-		rgb[2] += (short) (source.getB() * RV * intersection.getKrb());
+		rgb[0] = add(rgb[0], r * RV * intersection.getKrr());
+		rgb[1] = add(rgb[1], g * RV * intersection.getKrg());
+		rgb[2] = add(rgb[2], b * RV * intersection.getKrb());
+	}
+
+	/**
+	 * Method that adds the contribution of a light to a color channel,
+	 * truncating the contribution and saturating the sum, since the summed
+	 * intensities of the light clusters can be very large.
+	 * 
+	 * @param value
+	 *            Value of the channel.
+	 * @param contribution
+	 *            Contribution of the light.
+	 * @return New value of the channel.
+	 */
+	private static short add(short value, double contribution) {
+		return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value + (long) contribution));
 	}
 
 }
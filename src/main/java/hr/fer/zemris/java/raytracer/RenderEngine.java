@@ -0,0 +1,462 @@
+package hr.fer.zemris.java.raytracer;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+
+/**
+ * Class that represents a long-lived render engine. The engine divides each
+ * frame into square tiles and renders them through its
+ * {@link ExecutionStrategy}, by default on the shared work-stealing pool. The
+ * tiles are ordered along the Z-order (Morton) curve and the work-stealing pool
+ * renders contiguous ranges of that order, so every worker thread stays within
+ * a compact region of the image and of the scene.
+ * <p>
+ * The size of the tiles trades the overhead of each tile for the balance of the
+ * threads, and the best size depends on the machine, the strategy and the
+ * scene, so it can be chosen by {@link #calibrate(int, int, TileRenderer)}.
+ * <p>
+ * Frames are identified by their request numbers, which are expected to grow.
+ * Once a frame with a larger request number is started, the tiles of the older
+ * frames which have not started yet are skipped, and their renders are
+ * reported as cancelled.
+ * <p>
+ * Frames can also be rendered progressively, in passes over ever denser grids
+ * of pixels, so that a coarse picture is available long before the whole frame
+ * is done.
+ *
+ * @author Dinz
+ *
+ */
+public class RenderEngine {
+	/**
+	 * Default width and height of the tiles in pixels.
+	 */
+	public static final int DEFAULT_TILE_SIZE = 16;
+	/**
+	 * Tile sizes tried by the calibration, all multiples of the largest step of
+	 * the progressive rendering.
+	 */
+	private static final int[] CALIBRATION_SIZES = { 8, 16, 32, 64 };
+
+	/**
+	 * Strategy which runs the tiles.
+	 */
+	private final ExecutionStrategy strategy;
+	/**
+	 * Width and height of the tiles in pixels.
+	 */
+	private volatile int tileSize;
+	/**
+	 * Largest request number started so far.
+	 */
+	private final AtomicLong latestRequest = new AtomicLong(Long.MIN_VALUE);
+
+	/**
+	 * Constructs a new engine which renders the tiles of the default size on the
+	 * common pool.
+	 */
+	public RenderEngine() {
+		this(ExecutionStrategy.forkJoin(), DEFAULT_TILE_SIZE);
+	}
+
+	/**
+	 * Constructs a new engine.
+	 *
+	 * @param pool
+	 *            Pool which renders the tiles.
+	 * @param tileSize
+	 *            Width and height of the tiles in pixels.
+	 * @throws IllegalArgumentException
+	 *             If the tile size is not positive.
+	 */
+	public RenderEngine(ForkJoinPool pool, int tileSize) {
+		this(ExecutionStrategy.forkJoin(pool), tileSize);
+	}
+
+	/**
+	 * Constructs a new engine.
+	 *
+	 * @param strategy
+	 *            Strategy which runs the tiles.
+	 * @param tileSize
+	 *            Width and height of the tiles in pixels.
+	 * @throws IllegalArgumentException
+	 *             If the tile size is not positive.
+	 */
+	public RenderEngine(ExecutionStrategy strategy, int tileSize) {
+		if (tileSize < 1) {
+			throw new IllegalArgumentException("Tile size must be positive.");
+		}
+		this.strategy = strategy;
+		this.tileSize = tileSize;
+	}
+
+	/**
+	 * Gets the width and height of the tiles in pixels.
+	 *
+	 * @return Tile size.
+	 */
+	public int getTileSize() {
+		return tileSize;
+	}
+
+	/**
+	 * Renders a frame of the given dimensions tile by tile. The method returns
+	 * once all the tiles are rendered or the frame is superseded by a frame with
+	 * a larger request number.
+	 *
+	 * @param width
+	 *            Width of the frame.
+	 * @param height
+	 *            Height of the frame.
+	 * @param requestNo
+	 *            Request number of the frame.
+	 * @param renderer
+	 *            Renderer of the tiles.
+	 * @return Statistics of the frame, or null if it was cancelled.
+	 */
+	public FrameStatistics render(int width, int height, long requestNo, TileRenderer renderer) {
+		if (latestRequest.accumulateAndGet(requestNo, Math::max) != requestNo) {
+			return null;
+		}
+
+		long start = System.nanoTime();
+		int tileSize = this.tileSize;
+		int[] tiles = tiles(width, height, tileSize);
+		long[] times = new long[tiles.length];
+		renderTiles(tiles, times, tileSize, width, height, requestNo, true, renderer);
+		if (isCancelled(requestNo)) {
+			return null;
+		}
+		return new FrameStatistics(times, System.nanoTime() - start);
+	}
+
+	/**
+	 * Renders a frame of the given dimensions progressively. The first pass
+	 * renders every pixel whose coordinates are multiples of the first step and
+	 * fills the block of step by step pixels starting at it. Each following pass
+	 * halves the step and renders only the pixels not rendered by the previous
+	 * passes, until the step is one. The listener is notified after each
+	 * finished pass, and the method returns once the last pass is done or the
+	 * frame is superseded by a frame with a larger request number.
+	 *
+	 * @param width
+	 *            Width of the frame.
+	 * @param height
+	 *            Height of the frame.
+	 * @param requestNo
+	 *            Request number of the frame.
+	 * @param firstStep
+	 *            Step of the first pass, a power of two dividing the tile size.
+	 * @param renderer
+	 *            Renderer of the passes over the tiles.
+	 * @param listener
+	 *            Listener notified with the step of each finished pass.
+	 * @return Statistics of the frame with the tile times summed over the
+	 *         passes, or null if it was cancelled.
+	 * @throws IllegalArgumentException
+	 *             If the first step is not a power of two dividing the tile size.
+	 */
+	public FrameStatistics renderProgressive(int width, int height, long requestNo, int firstStep,
+			ProgressiveRenderer renderer, IntConsumer listener) {
+		int tileSize = this.tileSize;
+		if (firstStep < 1 || Integer.bitCount(firstStep) != 1 || tileSize % firstStep != 0) {
+			throw new IllegalArgumentException("First step must be a power of two dividing the tile size.");
+		}
+		if (latestRequest.accumulateAndGet(requestNo, Math::max) != requestNo) {
+			return null;
+		}
+
+		long start = System.nanoTime();
+		int[] tiles = tiles(width, height, tileSize);
+		long[] times = new long[tiles.length];
+		for (int step = firstStep; step >= 1; step /= 2) {
+			int pass = step;
+			boolean first = step == firstStep;
+			renderTiles(tiles, times, tileSize, width, height, requestNo, true,
+					(x0, y0, x1, y1) -> renderer.render(x0, y0, x1, y1, pass, first));
+			if (isCancelled(requestNo)) {
+				return null;
+			}
+			listener.accept(step);
+		}
+		return new FrameStatistics(times, System.nanoTime() - start);
+	}
+
+	/**
+	 * Chooses the tile size by rendering a calibration frame once with each of
+	 * the tried sizes and keeping the fastest one. The calibration frame is
+	 * rendered once more beforehand, so the code is warmed up, and it is not
+	 * cancelled by the other frames, so it should be small, for example a frame
+	 * of the same view at a lower resolution.
+	 *
+	 * @param width
+	 *            Width of the calibration frame.
+	 * @param height
+	 *            Height of the calibration frame.
+	 * @param renderer
+	 *            Renderer of the calibration frame.
+	 * @return Chosen tile size.
+	 */
+	public int calibrate(int width, int height, TileRenderer renderer) {
+		int best = tileSize;
+		long bestTime = Long.MAX_VALUE;
+		for (int i = -1; i < CALIBRATION_SIZES.length; i++) {
+			int size = i < 0 ? tileSize : CALIBRATION_SIZES[i];
+			int[] tiles = tiles(width, height, size);
+			long start = System.nanoTime();
+			renderTiles(tiles, new long[tiles.length], size, width, height, 0, false, renderer);
+			long time = System.nanoTime() - start;
+			if (i >= 0 && time < bestTime) {
+				best = size;
+				bestTime = time;
+			}
+		}
+		tileSize = best;
+		return best;
+	}
+
+	/**
+	 * Checks whether the frame is superseded by a frame with a larger request
+	 * number.
+	 *
+	 * @param requestNo
+	 *            Request number of the frame.
+	 * @return True if the frame is cancelled, false otherwise.
+	 */
+	public boolean isCancelled(long requestNo) {
+		return latestRequest.get() != requestNo;
+	}
+
+	/**
+	 * Renders the tiles through the strategy, timing each of them.
+	 *
+	 * @param tiles
+	 *            Packed tiles in Morton order.
+	 * @param times
+	 *            Render times of the tiles, to which the times are added.
+	 * @param tileSize
+	 *            Width and height of the tiles in pixels.
+	 * @param width
+	 *            Width of the frame.
+	 * @param height
+	 *            Height of the frame.
+	 * @param requestNo
+	 *            Request number of the frame.
+	 * @param cancellable
+	 *            Whether the tiles are skipped once the frame is cancelled.
+	 * @param renderer
+	 *            Renderer of the tiles.
+	 */
+	private void renderTiles(int[] tiles, long[] times, int tileSize, int width, int height, long requestNo,
+			boolean cancellable, TileRenderer renderer) {
+		strategy.execute(tiles.length, index -> {
+			if (cancellable && isCancelled(requestNo)) {
+				return;
+			}
+			long start = System.nanoTime();
+			int x0 = (tiles[index] >>> 16) * tileSize;
+			int y0 = (tiles[index] & 0xFFFF) * tileSize;
+			renderer.render(x0, y0, Math.min(x0 + tileSize, width), Math.min(y0 + tileSize, height));
+			times[index] += System.nanoTime() - start;
+		});
+	}
+
+	/**
+	 * Gets the tiles of the frame sorted by their Morton codes. Each tile is
+	 * packed as its column in the upper and its row in the lower 16 bits.
+	 *
+	 * @param width
+	 *            Width of the frame.
+	 * @param height
+	 *            Height of the frame.
+	 * @param tileSize
+	 *            Width and height of the tiles in pixels.
+	 * @return Packed tiles.
+	 */
+	private static int[] tiles(int width, int height, int tileSize) {
+		int columns = (width + tileSize - 1) / tileSize;
+		int rows = (height + tileSize - 1) / tileSize;
+		long[] codes = new long[columns * rows];
+		int index = 0;
+		for (int row = 0; row < rows; row++) {
+			for (int column = 0; column < columns; column++) {
+				codes[index++] = mortonCode(column, row) << 32 | (long) column << 16 | row;
+			}
+		}
+		Arrays.sort(codes);
+
+		int[] tiles = new int[codes.length];
+		for (int i = 0; i < codes.length; i++) {
+			tiles[i] = (int) codes[i];
+		}
+		return tiles;
+	}
+
+	/**
+	 * Calculates the Morton code of the tile by interleaving the bits of its
+	 * column and row.
+	 *
+	 * @param column
+	 *            Column of the tile, below 2^16.
+	 * @param row
+	 *            Row of the tile, below 2^16.
+	 * @return Morton code.
+	 */
+	static long mortonCode(int column, int row) {
+		return spread(column) | spread(row) << 1;
+	}
+
+	/**
+	 * Spreads the lower 16 bits of the value to the even bits of the result.
+	 *
+	 * @param value
+	 *            Value.
+	 * @return Spread value.
+	 */
+	private static long spread(int value) {
+		long x = value & 0xFFFF;
+		x = (x | x << 8) & 0x00FF00FFL;
+		x = (x | x << 4) & 0x0F0F0F0FL;
+		x = (x | x << 2) & 0x33333333L;
+		x = (x | x << 1) & 0x55555555L;
+		return x;
+	}
+
+	/**
+	 * Interface that represents a renderer of the rectangular parts of a frame.
+	 *
+	 * @author Dinz
+	 *
+	 */
+	public interface TileRenderer {
+		/**
+		 * Renders the pixels of the given rectangle.
+		 *
+		 * @param x0
+		 *            First column, inclusive.
+		 * @param y0
+		 *            First row, inclusive.
+		 * @param x1
+		 *            Last column, exclusive.
+		 * @param y1
+		 *            Last row, exclusive.
+		 */
+		void render(int x0, int y0, int x1, int y1);
+	}
+
+	/**
+	 * Interface that represents a renderer of the passes of a progressive frame
+	 * over its tiles. Tiles given to the renderer start at multiples of the step
+	 * of each pass.
+	 *
+	 * @author Dinz
+	 *
+	 */
+	public interface ProgressiveRenderer extends TileRenderer {
+		/**
+		 * Renders the pixels of the given rectangle whose coordinates are multiples
+		 * of the step, except the ones which are also multiples of the double step
+		 * if this is not the first pass. Each rendered pixel fills the block of
+		 * step by step pixels starting at it, clipped to the rectangle.
+		 *
+		 * @param x0
+		 *            First column, inclusive.
+		 * @param y0
+		 *            First row, inclusive.
+		 * @param x1
+		 *            Last column, exclusive.
+		 * @param y1
+		 *            Last row, exclusive.
+		 * @param step
+		 *            Step of the pass.
+		 * @param first
+		 *            Whether this is the first pass.
+		 */
+		void render(int x0, int y0, int x1, int y1, int step, boolean first);
+
+		@Override
+		default void render(int x0, int y0, int x1, int y1) {
+			render(x0, y0, x1, y1, 1, true);
+		}
+	}
+
+	/**
+	 * Class that represents the timings of the tiles of a rendered frame.
+	 *
+	 * @author Dinz
+	 *
+	 */
+	public static class FrameStatistics {
+		/**
+		 * Render times of the tiles in nanoseconds, in Morton order.
+		 */
+		private final long[] tileTimes;
+		/**
+		 * Render time of the frame in nanoseconds.
+		 */
+		private final long frameTime;
+
+		/**
+		 * Constructs new statistics.
+		 *
+		 * @param tileTimes
+		 *            Render times of the tiles in nanoseconds.
+		 * @param frameTime
+		 *            Render time of the frame in nanoseconds.
+		 */
+		public FrameStatistics(long[] tileTimes, long frameTime) {
+			this.tileTimes = tileTimes;
+			this.frameTime = frameTime;
+		}
+
+		/**
+		 * Gets the number of tiles.
+		 *
+		 * @return Number of tiles.
+		 */
+		public int getTileCount() {
+			return tileTimes.length;
+		}
+
+		/**
+		 * Gets the render time of the tile.
+		 *
+		 * @param index
+		 *            Index of the tile in Morton order.
+		 * @return Render time in nanoseconds.
+		 */
+		public long getTileTime(int index) {
+			return tileTimes[index];
+		}
+
+		/**
+		 * Gets the render time of the frame.
+		 *
+		 * @return Render time in nanoseconds.
+		 */
+		public long getFrameTime() {
+			return frameTime;
+		}
+
+		@Override
+		public String toString() {
+			long minimum = Long.MAX_VALUE;
+			long maximum = 0;
+			long total = 0;
+			for (long time : tileTimes) {
+				minimum = Math.min(minimum, time);
+				maximum = Math.max(maximum, time);
+				total += time;
+			}
+			if (tileTimes.length == 0) {
+				minimum = 0;
+			}
+			return String.format("Frame %.2f ms, %d tiles, tile min %.3f ms, avg %.3f ms, max %.3f ms",
+					frameTime / 1E6, tileTimes.length, minimum / 1E6,
+					tileTimes.length == 0 ? 0 : total / 1E6 / tileTimes.length, maximum / 1E6);
+		}
+	}
+}
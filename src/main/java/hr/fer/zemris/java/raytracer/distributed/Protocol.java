@@ -0,0 +1,51 @@
+package hr.fer.zemris.java.raytracer.distributed;
+
+/**
+ * Class that holds the constants of the protocol between the render
+ * coordinator and its workers. After connecting, the worker sends the number
+ * of tiles it renders at once. The coordinator then sends messages, each
+ * starting with its type:
+ * <ul>
+ * <li>{@link #SCENE}: the length of the scene as a long, followed by the scene
+ * in the binary scene format,</li>
+ * <li>{@link #FRAME}: the number of the frame as a long, the eye, the view and
+ * the view-up vector as nine doubles, the horizontal and the vertical width of
+ * the observed space as doubles and the width and the height of the frame as
+ * ints,</li>
+ * <li>{@link #TILE}: the number of the frame as a long, the number of the tile
+ * and its first column, first row, last column and last row, exclusive, as
+ * ints,</li>
+ * <li>{@link #BYE}: no content, the worker exits.</li>
+ * </ul>
+ * The worker answers each tile of the current frame with the number of the
+ * frame as a long, the number of the tile and the number of its pixels as ints
+ * and the packed pixels of the tile, row by row, as ints. Tiles of older frames
+ * are dropped without an answer.
+ *
+ * @author Dinz
+ *
+ */
+final class Protocol {
+	/**
+	 * Type of the scene message.
+	 */
+	static final byte SCENE = 1;
+	/**
+	 * Type of the frame message.
+	 */
+	static final byte FRAME = 2;
+	/**
+	 * Type of the tile message.
+	 */
+	static final byte TILE = 3;
+	/**
+	 * Type of the message which ends the work.
+	 */
+	static final byte BYE = 4;
+
+	/**
+	 * Private constructor, the class only offers constants.
+	 */
+	private Protocol() {
+	}
+}
@@ -0,0 +1,762 @@
+package hr.fer.zemris.java.raytracer.distributed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import hr.fer.zemris.java.raytracer.PackedFrame;
+import hr.fer.zemris.java.raytracer.io.SceneWriter;
+import hr.fer.zemris.java.raytracer.model.Point3D;
+import hr.fer.zemris.java.raytracer.viewer.RayTracerViewer;
+
+/**
+ * Class that represents the coordinator of the distributed ray tracer. Workers
+ * connect to the coordinator, which sends each of them the scene once, in the
+ * binary scene format. Each frame is split into tiles which are handed out to
+ * the workers, several at a time, and the returned tiles are assembled into
+ * the frame.
+ * <p>
+ * The tiles of a worker which fails or does not return a tile in time are
+ * handed out again, and the failed worker is dropped. Once there are no tiles
+ * left to hand out, the tiles still being rendered are also given to idle
+ * workers, so a slow worker does not hold up the frame and the first copy of a
+ * tile to arrive is used.
+ *
+ * @author Dinz
+ *
+ */
+public class RenderCoordinator implements AutoCloseable {
+	/**
+	 * Width and height of the tiles.
+	 */
+	public static final int TILE_SIZE = 64;
+	/**
+	 * Time in milliseconds after which a tile which is not returned fails its
+	 * worker.
+	 */
+	private static final long TILE_TIMEOUT = 30_000;
+	/**
+	 * Time in milliseconds the coordinator waits for a worker to connect.
+	 */
+	private static final int ACCEPT_TIMEOUT = 60_000;
+	/**
+	 * Period in milliseconds of the checks of the timeouts.
+	 */
+	private static final long WATCHDOG_PERIOD = 100;
+	/**
+	 * Largest number of workers rendering the same tile at once.
+	 */
+	private static final int MAX_COPIES = 2;
+
+	/**
+	 * Socket on which the workers connect.
+	 */
+	private final ServerSocket server;
+	/**
+	 * File of the scene sent to the workers.
+	 */
+	private final Path scene;
+	/**
+	 * Connected workers, including the failed ones.
+	 */
+	private final List<Worker> workers = new ArrayList<>();
+	/**
+	 * Schedule of the current frame, or null.
+	 */
+	private Schedule schedule;
+	/**
+	 * Number of the current frame.
+	 */
+	private long frameNo;
+	/**
+	 * Whether the coordinator is closed.
+	 */
+	private boolean closed;
+
+	/**
+	 * Constructs a new coordinator listening on the port.
+	 *
+	 * @param scene
+	 *            File of the scene in the binary scene format.
+	 * @param port
+	 *            Port, or 0 for any free port.
+	 * @throws IOException
+	 *             If the port can not be opened.
+	 */
+	public RenderCoordinator(Path scene, int port) throws IOException {
+		this.scene = scene;
+		server = new ServerSocket(port);
+		server.setSoTimeout(ACCEPT_TIMEOUT);
+	}
+
+	/**
+	 * Main method that renders one frame of a scene on worker processes and
+	 * writes it as a PNG image. The arguments are the scene, which is the path
+	 * of a binary scene file or "predefined", the number of workers, the width
+	 * and the height of the frame, the path of the image and optionally a port.
+	 * Without the port, the workers are started as local processes, and with it
+	 * the coordinator waits on that port for the workers started by the user.
+	 *
+	 * @param args
+	 *            Scene, workers, width, height, image and port.
+	 */
+	public static void main(String[] args) {
+		if (args.length < 5 || args.length > 6) {
+			System.out.println("Expected the scene, the number of workers, the width, the height, the image "
+					+ "and optionally the port.");
+			return;
+		}
+		List<Process> processes = new ArrayList<>();
+		Path temporary = null;
+		try {
+			int count = Integer.parseInt(args[1]);
+			int width = Integer.parseInt(args[2]);
+			int height = Integer.parseInt(args[3]);
+			int port = args.length == 6 ? Integer.parseInt(args[5]) : 0;
+			if (count < 1 || width < 2 || height < 2) {
+				System.out.println("Expected at least one worker and a frame at least 2 pixels wide and high.");
+				return;
+			}
+			Path scene;
+			if (args[0].equals("predefined")) {
+				temporary = Files.createTempFile("scene", ".bin");
+				SceneWriter.write(RayTracerViewer.createPredefinedScene(), temporary);
+				scene = temporary;
+			} else {
+				scene = Paths.get(args[0]);
+				if (!Files.isRegularFile(scene)) {
+					throw new NoSuchFileException(args[0]);
+				}
+			}
+
+			try (RenderCoordinator coordinator = new RenderCoordinator(scene, port)) {
+				if (args.length == 6) {
+					System.out.printf("Waiting for %d workers on port %d.%n", count, coordinator.getPort());
+				} else {
+					String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+					for (int i = 0; i < count; i++) {
+						processes.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+								RenderWorker.class.getName(), "localhost", Integer.toString(coordinator.getPort()))
+										.inheritIO().start());
+					}
+				}
+				long start = System.nanoTime();
+				coordinator.accept(count);
+				System.out.printf("%d workers connected in %.1f ms.%n", count, (System.nanoTime() - start) / 1E6);
+
+				start = System.nanoTime();
+				PackedFrame frame = coordinator.render(new Point3D(10, 0, 0), new Point3D(0, 0, 0),
+						new Point3D(0, 0, 10), 20, 20.0 * height / width, width, height);
+				long time = System.nanoTime() - start;
+				System.out.printf("Rendered %dx%d in %.1f ms (%.2f Mpixel/s), tiles per worker: %s%n", width, height,
+						time / 1E6, (double) width * height / (time / 1E3), coordinator.getTileCounts());
+				ImageIO.write(frame.toImage(), "png", new File(args[4]));
+			}
+		} catch (NumberFormatException ex) {
+			System.out.println("Invalid number: " + ex.getMessage());
+		} catch (NoSuchFileException ex) {
+			System.out.println("File not found: " + ex.getMessage());
+		} catch (IOException | IllegalArgumentException ex) {
+			System.out.println("Error: " + ex.getMessage());
+		} catch (InterruptedException ex) {
+			System.out.println("Rendering interrupted.");
+		} finally {
+			for (Process process : processes) {
+				try {
+					if (!process.waitFor(5, TimeUnit.SECONDS)) {
+						process.destroyForcibly();
+					}
+				} catch (InterruptedException ex) {
+					process.destroyForcibly();
+				}
+			}
+			if (temporary != null) {
+				try {
+					Files.deleteIfExists(temporary);
+				} catch (IOException ignorable) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the port on which the workers connect.
+	 *
+	 * @return Port.
+	 */
+	public int getPort() {
+		return server.getLocalPort();
+	}
+
+	/**
+	 * Waits for the workers to connect and sends each of them the scene.
+	 *
+	 * @param count
+	 *            Number of workers.
+	 * @throws IOException
+	 *             If a worker does not connect in time or the scene can not be
+	 *             sent.
+	 */
+	public void accept(int count) throws IOException {
+		for (int i = 0; i < count; i++) {
+			Socket socket = server.accept();
+			try {
+				socket.setTcpNoDelay(true);
+				Worker worker = new Worker(socket);
+				int index;
+				synchronized (this) {
+					workers.add(worker);
+					index = workers.size();
+				}
+				Thread reader = new Thread(worker::read, "Worker reader " + index);
+				reader.setDaemon(true);
+				reader.start();
+			} catch (IOException ex) {
+				socket.close();
+				throw ex;
+			}
+		}
+	}
+
+	/**
+	 * Renders a frame on the workers.
+	 *
+	 * @param eye
+	 *            Eye position.
+	 * @param view
+	 *            View position.
+	 * @param viewUp
+	 *            View-up vector.
+	 * @param horizontal
+	 *            Horizontal width of the observed space.
+	 * @param vertical
+	 *            Vertical height of the observed space.
+	 * @param width
+	 *            Width in pixels.
+	 * @param height
+	 *            Height in pixels.
+	 * @return Rendered frame.
+	 * @throws IOException
+	 *             If all the workers fail.
+	 * @throws InterruptedException
+	 *             If the thread is interrupted while waiting for the tiles.
+	 */
+	public synchronized PackedFrame render(Point3D eye, Point3D view, Point3D viewUp, double horizontal,
+			double vertical, int width, int height) throws IOException, InterruptedException {
+		if (closed) {
+			throw new IllegalStateException("Coordinator is closed.");
+		}
+		PackedFrame frame = new PackedFrame(width, height);
+		frameNo++;
+		schedule = new Schedule(frame);
+		try {
+			for (Worker worker : workers) {
+				worker.outstanding.clear();
+				if (worker.alive) {
+					try {
+						worker.sendFrame(eye, view, viewUp, horizontal, vertical, width, height);
+					} catch (IOException ex) {
+						fail(worker);
+					}
+				}
+			}
+			for (Worker worker : workers) {
+				fill(worker);
+			}
+
+			while (schedule.remaining > 0) {
+				if (workers.stream().noneMatch(w -> w.alive)) {
+					throw new IOException("All workers failed.");
+				}
+				wait(WATCHDOG_PERIOD);
+				long now = System.nanoTime();
+				for (Worker worker : workers) {
+					Iterator<Long> issued = worker.outstanding.values().iterator();
+					if (worker.alive && issued.hasNext()
+							&& now - issued.next() > TimeUnit.MILLISECONDS.toNanos(TILE_TIMEOUT)) {
+						System.out.println("Worker " + worker.socket.getRemoteSocketAddress() + " timed out.");
+						fail(worker);
+					}
+				}
+			}
+			return frame;
+		} finally {
+			schedule = null;
+		}
+	}
+
+	/**
+	 * Gets the number of tiles returned by each worker in the last frame.
+	 *
+	 * @return Tile counts, in the order in which the workers connected.
+	 */
+	public synchronized List<Integer> getTileCounts() {
+		List<Integer> counts = new ArrayList<>();
+		for (Worker worker : workers) {
+			counts.add(worker.tiles);
+		}
+		return counts;
+	}
+
+	/**
+	 * Ends the work of the workers and closes the coordinator.
+	 *
+	 * @throws IOException
+	 *             If the socket of the coordinator can not be closed.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		closed = true;
+		for (Worker worker : workers) {
+			if (worker.alive) {
+				try {
+					worker.out.writeByte(Protocol.BYE);
+					worker.out.flush();
+				} catch (IOException ignorable) {
+				}
+				worker.close();
+			}
+		}
+		server.close();
+	}
+
+	/**
+	 * Hands out tiles to the worker until it is fully loaded or there are no
+	 * tiles to hand out.
+	 *
+	 * @param worker
+	 *            Worker.
+	 */
+	private void fill(Worker worker) {
+		if (schedule == null || !worker.alive) {
+			return;
+		}
+		try {
+			boolean sent = false;
+			while (worker.outstanding.size() < worker.capacity) {
+				int tile = schedule.next(worker);
+				if (tile < 0) {
+					break;
+				}
+				worker.outstanding.put(tile, System.nanoTime());
+				worker.sendTile(tile, schedule);
+				sent = true;
+			}
+			if (sent) {
+				worker.out.flush();
+			}
+		} catch (IOException ex) {
+			fail(worker);
+		}
+	}
+
+	/**
+	 * Gets the number of pixels the worker must return for the tile. Tiles of
+	 * the older frames have no schedule anymore, so only their size is limited.
+	 *
+	 * @param number
+	 *            Number of the frame of the tile.
+	 * @param tile
+	 *            Number of the tile.
+	 * @return Number of pixels of the tile, or -1 if the tile is not of the
+	 *         current frame.
+	 */
+	private synchronized int expectedPixels(long number, int tile) {
+		if (schedule == null || number != frameNo || tile < 0 || tile >= schedule.done.length) {
+			return -1;
+		}
+		return (schedule.x1(tile) - schedule.x0(tile)) * (schedule.y1(tile) - schedule.y0(tile));
+	}
+
+	/**
+	 * Accepts a tile returned by the worker.
+	 *
+	 * @param worker
+	 *            Worker.
+	 * @param number
+	 *            Number of the frame of the tile.
+	 * @param tile
+	 *            Number of the tile.
+	 * @param pixels
+	 *            Pixels of the tile.
+	 */
+	private synchronized void deliver(Worker worker, long number, int tile, int[] pixels) {
+		if (schedule == null || number != frameNo || worker.outstanding.remove(tile) == null) {
+			return;
+		}
+		if (schedule.complete(tile)) {
+			schedule.copy(tile, pixels);
+			worker.tiles++;
+			if (schedule.remaining == 0) {
+				notifyAll();
+				return;
+			}
+		}
+		fill(worker);
+	}
+
+	/**
+	 * Drops the worker and hands out its tiles again.
+	 *
+	 * @param worker
+	 *            Failed worker.
+	 */
+	private synchronized void fail(Worker worker) {
+		if (!worker.alive) {
+			return;
+		}
+		worker.close();
+		if (schedule != null) {
+			for (int tile : worker.outstanding.keySet()) {
+				schedule.requeue(tile);
+			}
+			worker.outstanding.clear();
+			for (Worker other : workers) {
+				fill(other);
+			}
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Class that represents a connected worker.
+	 *
+	 * @author Dinz
+	 *
+	 */
+	private class Worker {
+		/**
+		 * Connection to the worker.
+		 */
+		private final Socket socket;
+		/**
+		 * Output to the worker.
+		 */
+		private final DataOutputStream out;
+		/**
+		 * Input from the worker.
+		 */
+		private final DataInputStream in;
+		/**
+		 * Number of tiles the worker renders at once.
+		 */
+		private final int capacity;
+		/**
+		 * Tiles of the current frame given to the worker, with the times when they
+		 * were given, oldest first.
+		 */
+		private final Map<Integer, Long> outstanding = new LinkedHashMap<>();
+		/**
+		 * Number of tiles returned in the current frame.
+		 */
+		private int tiles;
+		/**
+		 * Whether the worker works.
+		 */
+		private boolean alive = true;
+
+		/**
+		 * Constructs a new worker, reading its capacity and sending it the scene.
+		 *
+		 * @param socket
+		 *            Connection to the worker.
+		 * @throws IOException
+		 *             If the connection fails.
+		 */
+		Worker(Socket socket) throws IOException {
+			this.socket = socket;
+			out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			capacity = Math.max(1, Math.min(1024, in.readInt()));
+			out.writeByte(Protocol.SCENE);
+			out.writeLong(Files.size(scene));
+			Files.copy(scene, out);
+			out.flush();
+		}
+
+		/**
+		 * Sends the frame message.
+		 *
+		 * @param eye
+		 *            Eye position.
+		 * @param view
+		 *            View position.
+		 * @param viewUp
+		 *            View-up vector.
+		 * @param horizontal
+		 *            Horizontal width of the observed space.
+		 * @param vertical
+		 *            Vertical height of the observed space.
+		 * @param width
+		 *            Width in pixels.
+		 * @param height
+		 *            Height in pixels.
+		 * @throws IOException
+		 *             If the message can not be sent.
+		 */
+		void sendFrame(Point3D eye, Point3D view, Point3D viewUp, double horizontal, double vertical, int width,
+				int height) throws IOException {
+			tiles = 0;
+			out.writeByte(Protocol.FRAME);
+			out.writeLong(frameNo);
+			for (Point3D point : new Point3D[] { eye, view, viewUp }) {
+				out.writeDouble(point.x);
+				out.writeDouble(point.y);
+				out.writeDouble(point.z);
+			}
+			out.writeDouble(horizontal);
+			out.writeDouble(vertical);
+			out.writeInt(width);
+			out.writeInt(height);
+		}
+
+		/**
+		 * Sends the tile message, without flushing the output.
+		 *
+		 * @param tile
+		 *            Number of the tile.
+		 * @param schedule
+		 *            Schedule of the frame.
+		 * @throws IOException
+		 *             If the message can not be sent.
+		 */
+		void sendTile(int tile, Schedule schedule) throws IOException {
+			out.writeByte(Protocol.TILE);
+			out.writeLong(frameNo);
+			out.writeInt(tile);
+			out.writeInt(schedule.x0(tile));
+			out.writeInt(schedule.y0(tile));
+			out.writeInt(schedule.x1(tile));
+			out.writeInt(schedule.y1(tile));
+		}
+
+		/**
+		 * Reads the returned tiles until the connection fails or is closed. A
+		 * worker which returns a tile of a wrong size, or breaks the reading in
+		 * any other way, is dropped as a failed one.
+		 */
+		void read() {
+			try {
+				while (true) {
+					long number = in.readLong();
+					int tile = in.readInt();
+					int length = in.readInt();
+					int expected = expectedPixels(number, tile);
+					if (expected >= 0 ? length != expected : length < 0 || length > TILE_SIZE * TILE_SIZE) {
+						throw new IOException("Worker returned " + length + " pixels for tile " + tile + ".");
+					}
+					int[] pixels = new int[length];
+					for (int i = 0; i < pixels.length; i++) {
+						pixels[i] = in.readInt();
+					}
+					deliver(this, number, tile, pixels);
+				}
+			} catch (Throwable ex) {
+				synchronized (RenderCoordinator.this) {
+					if (alive && !closed) {
+						System.out.println("Worker " + socket.getRemoteSocketAddress() + " failed: " + ex);
+					}
+					fail(this);
+				}
+			}
+		}
+
+		/**
+		 * Closes the connection.
+		 */
+		void close() {
+			alive = false;
+			try {
+				socket.close();
+			} catch (IOException ignorable) {
+			}
+		}
+	}
+
+	/**
+	 * Class that represents the tiles of a frame and their state.
+	 *
+	 * @author Dinz
+	 *
+	 */
+	private static class Schedule {
+		/**
+		 * Frame.
+		 */
+		private final PackedFrame frame;
+		/**
+		 * Number of tile columns.
+		 */
+		private final int columns;
+		/**
+		 * Tiles which are not given to any worker.
+		 */
+		private final Deque<Integer> pending = new ArrayDeque<>();
+		/**
+		 * Number of workers rendering each tile.
+		 */
+		private final int[] copies;
+		/**
+		 * Whether each tile is returned.
+		 */
+		private final boolean[] done;
+		/**
+		 * Number of tiles which are not returned.
+		 */
+		private int remaining;
+
+		/**
+		 * Constructs a new schedule of the frame.
+		 *
+		 * @param frame
+		 *            Frame.
+		 */
+		Schedule(PackedFrame frame) {
+			this.frame = frame;
+			columns = (frame.getWidth() + TILE_SIZE - 1) / TILE_SIZE;
+			int rows = (frame.getHeight() + TILE_SIZE - 1) / TILE_SIZE;
+			remaining = columns * rows;
+			copies = new int[remaining];
+			done = new boolean[remaining];
+			for (int i = 0; i < remaining; i++) {
+				pending.add(i);
+			}
+		}
+
+		/**
+		 * Chooses the next tile for the worker, which is a tile not given to any
+		 * worker or, if there are none, a tile still being rendered by another
+		 * worker.
+		 *
+		 * @param worker
+		 *            Worker.
+		 * @return Number of the tile, or -1 if there is no tile for the worker.
+		 */
+		int next(Worker worker) {
+			Integer tile = pending.poll();
+			if (tile == null) {
+				for (int i = 0; i < done.length; i++) {
+					if (!done[i] && copies[i] < MAX_COPIES && !worker.outstanding.containsKey(i)) {
+						tile = i;
+						break;
+					}
+				}
+				if (tile == null) {
+					return -1;
+				}
+			}
+			copies[tile]++;
+			return tile;
+		}
+
+		/**
+		 * Takes the tile back from a failed worker.
+		 *
+		 * @param tile
+		 *            Number of the tile.
+		 */
+		void requeue(int tile) {
+			copies[tile]--;
+			if (!done[tile] && copies[tile] == 0) {
+				pending.addFirst(tile);
+			}
+		}
+
+		/**
+		 * Marks the tile as returned.
+		 *
+		 * @param tile
+		 *            Number of the tile.
+		 * @return True if this is the first copy of the tile, false otherwise.
+		 */
+		boolean complete(int tile) {
+			copies[tile]--;
+			if (done[tile]) {
+				return false;
+			}
+			done[tile] = true;
+			remaining--;
+			return true;
+		}
+
+		/**
+		 * Copies the pixels of the tile into the frame.
+		 *
+		 * @param tile
+		 *            Number of the tile.
+		 * @param pixels
+		 *            Pixels of the tile.
+		 */
+		void copy(int tile, int[] pixels) {
+			int x0 = x0(tile);
+			int width = x1(tile) - x0;
+			int[] target = frame.getPixels();
+			for (int y = y0(tile), y1 = y1(tile), offset = 0; y < y1; y++, offset += width) {
+				System.arraycopy(pixels, offset, target, y * frame.getWidth() + x0, width);
+			}
+		}
+
+		/**
+		 * Gets the first column of the tile.
+		 *
+		 * @param tile
+		 *            Number of the tile.
+		 * @return First column, inclusive.
+		 */
+		int x0(int tile) {
+			return tile % columns * TILE_SIZE;
+		}
+
+		/**
+		 * Gets the first row of the tile.
+		 *
+		 * @param tile
+		 *            Number of the tile.
+		 * @return First row, inclusive.
+		 */
+		int y0(int tile) {
+			return tile / columns * TILE_SIZE;
+		}
+
+		/**
+		 * Gets the last column of the tile.
+		 *
+		 * @param tile
+		 *            Number of the tile.
+		 * @return Last column, exclusive.
+		 */
+		int x1(int tile) {
+			return Math.min(x0(tile) + TILE_SIZE, frame.getWidth());
+		}
+
+		/**
+		 * Gets the last row of the tile.
+		 *
+		 * @param tile
+		 *            Number of the tile.
+		 * @return Last row, exclusive.
+		 */
+		int y1(int tile) {
+			return Math.min(y0(tile) + TILE_SIZE, frame.getHeight());
+		}
+	}
+}
@@ -0,0 +1,274 @@
+package hr.fer.zemris.java.raytracer.distributed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import hr.fer.zemris.java.raytracer.PackedFrame;
+import hr.fer.zemris.java.raytracer.RaycasterParallel;
+import hr.fer.zemris.java.raytracer.io.SceneFile;
+import hr.fer.zemris.java.raytracer.model.Point3D;
+import hr.fer.zemris.java.raytracer.model.SceneBVH;
+
+/**
+ * Class that represents a worker of the distributed ray tracer. The worker
+ * connects to a {@link RenderCoordinator}, receives the scene once and then
+ * renders the tiles it is given, several at once on its own threads, sending
+ * each tile back as soon as it is done.
+ *
+ * @author Dinz
+ *
+ */
+public class RenderWorker {
+	/**
+	 * Number of tiles rendered at once by each thread, so a thread always has
+	 * the next tile waiting while its result travels.
+	 */
+	private static final int TILES_PER_THREAD = 2;
+
+	/**
+	 * Connection to the coordinator.
+	 */
+	private final Socket socket;
+	/**
+	 * Output to the coordinator, shared by the rendering threads.
+	 */
+	private final DataOutputStream out;
+	/**
+	 * Threads which render the tiles.
+	 */
+	private final ExecutorService executor;
+	/**
+	 * Number of the threads.
+	 */
+	private final int threads;
+	/**
+	 * Accelerated scene, or null before the scene is received.
+	 */
+	private SceneBVH scene;
+	/**
+	 * Current frame, or null before the first frame.
+	 */
+	private volatile Frame frame;
+
+	/**
+	 * Constructs a new worker on the connection.
+	 *
+	 * @param socket
+	 *            Connection to the coordinator.
+	 * @param threads
+	 *            Number of rendering threads.
+	 * @throws IOException
+	 *             If the output of the connection can not be opened.
+	 */
+	public RenderWorker(Socket socket, int threads) throws IOException {
+		this.socket = socket;
+		this.threads = threads;
+		out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		executor = Executors.newFixedThreadPool(threads, r -> {
+			Thread thread = new Thread(r, "Tile renderer");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Main method that connects a worker to the coordinator. The arguments are
+	 * the host and the port of the coordinator.
+	 *
+	 * @param args
+	 *            Host and port.
+	 */
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			System.out.println("Expected the host and the port of the coordinator.");
+			return;
+		}
+		try (Socket socket = new Socket(args[0], Integer.parseInt(args[1]))) {
+			socket.setTcpNoDelay(true);
+			new RenderWorker(socket, Runtime.getRuntime().availableProcessors()).run();
+		} catch (NumberFormatException ex) {
+			System.out.println("Invalid port: " + args[1]);
+		} catch (IOException ex) {
+			System.out.println("Worker stopped: " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Serves the coordinator until it ends the work or closes the connection.
+	 *
+	 * @throws IOException
+	 *             If the connection fails.
+	 */
+	public void run() throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		synchronized (out) {
+			out.writeInt(threads * TILES_PER_THREAD);
+			out.flush();
+		}
+		try {
+			while (true) {
+				byte type;
+				try {
+					type = in.readByte();
+				} catch (EOFException ex) {
+					return;
+				}
+				switch (type) {
+				case Protocol.SCENE:
+					readScene(in);
+					break;
+				case Protocol.FRAME:
+					if (scene == null) {
+						throw new IOException("Frame received before the scene.");
+					}
+					frame = new Frame(in, scene);
+					break;
+				case Protocol.TILE:
+					long frameNo = in.readLong();
+					int tile = in.readInt();
+					int x0 = in.readInt();
+					int y0 = in.readInt();
+					int x1 = in.readInt();
+					int y1 = in.readInt();
+					Frame current = frame;
+					if (current == null) {
+						throw new IOException("Tile received before the scene and the frame.");
+					}
+					executor.execute(() -> render(current, frameNo, tile, x0, y0, x1, y1));
+					break;
+				case Protocol.BYE:
+					return;
+				default:
+					throw new IOException("Unknown message type " + type + ".");
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Reads the scene into a temporary file and loads it from there.
+	 *
+	 * @param in
+	 *            Input from the coordinator.
+	 * @throws IOException
+	 *             If the scene can not be read.
+	 */
+	private void readScene(DataInputStream in) throws IOException {
+		long length = in.readLong();
+		Path file = Files.createTempFile("scene", ".bin");
+		try {
+			try (OutputStream fileOut = Files.newOutputStream(file)) {
+				byte[] buffer = new byte[1 << 16];
+				for (long left = length; left > 0;) {
+					int read = in.read(buffer, 0, (int) Math.min(buffer.length, left));
+					if (read < 0) {
+						throw new EOFException("Scene ended early.");
+					}
+					fileOut.write(buffer, 0, read);
+					left -= read;
+				}
+			}
+			scene = new SceneBVH(SceneFile.load(file));
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	/**
+	 * Renders the tile and sends it to the coordinator, unless a newer frame has
+	 * started in the meantime.
+	 *
+	 * @param frame
+	 *            Frame of the tile.
+	 * @param frameNo
+	 *            Number of the frame of the tile.
+	 * @param tile
+	 *            Number of the tile.
+	 * @param x0
+	 *            First column, inclusive.
+	 * @param y0
+	 *            First row, inclusive.
+	 * @param x1
+	 *            Last column, exclusive.
+	 * @param y1
+	 *            Last row, exclusive.
+	 */
+	private void render(Frame frame, long frameNo, int tile, int x0, int y0, int x1, int y1) {
+		if (this.frame != frame || frame.number != frameNo) {
+			return;
+		}
+		PackedFrame pixels = new PackedFrame(x1 - x0, y1 - y0);
+		frame.coloring.window(x0, y0, x1 - x0, pixels.getPixels()).render(x0, y0, x1, y1);
+		try {
+			synchronized (out) {
+				out.writeLong(frameNo);
+				out.writeInt(tile);
+				out.writeInt(pixels.getPixels().length);
+				for (int pixel : pixels.getPixels()) {
+					out.writeInt(pixel);
+				}
+				out.flush();
+			}
+		} catch (IOException ex) {
+			// the coordinator is gone, which the reading thread notices as well
+			try {
+				socket.close();
+			} catch (IOException ignorable) {
+			}
+		}
+	}
+
+	/**
+	 * Class that represents a frame, with the coloring of the whole frame built
+	 * once from its camera and size, so the camera basis and the light tree are
+	 * shared by the colorings of all its tiles.
+	 *
+	 * @author Dinz
+	 *
+	 */
+	private static class Frame {
+		/**
+		 * Number of the frame.
+		 */
+		private final long number;
+		/**
+		 * Coloring of the whole frame.
+		 */
+		private final RaycasterParallel.Coloring coloring;
+
+		/**
+		 * Reads the frame message.
+		 *
+		 * @param in
+		 *            Input from the coordinator.
+		 * @param scene
+		 *            Accelerated scene.
+		 * @throws IOException
+		 *             If the message can not be read.
+		 */
+		Frame(DataInputStream in, SceneBVH scene) throws IOException {
+			number = in.readLong();
+			Point3D eye = new Point3D(in.readDouble(), in.readDouble(), in.readDouble());
+			Point3D view = new Point3D(in.readDouble(), in.readDouble(), in.readDouble());
+			Point3D viewUp = new Point3D(in.readDouble(), in.readDouble(), in.readDouble());
+			double horizontal = in.readDouble();
+			double vertical = in.readDouble();
+			int width = in.readInt();
+			int height = in.readInt();
+			coloring = RaycasterParallel.createColoring(scene, eye, view, viewUp, horizontal, vertical, width, height,
+					null, null, null, 1);
+		}
+	}
+}
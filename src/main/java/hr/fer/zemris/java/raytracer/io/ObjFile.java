@@ -0,0 +1,544 @@
+package hr.fer.zemris.java.raytracer.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import hr.fer.zemris.java.raytracer.model.TriangleMesh;
+
+/**
+ * Class that loads triangle meshes from Wavefront OBJ files. The file is parsed
+ * as a stream of bytes into growable primitive arrays, without a string for
+ * each line or an object for each vertex or face, so the size of the meshes is
+ * limited only by their arrays.
+ * <p>
+ * Only the vertices ("v"), the normals ("vn") and the faces ("f") are read, and
+ * the other lines are skipped. Faces with more than three vertices are split
+ * into triangle fans, and negative indices count back from the last vertex or
+ * normal read. Since a vertex of the mesh has a single normal, a vertex which
+ * the faces reference with different normals is copied for each of them. If
+ * some vertex of a face has no normal, the normals are dropped and the
+ * triangles are flat.
+ *
+ * @author Dinz
+ *
+ */
+public final class ObjFile {
+	/**
+	 * Size of the read buffer.
+	 */
+	private static final int BUFFER_SIZE = 1 << 16;
+	/**
+	 * Powers of ten which are exact doubles.
+	 */
+	private static final double[] POWERS_OF_TEN = { 1E0, 1E1, 1E2, 1E3, 1E4, 1E5, 1E6, 1E7, 1E8, 1E9, 1E10, 1E11,
+			1E12, 1E13, 1E14, 1E15, 1E16, 1E17, 1E18, 1E19, 1E20, 1E21, 1E22 };
+
+	/**
+	 * Private constructor, the class only offers static methods.
+	 */
+	private ObjFile() {
+	}
+
+	/**
+	 * Loads the mesh from the file and gives it the material.
+	 *
+	 * @param path
+	 *            Path of the file.
+	 * @param kdr
+	 *            Diffuse component for red color.
+	 * @param kdg
+	 *            Diffuse component for green color.
+	 * @param kdb
+	 *            Diffuse component for blue color.
+	 * @param krr
+	 *            Reflective component for red color.
+	 * @param krg
+	 *            Reflective component for green color.
+	 * @param krb
+	 *            Reflective component for blue color.
+	 * @param krn
+	 *            Reflective multiplier.
+	 * @return Loaded mesh.
+	 * @throws IOException
+	 *             If the file can not be read or is not a valid OBJ file.
+	 */
+	public static TriangleMesh load(Path path, double kdr, double kdg, double kdb, double krr, double krg,
+			double krb, double krn) throws IOException {
+		try (InputStream in = Files.newInputStream(path)) {
+			return new Parser(in).parse().toMesh(kdr, kdg, kdb, krr, krg, krb, krn);
+		}
+	}
+
+	/**
+	 * Class that parses the bytes of an OBJ file.
+	 *
+	 * @author Dinz
+	 *
+	 */
+	private static class Parser {
+		/**
+		 * Input of the file.
+		 */
+		private final InputStream in;
+		/**
+		 * Read buffer.
+		 */
+		private final byte[] buffer = new byte[BUFFER_SIZE];
+		/**
+		 * Position of the next byte in the buffer.
+		 */
+		private int position;
+		/**
+		 * Number of bytes in the buffer.
+		 */
+		private int limit;
+		/**
+		 * Current line, for the error messages.
+		 */
+		private int line = 1;
+
+		/**
+		 * Components of the vertices of the file.
+		 */
+		private float[] vertices = new float[3 * 1024];
+		/**
+		 * Number of the vertices of the file.
+		 */
+		private int vertexCount;
+		/**
+		 * Components of the normals of the file.
+		 */
+		private float[] normals = new float[3 * 1024];
+		/**
+		 * Number of the normals of the file.
+		 */
+		private int normalCount;
+		/**
+		 * Vertex indices of the triangles, where copies of the vertices are
+		 * referenced by negative numbers until the number of the vertices is
+		 * known.
+		 */
+		private int[] indices = new int[3 * 1024];
+		/**
+		 * Number of the vertex indices of the triangles.
+		 */
+		private int indexCount;
+		/**
+		 * Whether every vertex of every face has a normal.
+		 */
+		private boolean allNormals = true;
+
+		/**
+		 * Normal of each vertex of the file, or -1 if not referenced yet.
+		 */
+		private int[] vertexNormal = new int[0];
+		/**
+		 * First copy of each vertex of the file, or -1.
+		 */
+		private int[] firstCopy = new int[0];
+		/**
+		 * Vertex of the file copied by each copy.
+		 */
+		private int[] copyVertex = new int[16];
+		/**
+		 * Normal of each copy.
+		 */
+		private int[] copyNormal = new int[16];
+		/**
+		 * Next copy of the same vertex for each copy, or -1.
+		 */
+		private int[] nextCopy = new int[16];
+		/**
+		 * Number of the copies.
+		 */
+		private int copyCount;
+
+		/**
+		 * Vertex indices of the current face.
+		 */
+		private int[] face = new int[16];
+
+		/**
+		 * Constructs a new parser.
+		 *
+		 * @param in
+		 *            Input of the file.
+		 */
+		Parser(InputStream in) {
+			this.in = in;
+		}
+
+		/**
+		 * Parses the whole file.
+		 *
+		 * @return This parser.
+		 * @throws IOException
+		 *             If the file can not be read or is not valid.
+		 */
+		Parser parse() throws IOException {
+			while (true) {
+				skipSpaces();
+				int c = peek();
+				if (c < 0) {
+					return this;
+				}
+				if (c == 'v') {
+					read();
+					int next = peek();
+					if (next == ' ' || next == '\t') {
+						vertices = ensure(vertices, vertexCount * 3 + 3);
+						for (int i = 0; i < 3; i++) {
+							vertices[vertexCount * 3 + i] = readFloat();
+						}
+						vertexCount++;
+					} else if (next == 'n') {
+						read();
+						normals = ensure(normals, normalCount * 3 + 3);
+						for (int i = 0; i < 3; i++) {
+							normals[normalCount * 3 + i] = readFloat();
+						}
+						normalCount++;
+					}
+				} else if (c == 'f') {
+					read();
+					readFace();
+				}
+				skipLine();
+			}
+		}
+
+		/**
+		 * Reads the vertices of a face and adds its triangle fan.
+		 *
+		 * @throws IOException
+		 *             If the face is not valid.
+		 */
+		private void readFace() throws IOException {
+			int count = 0;
+			while (true) {
+				skipSpaces();
+				int c = peek();
+				if (c < 0 || c == '\n' || c == '\r' || c == '#') {
+					break;
+				}
+				int vertex = resolve(readInt(), vertexCount);
+				int normal = -1;
+				if (peek() == '/') {
+					read();
+					if (peek() != '/') {
+						readInt();
+					}
+					if (peek() == '/') {
+						read();
+						normal = resolve(readInt(), normalCount);
+					}
+				}
+				if (normal < 0) {
+					allNormals = false;
+				}
+				face = ensure(face, count + 1);
+				face[count++] = withNormal(vertex, normal);
+			}
+			if (count < 3) {
+				throw new IOException("Face with fewer than three vertices on line " + line + ".");
+			}
+			indices = ensure(indices, indexCount + (count - 2) * 3);
+			for (int i = 1; i < count - 1; i++) {
+				indices[indexCount++] = face[0];
+				indices[indexCount++] = face[i];
+				indices[indexCount++] = face[i + 1];
+			}
+		}
+
+		/**
+		 * Resolves an index of the file, starting at one or counting back from
+		 * the last element if negative, into an index starting at zero.
+		 *
+		 * @param index
+		 *            Index of the file.
+		 * @param count
+		 *            Number of the elements read so far.
+		 * @return Resolved index.
+		 * @throws IOException
+		 *             If the index is out of range.
+		 */
+		private int resolve(int index, int count) throws IOException {
+			int resolved = index < 0 ? count + index : index - 1;
+			if (resolved < 0 || resolved >= count) {
+				throw new IOException("Index " + index + " is out of range on line " + line + ".");
+			}
+			return resolved;
+		}
+
+		/**
+		 * Gets the index of the vertex with the normal, which is the vertex itself
+		 * if it has no other normal, or a copy of it referenced by a negative
+		 * number otherwise.
+		 *
+		 * @param vertex
+		 *            Vertex of the file.
+		 * @param normal
+		 *            Normal, or -1.
+		 * @return Index of the vertex.
+		 */
+		private int withNormal(int vertex, int normal) {
+			if (vertexNormal.length < vertexCount) {
+				int oldLength = vertexNormal.length;
+				int length = Math.max(vertexCount, oldLength + (oldLength >> 1));
+				vertexNormal = Arrays.copyOf(vertexNormal, length);
+				firstCopy = Arrays.copyOf(firstCopy, length);
+				Arrays.fill(vertexNormal, oldLength, length, -1);
+				Arrays.fill(firstCopy, oldLength, length, -1);
+			}
+			if (normal < 0 || vertexNormal[vertex] == normal) {
+				return vertex;
+			}
+			if (vertexNormal[vertex] < 0) {
+				vertexNormal[vertex] = normal;
+				return vertex;
+			}
+			int last = -1;
+			for (int copy = firstCopy[vertex]; copy >= 0; copy = nextCopy[copy]) {
+				if (copyNormal[copy] == normal) {
+					return -copy - 1;
+				}
+				last = copy;
+			}
+			copyVertex = ensure(copyVertex, copyCount + 1);
+			copyNormal = ensure(copyNormal, copyCount + 1);
+			nextCopy = ensure(nextCopy, copyCount + 1);
+			copyVertex[copyCount] = vertex;
+			copyNormal[copyCount] = normal;
+			nextCopy[copyCount] = -1;
+			if (last < 0) {
+				firstCopy[vertex] = copyCount;
+			} else {
+				nextCopy[last] = copyCount;
+			}
+			return -++copyCount;
+		}
+
+		/**
+		 * Creates the mesh of the parsed file, appending the copies of the
+		 * vertices after the vertices of the file.
+		 *
+		 * @param kdr
+		 *            Diffuse component for red color.
+		 * @param kdg
+		 *            Diffuse component for green color.
+		 * @param kdb
+		 *            Diffuse component for blue color.
+		 * @param krr
+		 *            Reflective component for red color.
+		 * @param krg
+		 *            Reflective component for green color.
+		 * @param krb
+		 *            Reflective component for blue color.
+		 * @param krn
+		 *            Reflective multiplier.
+		 * @return Mesh.
+		 */
+		TriangleMesh toMesh(double kdr, double kdg, double kdb, double krr, double krg, double krb, double krn) {
+			int total = vertexCount + (allNormals ? copyCount : 0);
+			float[] meshVertices = Arrays.copyOf(vertices, total * 3);
+			float[] meshNormals = null;
+			if (allNormals) {
+				meshNormals = new float[total * 3];
+				for (int v = 0; v < vertexCount; v++) {
+					if (v < vertexNormal.length && vertexNormal[v] >= 0) {
+						System.arraycopy(normals, vertexNormal[v] * 3, meshNormals, v * 3, 3);
+					}
+				}
+				for (int copy = 0; copy < copyCount; copy++) {
+					System.arraycopy(vertices, copyVertex[copy] * 3, meshVertices, (vertexCount + copy) * 3, 3);
+					System.arraycopy(normals, copyNormal[copy] * 3, meshNormals, (vertexCount + copy) * 3, 3);
+				}
+			}
+			int[] meshIndices = Arrays.copyOf(indices, indexCount);
+			for (int i = 0; i < indexCount; i++) {
+				int index = meshIndices[i];
+				if (index < 0) {
+					meshIndices[i] = allNormals ? vertexCount - index - 1 : copyVertex[-index - 1];
+				}
+			}
+			vertices = null;
+			indices = null;
+			return new TriangleMesh(meshVertices, meshNormals, meshIndices, kdr, kdg, kdb, krr, krg, krb, krn);
+		}
+
+		/**
+		 * Reads an integer.
+		 *
+		 * @return Integer.
+		 * @throws IOException
+		 *             If there is no integer.
+		 */
+		private int readInt() throws IOException {
+			boolean negative = peek() == '-';
+			if (negative || peek() == '+') {
+				read();
+			}
+			int c = peek();
+			if (c < '0' || c > '9') {
+				throw new IOException("Expected a number on line " + line + ".");
+			}
+			long value = 0;
+			while (c >= '0' && c <= '9') {
+				value = value * 10 + (c - '0');
+				if (value > Integer.MAX_VALUE) {
+					throw new IOException("Number too large on line " + line + ".");
+				}
+				read();
+				c = peek();
+			}
+			return (int) (negative ? -value : value);
+		}
+
+		/**
+		 * Reads a decimal number with an optional fraction and exponent. The
+		 * number is exact when its significant digits fit into a double and its
+		 * decimal exponent is small, and within a few units in the last place
+		 * otherwise, which is far below the precision of a float.
+		 *
+		 * @return Number.
+		 * @throws IOException
+		 *             If there is no number.
+		 */
+		private float readFloat() throws IOException {
+			skipSpaces();
+			boolean negative = peek() == '-';
+			if (negative || peek() == '+') {
+				read();
+			}
+			long mantissa = 0;
+			int exponent = 0;
+			int digits = 0;
+			int c = peek();
+			for (; c >= '0' && c <= '9'; read(), c = peek(), digits++) {
+				if (mantissa < 100_000_000_000_000_000L) {
+					mantissa = mantissa * 10 + (c - '0');
+				} else {
+					exponent++;
+				}
+			}
+			if (c == '.') {
+				read();
+				for (c = peek(); c >= '0' && c <= '9'; read(), c = peek(), digits++) {
+					if (mantissa < 100_000_000_000_000_000L) {
+						mantissa = mantissa * 10 + (c - '0');
+						exponent--;
+					}
+				}
+			}
+			if (digits == 0) {
+				throw new IOException("Expected a number on line " + line + ".");
+			}
+			if (c == 'e' || c == 'E') {
+				read();
+				exponent += readInt();
+			}
+
+			double value = mantissa;
+			if (exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+				value /= POWERS_OF_TEN[-exponent];
+			} else if (exponent >= 0 && exponent < POWERS_OF_TEN.length) {
+				value *= POWERS_OF_TEN[exponent];
+			} else {
+				value *= Math.pow(10, exponent);
+			}
+			return (float) (negative ? -value : value);
+		}
+
+		/**
+		 * Skips the spaces and tabs.
+		 *
+		 * @throws IOException
+		 *             If the file can not be read.
+		 */
+		private void skipSpaces() throws IOException {
+			for (int c = peek(); c == ' ' || c == '\t'; c = peek()) {
+				read();
+			}
+		}
+
+		/**
+		 * Skips the rest of the line, including its end.
+		 *
+		 * @throws IOException
+		 *             If the file can not be read.
+		 */
+		private void skipLine() throws IOException {
+			for (int c = read(); c >= 0; c = read()) {
+				if (c == '\n') {
+					line++;
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Gets the next byte without consuming it.
+		 *
+		 * @return Next byte, or -1 at the end of the file.
+		 * @throws IOException
+		 *             If the file can not be read.
+		 */
+		private int peek() throws IOException {
+			if (position == limit) {
+				limit = in.read(buffer);
+				position = 0;
+				if (limit <= 0) {
+					limit = 0;
+					return -1;
+				}
+			}
+			return buffer[position] & 0xFF;
+		}
+
+		/**
+		 * Consumes the next byte.
+		 *
+		 * @return Consumed byte, or -1 at the end of the file.
+		 * @throws IOException
+		 *             If the file can not be read.
+		 */
+		private int read() throws IOException {
+			int c = peek();
+			if (c >= 0) {
+				position++;
+			}
+			return c;
+		}
+
+		/**
+		 * Grows the array by half if it is shorter than the needed length.
+		 *
+		 * @param array
+		 *            Array.
+		 * @param length
+		 *            Needed length.
+		 * @return Array of at least the needed length.
+		 */
+		private static float[] ensure(float[] array, int length) {
+			return array.length >= length ? array
+					: Arrays.copyOf(array, Math.max(length, array.length + (array.length >> 1)));
+		}
+
+		/**
+		 * Grows the array by half if it is shorter than the needed length.
+		 *
+		 * @param array
+		 *            Array.
+		 * @param length
+		 *            Needed length.
+		 * @return Array of at least the needed length.
+		 */
+		private static int[] ensure(int[] array, int length) {
+			return array.length >= length ? array
+					: Arrays.copyOf(array, Math.max(length, array.length + (array.length >> 1)));
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package hr.fer.zemris.java.raytracer.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import hr.fer.zemris.java.raytracer.model.LightSource;
+import hr.fer.zemris.java.raytracer.model.Point3D;
+import hr.fer.zemris.java.raytracer.model.Scene;
+import hr.fer.zemris.java.raytracer.model.SphereSet;
+
+/**
+ * Class that loads scenes from the binary scene format. All the values of the
+ * format are little-endian and the file consists of four parts:
+ * <ul>
+ * <li>header of {@link #HEADER_SIZE} bytes: int magic number
+ * {@link #MAGIC}, int version {@link #VERSION}, int number of spheres, int
+ * number of materials, int number of lights and a reserved int,</li>
+ * <li>spheres of {@link #SPHERE_RECORD} bytes each: float x, y and z of the
+ * center, float radius and int index of the material,</li>
+ * <li>materials of {@link #MATERIAL_RECORD} bytes each: float kdr, kdg, kdb,
+ * krr, krg, krb and krn,</li>
+ * <li>lights of {@link #LIGHT_RECORD} bytes each: float x, y and z of the
+ * position and int r, g and b intensities.</li>
+ * </ul>
+ * Spheres come before the materials and lights, so that a writer can stream
+ * them without knowing their number in advance, see {@link SceneWriter}.
+ * <p>
+ * The file is memory-mapped and read straight into the arrays of a single
+ * {@link SphereSet}, so no object is created for each sphere.
+ *
+ * @author Dinz
+ *
+ */
+public final class SceneFile {
+	/**
+	 * Magic number, "RTSC" in little-endian order.
+	 */
+	public static final int MAGIC = 0x43535452;
+	/**
+	 * Version of the format.
+	 */
+	public static final int VERSION = 1;
+	/**
+	 * Size of the header in bytes.
+	 */
+	public static final int HEADER_SIZE = 24;
+	/**
+	 * Size of a sphere in bytes.
+	 */
+	public static final int SPHERE_RECORD = 20;
+	/**
+	 * Size of a material in bytes.
+	 */
+	public static final int MATERIAL_RECORD = 28;
+	/**
+	 * Size of a light in bytes.
+	 */
+	public static final int LIGHT_RECORD = 24;
+	/**
+	 * Largest number of spheres, limited by the length of the sphere array.
+	 */
+	public static final int MAX_SPHERES = (Integer.MAX_VALUE - 8) / SphereSet.SPHERE_SIZE;
+	/**
+	 * Number of spheres mapped at once, keeping each mapping below 2 GB.
+	 */
+	private static final int SPHERES_PER_MAPPING = 1 << 24;
+
+	/**
+	 * Private constructor, the class only offers static methods.
+	 */
+	private SceneFile() {
+	}
+
+	/**
+	 * Loads the scene from the file. The scene contains the lights of the file
+	 * and, if there are any spheres, a single {@link SphereSet} with all of
+	 * them.
+	 *
+	 * @param path
+	 *            Path of the file.
+	 * @return Loaded scene.
+	 * @throws IOException
+	 *             If the file can not be read or is not a valid scene file.
+	 */
+	public static Scene load(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER_SIZE) {
+				throw new IOException("File is too short to be a scene file.");
+			}
+			ByteBuffer header = map(channel, 0, HEADER_SIZE);
+			if (header.getInt() != MAGIC) {
+				throw new IOException("File is not a scene file.");
+			}
+			int version = header.getInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported scene file version " + version + ".");
+			}
+			int sphereCount = header.getInt();
+			int materialCount = header.getInt();
+			int lightCount = header.getInt();
+			if (sphereCount < 0 || sphereCount > MAX_SPHERES || materialCount < 0 || lightCount < 0) {
+				throw new IOException("Invalid counts in the scene file header.");
+			}
+			long materialsStart = HEADER_SIZE + (long) sphereCount * SPHERE_RECORD;
+			long lightsStart = materialsStart + (long) materialCount * MATERIAL_RECORD;
+			if (size != lightsStart + (long) lightCount * LIGHT_RECORD) {
+				throw new IOException("Size of the scene file does not match its header.");
+			}
+			long materialsSize = lightsStart - materialsStart;
+			long lightsSize = size - lightsStart;
+			if (materialsSize > Integer.MAX_VALUE || lightsSize > Integer.MAX_VALUE) {
+				throw new IOException("Scene file has too many materials or lights.");
+			}
+
+			float[] spheres = new float[sphereCount * SphereSet.SPHERE_SIZE];
+			int[] materials = new int[sphereCount];
+			for (int first = 0; first < sphereCount; first += SPHERES_PER_MAPPING) {
+				int count = Math.min(SPHERES_PER_MAPPING, sphereCount - first);
+				ByteBuffer buffer = map(channel, HEADER_SIZE + (long) first * SPHERE_RECORD, count * SPHERE_RECORD);
+				for (int i = first, s = first * SphereSet.SPHERE_SIZE, end = first + count; i < end; i++) {
+					spheres[s++] = buffer.getFloat();
+					spheres[s++] = buffer.getFloat();
+					spheres[s++] = buffer.getFloat();
+					spheres[s++] = buffer.getFloat();
+					int material = buffer.getInt();
+					if (material < 0 || material >= materialCount) {
+						throw new IOException("Sphere " + i + " has an invalid material index " + material + ".");
+					}
+					materials[i] = material;
+				}
+			}
+
+			float[] materialData = new float[materialCount * SphereSet.MATERIAL_SIZE];
+			map(channel, materialsStart, (int) materialsSize).asFloatBuffer().get(materialData);
+
+			Scene scene = new Scene();
+			ByteBuffer lights = map(channel, lightsStart, (int) lightsSize);
+			for (int i = 0; i < lightCount; i++) {
+				Point3D point = new Point3D(lights.getFloat(), lights.getFloat(), lights.getFloat());
+				scene.add(new LightSource(point, lights.getInt(), lights.getInt(), lights.getInt()));
+			}
+			if (sphereCount > 0) {
+				scene.add(new SphereSet(spheres, materials, materialData));
+			}
+			return scene;
+		}
+	}
+
+	/**
+	 * Maps the region of the file as a little-endian buffer.
+	 *
+	 * @param channel
+	 *            Channel of the file.
+	 * @param position
+	 *            Start of the region.
+	 * @param size
+	 *            Size of the region.
+	 * @return Mapped buffer.
+	 * @throws IOException
+	 *             If the region can not be mapped.
+	 */
+	private static ByteBuffer map(FileChannel channel, long position, int size) throws IOException {
+		return channel.map(MapMode.READ_ONLY, position, size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+}
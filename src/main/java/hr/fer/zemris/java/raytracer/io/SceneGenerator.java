@@ -0,0 +1,160 @@
+package hr.fer.zemris.java.raytracer.io;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import hr.fer.zemris.java.raytracer.model.LightSource;
+import hr.fer.zemris.java.raytracer.model.Point3D;
+
+/**
+ * Class that generates large procedural scenes in the binary scene format. The
+ * spheres are streamed to the file, so the number of spheres is not limited by
+ * the heap. Generated scenes are seen by the default camera of the viewer,
+ * looking from (10, 0, 0) toward the origin.
+ *
+ * @author Dinz
+ *
+ */
+public final class SceneGenerator {
+	/**
+	 * Number of materials of the generated scenes.
+	 */
+	private static final int MATERIALS = 8;
+	/**
+	 * Seed mixed into the seed of the random lights, so the spheres do not
+	 * depend on the number of lights.
+	 */
+	private static final long LIGHT_SEED = 0x5DEECE66DL;
+
+	/**
+	 * Private constructor, the class only offers static methods.
+	 */
+	private SceneGenerator() {
+	}
+
+	/**
+	 * Main method that generates a scene of random spheres. The first argument
+	 * is the path of the file, the second one the number of spheres, the
+	 * optional third one the seed and the optional fourth one the number of
+	 * random lights, which replace the lights of the predefined scene.
+	 *
+	 * @param args
+	 *            Path, number of spheres, seed and number of lights.
+	 */
+	public static void main(String[] args) {
+		if (args.length < 2 || args.length > 4) {
+			System.out.println("Expected the path, the number of spheres and optionally the seed and the number "
+					+ "of lights.");
+			return;
+		}
+		try {
+			int count = Integer.parseInt(args[1]);
+			long seed = args.length >= 3 ? Long.parseLong(args[2]) : 0;
+			long start = System.nanoTime();
+			if (args.length == 4) {
+				writeRandomScene(Paths.get(args[0]), count, Integer.parseInt(args[3]), seed);
+			} else {
+				writeRandomSpheres(Paths.get(args[0]), count, seed);
+			}
+			System.out.printf("Wrote %d spheres in %.1f ms.%n", count, (System.nanoTime() - start) / 1E6);
+		} catch (NumberFormatException ex) {
+			System.out.println("Invalid number: " + ex.getMessage());
+		} catch (IOException ex) {
+			System.out.println("Error while writing: " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Writes a scene of randomly placed spheres into the box x in [-15, 0] and y,
+	 * z in [-12, 12], lit by the lights of the predefined scene. The radii shrink
+	 * with the number of spheres, so the box stays similarly filled.
+	 *
+	 * @param path
+	 *            Path of the file.
+	 * @param count
+	 *            Number of spheres.
+	 * @param seed
+	 *            Seed of the random generator.
+	 * @throws IOException
+	 *             If the file can not be written.
+	 * @throws IllegalArgumentException
+	 *             If the number of spheres is negative.
+	 */
+	public static void writeRandomSpheres(Path path, int count, long seed) throws IOException {
+		if (count < 0) {
+			throw new IllegalArgumentException("Number of spheres can not be negative.");
+		}
+		try (SceneWriter writer = new SceneWriter(path)) {
+			writer.addLight(new LightSource(new Point3D(10, 5, 5), 100, 0, 0));
+			writer.addLight(new LightSource(new Point3D(10, -5, 5), 0, 80, 80));
+			writer.addLight(new LightSource(new Point3D(2, 5, -1), 80, 80, 0));
+			addSpheres(writer, count, seed);
+		}
+	}
+
+	/**
+	 * Writes a scene of randomly placed spheres, as
+	 * {@link #writeRandomSpheres(Path, int, long)} does, lit by randomly placed
+	 * lights between the spheres and the default camera instead of the lights of
+	 * the predefined scene. The intensities of the lights shrink with their
+	 * number, so the scene stays similarly lit.
+	 *
+	 * @param path
+	 *            Path of the file.
+	 * @param count
+	 *            Number of spheres.
+	 * @param lights
+	 *            Number of lights.
+	 * @param seed
+	 *            Seed of the random generator.
+	 * @throws IOException
+	 *             If the file can not be written.
+	 * @throws IllegalArgumentException
+	 *             If a number is negative.
+	 */
+	public static void writeRandomScene(Path path, int count, int lights, long seed) throws IOException {
+		if (count < 0 || lights < 0) {
+			throw new IllegalArgumentException("Number of spheres and lights can not be negative.");
+		}
+		Random random = new Random(seed ^ LIGHT_SEED);
+		int intensity = Math.max(2, Math.min(255, 300 / Math.max(lights, 1)));
+		try (SceneWriter writer = new SceneWriter(path)) {
+			for (int i = 0; i < lights; i++) {
+				writer.addLight(new LightSource(
+						new Point3D(2 + 13 * random.nextDouble(), 24 * random.nextDouble() - 12,
+								24 * random.nextDouble() - 12),
+						intensity / 2 + random.nextInt(intensity / 2 + 1),
+						intensity / 2 + random.nextInt(intensity / 2 + 1),
+						intensity / 2 + random.nextInt(intensity / 2 + 1)));
+			}
+			addSpheres(writer, count, seed);
+		}
+	}
+
+	/**
+	 * Adds the materials and the randomly placed spheres to the scene.
+	 *
+	 * @param writer
+	 *            Writer of the scene.
+	 * @param count
+	 *            Number of spheres.
+	 * @param seed
+	 *            Seed of the random generator.
+	 * @throws IOException
+	 *             If the spheres can not be written.
+	 */
+	private static void addSpheres(SceneWriter writer, int count, long seed) throws IOException {
+		Random random = new Random(seed);
+		double radius = 0.3 * Math.cbrt(15.0 * 24 * 24 / Math.max(count, 1));
+		for (int i = 0; i < MATERIALS; i++) {
+			writer.addMaterial(0.5 + random.nextDouble() / 2, 0.5 + random.nextDouble() / 2,
+					0.5 + random.nextDouble() / 2, 0.5, 0.5, 0.5, 2 + random.nextInt(9));
+		}
+		for (int i = 0; i < count; i++) {
+			writer.addSphere(-15 * random.nextDouble(), 24 * random.nextDouble() - 12, 24 * random.nextDouble() - 12,
+					radius * (0.5 + random.nextDouble()), random.nextInt(MATERIALS));
+		}
+	}
+}
@@ -0,0 +1,242 @@
+package hr.fer.zemris.java.raytracer.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import hr.fer.zemris.java.raytracer.model.GraphicalObject;
+import hr.fer.zemris.java.raytracer.model.LightSource;
+import hr.fer.zemris.java.raytracer.model.Point3D;
+import hr.fer.zemris.java.raytracer.model.Scene;
+import hr.fer.zemris.java.raytracer.model.Sphere;
+
+/**
+ * Class that writes scenes in the binary scene format described by
+ * {@link SceneFile}. Spheres are streamed to the file through a small buffer
+ * as they are added, so scenes with millions of spheres can be generated
+ * without keeping them on the heap. Materials and lights are kept until the
+ * writer is closed, when they are written after the spheres together with the
+ * final header.
+ * <p>
+ * Materials must be added before the spheres which use them.
+ *
+ * @author Dinz
+ *
+ */
+public class SceneWriter implements AutoCloseable {
+	/**
+	 * Size of the sphere buffer in bytes.
+	 */
+	private static final int BUFFER_SIZE = SceneFile.SPHERE_RECORD * 4096;
+
+	/**
+	 * Channel of the file.
+	 */
+	private final FileChannel channel;
+	/**
+	 * Buffer of the spheres which are not written yet.
+	 */
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	/**
+	 * Components of the added materials.
+	 */
+	private final List<float[]> materials = new ArrayList<>();
+	/**
+	 * Added lights.
+	 */
+	private final List<LightSource> lights = new ArrayList<>();
+	/**
+	 * Number of added spheres.
+	 */
+	private int sphereCount;
+
+	/**
+	 * Constructs a new writer, creating or truncating the file.
+	 *
+	 * @param path
+	 *            Path of the file.
+	 * @throws IOException
+	 *             If the file can not be opened.
+	 */
+	public SceneWriter(Path path) throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		channel.position(SceneFile.HEADER_SIZE);
+	}
+
+	/**
+	 * Writes the scene into the file. Spheres sharing a material share one
+	 * material of the file, and all values are stored with the float precision
+	 * of the format.
+	 *
+	 * @param scene
+	 *            Scene of spheres.
+	 * @param path
+	 *            Path of the file.
+	 * @throws IOException
+	 *             If the file can not be written.
+	 * @throws IllegalArgumentException
+	 *             If the scene has an object which is not a {@link Sphere}.
+	 */
+	public static void write(Scene scene, Path path) throws IOException {
+		for (GraphicalObject object : scene.getObjects()) {
+			if (!(object instanceof Sphere)) {
+				throw new IllegalArgumentException("Only spheres can be written, found " + object.getClass() + ".");
+			}
+		}
+		try (SceneWriter writer = new SceneWriter(path)) {
+			for (LightSource light : scene.getLights()) {
+				writer.addLight(light);
+			}
+			Map<List<Double>, Integer> materials = new HashMap<>();
+			for (GraphicalObject object : scene.getObjects()) {
+				Sphere sphere = (Sphere) object;
+				List<Double> key = Arrays.asList(sphere.getKdr(), sphere.getKdg(), sphere.getKdb(), sphere.getKrr(),
+						sphere.getKrg(), sphere.getKrb(), sphere.getKrn());
+				Integer material = materials.get(key);
+				if (material == null) {
+					material = writer.addMaterial(key.get(0), key.get(1), key.get(2), key.get(3), key.get(4),
+							key.get(5), key.get(6));
+					materials.put(key, material);
+				}
+				Point3D center = sphere.getCenter();
+				writer.addSphere(center.x, center.y, center.z, sphere.getRadius(), material);
+			}
+		}
+	}
+
+	/**
+	 * Adds a material.
+	 *
+	 * @param kdr
+	 *            Diffuse red component.
+	 * @param kdg
+	 *            Diffuse green component.
+	 * @param kdb
+	 *            Diffuse blue component.
+	 * @param krr
+	 *            Reflective red component.
+	 * @param krg
+	 *            Reflective green component.
+	 * @param krb
+	 *            Reflective blue component.
+	 * @param krn
+	 *            Reflective multiplier.
+	 * @return Index of the material.
+	 */
+	public int addMaterial(double kdr, double kdg, double kdb, double krr, double krg, double krb, double krn) {
+		materials.add(new float[] { (float) kdr, (float) kdg, (float) kdb, (float) krr, (float) krg, (float) krb,
+				(float) krn });
+		return materials.size() - 1;
+	}
+
+	/**
+	 * Adds a light.
+	 *
+	 * @param light
+	 *            Light.
+	 */
+	public void addLight(LightSource light) {
+		lights.add(light);
+	}
+
+	/**
+	 * Adds a sphere, writing it to the file once the buffer is full.
+	 *
+	 * @param x
+	 *            x component of the center.
+	 * @param y
+	 *            y component of the center.
+	 * @param z
+	 *            z component of the center.
+	 * @param radius
+	 *            Radius.
+	 * @param material
+	 *            Index of the material.
+	 * @throws IOException
+	 *             If the sphere can not be written.
+	 * @throws IllegalArgumentException
+	 *             If the material is not added.
+	 * @throws IllegalStateException
+	 *             If the file already has the largest number of spheres.
+	 */
+	public void addSphere(double x, double y, double z, double radius, int material) throws IOException {
+		if (material < 0 || material >= materials.size()) {
+			throw new IllegalArgumentException("Material " + material + " is not added.");
+		}
+		if (sphereCount == SceneFile.MAX_SPHERES) {
+			throw new IllegalStateException("Scene file can not have more than " + SceneFile.MAX_SPHERES
+					+ " spheres.");
+		}
+		if (!buffer.hasRemaining()) {
+			flush();
+		}
+		buffer.putFloat((float) x).putFloat((float) y).putFloat((float) z).putFloat((float) radius)
+				.putInt(material);
+		sphereCount++;
+	}
+
+	/**
+	 * Writes the remaining spheres, the materials, the lights and the header,
+	 * and closes the file.
+	 *
+	 * @throws IOException
+	 *             If the file can not be written.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+			for (float[] material : materials) {
+				if (buffer.remaining() < SceneFile.MATERIAL_RECORD) {
+					flush();
+				}
+				for (float value : material) {
+					buffer.putFloat(value);
+				}
+			}
+			for (LightSource light : lights) {
+				if (buffer.remaining() < SceneFile.LIGHT_RECORD) {
+					flush();
+				}
+				buffer.putFloat((float) light.getPoint().x).putFloat((float) light.getPoint().y)
+						.putFloat((float) light.getPoint().z).putInt(light.getR()).putInt(light.getG())
+						.putInt(light.getB());
+			}
+			flush();
+
+			buffer.putInt(SceneFile.MAGIC).putInt(SceneFile.VERSION).putInt(sphereCount).putInt(materials.size())
+					.putInt(lights.size()).putInt(0);
+			buffer.flip();
+			long position = 0;
+			while (buffer.hasRemaining()) {
+				position += channel.write(buffer, position);
+			}
+			buffer.clear();
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Writes the buffer to the file.
+	 *
+	 * @throws IOException
+	 *             If the buffer can not be written.
+	 */
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+}
@@ -0,0 +1,750 @@
+package hr.fer.zemris.java.raytracer.model;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Class that represents a bounding volume hierarchy over a set of primitives
+ * given by their bounding boxes. The hierarchy only knows the primitives by
+ * their indices, so it can index any kind of objects. It is built once with
+ * binned surface area heuristic splits, where big subtrees are built in
+ * parallel, and then flattened into arrays in depth-first order for the
+ * traversal.
+ *
+ * @author Dinz
+ *
+ */
+public class BVH {
+	/**
+	 * Default maximum number of primitives in a leaf.
+	 */
+	public static final int MAX_LEAF_SIZE = 4;
+	/**
+	 * Number of bins used when searching for the best split.
+	 */
+	private static final int BINS = 16;
+	/**
+	 * Cost of the traversal step relative to the cost of one primitive test.
+	 */
+	private static final double TRAVERSAL_COST = 1;
+	/**
+	 * Subtrees with at least this many primitives are built in parallel.
+	 */
+	private static final int PARALLEL_THRESHOLD = 4096;
+	/**
+	 * Initial depth of the traversal stack.
+	 */
+	private static final int STACK_SIZE = 64;
+
+	/**
+	 * Interface of the callback invoked for each primitive whose leaf is reached
+	 * by the ray during the traversal.
+	 *
+	 * @author Dinz
+	 *
+	 */
+	public interface Visitor {
+
+		/**
+		 * Visits the primitive.
+		 *
+		 * @param primitive
+		 *            Index of the primitive.
+		 * @param tMax
+		 *            Current maximum distance along the ray.
+		 * @return New maximum distance along the ray, which is smaller than the
+		 *         current one if the primitive was hit closer, or a negative value
+		 *         to stop the traversal.
+		 */
+		double visit(int primitive, double tMax);
+	}
+
+	/**
+	 * Interface of the callback invoked for each primitive whose leaf is reached
+	 * by some rays of a packet during the traversal.
+	 *
+	 * @author Dinz
+	 *
+	 */
+	public interface PacketVisitor {
+
+		/**
+		 * Visits the primitive. The visitor shortens the maximum distances of the
+		 * lanes which hit the primitive closer, and may deactivate the lanes which
+		 * need no further traversal.
+		 *
+		 * @param primitive
+		 *            Index of the primitive.
+		 * @param packet
+		 *            Ray packet.
+		 * @param mask
+		 *            Bit mask of the active lanes which reached the leaf.
+		 */
+		void visit(int primitive, RayPacket packet, int mask);
+	}
+
+	/**
+	 * Bounds of the nodes, six values per node.
+	 */
+	private final double[] nodeBounds;
+	/**
+	 * Index of the right child for inner nodes, or of the first primitive for
+	 * leaves. The left child of an inner node follows the node itself.
+	 */
+	private final int[] nodeOffset;
+	/**
+	 * Number of primitives in the leaves, zero for inner nodes.
+	 */
+	private final int[] nodeCount;
+	/**
+	 * Split axis of the inner nodes.
+	 */
+	private final byte[] nodeAxis;
+	/**
+	 * Primitive indices ordered by leaves.
+	 */
+	private final int[] primitives;
+
+	/**
+	 * Builds a new hierarchy over the primitives of the given bounds.
+	 *
+	 * @param bounds
+	 *            Bounds of the primitives, minimum and maximum corner per
+	 *            primitive.
+	 */
+	public BVH(double[] bounds) {
+		this(bounds, MAX_LEAF_SIZE);
+	}
+
+	/**
+	 * Builds a new hierarchy over the primitives of the given bounds, with at
+	 * most the given number of primitives in a leaf. Primitives which are
+	 * themselves groups of shapes use smaller leaves, so a leaf does not test
+	 * too many shapes at once.
+	 *
+	 * @param bounds
+	 *            Bounds of the primitives, minimum and maximum corner per
+	 *            primitive.
+	 * @param maxLeafSize
+	 *            Maximum number of primitives in a leaf.
+	 * @throws IllegalArgumentException
+	 *             If the maximum leaf size is not positive.
+	 */
+	public BVH(double[] bounds, int maxLeafSize) {
+		if (maxLeafSize < 1) {
+			throw new IllegalArgumentException("Maximum leaf size must be positive.");
+		}
+		int count = bounds.length / 6;
+		primitives = new int[count];
+		double[] centroids = new double[count * 3];
+		for (int i = 0; i < count; i++) {
+			primitives[i] = i;
+			for (int axis = 0; axis < 3; axis++) {
+				centroids[i * 3 + axis] = 0.5 * (bounds[i * 6 + axis] + bounds[i * 6 + 3 + axis]);
+			}
+		}
+
+		BuildNode root;
+		if (count == 0) {
+			root = new BuildNode(new double[] { 0, 0, 0, -1, -1, -1 }, 0, 0);
+		} else {
+			BuildTask task = new BuildTask(bounds, centroids, primitives, 0, count, maxLeafSize);
+			root = count >= PARALLEL_THRESHOLD ? ForkJoinPool.commonPool().invoke(task) : task.compute();
+		}
+
+		int nodes = root.size();
+		nodeBounds = new double[nodes * 6];
+		nodeOffset = new int[nodes];
+		nodeCount = new int[nodes];
+		nodeAxis = new byte[nodes];
+		flatten(root, 0);
+	}
+
+	/**
+	 * Gets the number of nodes of the hierarchy.
+	 *
+	 * @return Number of nodes.
+	 */
+	public int getNodeCount() {
+		return nodeCount.length;
+	}
+
+	/**
+	 * Traverses the hierarchy along the ray in the front to back order and
+	 * visits the primitives of each leaf whose box the ray enters closer than the
+	 * current maximum distance. Each primitive is visited at most once.
+	 *
+	 * @param ox
+	 *            x component of the ray origin.
+	 * @param oy
+	 *            y component of the ray origin.
+	 * @param oz
+	 *            z component of the ray origin.
+	 * @param dx
+	 *            x component of the ray direction.
+	 * @param dy
+	 *            y component of the ray direction.
+	 * @param dz
+	 *            z component of the ray direction.
+	 * @param tMax
+	 *            Initial maximum distance along the ray.
+	 * @param visitor
+	 *            Visitor of the primitives.
+	 */
+	public void traverse(double ox, double oy, double oz, double dx, double dy, double dz, double tMax,
+			Visitor visitor) {
+		if (primitives.length == 0) {
+			return;
+		}
+		double ix = 1 / dx;
+		double iy = 1 / dy;
+		double iz = 1 / dz;
+		boolean[] negative = { dx < 0, dy < 0, dz < 0 };
+
+		int[] stack = new int[STACK_SIZE];
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int node = stack[--top];
+			if (!intersectsBox(node, ox, oy, oz, ix, iy, iz, tMax)) {
+				continue;
+			}
+
+			int count = nodeCount[node];
+			if (count > 0) {
+				for (int i = nodeOffset[node], end = i + count; i < end; i++) {
+					tMax = visitor.visit(primitives[i], tMax);
+					if (tMax < 0) {
+						return;
+					}
+				}
+			} else if (top + 2 > stack.length) {
+				stack = Arrays.copyOf(stack, stack.length * 2);
+				stack[top++] = node;
+			} else if (negative[nodeAxis[node]]) {
+				stack[top++] = node + 1;
+				stack[top++] = nodeOffset[node];
+			} else {
+				stack[top++] = nodeOffset[node];
+				stack[top++] = node + 1;
+			}
+		}
+	}
+
+	/**
+	 * Traverses the hierarchy with all the active rays of the packet together.
+	 * Each node is tested once per packet, against every active lane, and the
+	 * lanes which miss the node are masked out of its subtree. The traversal ends
+	 * when the stack is empty or no lane remains active.
+	 *
+	 * @param packet
+	 *            Ray packet.
+	 * @param visitor
+	 *            Visitor of the primitives.
+	 */
+	public void traverse(RayPacket packet, PacketVisitor visitor) {
+		if (primitives.length == 0 || packet.active == 0) {
+			return;
+		}
+		int n = packet.size();
+		double[] ix = new double[n];
+		double[] iy = new double[n];
+		double[] iz = new double[n];
+		for (int lane = 0; lane < n; lane++) {
+			ix[lane] = 1 / packet.dx[lane];
+			iy[lane] = 1 / packet.dy[lane];
+			iz[lane] = 1 / packet.dz[lane];
+		}
+		int first = Integer.numberOfTrailingZeros(packet.active);
+		boolean[] negative = { packet.dx[first] < 0, packet.dy[first] < 0, packet.dz[first] < 0 };
+
+		int[] stack = new int[STACK_SIZE];
+		int[] masks = new int[STACK_SIZE];
+		int top = 0;
+		stack[top] = 0;
+		masks[top++] = packet.active;
+		while (top > 0 && packet.active != 0) {
+			int node = stack[--top];
+			int candidates = masks[top] & packet.active;
+			int mask = 0;
+			for (int lanes = candidates; lanes != 0; lanes &= lanes - 1) {
+				int lane = Integer.numberOfTrailingZeros(lanes);
+				if (intersectsBox(node, packet.ox[lane], packet.oy[lane], packet.oz[lane], ix[lane], iy[lane],
+						iz[lane], packet.t[lane])) {
+					mask |= 1 << lane;
+				}
+			}
+			if (mask == 0) {
+				continue;
+			}
+
+			int count = nodeCount[node];
+			if (count > 0) {
+				for (int i = nodeOffset[node], end = i + count; i < end && (mask &= packet.active) != 0; i++) {
+					visitor.visit(primitives[i], packet, mask);
+				}
+				continue;
+			}
+
+			if (top + 2 > stack.length) {
+				stack = Arrays.copyOf(stack, stack.length * 2);
+				masks = Arrays.copyOf(masks, masks.length * 2);
+			}
+			int near = node + 1;
+			int far = nodeOffset[node];
+			if (negative[nodeAxis[node]]) {
+				near = far;
+				far = node + 1;
+			}
+			stack[top] = far;
+			masks[top++] = mask;
+			stack[top] = near;
+			masks[top++] = mask;
+		}
+	}
+
+	/**
+	 * Collects the primitives of the leaves whose boxes may intersect the
+	 * frustum. The collection stops as soon as there are more primitives than
+	 * the output can hold, so the cost is bounded by its size.
+	 *
+	 * @param frustum
+	 *            Frustum.
+	 * @param output
+	 *            Output array of the primitives.
+	 * @return Number of the collected primitives, or -1 if there are more of
+	 *         them than the output can hold.
+	 */
+	public int collect(Frustum frustum, int[] output) {
+		if (primitives.length == 0) {
+			return 0;
+		}
+		int count = 0;
+		int[] stack = new int[STACK_SIZE];
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int node = stack[--top];
+			if (!frustum.intersects(nodeBounds, node * 6)) {
+				continue;
+			}
+
+			int leafCount = nodeCount[node];
+			if (leafCount > 0) {
+				if (count + leafCount > output.length) {
+					return -1;
+				}
+				System.arraycopy(primitives, nodeOffset[node], output, count, leafCount);
+				count += leafCount;
+				continue;
+			}
+			if (top + 2 > stack.length) {
+				stack = Arrays.copyOf(stack, stack.length * 2);
+			}
+			stack[top++] = nodeOffset[node];
+			stack[top++] = node + 1;
+		}
+		return count;
+	}
+
+	/**
+	 * Checks whether the ray enters the box of the node between its origin and
+	 * the maximum distance.
+	 *
+	 * @param node
+	 *            Index of the node.
+	 * @param ox
+	 *            x component of the ray origin.
+	 * @param oy
+	 *            y component of the ray origin.
+	 * @param oz
+	 *            z component of the ray origin.
+	 * @param ix
+	 *            Inverse x component of the ray direction.
+	 * @param iy
+	 *            Inverse y component of the ray direction.
+	 * @param iz
+	 *            Inverse z component of the ray direction.
+	 * @param tMax
+	 *            Maximum distance along the ray.
+	 * @return True if the box is entered, false otherwise.
+	 */
+	private boolean intersectsBox(int node, double ox, double oy, double oz, double ix, double iy, double iz,
+			double tMax) {
+		int b = node * 6;
+		double near = 0;
+		double far = tMax;
+
+		double t1 = (nodeBounds[b] - ox) * ix;
+		double t2 = (nodeBounds[b + 3] - ox) * ix;
+		near = Math.max(near, Math.min(t1, t2));
+		far = Math.min(far, Math.max(t1, t2));
+
+		t1 = (nodeBounds[b + 1] - oy) * iy;
+		t2 = (nodeBounds[b + 4] - oy) * iy;
+		near = Math.max(near, Math.min(t1, t2));
+		far = Math.min(far, Math.max(t1, t2));
+
+		t1 = (nodeBounds[b + 2] - oz) * iz;
+		t2 = (nodeBounds[b + 5] - oz) * iz;
+		near = Math.max(near, Math.min(t1, t2));
+		far = Math.min(far, Math.max(t1, t2));
+
+		// NaN appears only for an origin on a slab plane of a parallel ray
+		return near <= far || near != near || far != far;
+	}
+
+	/**
+	 * Writes the subtree into the flat arrays in depth-first order.
+	 *
+	 * @param node
+	 *            Root of the subtree.
+	 * @param index
+	 *            Index of the root in the flat arrays.
+	 * @return Index after the last node of the subtree.
+	 */
+	private int flatten(BuildNode node, int index) {
+		System.arraycopy(node.bounds, 0, nodeBounds, index * 6, 6);
+		if (node.left == null) {
+			nodeOffset[index] = node.first;
+			nodeCount[index] = node.count;
+			return index + 1;
+		}
+
+		nodeAxis[index] = (byte) node.axis;
+		int right = flatten(node.left, index + 1);
+		nodeOffset[index] = right;
+		return flatten(node.right, right);
+	}
+
+	/**
+	 * Class that represents a node of the hierarchy during the construction.
+	 *
+	 * @author Dinz
+	 *
+	 */
+	private static class BuildNode {
+		/**
+		 * Bounds of the node.
+		 */
+		double[] bounds;
+		/**
+		 * Index of the first primitive of a leaf.
+		 */
+		int first;
+		/**
+		 * Number of primitives of a leaf.
+		 */
+		int count;
+		/**
+		 * Split axis of an inner node.
+		 */
+		int axis;
+		/**
+		 * Left child, null for leaves.
+		 */
+		BuildNode left;
+		/**
+		 * Right child, null for leaves.
+		 */
+		BuildNode right;
+
+		/**
+		 * Constructs a new leaf.
+		 *
+		 * @param bounds
+		 *            Bounds of the leaf.
+		 * @param first
+		 *            Index of the first primitive.
+		 * @param count
+		 *            Number of primitives.
+		 */
+		BuildNode(double[] bounds, int first, int count) {
+			this.bounds = bounds;
+			this.first = first;
+			this.count = count;
+		}
+
+		/**
+		 * Constructs a new inner node.
+		 *
+		 * @param bounds
+		 *            Bounds of the node.
+		 * @param axis
+		 *            Split axis.
+		 * @param left
+		 *            Left child.
+		 * @param right
+		 *            Right child.
+		 */
+		BuildNode(double[] bounds, int axis, BuildNode left, BuildNode right) {
+			this.bounds = bounds;
+			this.axis = axis;
+			this.left = left;
+			this.right = right;
+		}
+
+		/**
+		 * Calculates the number of nodes in the subtree.
+		 *
+		 * @return Number of nodes.
+		 */
+		int size() {
+			return left == null ? 1 : 1 + left.size() + right.size();
+		}
+	}
+
+	/**
+	 * Task that builds the subtree over a range of the primitive indices. The
+	 * range is partitioned in place, so the tasks of the two children work on
+	 * disjoint parts of the same array.
+	 *
+	 * @author Dinz
+	 *
+	 */
+	private static class BuildTask extends RecursiveTask<BuildNode> {
+		private static final long serialVersionUID = 1L;
+		/**
+		 * Bounds of the primitives.
+		 */
+		double[] bounds;
+		/**
+		 * Centroids of the primitives.
+		 */
+		double[] centroids;
+		/**
+		 * Primitive indices.
+		 */
+		int[] primitives;
+		/**
+		 * Start of the range, inclusive.
+		 */
+		int from;
+		/**
+		 * End of the range, exclusive.
+		 */
+		int to;
+		/**
+		 * Maximum number of primitives in a leaf.
+		 */
+		int maxLeafSize;
+
+		public BuildTask(double[] bounds, double[] centroids, int[] primitives, int from, int to, int maxLeafSize) {
+			this.bounds = bounds;
+			this.centroids = centroids;
+			this.primitives = primitives;
+			this.from = from;
+			this.to = to;
+			this.maxLeafSize = maxLeafSize;
+		}
+
+		@Override
+		protected BuildNode compute() {
+			double[] nodeBounds = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+					Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+			double[] centroidBounds = nodeBounds.clone();
+			for (int i = from; i < to; i++) {
+				int p = primitives[i];
+				for (int axis = 0; axis < 3; axis++) {
+					nodeBounds[axis] = Math.min(nodeBounds[axis], bounds[p * 6 + axis]);
+					nodeBounds[axis + 3] = Math.max(nodeBounds[axis + 3], bounds[p * 6 + 3 + axis]);
+					centroidBounds[axis] = Math.min(centroidBounds[axis], centroids[p * 3 + axis]);
+					centroidBounds[axis + 3] = Math.max(centroidBounds[axis + 3], centroids[p * 3 + axis]);
+				}
+			}
+
+			int count = to - from;
+			if (count <= maxLeafSize) {
+				return new BuildNode(nodeBounds, from, count);
+			}
+
+			int axis = 0;
+			for (int a = 1; a < 3; a++) {
+				if (centroidBounds[a + 3] - centroidBounds[a] > centroidBounds[axis + 3] - centroidBounds[axis]) {
+					axis = a;
+				}
+			}
+			double min = centroidBounds[axis];
+			double extent = centroidBounds[axis + 3] - min;
+			if (!(extent > 0)) {
+				return splitInHalf(nodeBounds, axis);
+			}
+
+			int[] binCounts = new int[BINS];
+			double[][] binBounds = new double[BINS][];
+			double scale = BINS / extent;
+			for (int i = from; i < to; i++) {
+				int p = primitives[i];
+				int bin = binOf(centroids[p * 3 + axis], min, scale);
+				binCounts[bin]++;
+				binBounds[bin] = grow(binBounds[bin], bounds, p);
+			}
+
+			double[] rightAreas = new double[BINS];
+			int[] rightCounts = new int[BINS];
+			double[] accumulated = null;
+			int accumulatedCount = 0;
+			for (int bin = BINS - 1; bin > 0; bin--) {
+				accumulated = merge(accumulated, binBounds[bin]);
+				accumulatedCount += binCounts[bin];
+				rightAreas[bin] = area(accumulated);
+				rightCounts[bin] = accumulatedCount;
+			}
+
+			int bestSplit = -1;
+			double bestCost = Double.POSITIVE_INFINITY;
+			accumulated = null;
+			accumulatedCount = 0;
+			for (int split = 1; split < BINS; split++) {
+				accumulated = merge(accumulated, binBounds[split - 1]);
+				accumulatedCount += binCounts[split - 1];
+				if (accumulatedCount == 0 || rightCounts[split] == 0) {
+					continue;
+				}
+				double cost = area(accumulated) * accumulatedCount + rightAreas[split] * rightCounts[split];
+				if (cost < bestCost) {
+					bestCost = cost;
+					bestSplit = split;
+				}
+			}
+
+			double leafCost = count;
+			double splitCost = TRAVERSAL_COST + bestCost / area(nodeBounds);
+			if (bestSplit == -1) {
+				return splitInHalf(nodeBounds, axis);
+			}
+			if (splitCost >= leafCost && count <= 2 * maxLeafSize) {
+				return new BuildNode(nodeBounds, from, count);
+			}
+
+			int middle = from;
+			for (int i = from; i < to; i++) {
+				int p = primitives[i];
+				if (binOf(centroids[p * 3 + axis], min, scale) < bestSplit) {
+					primitives[i] = primitives[middle];
+					primitives[middle++] = p;
+				}
+			}
+			return children(nodeBounds, axis, middle);
+		}
+
+		/**
+		 * Splits the range into two halves when the centroids can not be
+		 * separated by the bins.
+		 *
+		 * @param nodeBounds
+		 *            Bounds of the node.
+		 * @param axis
+		 *            Split axis.
+		 * @return Built node.
+		 */
+		private BuildNode splitInHalf(double[] nodeBounds, int axis) {
+			if (to - from <= maxLeafSize) {
+				return new BuildNode(nodeBounds, from, to - from);
+			}
+			return children(nodeBounds, axis, (from + to) >>> 1);
+		}
+
+		/**
+		 * Builds the two children of the node, in parallel if the range is big
+		 * enough.
+		 *
+		 * @param nodeBounds
+		 *            Bounds of the node.
+		 * @param axis
+		 *            Split axis.
+		 * @param middle
+		 *            Start of the right child range.
+		 * @return Built node.
+		 */
+		private BuildNode children(double[] nodeBounds, int axis, int middle) {
+			BuildTask left = new BuildTask(bounds, centroids, primitives, from, middle, maxLeafSize);
+			BuildTask right = new BuildTask(bounds, centroids, primitives, middle, to, maxLeafSize);
+			if (to - from >= PARALLEL_THRESHOLD) {
+				left.fork();
+				BuildNode rightNode = right.compute();
+				return new BuildNode(nodeBounds, axis, left.join(), rightNode);
+			}
+			return new BuildNode(nodeBounds, axis, left.compute(), right.compute());
+		}
+
+		/**
+		 * Calculates the bin of the centroid.
+		 *
+		 * @param centroid
+		 *            Centroid component along the split axis.
+		 * @param min
+		 *            Minimum centroid component.
+		 * @param scale
+		 *            Number of bins per unit of length.
+		 * @return Index of the bin.
+		 */
+		private static int binOf(double centroid, double min, double scale) {
+			return Math.min((int) ((centroid - min) * scale), BINS - 1);
+		}
+
+		/**
+		 * Grows the bounds by the bounds of the primitive.
+		 *
+		 * @param box
+		 *            Bounds to grow, or null for empty bounds.
+		 * @param bounds
+		 *            Bounds of the primitives.
+		 * @param p
+		 *            Index of the primitive.
+		 * @return Grown bounds.
+		 */
+		private static double[] grow(double[] box, double[] bounds, int p) {
+			if (box == null) {
+				box = new double[6];
+				System.arraycopy(bounds, p * 6, box, 0, 6);
+				return box;
+			}
+			for (int axis = 0; axis < 3; axis++) {
+				box[axis] = Math.min(box[axis], bounds[p * 6 + axis]);
+				box[axis + 3] = Math.max(box[axis + 3], bounds[p * 6 + 3 + axis]);
+			}
+			return box;
+		}
+
+		/**
+		 * Merges two bounds into new bounds.
+		 *
+		 * @param a
+		 *            First bounds, or null for empty bounds.
+		 * @param b
+		 *            Second bounds, or null for empty bounds.
+		 * @return Merged bounds, or null if both are empty.
+		 */
+		private static double[] merge(double[] a, double[] b) {
+			if (a == null) {
+				return b == null ? null : b.clone();
+			}
+			if (b != null) {
+				for (int axis = 0; axis < 3; axis++) {
+					a[axis] = Math.min(a[axis], b[axis]);
+					a[axis + 3] = Math.max(a[axis + 3], b[axis + 3]);
+				}
+			}
+			return a;
+		}
+
+		/**
+		 * Calculates the surface area of the bounds.
+		 *
+		 * @param box
+		 *            Bounds, or null for empty bounds.
+		 * @return Surface area.
+		 */
+		private static double area(double[] box) {
+			if (box == null) {
+				return 0;
+			}
+			double dx = box[3] - box[0];
+			double dy = box[4] - box[1];
+			double dz = box[5] - box[2];
+			return 2 * (dx * dy + dy * dz + dz * dx);
+		}
+	}
+}
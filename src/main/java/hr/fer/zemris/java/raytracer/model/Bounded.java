@@ -0,0 +1,19 @@
+package hr.fer.zemris.java.raytracer.model;
+
+/**
+ * Interface that represents a graphical object with a finite extent, which can
+ * be enclosed by an axis aligned bounding box and so placed into an
+ * acceleration structure.
+ * 
+ * @author Dinz
+ *
+ */
+public interface Bounded {
+
+	/**
+	 * Gets the axis aligned box which encloses the object.
+	 * 
+	 * @return Bounding box of the object.
+	 */
+	BoundingBox getBoundingBox();
+}
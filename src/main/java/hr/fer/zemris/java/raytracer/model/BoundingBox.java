@@ -0,0 +1,104 @@
+package hr.fer.zemris.java.raytracer.model;
+
+/**
+ * Class that represents an axis aligned bounding box, determined by its minimum
+ * and maximum corner.
+ * 
+ * @author Dinz
+ *
+ */
+public class BoundingBox {
+	/**
+	 * Minimum x component.
+	 */
+	public final double minX;
+	/**
+	 * Minimum y component.
+	 */
+	public final double minY;
+	/**
+	 * Minimum z component.
+	 */
+	public final double minZ;
+	/**
+	 * Maximum x component.
+	 */
+	public final double maxX;
+	/**
+	 * Maximum y component.
+	 */
+	public final double maxY;
+	/**
+	 * Maximum z component.
+	 */
+	public final double maxZ;
+
+	public BoundingBox(double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+		this.minX = minX;
+		this.minY = minY;
+		this.minZ = minZ;
+		this.maxX = maxX;
+		this.maxY = maxY;
+		this.maxZ = maxZ;
+	}
+
+	/**
+	 * Creates the box which encloses the sphere of the given center and radius.
+	 * 
+	 * @param center
+	 *            Center of the sphere.
+	 * @param radius
+	 *            Radius of the sphere.
+	 * @return Bounding box of the sphere.
+	 */
+	public static BoundingBox ofSphere(Point3D center, double radius) {
+		return new BoundingBox(center.x - radius, center.y - radius, center.z - radius, center.x + radius,
+				center.y + radius, center.z + radius);
+	}
+
+	/**
+	 * Calculates the smallest box which encloses both this and the other box.
+	 * 
+	 * @param other
+	 *            Other box.
+	 * @return Union of the boxes.
+	 */
+	public BoundingBox union(BoundingBox other) {
+		return new BoundingBox(Math.min(minX, other.minX), Math.min(minY, other.minY), Math.min(minZ, other.minZ),
+				Math.max(maxX, other.maxX), Math.max(maxY, other.maxY), Math.max(maxZ, other.maxZ));
+	}
+
+	/**
+	 * Calculates the surface area of the box.
+	 * 
+	 * @return Surface area.
+	 */
+	public double surfaceArea() {
+		double dx = maxX - minX;
+		double dy = maxY - minY;
+		double dz = maxZ - minZ;
+		return 2 * (dx * dy + dy * dz + dz * dx);
+	}
+
+	/**
+	 * Writes the corners of the box into the array, minimum corner first.
+	 * 
+	 * @param bounds
+	 *            Array of bounds.
+	 * @param offset
+	 *            Offset at which the six values are written.
+	 */
+	public void writeTo(double[] bounds, int offset) {
+		bounds[offset] = minX;
+		bounds[offset + 1] = minY;
+		bounds[offset + 2] = minZ;
+		bounds[offset + 3] = maxX;
+		bounds[offset + 4] = maxY;
+		bounds[offset + 5] = maxZ;
+	}
+
+	@Override
+	public String toString() {
+		return "[" + minX + "," + minY + "," + minZ + "] - [" + maxX + "," + maxY + "," + maxZ + "]";
+	}
+}
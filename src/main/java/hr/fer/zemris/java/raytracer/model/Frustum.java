@@ -0,0 +1,107 @@
+package hr.fer.zemris.java.raytracer.model;
+
+/**
+ * Class that represents the view frustum of a part of the screen, the infinite
+ * pyramid with its apex in the eye whose four sides go through the edges of a
+ * rectangle of the screen. All the rays from the eye through the rectangle lie
+ * inside the frustum, so the objects whose boxes lie outside of it can not be
+ * hit by them.
+ *
+ * @author Dinz
+ *
+ */
+public class Frustum {
+	/**
+	 * x component of the apex.
+	 */
+	private final double ax;
+	/**
+	 * y component of the apex.
+	 */
+	private final double ay;
+	/**
+	 * z component of the apex.
+	 */
+	private final double az;
+	/**
+	 * Inward normals of the four sides, three components each.
+	 */
+	private final double[] normals = new double[12];
+
+	/**
+	 * Constructs a new frustum from its apex and the corners of the rectangle,
+	 * given in order around the rectangle.
+	 *
+	 * @param apex
+	 *            Apex of the frustum.
+	 * @param corners
+	 *            Four corners of the rectangle.
+	 * @throws IllegalArgumentException
+	 *             If there are not four corners.
+	 */
+	public Frustum(Point3D apex, Point3D... corners) {
+		if (corners.length != 4) {
+			throw new IllegalArgumentException("Frustum needs four corners.");
+		}
+		ax = apex.x;
+		ay = apex.y;
+		az = apex.z;
+		Point3D[] directions = new Point3D[4];
+		Point3D center = new Point3D();
+		for (int i = 0; i < 4; i++) {
+			directions[i] = corners[i].sub(apex);
+			center.modifyAdd(directions[i]);
+		}
+		for (int i = 0; i < 4; i++) {
+			Point3D normal = directions[i].vectorProduct(directions[(i + 1) % 4]);
+			// the sides are oriented toward the rays through the rectangle
+			if (normal.scalarProduct(center) < 0) {
+				normal = normal.negate();
+			}
+			normals[i * 3] = normal.x;
+			normals[i * 3 + 1] = normal.y;
+			normals[i * 3 + 2] = normal.z;
+		}
+	}
+
+	/**
+	 * Checks whether the box may intersect the frustum. The box is rejected only
+	 * if it lies entirely outside of a side, so some boxes near the edges of the
+	 * frustum are accepted although they miss it.
+	 *
+	 * @param bounds
+	 *            Array of bounds.
+	 * @param offset
+	 *            Offset of the minimum and maximum corner of the box.
+	 * @return False if the box lies outside of the frustum, true otherwise.
+	 */
+	public boolean intersects(double[] bounds, int offset) {
+		for (int i = 0; i < 12; i += 3) {
+			double nx = normals[i];
+			double ny = normals[i + 1];
+			double nz = normals[i + 2];
+			// the corner of the box farthest along the normal
+			double px = (nx > 0 ? bounds[offset + 3] : bounds[offset]) - ax;
+			double py = (ny > 0 ? bounds[offset + 4] : bounds[offset + 1]) - ay;
+			double pz = (nz > 0 ? bounds[offset + 5] : bounds[offset + 2]) - az;
+			if (nx * px + ny * py + nz * pz < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks whether the box may intersect the frustum, as
+	 * {@link #intersects(double[], int)} does.
+	 *
+	 * @param box
+	 *            Box.
+	 * @return False if the box lies outside of the frustum, true otherwise.
+	 */
+	public boolean intersects(BoundingBox box) {
+		double[] bounds = new double[6];
+		box.writeTo(bounds, 0);
+		return intersects(bounds, 0);
+	}
+}
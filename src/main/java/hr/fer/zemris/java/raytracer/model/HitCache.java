@@ -0,0 +1,139 @@
+package hr.fer.zemris.java.raytracer.model;
+
+import java.util.Arrays;
+
+/**
+ * Class that remembers the last hits of a primitive made of many parts, like
+ * the spheres of a {@link SphereSet} or the triangles of a
+ * {@link TriangleMesh}, so that the part found by the distance query can be
+ * materialized without traversing the hierarchy of the primitive again. Hits
+ * are looked up by the components of their rays, and the cache keeps the last
+ * {@link #SIZE} of them, enough for all the lanes of a ray packet. The cache is
+ * not thread safe, so each thread should use its own.
+ *
+ * @author Dinz
+ *
+ */
+final class HitCache {
+	/**
+	 * Number of remembered hits.
+	 */
+	static final int SIZE = RayPacket.MAX_SIZE;
+	/**
+	 * Number of additional values of each hit, like the barycentric
+	 * coordinates of a triangle.
+	 */
+	static final int EXTRA = 3;
+	/**
+	 * Number of values of each hit, the ray components and the additional
+	 * values.
+	 */
+	private static final int STRIDE = 6 + EXTRA;
+
+	/**
+	 * Ray components and additional values of the hits.
+	 */
+	private final double[] values = new double[SIZE * STRIDE];
+	/**
+	 * Indices of the hit parts, -1 for the empty entries.
+	 */
+	private final int[] parts = new int[SIZE];
+	/**
+	 * Entry of the next hit.
+	 */
+	private int next;
+
+	/**
+	 * Constructs a new empty cache.
+	 */
+	HitCache() {
+		Arrays.fill(parts, -1);
+	}
+
+	/**
+	 * Remembers the hit, replacing the oldest one.
+	 *
+	 * @param ox
+	 *            x component of the ray origin.
+	 * @param oy
+	 *            y component of the ray origin.
+	 * @param oz
+	 *            z component of the ray origin.
+	 * @param dx
+	 *            x component of the ray direction.
+	 * @param dy
+	 *            y component of the ray direction.
+	 * @param dz
+	 *            z component of the ray direction.
+	 * @param part
+	 *            Index of the hit part.
+	 * @param a
+	 *            First additional value.
+	 * @param b
+	 *            Second additional value.
+	 * @param c
+	 *            Third additional value.
+	 */
+	void put(double ox, double oy, double oz, double dx, double dy, double dz, int part, double a, double b,
+			double c) {
+		int entry = next;
+		next = (next + 1) % SIZE;
+		int v = entry * STRIDE;
+		values[v] = ox;
+		values[v + 1] = oy;
+		values[v + 2] = oz;
+		values[v + 3] = dx;
+		values[v + 4] = dy;
+		values[v + 5] = dz;
+		values[v + 6] = a;
+		values[v + 7] = b;
+		values[v + 8] = c;
+		parts[entry] = part;
+	}
+
+	/**
+	 * Finds the latest hit of the ray, starting from the newest entry.
+	 *
+	 * @param ray
+	 *            Ray.
+	 * @return Entry of the hit, or -1 if the ray has no remembered hit.
+	 */
+	int find(Ray ray) {
+		Point3D start = ray.start;
+		Point3D direction = ray.direction;
+		for (int i = 1; i <= SIZE; i++) {
+			int entry = (next - i + SIZE) % SIZE;
+			int v = entry * STRIDE;
+			if (parts[entry] != -1 && values[v] == start.x && values[v + 1] == start.y && values[v + 2] == start.z
+					&& values[v + 3] == direction.x && values[v + 4] == direction.y
+					&& values[v + 5] == direction.z) {
+				return entry;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Gets the index of the hit part of the entry.
+	 *
+	 * @param entry
+	 *            Entry.
+	 * @return Index of the part.
+	 */
+	int part(int entry) {
+		return parts[entry];
+	}
+
+	/**
+	 * Gets the additional value of the entry.
+	 *
+	 * @param entry
+	 *            Entry.
+	 * @param index
+	 *            Index of the value, less than {@link #EXTRA}.
+	 * @return Additional value.
+	 */
+	double extra(int entry, int index) {
+		return values[entry * STRIDE + 6 + index];
+	}
+}
@@ -0,0 +1,277 @@
+package hr.fer.zemris.java.raytracer.model;
+
+/**
+ * Class that represents an instance of shared geometry placed into the scene
+ * by an affine transform. The geometry is not copied, so any number of
+ * instances of the same sphere, set of spheres or mesh take only the memory of
+ * their transforms. Rays are transformed into the space of the geometry
+ * instead, and the intersections found there are transformed back.
+ * <p>
+ * The transform is given as the 3x4 matrix which maps the points of the
+ * geometry to the points of the scene, row by row, with the translation in the
+ * last column. An instance is itself a {@link Primitive}, so instances can be
+ * placed into any acceleration structure and even instanced again.
+ *
+ * @author Dinz
+ *
+ */
+public class Instance extends Primitive {
+	/**
+	 * Number of values of a transform.
+	 */
+	public static final int TRANSFORM_SIZE = 12;
+
+	/**
+	 * Shared geometry.
+	 */
+	private final Primitive geometry;
+	/**
+	 * Transform from the space of the geometry to the space of the scene.
+	 */
+	private final double[] toScene;
+	/**
+	 * Transform from the space of the scene to the space of the geometry.
+	 */
+	private final double[] toGeometry;
+	/**
+	 * Bounding box of the transformed geometry.
+	 */
+	private final BoundingBox boundingBox;
+
+	/**
+	 * Constructs a new instance of the geometry.
+	 *
+	 * @param geometry
+	 *            Shared geometry.
+	 * @param transform
+	 *            Transform from the space of the geometry to the space of the
+	 *            scene, 3x4 matrix by rows.
+	 * @throws IllegalArgumentException
+	 *             If the transform does not have twelve values or can not be
+	 *             inverted.
+	 */
+	public Instance(Primitive geometry, double[] transform) {
+		if (transform.length != TRANSFORM_SIZE) {
+			throw new IllegalArgumentException("Transform must have " + TRANSFORM_SIZE + " values.");
+		}
+		this.geometry = geometry;
+		this.toScene = transform.clone();
+		this.toGeometry = invert(toScene);
+		this.boundingBox = transform(geometry.getBoundingBox(), toScene);
+	}
+
+	/**
+	 * Creates the instance of the geometry scaled by the given factor and then
+	 * moved to the given position.
+	 *
+	 * @param geometry
+	 *            Shared geometry.
+	 * @param position
+	 *            Position of the origin of the geometry in the scene.
+	 * @param scale
+	 *            Scale factor.
+	 * @return Instance.
+	 * @throws IllegalArgumentException
+	 *             If the scale factor is zero.
+	 */
+	public static Instance at(Primitive geometry, Point3D position, double scale) {
+		return new Instance(geometry,
+				new double[] { scale, 0, 0, position.x, 0, scale, 0, position.y, 0, 0, scale, position.z });
+	}
+
+	/**
+	 * Gets the shared geometry.
+	 *
+	 * @return Geometry.
+	 */
+	public Primitive getGeometry() {
+		return geometry;
+	}
+
+	/**
+	 * Gets the transform from the space of the geometry to the space of the
+	 * scene.
+	 *
+	 * @return Copy of the 3x4 matrix, by rows.
+	 */
+	public double[] getTransform() {
+		return toScene.clone();
+	}
+
+	@Override
+	public double intersect(double ox, double oy, double oz, double dx, double dy, double dz) {
+		double[] m = toGeometry;
+		double gdx = m[0] * dx + m[1] * dy + m[2] * dz;
+		double gdy = m[4] * dx + m[5] * dy + m[6] * dz;
+		double gdz = m[8] * dx + m[9] * dy + m[10] * dz;
+		// the geometry expects a normalized direction, so the distances are scaled
+		double length = Math.sqrt(gdx * gdx + gdy * gdy + gdz * gdz);
+		double distance = geometry.intersect(m[0] * ox + m[1] * oy + m[2] * oz + m[3],
+				m[4] * ox + m[5] * oy + m[6] * oz + m[7], m[8] * ox + m[9] * oy + m[10] * oz + m[11], gdx / length,
+				gdy / length, gdz / length);
+		return distance / length;
+	}
+
+	@Override
+	public RayIntersection intersectionAt(Ray ray, double distance) {
+		Point3D start = ray.start;
+		Point3D direction = ray.direction;
+		double[] m = toGeometry;
+		double gdx = m[0] * direction.x + m[1] * direction.y + m[2] * direction.z;
+		double gdy = m[4] * direction.x + m[5] * direction.y + m[6] * direction.z;
+		double gdz = m[8] * direction.x + m[9] * direction.y + m[10] * direction.z;
+		double length = Math.sqrt(gdx * gdx + gdy * gdy + gdz * gdz);
+		Ray geometryRay = new Ray(
+				new Point3D(m[0] * start.x + m[1] * start.y + m[2] * start.z + m[3],
+						m[4] * start.x + m[5] * start.y + m[6] * start.z + m[7],
+						m[8] * start.x + m[9] * start.y + m[10] * start.z + m[11]),
+				new Point3D(gdx / length, gdy / length, gdz / length));
+		RayIntersection intersection = geometry.intersectionAt(geometryRay, distance * length);
+		Point3D point = new Point3D(start.x + direction.x * distance, start.y + direction.y * distance,
+				start.z + direction.z * distance);
+		return new InstanceIntersection(point, distance, intersection);
+	}
+
+	@Override
+	public BoundingBox getBoundingBox() {
+		return boundingBox;
+	}
+
+	/**
+	 * Inverts the affine transform.
+	 *
+	 * @param m
+	 *            Transform, 3x4 matrix by rows.
+	 * @return Inverse transform.
+	 * @throws IllegalArgumentException
+	 *             If the transform can not be inverted.
+	 */
+	private static double[] invert(double[] m) {
+		double c00 = m[5] * m[10] - m[6] * m[9];
+		double c01 = m[2] * m[9] - m[1] * m[10];
+		double c02 = m[1] * m[6] - m[2] * m[5];
+		double c10 = m[6] * m[8] - m[4] * m[10];
+		double c11 = m[0] * m[10] - m[2] * m[8];
+		double c12 = m[2] * m[4] - m[0] * m[6];
+		double c20 = m[4] * m[9] - m[5] * m[8];
+		double c21 = m[1] * m[8] - m[0] * m[9];
+		double c22 = m[0] * m[5] - m[1] * m[4];
+		double determinant = m[0] * c00 + m[1] * c10 + m[2] * c20;
+		if (determinant == 0 || !Double.isFinite(determinant)) {
+			throw new IllegalArgumentException("Transform can not be inverted.");
+		}
+
+		double inverse = 1 / determinant;
+		double[] r = { c00 * inverse, c01 * inverse, c02 * inverse, 0, c10 * inverse, c11 * inverse, c12 * inverse, 0,
+				c20 * inverse, c21 * inverse, c22 * inverse, 0 };
+		for (int row = 0; row < 3; row++) {
+			int i = row * 4;
+			r[i + 3] = -(r[i] * m[3] + r[i + 1] * m[7] + r[i + 2] * m[11]);
+		}
+		return r;
+	}
+
+	/**
+	 * Calculates the box which encloses the transformed corners of the box.
+	 *
+	 * @param box
+	 *            Box.
+	 * @param m
+	 *            Transform, 3x4 matrix by rows.
+	 * @return Bounding box of the transformed box.
+	 */
+	private static BoundingBox transform(BoundingBox box, double[] m) {
+		if (box.minX > box.maxX || box.minY > box.maxY || box.minZ > box.maxZ) {
+			return box;
+		}
+		double[] bounds = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+				Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+		for (int corner = 0; corner < 8; corner++) {
+			double x = (corner & 1) == 0 ? box.minX : box.maxX;
+			double y = (corner & 2) == 0 ? box.minY : box.maxY;
+			double z = (corner & 4) == 0 ? box.minZ : box.maxZ;
+			for (int axis = 0; axis < 3; axis++) {
+				int i = axis * 4;
+				double value = m[i] * x + m[i + 1] * y + m[i + 2] * z + m[i + 3];
+				bounds[axis] = Math.min(bounds[axis], value);
+				bounds[axis + 3] = Math.max(bounds[axis + 3], value);
+			}
+		}
+		return new BoundingBox(bounds[0], bounds[1], bounds[2], bounds[3], bounds[4], bounds[5]);
+	}
+
+	/**
+	 * Class that represents an intersection with the instance. The material is
+	 * taken from the intersection with the geometry and its normal is
+	 * transformed into the space of the scene when requested.
+	 *
+	 * @author Dinz
+	 *
+	 */
+	private class InstanceIntersection extends RayIntersection {
+		/**
+		 * Intersection in the space of the geometry.
+		 */
+		private final RayIntersection intersection;
+
+		/**
+		 * Constructs a new intersection.
+		 *
+		 * @param point
+		 *            Point of the intersection in the space of the scene.
+		 * @param distance
+		 *            Distance from the ray origin in the space of the scene.
+		 * @param intersection
+		 *            Intersection in the space of the geometry.
+		 */
+		InstanceIntersection(Point3D point, double distance, RayIntersection intersection) {
+			super(point, distance, intersection.isOuter());
+			this.intersection = intersection;
+		}
+
+		@Override
+		public Point3D getNormal() {
+			// normals are transformed by the transposed inverse
+			Point3D normal = intersection.getNormal();
+			double[] m = toGeometry;
+			return new Point3D(m[0] * normal.x + m[4] * normal.y + m[8] * normal.z,
+					m[1] * normal.x + m[5] * normal.y + m[9] * normal.z,
+					m[2] * normal.x + m[6] * normal.y + m[10] * normal.z).modifyNormalize();
+		}
+
+		@Override
+		public double getKdr() {
+			return intersection.getKdr();
+		}
+
+		@Override
+		public double getKdg() {
+			return intersection.getKdg();
+		}
+
+		@Override
+		public double getKdb() {
+			return intersection.getKdb();
+		}
+
+		@Override
+		public double getKrr() {
+			return intersection.getKrr();
+		}
+
+		@Override
+		public double getKrg() {
+			return intersection.getKrg();
+		}
+
+		@Override
+		public double getKrb() {
+			return intersection.getKrb();
+		}
+
+		@Override
+		public double getKrn() {
+			return intersection.getKrn();
+		}
+	}
+}
@@ -0,0 +1,458 @@
+package hr.fer.zemris.java.raytracer.model;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Class that represents a hierarchy of light clusters in the manner of
+ * lightcuts. Each node of the binary tree clusters the lights of its subtree
+ * into a single light, placed at the representative light of the node with
+ * the summed intensities of all its lights. For each shaded point a cut
+ * through the tree is chosen, starting from the root and refining the node
+ * with the largest error bound until every bound falls below a given fraction
+ * of the estimated lighting of the point. Only the representatives of the cut
+ * need shadow rays, so the shading cost grows with the size of the cut and
+ * not with the number of lights.
+ * <p>
+ * The lights of the scenes do not fall off with the distance, so the error
+ * bound of a cluster is its largest intensity multiplied by the bounds of the
+ * diffuse and the reflective terms over the directions toward the bounding
+ * sphere of its lights.
+ *
+ * @author Dinz
+ *
+ */
+public class LightTree {
+	/**
+	 * Bounds of the lights of the nodes, six per node.
+	 */
+	private final double[] bounds;
+	/**
+	 * Index of the left child of each inner node, or -1 for the leaves.
+	 */
+	private final int[] left;
+	/**
+	 * Index of the right child of each inner node, or -1 for the leaves.
+	 */
+	private final int[] right;
+	/**
+	 * Position of the representative light of each node.
+	 */
+	private final Point3D[] positions;
+	/**
+	 * Summed red, green and blue intensities of the lights of the nodes, three
+	 * per node. The sums may exceed the intensities allowed for one light.
+	 */
+	private final int[] intensities;
+	/**
+	 * Number of nodes built so far.
+	 */
+	private int nodeCount;
+
+	/**
+	 * Constructs a new tree over the lights.
+	 *
+	 * @param lights
+	 *            Lights.
+	 * @throws IllegalArgumentException
+	 *             If there are no lights.
+	 */
+	public LightTree(List<LightSource> lights) {
+		if (lights.isEmpty()) {
+			throw new IllegalArgumentException("Light tree needs at least one light.");
+		}
+		int n = 2 * lights.size() - 1;
+		bounds = new double[n * 6];
+		left = new int[n];
+		right = new int[n];
+		positions = new Point3D[n];
+		intensities = new int[n * 3];
+		LightSource[] sorted = lights.toArray(new LightSource[lights.size()]);
+		build(sorted, 0, sorted.length);
+	}
+
+	/**
+	 * Gets the number of nodes.
+	 *
+	 * @return Number of nodes.
+	 */
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	/**
+	 * Gets the position of the representative light of the node.
+	 *
+	 * @param node
+	 *            Index of the node.
+	 * @return Position of the cluster.
+	 */
+	public Point3D getPoint(int node) {
+		return positions[node];
+	}
+
+	/**
+	 * Gets the summed red intensity of the lights of the node.
+	 *
+	 * @param node
+	 *            Index of the node.
+	 * @return Red intensity.
+	 */
+	public int getR(int node) {
+		return intensities[node * 3];
+	}
+
+	/**
+	 * Gets the summed green intensity of the lights of the node.
+	 *
+	 * @param node
+	 *            Index of the node.
+	 * @return Green intensity.
+	 */
+	public int getG(int node) {
+		return intensities[node * 3 + 1];
+	}
+
+	/**
+	 * Gets the summed blue intensity of the lights of the node.
+	 *
+	 * @param node
+	 *            Index of the node.
+	 * @return Blue intensity.
+	 */
+	public int getB(int node) {
+		return intensities[node * 3 + 2];
+	}
+
+	/**
+	 * Chooses the cut of the tree for the point.
+	 *
+	 * @param intersection
+	 *            Shaded point.
+	 * @param eye
+	 *            Origin of the ray which hit the point.
+	 * @param errorRatio
+	 *            Largest allowed error bound of a node relative to the estimated
+	 *            lighting of the point.
+	 * @param cut
+	 *            Output array of the nodes of the cut, whose length limits the
+	 *            size of the cut.
+	 * @return Number of nodes of the cut.
+	 */
+	public int cut(RayIntersection intersection, Point3D eye, double errorRatio, int[] cut) {
+		Point3D point = intersection.getPoint();
+		Point3D normal = intersection.getNormal().normalize();
+		Point3D toEye = eye.sub(point).normalize();
+		double kd = Math.max(intersection.getKdr(), Math.max(intersection.getKdg(), intersection.getKdb()));
+		double kr = Math.max(intersection.getKrr(), Math.max(intersection.getKrg(), intersection.getKrb()));
+		double krn = intersection.getKrn();
+
+		// lights seen in the mirrored direction of the eye reflect toward it
+		Point3D mirror = normal.scalarMultiply(2 * normal.scalarProduct(toEye)).sub(toEye);
+
+		// the cut is kept as a binary heap ordered by the error bounds
+		double[] errors = new double[cut.length];
+		double[] estimates = new double[cut.length];
+		int count = 1;
+		cut[0] = 0;
+		errors[0] = error(0, point, normal, mirror, kd, kr, krn);
+		estimates[0] = estimate(0, point, normal, mirror, kd, kr, krn);
+		double total = estimates[0];
+		while (count < cut.length && errors[0] > errorRatio * total) {
+			int node = cut[0];
+			total -= estimates[0];
+			int child = left[node];
+			double estimate = estimate(child, point, normal, mirror, kd, kr, krn);
+			total += estimate;
+			siftDown(cut, errors, estimates, count, child, error(child, point, normal, mirror, kd, kr, krn),
+					estimate);
+			child = right[node];
+			estimate = estimate(child, point, normal, mirror, kd, kr, krn);
+			total += estimate;
+			siftUp(cut, errors, estimates, count++, child, error(child, point, normal, mirror, kd, kr, krn),
+					estimate);
+		}
+		return count;
+	}
+
+	/**
+	 * Replaces the root of the heap by the node and moves it down to its place.
+	 *
+	 * @param nodes
+	 *            Nodes of the heap.
+	 * @param errors
+	 *            Error bounds of the nodes.
+	 * @param estimates
+	 *            Estimates of the nodes.
+	 * @param count
+	 *            Size of the heap.
+	 * @param node
+	 *            New node.
+	 * @param error
+	 *            Error bound of the new node.
+	 * @param estimate
+	 *            Estimate of the new node.
+	 */
+	private static void siftDown(int[] nodes, double[] errors, double[] estimates, int count, int node,
+			double error, double estimate) {
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= count) {
+				break;
+			}
+			if (child + 1 < count && errors[child + 1] > errors[child]) {
+				child++;
+			}
+			if (errors[child] <= error) {
+				break;
+			}
+			nodes[i] = nodes[child];
+			errors[i] = errors[child];
+			estimates[i] = estimates[child];
+			i = child;
+		}
+		nodes[i] = node;
+		errors[i] = error;
+		estimates[i] = estimate;
+	}
+
+	/**
+	 * Adds the node at the end of the heap and moves it up to its place.
+	 *
+	 * @param nodes
+	 *            Nodes of the heap.
+	 * @param errors
+	 *            Error bounds of the nodes.
+	 * @param estimates
+	 *            Estimates of the nodes.
+	 * @param count
+	 *            Size of the heap before adding.
+	 * @param node
+	 *            New node.
+	 * @param error
+	 *            Error bound of the new node.
+	 * @param estimate
+	 *            Estimate of the new node.
+	 */
+	private static void siftUp(int[] nodes, double[] errors, double[] estimates, int count, int node,
+			double error, double estimate) {
+		int i = count;
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (errors[parent] >= error) {
+				break;
+			}
+			nodes[i] = nodes[parent];
+			errors[i] = errors[parent];
+			estimates[i] = estimates[parent];
+			i = parent;
+		}
+		nodes[i] = node;
+		errors[i] = error;
+		estimates[i] = estimate;
+	}
+
+	/**
+	 * Builds the subtree over the range of the lights, splitting it at the
+	 * median of the longest axis of their bounds.
+	 *
+	 * @param lights
+	 *            Lights, reordered in place.
+	 * @param from
+	 *            First light, inclusive.
+	 * @param to
+	 *            Last light, exclusive.
+	 * @return Index of the root of the subtree.
+	 */
+	private int build(LightSource[] lights, int from, int to) {
+		int node = nodeCount++;
+		int b = node * 6;
+		double[] box = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+				Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+		for (int i = from; i < to; i++) {
+			Point3D p = lights[i].getPoint();
+			box[0] = Math.min(box[0], p.x);
+			box[1] = Math.min(box[1], p.y);
+			box[2] = Math.min(box[2], p.z);
+			box[3] = Math.max(box[3], p.x);
+			box[4] = Math.max(box[4], p.y);
+			box[5] = Math.max(box[5], p.z);
+		}
+		System.arraycopy(box, 0, bounds, b, 6);
+
+		if (to - from == 1) {
+			left[node] = -1;
+			right[node] = -1;
+			positions[node] = lights[from].getPoint();
+			intensities[node * 3] = lights[from].getR();
+			intensities[node * 3 + 1] = lights[from].getG();
+			intensities[node * 3 + 2] = lights[from].getB();
+			return node;
+		}
+
+		int axis = 0;
+		for (int a = 1; a < 3; a++) {
+			if (box[a + 3] - box[a] > box[axis + 3] - box[axis]) {
+				axis = a;
+			}
+		}
+		int split = axis;
+		Arrays.sort(lights, from, to, (l1, l2) -> Double.compare(coordinate(l1.getPoint(), split),
+				coordinate(l2.getPoint(), split)));
+		int middle = (from + to) >>> 1;
+		left[node] = build(lights, from, middle);
+		right[node] = build(lights, middle, to);
+
+		int l = left[node] * 3;
+		int r = right[node] * 3;
+		// the brighter child represents the cluster
+		positions[node] = intensities[l] + intensities[l + 1] + intensities[l + 2] >= intensities[r]
+				+ intensities[r + 1] + intensities[r + 2] ? positions[left[node]] : positions[right[node]];
+		for (int i = 0; i < 3; i++) {
+			intensities[node * 3 + i] = intensities[l + i] + intensities[r + i];
+		}
+		return node;
+	}
+
+	/**
+	 * Calculates the upper bound of the contribution of the node, which is also
+	 * the bound of the error of its estimate. Leaves are exact.
+	 *
+	 * @param node
+	 *            Index of the node.
+	 * @param point
+	 *            Shaded point.
+	 * @param normal
+	 *            Normalized normal at the point.
+	 * @param mirror
+	 *            Direction from the point toward the eye, mirrored around the
+	 *            normal.
+	 * @param kd
+	 *            Largest diffuse component.
+	 * @param kr
+	 *            Largest reflective component.
+	 * @param krn
+	 *            Reflective multiplier.
+	 * @return Error bound.
+	 */
+	private double error(int node, Point3D point, Point3D normal, Point3D mirror, double kd, double kr,
+			double krn) {
+		if (left[node] == -1) {
+			return 0;
+		}
+		int b = node * 6;
+		double cx = (bounds[b] + bounds[b + 3]) / 2 - point.x;
+		double cy = (bounds[b + 1] + bounds[b + 4]) / 2 - point.y;
+		double cz = (bounds[b + 2] + bounds[b + 5]) / 2 - point.z;
+		double ex = (bounds[b + 3] - bounds[b]) / 2;
+		double ey = (bounds[b + 4] - bounds[b + 1]) / 2;
+		double ez = (bounds[b + 5] - bounds[b + 2]) / 2;
+		double distance = Math.sqrt(cx * cx + cy * cy + cz * cz);
+		double radius = Math.sqrt(ex * ex + ey * ey + ez * ez);
+
+		if (distance <= radius) {
+			return intensity(node) * (kd + kr);
+		}
+		// the directions toward the bounding sphere lie within this angle of its center
+		double sinSpread = radius / distance;
+		double cosSpread = Math.sqrt(1 - sinSpread * sinSpread);
+		double cosine = boundCosine(normal, cx, cy, cz, distance, cosSpread, sinSpread);
+		if (cosine == 0) {
+			return 0;
+		}
+		double reflection = boundCosine(mirror, cx, cy, cz, distance, cosSpread, sinSpread);
+		return intensity(node) * (kd * cosine + kr * Math.pow(reflection, krn));
+	}
+
+	/**
+	 * Calculates the largest cosine between the axis and the directions within
+	 * the given angle of the direction toward the center of a bounding sphere.
+	 *
+	 * @param axis
+	 *            Normalized axis.
+	 * @param cx
+	 *            x component of the vector toward the center.
+	 * @param cy
+	 *            y component of the vector toward the center.
+	 * @param cz
+	 *            z component of the vector toward the center.
+	 * @param distance
+	 *            Length of the vector toward the center.
+	 * @param cosSpread
+	 *            Cosine of the angle of the bounding sphere.
+	 * @param sinSpread
+	 *            Sine of the angle of the bounding sphere.
+	 * @return Largest cosine, or 0 if it is not positive.
+	 */
+	private static double boundCosine(Point3D axis, double cx, double cy, double cz, double distance,
+			double cosSpread, double sinSpread) {
+		double cos = Math.max(-1, Math.min(1, (axis.x * cx + axis.y * cy + axis.z * cz) / distance));
+		if (cos >= cosSpread) {
+			return 1;
+		}
+		// cosine of the difference of the angles
+		return Math.max(0, cos * cosSpread + Math.sqrt(1 - cos * cos) * sinSpread);
+	}
+
+	/**
+	 * Estimates the contribution of the node, without the shadows, as the
+	 * contribution of its cluster light.
+	 *
+	 * @param node
+	 *            Index of the node.
+	 * @param point
+	 *            Shaded point.
+	 * @param normal
+	 *            Normalized normal at the point.
+	 * @param mirror
+	 *            Direction from the point toward the eye, mirrored around the
+	 *            normal.
+	 * @param kd
+	 *            Largest diffuse component.
+	 * @param kr
+	 *            Largest reflective component.
+	 * @param krn
+	 *            Reflective multiplier.
+	 * @return Estimated contribution.
+	 */
+	private double estimate(int node, Point3D point, Point3D normal, Point3D mirror, double kd, double kr,
+			double krn) {
+		Point3D position = positions[node];
+		double lx = position.x - point.x;
+		double ly = position.y - point.y;
+		double lz = position.z - point.z;
+		double length = Math.sqrt(lx * lx + ly * ly + lz * lz);
+		double ln = (lx * normal.x + ly * normal.y + lz * normal.z) / length;
+		if (ln <= 0) {
+			return 0;
+		}
+		// the reflected light meets the eye at the angle between the light and the mirror
+		double rv = Math.max(0, (lx * mirror.x + ly * mirror.y + lz * mirror.z) / length);
+		return intensity(node) * (kd * ln + kr * Math.pow(rv, krn));
+	}
+
+	/**
+	 * Gets the largest summed intensity of the node among the channels.
+	 *
+	 * @param node
+	 *            Index of the node.
+	 * @return Largest intensity.
+	 */
+	private int intensity(int node) {
+		return Math.max(intensities[node * 3], Math.max(intensities[node * 3 + 1], intensities[node * 3 + 2]));
+	}
+
+	/**
+	 * Gets the coordinate of the point along the axis.
+	 *
+	 * @param point
+	 *            Point.
+	 * @param axis
+	 *            Axis, 0 for x, 1 for y and 2 for z.
+	 * @return Coordinate.
+	 */
+	private static double coordinate(Point3D point, int axis) {
+		return axis == 0 ? point.x : axis == 1 ? point.y : point.z;
+	}
+}
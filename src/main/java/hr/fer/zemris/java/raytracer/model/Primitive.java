@@ -0,0 +1,85 @@
+package hr.fer.zemris.java.raytracer.model;
+
+/**
+ * Class that represents a bounded graphical object which can be intersected
+ * with a ray in two phases. The first phase only calculates the distance to
+ * the closest intersection from the primitive components of the ray, without
+ * allocating any objects, so the distances of many objects can be compared
+ * cheaply. The second phase materializes the intersection with its point,
+ * normal and material, and is done only for the closest one.
+ * <p>
+ * Rays are expected to have normalized directions, as created by
+ * {@link Ray#fromPoints(Point3D, Point3D)}, so the distances along the ray are
+ * the same as the distances of the intersections from the ray origin.
+ * 
+ * @author Dinz
+ *
+ */
+public abstract class Primitive extends GraphicalObject implements Bounded {
+
+	/**
+	 * Calculates the distance along the ray to the closest intersection in front
+	 * of the ray origin.
+	 * 
+	 * @param ox
+	 *            x component of the ray origin.
+	 * @param oy
+	 *            y component of the ray origin.
+	 * @param oz
+	 *            z component of the ray origin.
+	 * @param dx
+	 *            x component of the ray direction.
+	 * @param dy
+	 *            y component of the ray direction.
+	 * @param dz
+	 *            z component of the ray direction.
+	 * @return Distance to the closest intersection, or positive infinity if the
+	 *         ray misses the primitive.
+	 */
+	public abstract double intersect(double ox, double oy, double oz, double dx, double dy, double dz);
+
+	/**
+	 * Materializes the intersection of the ray at the given distance, which was
+	 * calculated by {@link #intersect(double, double, double, double, double, double)}.
+	 * 
+	 * @param ray
+	 *            Ray.
+	 * @param distance
+	 *            Distance along the ray.
+	 * @return Intersection.
+	 */
+	public abstract RayIntersection intersectionAt(Ray ray, double distance);
+
+	@Override
+	public RayIntersection findClosestRayIntersection(Ray ray) {
+		double distance = intersect(ray.start.x, ray.start.y, ray.start.z, ray.direction.x, ray.direction.y,
+				ray.direction.z);
+		return distance == Double.POSITIVE_INFINITY ? null : intersectionAt(ray, distance);
+	}
+
+	/**
+	 * Intersects the primitive with the rays of the given lanes of the packet.
+	 * Lanes whose intersection is closer than their current maximum distance get
+	 * it as the new maximum distance and the given identifier as their hit.
+	 * 
+	 * @param packet
+	 *            Ray packet.
+	 * @param mask
+	 *            Bit mask of the lanes to be tested.
+	 * @param id
+	 *            Identifier of the primitive stored into the hit lanes.
+	 */
+	public void intersect(RayPacket packet, int mask, int id) {
+		for (int lane = 0, n = packet.size(); lane < n; lane++) {
+			if ((mask & (1 << lane)) == 0) {
+				continue;
+			}
+			double distance = intersect(packet.ox[lane], packet.oy[lane], packet.oz[lane], packet.dx[lane],
+					packet.dy[lane], packet.dz[lane]);
+			if (distance < packet.t[lane]) {
+				packet.t[lane] = distance;
+				packet.hit[lane] = id;
+			}
+		}
+	}
+}
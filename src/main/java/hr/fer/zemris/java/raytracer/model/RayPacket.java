@@ -0,0 +1,139 @@
+package hr.fer.zemris.java.raytracer.model;
+
+/**
+ * Class that represents a packet of coherent rays, like the primary rays of
+ * neighbouring pixels, stored as separate arrays of their components. Each ray
+ * occupies one lane of the packet and has its own maximum distance, which the
+ * intersection tests shorten as they find closer hits. Lanes taking part in the
+ * queries are given by the bit mask of active lanes.
+ *
+ * @author Dinz
+ *
+ */
+public class RayPacket {
+	/**
+	 * Maximum number of lanes, limited by the bits of the lane mask.
+	 */
+	public static final int MAX_SIZE = 32;
+
+	/**
+	 * x components of the ray origins.
+	 */
+	public final double[] ox;
+	/**
+	 * y components of the ray origins.
+	 */
+	public final double[] oy;
+	/**
+	 * z components of the ray origins.
+	 */
+	public final double[] oz;
+	/**
+	 * x components of the ray directions.
+	 */
+	public final double[] dx;
+	/**
+	 * y components of the ray directions.
+	 */
+	public final double[] dy;
+	/**
+	 * z components of the ray directions.
+	 */
+	public final double[] dz;
+	/**
+	 * Maximum distances along the rays, the distances of the closest hits after a
+	 * closest hit query.
+	 */
+	public final double[] t;
+	/**
+	 * Index of the closest object hit by each ray, or -1.
+	 */
+	public final int[] hit;
+	/**
+	 * Rays of the lanes.
+	 */
+	public final Ray[] rays;
+	/**
+	 * Number of lanes.
+	 */
+	private final int size;
+	/**
+	 * Bit mask of the active lanes.
+	 */
+	public int active;
+
+	/**
+	 * Constructs a new packet of the given number of lanes.
+	 *
+	 * @param size
+	 *            Number of lanes.
+	 * @throws IllegalArgumentException
+	 *             If the size is not between 1 and {@link #MAX_SIZE}.
+	 */
+	public RayPacket(int size) {
+		if (size < 1 || size > MAX_SIZE) {
+			throw new IllegalArgumentException("Packet size must be between 1 and " + MAX_SIZE + ".");
+		}
+		this.size = size;
+		ox = new double[size];
+		oy = new double[size];
+		oz = new double[size];
+		dx = new double[size];
+		dy = new double[size];
+		dz = new double[size];
+		t = new double[size];
+		hit = new int[size];
+		rays = new Ray[size];
+	}
+
+	/**
+	 * Gets the number of lanes.
+	 *
+	 * @return Number of lanes.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Sets the ray of the lane, resets its maximum distance and hit and
+	 * activates the lane.
+	 *
+	 * @param lane
+	 *            Lane.
+	 * @param ray
+	 *            Ray.
+	 * @param maxDistance
+	 *            Maximum distance along the ray.
+	 */
+	public void set(int lane, Ray ray, double maxDistance) {
+		rays[lane] = ray;
+		ox[lane] = ray.start.x;
+		oy[lane] = ray.start.y;
+		oz[lane] = ray.start.z;
+		dx[lane] = ray.direction.x;
+		dy[lane] = ray.direction.y;
+		dz[lane] = ray.direction.z;
+		t[lane] = maxDistance;
+		hit[lane] = -1;
+		active |= 1 << lane;
+	}
+
+	/**
+	 * Deactivates all the lanes.
+	 */
+	public void clear() {
+		active = 0;
+	}
+
+	/**
+	 * Checks whether the lane is active.
+	 *
+	 * @param lane
+	 *            Lane.
+	 * @return True if the lane is active, false otherwise.
+	 */
+	public boolean isActive(int lane) {
+		return (active & (1 << lane)) != 0;
+	}
+}
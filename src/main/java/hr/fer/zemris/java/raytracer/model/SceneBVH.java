@@ -0,0 +1,450 @@
+package hr.fer.zemris.java.raytracer.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Class that accelerates the intersection queries of a scene with a bounding
+ * volume hierarchy over its bounded objects. Objects which are not
+ * {@link Bounded} can not be placed into the hierarchy, so they are tested
+ * against every ray. The hierarchy is built once, when the accelerator is
+ * constructed, so the scene should not be changed afterwards.
+ *
+ * @author Dinz
+ *
+ */
+public class SceneBVH {
+	/**
+	 * Scene.
+	 */
+	private final Scene scene;
+	/**
+	 * Bounded objects, indexed by the hierarchy.
+	 */
+	private final GraphicalObject[] bounded;
+	/**
+	 * Objects which are not bounded.
+	 */
+	private final GraphicalObject[] unbounded;
+	/**
+	 * Hierarchy over the bounded objects.
+	 */
+	private final BVH bvh;
+	/**
+	 * Objects of the scene when the hierarchy was built, in their order.
+	 */
+	private final GraphicalObject[] objects;
+	/**
+	 * Last occluder found by the occlusion queries of each thread, per cache
+	 * slot.
+	 */
+	private final ThreadLocal<GraphicalObject[]> lastOccluders = ThreadLocal
+			.withInitial(() -> new GraphicalObject[0]);
+
+	/**
+	 * Constructs a new accelerator and builds the hierarchy over the objects of
+	 * the scene.
+	 *
+	 * @param scene
+	 *            Scene.
+	 */
+	public SceneBVH(Scene scene) {
+		this.scene = scene;
+		List<GraphicalObject> boundedList = new ArrayList<>();
+		List<GraphicalObject> unboundedList = new ArrayList<>();
+		for (GraphicalObject object : scene.getObjects()) {
+			if (object instanceof Bounded) {
+				boundedList.add(object);
+			} else {
+				unboundedList.add(object);
+			}
+		}
+
+		bounded = boundedList.toArray(new GraphicalObject[boundedList.size()]);
+		unbounded = unboundedList.toArray(new GraphicalObject[unboundedList.size()]);
+		double[] bounds = new double[bounded.length * 6];
+		for (int i = 0; i < bounded.length; i++) {
+			((Bounded) bounded[i]).getBoundingBox().writeTo(bounds, i * 6);
+		}
+		bvh = new BVH(bounds);
+		objects = scene.getObjects().toArray(new GraphicalObject[scene.getObjects().size()]);
+	}
+
+	/**
+	 * Checks whether the hierarchy still matches the objects of the scene, that
+	 * is whether no object has been added, removed or replaced since it was
+	 * built. Lights may change freely.
+	 *
+	 * @return True if the hierarchy is up to date, false otherwise.
+	 */
+	public boolean isCurrent() {
+		List<GraphicalObject> current = scene.getObjects();
+		if (current.size() != objects.length) {
+			return false;
+		}
+		int i = 0;
+		for (GraphicalObject object : current) {
+			if (object != objects[i++]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the scene.
+	 *
+	 * @return Scene.
+	 */
+	public Scene getScene() {
+		return scene;
+	}
+
+	/**
+	 * Finds the closest intersection between the scene and the ray. Each object
+	 * is tested at most once.
+	 *
+	 * @param ray
+	 *            Ray.
+	 * @return Closest intersection, or null if the ray misses the scene.
+	 */
+	public RayIntersection findClosestIntersection(Ray ray) {
+		ClosestHit hit = new ClosestHit(ray);
+		for (GraphicalObject object : unbounded) {
+			hit.test(object);
+		}
+		bvh.traverse(ray.start.x, ray.start.y, ray.start.z, ray.direction.x, ray.direction.y, ray.direction.z,
+				hit.distance, hit);
+		return hit.result();
+	}
+
+	/**
+	 * Checks whether any object intersects the ray closer than the maximum
+	 * distance. The query returns as soon as the first such object is found. The
+	 * object is remembered in the given cache slot of the calling thread and
+	 * tested first by the next query of that slot, since coherent queries, like
+	 * shadow rays of neighbouring pixels toward the same light, are mostly
+	 * blocked by the same object.
+	 *
+	 * @param ray
+	 *            Ray.
+	 * @param maxDistance
+	 *            Maximum distance along the ray.
+	 * @param cacheSlot
+	 *            Non-negative slot of the last occluder cache, for example the
+	 *            index of the light.
+	 * @return True if the ray is blocked before the maximum distance, false
+	 *         otherwise.
+	 */
+	public boolean isOccluded(Ray ray, double maxDistance, int cacheSlot) {
+		GraphicalObject[] cache = lastOccluders.get();
+		if (cacheSlot >= cache.length) {
+			cache = Arrays.copyOf(cache, Math.max(cacheSlot + 1, cache.length * 2));
+			lastOccluders.set(cache);
+		}
+
+		GraphicalObject last = cache[cacheSlot];
+		if (last != null && blocks(last, ray, maxDistance)) {
+			return true;
+		}
+
+		for (GraphicalObject object : unbounded) {
+			if (object != last && blocks(object, ray, maxDistance)) {
+				cache[cacheSlot] = object;
+				return true;
+			}
+		}
+
+		GraphicalObject[] occluder = new GraphicalObject[1];
+		bvh.traverse(ray.start.x, ray.start.y, ray.start.z, ray.direction.x, ray.direction.y, ray.direction.z,
+				maxDistance, (primitive, tMax) -> {
+					GraphicalObject object = bounded[primitive];
+					if (object != last && blocks(object, ray, maxDistance)) {
+						occluder[0] = object;
+						return -1;
+					}
+					return tMax;
+				});
+
+		if (occluder[0] != null) {
+			cache[cacheSlot] = occluder[0];
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Finds the closest intersections between the scene and the active rays of
+	 * the packet. The hierarchy is traversed once for the whole packet and only
+	 * the closest intersection of each ray is materialized.
+	 *
+	 * @param packet
+	 *            Ray packet, whose maximum distances are replaced by the distances
+	 *            of the closest hits.
+	 * @param intersections
+	 *            Output array of the closest intersections per lane, null for the
+	 *            lanes which miss the scene or are not active.
+	 */
+	public void findClosestIntersections(RayPacket packet, RayIntersection[] intersections) {
+		findClosestIntersections(packet, intersections, null);
+	}
+
+	/**
+	 * Finds the closest intersections between the scene and the active rays of
+	 * the packet, as {@link #findClosestIntersections(RayPacket, RayIntersection[])}
+	 * does, testing only the given candidates of the bounded objects instead of
+	 * traversing the hierarchy. The candidates are usually found by
+	 * {@link #cull(Frustum, int)} for a frustum which holds all the rays.
+	 *
+	 * @param packet
+	 *            Ray packet, whose maximum distances are replaced by the distances
+	 *            of the closest hits.
+	 * @param intersections
+	 *            Output array of the closest intersections per lane, null for the
+	 *            lanes which miss the scene or are not active.
+	 * @param candidates
+	 *            Indices of the bounded objects which may be hit by the rays, or
+	 *            null to traverse the hierarchy.
+	 */
+	public void findClosestIntersections(RayPacket packet, RayIntersection[] intersections, int[] candidates) {
+		int active = packet.active;
+		for (int j = 0; j < unbounded.length; j++) {
+			intersect(unbounded[j], bounded.length + j, packet, active);
+		}
+		if (candidates == null) {
+			bvh.traverse(packet, (primitive, p, mask) -> intersect(bounded[primitive], primitive, p, mask));
+		} else {
+			for (int primitive : candidates) {
+				intersect(bounded[primitive], primitive, packet, active);
+			}
+		}
+
+		for (int lane = 0, n = packet.size(); lane < n; lane++) {
+			int id = packet.hit[lane];
+			if ((active & (1 << lane)) == 0 || id == -1) {
+				intersections[lane] = null;
+				continue;
+			}
+			GraphicalObject object = id < bounded.length ? bounded[id] : unbounded[id - bounded.length];
+			intersections[lane] = object instanceof Primitive
+					? ((Primitive) object).intersectionAt(packet.rays[lane], packet.t[lane])
+					: object.findClosestRayIntersection(packet.rays[lane]);
+		}
+	}
+
+	/**
+	 * Finds the bounded objects whose boxes may intersect the frustum, through
+	 * the boxes of the hierarchy and then their own boxes. The search gives up
+	 * once more than the given number of objects is found, since the traversal
+	 * of the hierarchy is cheaper than the tests of many candidates.
+	 *
+	 * @param frustum
+	 *            Frustum.
+	 * @param maxCandidates
+	 *            Largest number of the candidates.
+	 * @return Indices of the candidate objects, or null if there are more of
+	 *         them than the largest number.
+	 */
+	public int[] cull(Frustum frustum, int maxCandidates) {
+		int[] candidates = new int[maxCandidates];
+		int count = bvh.collect(frustum, candidates);
+		if (count < 0) {
+			return null;
+		}
+		int kept = 0;
+		for (int i = 0; i < count; i++) {
+			if (frustum.intersects(((Bounded) bounded[candidates[i]]).getBoundingBox())) {
+				candidates[kept++] = candidates[i];
+			}
+		}
+		return Arrays.copyOf(candidates, kept);
+	}
+
+	/**
+	 * Finds the active rays of the packet which are blocked by any object closer
+	 * than their maximum distances. The blocked lanes are deactivated as soon as
+	 * their first occluder is found, and the last occluder of the given cache
+	 * slot is tested first, as in {@link #isOccluded(Ray, double, int)}.
+	 *
+	 * @param packet
+	 *            Ray packet.
+	 * @param cacheSlot
+	 *            Non-negative slot of the last occluder cache.
+	 * @return Bit mask of the blocked lanes.
+	 */
+	public int findOccluded(RayPacket packet, int cacheSlot) {
+		GraphicalObject[] cache = lastOccluders.get();
+		if (cacheSlot >= cache.length) {
+			cache = Arrays.copyOf(cache, Math.max(cacheSlot + 1, cache.length * 2));
+			lastOccluders.set(cache);
+		}
+
+		int initial = packet.active;
+		GraphicalObject last = cache[cacheSlot];
+		if (last != null) {
+			occlude(last, packet, packet.active);
+		}
+		for (GraphicalObject object : unbounded) {
+			if (object != last && occlude(object, packet, packet.active)) {
+				cache[cacheSlot] = object;
+			}
+		}
+
+		GraphicalObject[] cacheRef = cache;
+		bvh.traverse(packet, (primitive, p, mask) -> {
+			GraphicalObject object = bounded[primitive];
+			if (object != last && occlude(object, p, mask)) {
+				cacheRef[cacheSlot] = object;
+			}
+		});
+
+		return initial & ~packet.active;
+	}
+
+	/**
+	 * Intersects the object with the given lanes of the packet and keeps the
+	 * closer hits.
+	 *
+	 * @param object
+	 *            Object.
+	 * @param id
+	 *            Identifier of the object.
+	 * @param packet
+	 *            Ray packet.
+	 * @param mask
+	 *            Bit mask of the lanes to be tested.
+	 */
+	private static void intersect(GraphicalObject object, int id, RayPacket packet, int mask) {
+		if (object instanceof Primitive) {
+			((Primitive) object).intersect(packet, mask, id);
+			return;
+		}
+		for (int lanes = mask; lanes != 0; lanes &= lanes - 1) {
+			int lane = Integer.numberOfTrailingZeros(lanes);
+			RayIntersection intersection = object.findClosestRayIntersection(packet.rays[lane]);
+			if (intersection != null && intersection.getDistance() < packet.t[lane]) {
+				packet.t[lane] = intersection.getDistance();
+				packet.hit[lane] = id;
+			}
+		}
+	}
+
+	/**
+	 * Deactivates the given lanes of the packet which are blocked by the object.
+	 *
+	 * @param object
+	 *            Object.
+	 * @param packet
+	 *            Ray packet.
+	 * @param mask
+	 *            Bit mask of the lanes to be tested.
+	 * @return True if any lane is blocked by the object, false otherwise.
+	 */
+	private static boolean occlude(GraphicalObject object, RayPacket packet, int mask) {
+		int blocked = 0;
+		for (int lanes = mask; lanes != 0; lanes &= lanes - 1) {
+			int lane = Integer.numberOfTrailingZeros(lanes);
+			if (blocks(object, packet.rays[lane], packet.t[lane])) {
+				blocked |= 1 << lane;
+			}
+		}
+		packet.active &= ~blocked;
+		return blocked != 0;
+	}
+
+	/**
+	 * Checks whether the object intersects the ray closer than the maximum
+	 * distance.
+	 *
+	 * @param object
+	 *            Object.
+	 * @param ray
+	 *            Ray.
+	 * @param maxDistance
+	 *            Maximum distance along the ray.
+	 * @return True if the object blocks the ray, false otherwise.
+	 */
+	static boolean blocks(GraphicalObject object, Ray ray, double maxDistance) {
+		if (object instanceof Primitive) {
+			return ((Primitive) object).intersect(ray.start.x, ray.start.y, ray.start.z, ray.direction.x,
+					ray.direction.y, ray.direction.z) < maxDistance;
+		}
+		RayIntersection intersection = object.findClosestRayIntersection(ray);
+		return intersection != null && intersection.getDistance() < maxDistance;
+	}
+
+	/**
+	 * Class that keeps the closest intersection found during the traversal.
+	 * Primitives are compared by their distances only, and the intersection of
+	 * the closest one is materialized once the traversal is done.
+	 *
+	 * @author Dinz
+	 *
+	 */
+	private class ClosestHit implements BVH.Visitor {
+		/**
+		 * Ray.
+		 */
+		Ray ray;
+		/**
+		 * Closest intersection found so far, if it is not a primitive one.
+		 */
+		RayIntersection closest;
+		/**
+		 * Closest primitive found so far, if the closest intersection is not
+		 * materialized.
+		 */
+		Primitive closestPrimitive;
+		/**
+		 * Distance of the closest intersection.
+		 */
+		double distance = Double.POSITIVE_INFINITY;
+
+		public ClosestHit(Ray ray) {
+			this.ray = ray;
+		}
+
+		@Override
+		public double visit(int primitive, double tMax) {
+			test(bounded[primitive]);
+			return distance;
+		}
+
+		/**
+		 * Tests the object and keeps it if its intersection is the closest one.
+		 *
+		 * @param object
+		 *            Object.
+		 */
+		void test(GraphicalObject object) {
+			if (object instanceof Primitive) {
+				Primitive primitive = (Primitive) object;
+				double t = primitive.intersect(ray.start.x, ray.start.y, ray.start.z, ray.direction.x,
+						ray.direction.y, ray.direction.z);
+				if (t < distance) {
+					closestPrimitive = primitive;
+					closest = null;
+					distance = t;
+				}
+				return;
+			}
+
+			RayIntersection intersection = object.findClosestRayIntersection(ray);
+			if (intersection != null && intersection.getDistance() < distance) {
+				closest = intersection;
+				closestPrimitive = null;
+				distance = intersection.getDistance();
+			}
+		}
+
+		/**
+		 * Gets the closest intersection, materializing it if needed.
+		 *
+		 * @return Closest intersection, or null if there is none.
+		 */
+		RayIntersection result() {
+			return closestPrimitive != null ? closestPrimitive.intersectionAt(ray, distance) : closest;
+		}
+	}
+}
@@ -8,11 +8,7 @@ package hr.fer.zemris.java.raytracer.model;
  * @author Dinz
  *
  */
-public class Sphere extends GraphicalObject {
-	/**
-	 * Threshold used in operations with doubles.
-	 */
-	private static final double THRESHOLD = 1E-4;
+public class Sphere extends Primitive {
 	/**
 	 * Center of the sphere.
 	 */
@@ -49,6 +45,22 @@ public class Sphere extends GraphicalObject {
 	 * Reflective multiplier.
 	 */
 	private double krn;
+	/**
+	 * x component of the center.
+	 */
+	private final double cx;
+	/**
+	 * y component of the center.
+	 */
+	private final double cy;
+	/**
+	 * z component of the center.
+	 */
+	private final double cz;
+	/**
+	 * Squared radius of the sphere.
+	 */
+	private final double radiusSquared;
 
 	public Sphere(Point3D center, double radius, double kdr, double kdg, double kdb, double krr, double krg, double krb,
 			double krn) {
@@ -61,96 +73,80 @@ public class Sphere extends GraphicalObject {
 		this.krg = krg;
 		this.krb = krb;
 		this.krn = krn;
-
+		this.cx = center.x;
+		this.cy = center.y;
+		this.cz = center.z;
+		this.radiusSquared = radius * radius;
 	}
 
 	@Override
-	public RayIntersection findClosestRayIntersection(Ray ray) {
-		Point3D rayOrigin = ray.start;
-		Point3D rayDirection = ray.direction;
-
+	public double intersect(double ox, double oy, double oz, double dx, double dy, double dz) {
 		// ray is expressed as rayOrigin + t * rayDirection
-		double discriminantA = rayDirection.scalarProduct(rayDirection); // d^2
-		double discriminantB = rayDirection.scalarMultiply(2).scalarProduct(rayOrigin.sub(center));
-		double discriminantC = rayOrigin.sub(center).scalarProduct(rayOrigin.sub(center)) - Math.pow(this.radius, 2);
-
-		double discriminant = Math.pow(discriminantB, 2) - discriminantA * discriminantC * 4;
+		double ocx = ox - cx;
+		double ocy = oy - cy;
+		double ocz = oz - cz;
+		double a = dx * dx + dy * dy + dz * dz;
+		double halfB = dx * ocx + dy * ocy + dz * ocz;
+		double c = ocx * ocx + ocy * ocy + ocz * ocz - radiusSquared;
 
+		double discriminant = halfB * halfB - a * c;
 		// no intersection
-		if (discriminant < 0)
-			return null;
-
-		double intDistance = 0;
-		Point3D intersection = null;
-		boolean outer = true;
-
-		double distanceOne = (-discriminantB + Math.sqrt(discriminant)) / (2 * discriminantA);
-		double distanceTwo = (-discriminantB - Math.sqrt(discriminant)) / (2 * discriminantA);
-
-		// one intersection
-		if (Math.abs(discriminant) < THRESHOLD) {
-			intDistance = -discriminantB / (2 * discriminantA);
-			intersection = rayOrigin.add(rayDirection.scalarMultiply(intDistance));
-			intDistance = intersection.sub(rayOrigin).norm();
-		} else if (Math.abs(distanceOne - distanceTwo) > THRESHOLD) {
-			if (distanceOne <= distanceTwo) {
-				Point3D intersectionOne = rayOrigin.add(rayDirection.scalarMultiply(distanceOne));
-				intersection = intersectionOne;
-				intDistance = intersection.sub(rayOrigin).norm();
-			} else {
-				Point3D intersectionTwo = rayOrigin.add(rayDirection.scalarMultiply(distanceTwo));
-				intersection = intersectionTwo;
-				intDistance = intersection.sub(rayOrigin).norm();
-
-			}
-			if (intersection.sub(center).norm() < radius) {
-				outer = false;
-			}
+		if (discriminant < 0) {
+			return Double.POSITIVE_INFINITY;
+		}
+
+		double root = Math.sqrt(discriminant);
+		double far = (-halfB + root) / a;
+		// both intersections are behind the ray origin
+		if (far < 0) {
+			return Double.POSITIVE_INFINITY;
+		}
+		double near = (-halfB - root) / a;
+		return near >= 0 ? near : far;
+	}
+
+	@Override
+	public void intersect(RayPacket packet, int mask, int id) {
+		double[] ox = packet.ox, oy = packet.oy, oz = packet.oz;
+		double[] dx = packet.dx, dy = packet.dy, dz = packet.dz;
+		double[] t = packet.t;
+		int[] hit = packet.hit;
+		for (int lane = 0, n = packet.size(); lane < n; lane++) {
+			double ocx = ox[lane] - cx;
+			double ocy = oy[lane] - cy;
+			double ocz = oz[lane] - cz;
+			double a = dx[lane] * dx[lane] + dy[lane] * dy[lane] + dz[lane] * dz[lane];
+			double halfB = dx[lane] * ocx + dy[lane] * ocy + dz[lane] * ocz;
+			double c = ocx * ocx + ocy * ocy + ocz * ocz - radiusSquared;
+			double discriminant = halfB * halfB - a * c;
+
+			// lanes without an intersection get NaN, which is never closer
+			double root = Math.sqrt(discriminant);
+			double near = (-halfB - root) / a;
+			double far = (-halfB + root) / a;
+			double distance = near >= 0 ? near : far;
+			boolean closer = (mask & (1 << lane)) != 0 && distance >= 0 && distance < t[lane];
+			t[lane] = closer ? distance : t[lane];
+			hit[lane] = closer ? id : hit[lane];
 		}
-		return new RayIntersection(intersection, intDistance, outer) {
-
-			@Override
-			public Point3D getNormal() {
-
-				return this.getPoint().sub(getCenter()).normalize();
-			}
-
-			@Override
-			public double getKdr() {
-				return kdr;
-			}
-
-			@Override
-			public double getKdg() {
-				return kdg;
-			}
-
-			@Override
-			public double getKdb() {
-				return kdb;
-			}
-
-			@Override
-			public double getKrr() {
-				return krr;
-			}
-
-			@Override
-			public double getKrg() {
-				return krg;
-			}
-
-			@Override
-			public double getKrb() {
-				return krb;
-			}
-
-			@Override
-			public double getKrn() {
-				return krn;
-			}
-
-		};
+	}
+
+	@Override
+	public RayIntersection intersectionAt(Ray ray, double distance) {
+		Point3D start = ray.start;
+		Point3D direction = ray.direction;
+		Point3D point = new Point3D(start.x + direction.x * distance, start.y + direction.y * distance,
+				start.z + direction.z * distance);
+		double ocx = start.x - cx;
+		double ocy = start.y - cy;
+		double ocz = start.z - cz;
+		boolean outer = ocx * ocx + ocy * ocy + ocz * ocz >= radiusSquared;
+		return new SphereIntersection(point, distance, outer);
+	}
+
+	@Override
+	public BoundingBox getBoundingBox() {
+		return BoundingBox.ofSphere(center, radius);
 	}
 
 	/**
@@ -234,4 +230,70 @@ public class Sphere extends GraphicalObject {
 		return krn;
 	}
 
+	/**
+	 * Class that represents an intersection of a ray and the sphere. The normal
+	 * is calculated only when requested and the material is read from the
+	 * sphere.
+	 * 
+	 * @author Dinz
+	 *
+	 */
+	private class SphereIntersection extends RayIntersection {
+
+		/**
+		 * Constructs a new intersection.
+		 * 
+		 * @param point
+		 *            Point of the intersection.
+		 * @param distance
+		 *            Distance from the ray origin.
+		 * @param outer
+		 *            Whether the ray hits the sphere from the outside.
+		 */
+		SphereIntersection(Point3D point, double distance, boolean outer) {
+			super(point, distance, outer);
+		}
+
+		@Override
+		public Point3D getNormal() {
+			Point3D point = getPoint();
+			double inverse = 1 / radius;
+			return new Point3D((point.x - cx) * inverse, (point.y - cy) * inverse, (point.z - cz) * inverse);
+		}
+
+		@Override
+		public double getKdr() {
+			return kdr;
+		}
+
+		@Override
+		public double getKdg() {
+			return kdg;
+		}
+
+		@Override
+		public double getKdb() {
+			return kdb;
+		}
+
+		@Override
+		public double getKrr() {
+			return krr;
+		}
+
+		@Override
+		public double getKrg() {
+			return krg;
+		}
+
+		@Override
+		public double getKrb() {
+			return krb;
+		}
+
+		@Override
+		public double getKrn() {
+			return krn;
+		}
+	}
 }
@@ -0,0 +1,286 @@
+package hr.fer.zemris.java.raytracer.model;
+
+/**
+ * Class that represents a large set of spheres as a single primitive. The
+ * spheres are kept in primitive arrays instead of a {@link Sphere} object for
+ * each of them, and are intersected through their own bounding volume
+ * hierarchy. Materials are shared by the spheres and referenced by their
+ * indices.
+ * <p>
+ * Each sphere takes {@link #SPHERE_SIZE} values of the sphere array, the
+ * components of its center and its radius, and each material takes
+ * {@link #MATERIAL_SIZE} values of the material array, in the order kdr, kdg,
+ * kdb, krr, krg, krb and krn.
+ *
+ * @author Dinz
+ *
+ */
+public class SphereSet extends Primitive {
+	/**
+	 * Number of values of each sphere.
+	 */
+	public static final int SPHERE_SIZE = 4;
+	/**
+	 * Number of values of each material.
+	 */
+	public static final int MATERIAL_SIZE = 7;
+
+	/**
+	 * Centers and radii of the spheres.
+	 */
+	private final float[] spheres;
+	/**
+	 * Material indices of the spheres.
+	 */
+	private final int[] materials;
+	/**
+	 * Components of the materials.
+	 */
+	private final float[] materialData;
+	/**
+	 * Hierarchy over the spheres.
+	 */
+	private final BVH bvh;
+	/**
+	 * Bounding box of all the spheres.
+	 */
+	private final BoundingBox boundingBox;
+	/**
+	 * Last spheres hit by the distance queries of each thread.
+	 */
+	private final ThreadLocal<HitCache> hits = ThreadLocal.withInitial(HitCache::new);
+
+	/**
+	 * Constructs a new set of spheres and builds the hierarchy over them.
+	 *
+	 * @param spheres
+	 *            Centers and radii of the spheres.
+	 * @param materials
+	 *            Material indices of the spheres.
+	 * @param materialData
+	 *            Components of the materials.
+	 * @throws IllegalArgumentException
+	 *             If the lengths of the arrays do not match, or a material index
+	 *             is out of range.
+	 */
+	public SphereSet(float[] spheres, int[] materials, float[] materialData) {
+		if (spheres.length != materials.length * SPHERE_SIZE || materialData.length % MATERIAL_SIZE != 0) {
+			throw new IllegalArgumentException("Lengths of the sphere and material arrays do not match.");
+		}
+		int materialCount = materialData.length / MATERIAL_SIZE;
+		for (int material : materials) {
+			if (material < 0 || material >= materialCount) {
+				throw new IllegalArgumentException("Material index " + material + " is out of range.");
+			}
+		}
+		this.spheres = spheres;
+		this.materials = materials;
+		this.materialData = materialData;
+
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY, minZ = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+		double[] bounds = new double[materials.length * 6];
+		for (int i = 0, s = 0, b = 0; i < materials.length; i++, s += SPHERE_SIZE, b += 6) {
+			double radius = spheres[s + 3];
+			bounds[b] = spheres[s] - radius;
+			bounds[b + 1] = spheres[s + 1] - radius;
+			bounds[b + 2] = spheres[s + 2] - radius;
+			bounds[b + 3] = spheres[s] + radius;
+			bounds[b + 4] = spheres[s + 1] + radius;
+			bounds[b + 5] = spheres[s + 2] + radius;
+			minX = Math.min(minX, bounds[b]);
+			minY = Math.min(minY, bounds[b + 1]);
+			minZ = Math.min(minZ, bounds[b + 2]);
+			maxX = Math.max(maxX, bounds[b + 3]);
+			maxY = Math.max(maxY, bounds[b + 4]);
+			maxZ = Math.max(maxZ, bounds[b + 5]);
+		}
+		bvh = new BVH(bounds);
+		boundingBox = new BoundingBox(minX, minY, minZ, maxX, maxY, maxZ);
+	}
+
+	/**
+	 * Gets the number of spheres.
+	 *
+	 * @return Number of spheres.
+	 */
+	public int size() {
+		return materials.length;
+	}
+
+	@Override
+	public double intersect(double ox, double oy, double oz, double dx, double dy, double dz) {
+		ClosestSphere hit = new ClosestSphere(ox, oy, oz, dx, dy, dz);
+		bvh.traverse(ox, oy, oz, dx, dy, dz, Double.POSITIVE_INFINITY, hit);
+		if (hit.sphere != -1) {
+			hits.get().put(ox, oy, oz, dx, dy, dz, hit.sphere, 0, 0, 0);
+		}
+		return hit.distance;
+	}
+
+	@Override
+	public RayIntersection intersectionAt(Ray ray, double distance) {
+		Point3D start = ray.start;
+		Point3D direction = ray.direction;
+		HitCache cache = hits.get();
+		int entry = cache.find(ray);
+		int sphere;
+		if (entry != -1) {
+			sphere = cache.part(entry);
+		} else {
+			// the hit was pushed out of the cache, the same traversal finds it again
+			ClosestSphere hit = new ClosestSphere(start.x, start.y, start.z, direction.x, direction.y, direction.z);
+			bvh.traverse(start.x, start.y, start.z, direction.x, direction.y, direction.z, Double.POSITIVE_INFINITY,
+					hit);
+			sphere = hit.sphere;
+			if (sphere == -1) {
+				throw new IllegalStateException("Ray does not hit the set of spheres.");
+			}
+		}
+		int s = sphere * SPHERE_SIZE;
+		Point3D point = new Point3D(start.x + direction.x * distance, start.y + direction.y * distance,
+				start.z + direction.z * distance);
+		double ocx = start.x - spheres[s];
+		double ocy = start.y - spheres[s + 1];
+		double ocz = start.z - spheres[s + 2];
+		boolean outer = ocx * ocx + ocy * ocy + ocz * ocz >= (double) spheres[s + 3] * spheres[s + 3];
+		return new SphereSetIntersection(point, distance, outer, sphere);
+	}
+
+	@Override
+	public BoundingBox getBoundingBox() {
+		return boundingBox;
+	}
+
+	/**
+	 * Class that keeps the closest sphere found during the traversal.
+	 *
+	 * @author Dinz
+	 *
+	 */
+	private class ClosestSphere implements BVH.Visitor {
+		double ox, oy, oz, dx, dy, dz;
+		/**
+		 * Index of the closest sphere.
+		 */
+		int sphere = -1;
+		/**
+		 * Distance of the closest sphere.
+		 */
+		double distance = Double.POSITIVE_INFINITY;
+
+		public ClosestSphere(double ox, double oy, double oz, double dx, double dy, double dz) {
+			this.ox = ox;
+			this.oy = oy;
+			this.oz = oz;
+			this.dx = dx;
+			this.dy = dy;
+			this.dz = dz;
+		}
+
+		@Override
+		public double visit(int primitive, double tMax) {
+			int s = primitive * SPHERE_SIZE;
+			double ocx = ox - spheres[s];
+			double ocy = oy - spheres[s + 1];
+			double ocz = oz - spheres[s + 2];
+			double radius = spheres[s + 3];
+			double a = dx * dx + dy * dy + dz * dz;
+			double halfB = dx * ocx + dy * ocy + dz * ocz;
+			double c = ocx * ocx + ocy * ocy + ocz * ocz - radius * radius;
+
+			double discriminant = halfB * halfB - a * c;
+			if (discriminant < 0) {
+				return distance;
+			}
+			double root = Math.sqrt(discriminant);
+			double near = (-halfB - root) / a;
+			double t = near >= 0 ? near : (-halfB + root) / a;
+			if (t >= 0 && t < distance) {
+				distance = t;
+				sphere = primitive;
+			}
+			return distance;
+		}
+	}
+
+	/**
+	 * Class that represents an intersection of a ray and a sphere of the set.
+	 * The normal is calculated only when requested.
+	 *
+	 * @author Dinz
+	 *
+	 */
+	private class SphereSetIntersection extends RayIntersection {
+		/**
+		 * Index of the sphere.
+		 */
+		private final int sphere;
+		/**
+		 * Offset of the material of the sphere.
+		 */
+		private final int material;
+
+		/**
+		 * Constructs a new intersection.
+		 *
+		 * @param point
+		 *            Point of the intersection.
+		 * @param distance
+		 *            Distance from the ray origin.
+		 * @param outer
+		 *            Whether the ray hits the sphere from the outside.
+		 * @param sphere
+		 *            Index of the sphere.
+		 */
+		SphereSetIntersection(Point3D point, double distance, boolean outer, int sphere) {
+			super(point, distance, outer);
+			this.sphere = sphere;
+			this.material = materials[sphere] * MATERIAL_SIZE;
+		}
+
+		@Override
+		public Point3D getNormal() {
+			Point3D point = getPoint();
+			int s = sphere * SPHERE_SIZE;
+			double inverse = 1 / (double) spheres[s + 3];
+			return new Point3D((point.x - spheres[s]) * inverse, (point.y - spheres[s + 1]) * inverse,
+					(point.z - spheres[s + 2]) * inverse);
+		}
+
+		@Override
+		public double getKdr() {
+			return materialData[material];
+		}
+
+		@Override
+		public double getKdg() {
+			return materialData[material + 1];
+		}
+
+		@Override
+		public double getKdb() {
+			return materialData[material + 2];
+		}
+
+		@Override
+		public double getKrr() {
+			return materialData[material + 3];
+		}
+
+		@Override
+		public double getKrg() {
+			return materialData[material + 4];
+		}
+
+		@Override
+		public double getKrb() {
+			return materialData[material + 5];
+		}
+
+		@Override
+		public double getKrn() {
+			return materialData[material + 6];
+		}
+	}
+}
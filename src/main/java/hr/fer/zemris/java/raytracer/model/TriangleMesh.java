@@ -0,0 +1,506 @@
+package hr.fer.zemris.java.raytracer.model;
+
+import java.util.Arrays;
+
+/**
+ * Class that represents a mesh of triangles as a single primitive. The
+ * vertices and their normals are kept in shared float arrays, three values per
+ * vertex, and each triangle is given by the indices of its three vertices, so
+ * a vertex shared by several triangles is stored only once and the mesh takes
+ * no object per triangle. The whole mesh has one material.
+ * <p>
+ * The triangles are reordered along the Z-order (Morton) curve of their
+ * centroids and the hierarchy is built over groups of {@link #GROUP_SIZE}
+ * consecutive triangles, with one group per leaf, which keeps the hierarchy
+ * small for meshes of many millions of triangles. Rays are intersected with the watertight test of Woop,
+ * Benthin and Wald, so rays through the shared edges and vertices of the
+ * triangles never slip through the mesh. Triangles are seen from both sides.
+ *
+ * @author Dinz
+ *
+ */
+public class TriangleMesh extends Primitive {
+	/**
+	 * Number of consecutive triangles which form one primitive of the
+	 * hierarchy.
+	 */
+	public static final int GROUP_SIZE = 8;
+	/**
+	 * Number of bits of each axis of the Morton codes of the triangles.
+	 */
+	private static final int MORTON_BITS = 10;
+
+	/**
+	 * Components of the vertices.
+	 */
+	private final float[] vertices;
+	/**
+	 * Components of the normals of the vertices, or null for flat triangles.
+	 */
+	private final float[] normals;
+	/**
+	 * Vertex indices of the triangles.
+	 */
+	private final int[] indices;
+	/**
+	 * Diffuse component for red color.
+	 */
+	private final double kdr;
+	/**
+	 * Diffuse component for green color.
+	 */
+	private final double kdg;
+	/**
+	 * Diffuse component for blue color.
+	 */
+	private final double kdb;
+	/**
+	 * Reflective component for red color.
+	 */
+	private final double krr;
+	/**
+	 * Reflective component for green color.
+	 */
+	private final double krg;
+	/**
+	 * Reflective component for blue color.
+	 */
+	private final double krb;
+	/**
+	 * Reflective multiplier.
+	 */
+	private final double krn;
+	/**
+	 * Hierarchy over the groups of the triangles.
+	 */
+	private final BVH bvh;
+	/**
+	 * Bounding box of all the triangles.
+	 */
+	private final BoundingBox boundingBox;
+	/**
+	 * Last triangles hit by the distance queries of each thread, with the
+	 * barycentric coordinates of their hits.
+	 */
+	private final ThreadLocal<HitCache> hits = ThreadLocal.withInitial(HitCache::new);
+
+	/**
+	 * Constructs a new mesh and builds the hierarchy over it. The triangles of
+	 * the index array are reordered in place, so the mesh needs no copy of it.
+	 *
+	 * @param vertices
+	 *            Components of the vertices.
+	 * @param normals
+	 *            Components of the normals of the vertices, or null for flat
+	 *            triangles.
+	 * @param indices
+	 *            Vertex indices of the triangles.
+	 * @param kdr
+	 *            Diffuse component for red color.
+	 * @param kdg
+	 *            Diffuse component for green color.
+	 * @param kdb
+	 *            Diffuse component for blue color.
+	 * @param krr
+	 *            Reflective component for red color.
+	 * @param krg
+	 *            Reflective component for green color.
+	 * @param krb
+	 *            Reflective component for blue color.
+	 * @param krn
+	 *            Reflective multiplier.
+	 * @throws IllegalArgumentException
+	 *             If the lengths of the arrays do not match, or a vertex index
+	 *             is out of range.
+	 */
+	public TriangleMesh(float[] vertices, float[] normals, int[] indices, double kdr, double kdg, double kdb,
+			double krr, double krg, double krb, double krn) {
+		if (vertices.length % 3 != 0 || indices.length % 3 != 0
+				|| normals != null && normals.length != vertices.length) {
+			throw new IllegalArgumentException("Lengths of the vertex, normal and index arrays do not match.");
+		}
+		int vertexCount = vertices.length / 3;
+		for (int index : indices) {
+			if (index < 0 || index >= vertexCount) {
+				throw new IllegalArgumentException("Vertex index " + index + " is out of range.");
+			}
+		}
+		this.vertices = vertices;
+		this.normals = normals;
+		this.indices = indices;
+		this.kdr = kdr;
+		this.kdg = kdg;
+		this.kdb = kdb;
+		this.krr = krr;
+		this.krg = krg;
+		this.krb = krb;
+		this.krn = krn;
+
+		double[] box = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+				Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+		for (int index : indices) {
+			for (int axis = 0; axis < 3; axis++) {
+				box[axis] = Math.min(box[axis], vertices[index * 3 + axis]);
+				box[axis + 3] = Math.max(box[axis + 3], vertices[index * 3 + axis]);
+			}
+		}
+		sortTriangles(box);
+
+		int triangles = getTriangleCount();
+		int groups = (triangles + GROUP_SIZE - 1) / GROUP_SIZE;
+		double[] bounds = new double[groups * 6];
+		for (int group = 0; group < groups; group++) {
+			int b = group * 6;
+			for (int axis = 0; axis < 3; axis++) {
+				bounds[b + axis] = Double.POSITIVE_INFINITY;
+				bounds[b + 3 + axis] = Double.NEGATIVE_INFINITY;
+			}
+			int end = Math.min(triangles, (group + 1) * GROUP_SIZE) * 3;
+			for (int i = group * GROUP_SIZE * 3; i < end; i++) {
+				int v = indices[i] * 3;
+				for (int axis = 0; axis < 3; axis++) {
+					bounds[b + axis] = Math.min(bounds[b + axis], vertices[v + axis]);
+					bounds[b + 3 + axis] = Math.max(bounds[b + 3 + axis], vertices[v + axis]);
+				}
+			}
+		}
+		bvh = new BVH(bounds, 1);
+		boundingBox = triangles == 0 ? new BoundingBox(0, 0, 0, -1, -1, -1)
+				: new BoundingBox(box[0], box[1], box[2], box[3], box[4], box[5]);
+	}
+
+	/**
+	 * Gets the number of triangles.
+	 *
+	 * @return Number of triangles.
+	 */
+	public int getTriangleCount() {
+		return indices.length / 3;
+	}
+
+	/**
+	 * Gets the number of vertices.
+	 *
+	 * @return Number of vertices.
+	 */
+	public int getVertexCount() {
+		return vertices.length / 3;
+	}
+
+	@Override
+	public double intersect(double ox, double oy, double oz, double dx, double dy, double dz) {
+		ClosestTriangle hit = new ClosestTriangle(ox, oy, oz, dx, dy, dz);
+		bvh.traverse(ox, oy, oz, dx, dy, dz, Double.POSITIVE_INFINITY, hit);
+		if (hit.triangle != -1) {
+			hits.get().put(ox, oy, oz, dx, dy, dz, hit.triangle, hit.u, hit.v, hit.w);
+		}
+		return hit.distance;
+	}
+
+	@Override
+	public RayIntersection intersectionAt(Ray ray, double distance) {
+		Point3D start = ray.start;
+		Point3D direction = ray.direction;
+		HitCache cache = hits.get();
+		int entry = cache.find(ray);
+		int triangle;
+		double u, v, w;
+		if (entry != -1) {
+			triangle = cache.part(entry);
+			u = cache.extra(entry, 0);
+			v = cache.extra(entry, 1);
+			w = cache.extra(entry, 2);
+		} else {
+			// the hit was pushed out of the cache, the same traversal finds it again
+			ClosestTriangle hit = new ClosestTriangle(start.x, start.y, start.z, direction.x, direction.y,
+					direction.z);
+			bvh.traverse(start.x, start.y, start.z, direction.x, direction.y, direction.z, Double.POSITIVE_INFINITY,
+					hit);
+			triangle = hit.triangle;
+			if (triangle == -1) {
+				throw new IllegalStateException("Ray does not hit the mesh.");
+			}
+			u = hit.u;
+			v = hit.v;
+			w = hit.w;
+		}
+		Point3D point = new Point3D(start.x + direction.x * distance, start.y + direction.y * distance,
+				start.z + direction.z * distance);
+
+		int a = indices[triangle * 3] * 3;
+		int b = indices[triangle * 3 + 1] * 3;
+		int c = indices[triangle * 3 + 2] * 3;
+		double e1x = vertices[b] - vertices[a], e1y = vertices[b + 1] - vertices[a + 1],
+				e1z = vertices[b + 2] - vertices[a + 2];
+		double e2x = vertices[c] - vertices[a], e2y = vertices[c + 1] - vertices[a + 1],
+				e2z = vertices[c + 2] - vertices[a + 2];
+		Point3D geometric = new Point3D(e1y * e2z - e1z * e2y, e1z * e2x - e1x * e2z, e1x * e2y - e1y * e2x);
+		boolean outer = geometric.scalarProduct(direction) <= 0;
+
+		Point3D normal = geometric;
+		if (normals != null) {
+			normal = new Point3D(u * normals[a] + v * normals[b] + w * normals[c],
+					u * normals[a + 1] + v * normals[b + 1] + w * normals[c + 1],
+					u * normals[a + 2] + v * normals[b + 2] + w * normals[c + 2]);
+			if (normal.norm() == 0) {
+				normal = geometric;
+			}
+		}
+		normal = normal.normalize();
+		// the triangles are seen from both sides, so the normal faces the ray
+		if (normal.scalarProduct(direction) > 0) {
+			normal = normal.negate();
+		}
+		return new TriangleIntersection(point, distance, outer, normal);
+	}
+
+	@Override
+	public BoundingBox getBoundingBox() {
+		return boundingBox;
+	}
+
+	/**
+	 * Reorders the triangles along the Morton curve of their centroids within
+	 * the cube around the bounding box. The sorted keys hold the original triangle indices,
+	 * which give the permutation, and their sign bits mark the triangles already
+	 * moved, so the triangles are moved in place along the cycles of the
+	 * permutation.
+	 *
+	 * @param box
+	 *            Bounding box of the triangles, minimum and maximum corner.
+	 */
+	private void sortTriangles(double[] box) {
+		int triangles = getTriangleCount();
+		// the same scale for all the axes keeps the curve compact in flat meshes
+		double extent = Math.max(box[3] - box[0], Math.max(box[4] - box[1], box[5] - box[2]));
+		double scale = extent > 0 ? ((1 << MORTON_BITS) - 1) / extent / 3 : 0;
+		long[] keys = new long[triangles];
+		for (int t = 0; t < triangles; t++) {
+			long code = 0;
+			for (int axis = 0; axis < 3; axis++) {
+				double sum = vertices[indices[t * 3] * 3 + axis] + vertices[indices[t * 3 + 1] * 3 + axis]
+						+ vertices[indices[t * 3 + 2] * 3 + axis];
+				code |= spread((int) ((sum - 3 * box[axis]) * scale)) << axis;
+			}
+			keys[t] = code << 31 | t;
+		}
+		Arrays.sort(keys);
+
+		for (int start = 0; start < triangles; start++) {
+			if (keys[start] < 0) {
+				continue;
+			}
+			int a = indices[start * 3];
+			int b = indices[start * 3 + 1];
+			int c = indices[start * 3 + 2];
+			int target = start;
+			while (true) {
+				int source = (int) (keys[target] & Integer.MAX_VALUE);
+				keys[target] |= Long.MIN_VALUE;
+				if (source == start) {
+					indices[target * 3] = a;
+					indices[target * 3 + 1] = b;
+					indices[target * 3 + 2] = c;
+					break;
+				}
+				indices[target * 3] = indices[source * 3];
+				indices[target * 3 + 1] = indices[source * 3 + 1];
+				indices[target * 3 + 2] = indices[source * 3 + 2];
+				target = source;
+			}
+		}
+	}
+
+	/**
+	 * Spreads the lower bits of the cell to every third bit of the result.
+	 *
+	 * @param cell
+	 *            Cell along an axis, below 2^{@value #MORTON_BITS}.
+	 * @return Spread cell.
+	 */
+	private static long spread(int cell) {
+		long x = Math.max(0, Math.min((1 << MORTON_BITS) - 1, cell));
+		x = (x | x << 16) & 0x030000FFL;
+		x = (x | x << 8) & 0x0300F00FL;
+		x = (x | x << 4) & 0x030C30C3L;
+		x = (x | x << 2) & 0x09249249L;
+		return x;
+	}
+
+	/**
+	 * Class that keeps the closest triangle found during the traversal. The ray
+	 * is transformed once into a space where it runs along the z axis from the
+	 * origin, and each triangle is tested by the signs of the edge functions of
+	 * its vertices in that space. An edge shared by two triangles gets the same
+	 * edge function with the opposite sign in both, so a ray through the edge
+	 * hits at least one of them.
+	 *
+	 * @author Dinz
+	 *
+	 */
+	private class ClosestTriangle implements BVH.Visitor {
+		/**
+		 * Components of the ray origin, by axis.
+		 */
+		double[] origin;
+		/**
+		 * Axes which are mapped to the x, y and z axis, where z is the dominant
+		 * axis of the direction.
+		 */
+		int kx, ky, kz;
+		/**
+		 * Shear and scale constants of the transformation.
+		 */
+		double sx, sy, sz;
+		/**
+		 * Index of the closest triangle.
+		 */
+		int triangle = -1;
+		/**
+		 * Distance of the closest triangle.
+		 */
+		double distance = Double.POSITIVE_INFINITY;
+		/**
+		 * Barycentric coordinates of the closest intersection.
+		 */
+		double u, v, w;
+
+		public ClosestTriangle(double ox, double oy, double oz, double dx, double dy, double dz) {
+			origin = new double[] { ox, oy, oz };
+			double[] direction = { dx, dy, dz };
+			kz = Math.abs(dx) > Math.abs(dy) ? (Math.abs(dx) > Math.abs(dz) ? 0 : 2)
+					: (Math.abs(dy) > Math.abs(dz) ? 1 : 2);
+			kx = kz == 2 ? 0 : kz + 1;
+			ky = kx == 2 ? 0 : kx + 1;
+			if (direction[kz] < 0) {
+				int swap = kx;
+				kx = ky;
+				ky = swap;
+			}
+			sx = direction[kx] / direction[kz];
+			sy = direction[ky] / direction[kz];
+			sz = 1.0 / direction[kz];
+		}
+
+		@Override
+		public double visit(int primitive, double tMax) {
+			for (int t = primitive * GROUP_SIZE, end = Math.min(getTriangleCount(), t + GROUP_SIZE); t < end; t++) {
+				test(t);
+			}
+			return distance;
+		}
+
+		/**
+		 * Tests the triangle and keeps it if it is hit closer than the closest
+		 * triangle so far.
+		 *
+		 * @param t
+		 *            Index of the triangle.
+		 */
+		private void test(int t) {
+			int a = indices[t * 3] * 3;
+			int b = indices[t * 3 + 1] * 3;
+			int c = indices[t * 3 + 2] * 3;
+			double az = vertices[a + kz] - origin[kz];
+			double bz = vertices[b + kz] - origin[kz];
+			double cz = vertices[c + kz] - origin[kz];
+			double ax = vertices[a + kx] - origin[kx] - sx * az;
+			double ay = vertices[a + ky] - origin[ky] - sy * az;
+			double bx = vertices[b + kx] - origin[kx] - sx * bz;
+			double by = vertices[b + ky] - origin[ky] - sy * bz;
+			double cx = vertices[c + kx] - origin[kx] - sx * cz;
+			double cy = vertices[c + ky] - origin[ky] - sy * cz;
+
+			double eu = cx * by - cy * bx;
+			double ev = ax * cy - ay * cx;
+			double ew = bx * ay - by * ax;
+			if ((eu < 0 || ev < 0 || ew < 0) && (eu > 0 || ev > 0 || ew > 0)) {
+				return;
+			}
+			double det = eu + ev + ew;
+			if (det == 0) {
+				return;
+			}
+			double scaled = eu * (sz * az) + ev * (sz * bz) + ew * (sz * cz);
+			double hit = scaled / det;
+			if (hit < 0 || hit >= distance) {
+				return;
+			}
+			distance = hit;
+			triangle = t;
+			u = eu / det;
+			v = ev / det;
+			w = ew / det;
+		}
+	}
+
+	/**
+	 * Class that represents an intersection of a ray and a triangle of the mesh.
+	 *
+	 * @author Dinz
+	 *
+	 */
+	private class TriangleIntersection extends RayIntersection {
+		/**
+		 * Normal of the intersection, facing the ray.
+		 */
+		private final Point3D normal;
+
+		/**
+		 * Constructs a new intersection.
+		 *
+		 * @param point
+		 *            Point of the intersection.
+		 * @param distance
+		 *            Distance from the ray origin.
+		 * @param outer
+		 *            Whether the ray hits the front side of the triangle.
+		 * @param normal
+		 *            Normal of the intersection.
+		 */
+		TriangleIntersection(Point3D point, double distance, boolean outer, Point3D normal) {
+			super(point, distance, outer);
+			this.normal = normal;
+		}
+
+		@Override
+		public Point3D getNormal() {
+			return normal;
+		}
+
+		@Override
+		public double getKdr() {
+			return kdr;
+		}
+
+		@Override
+		public double getKdg() {
+			return kdg;
+		}
+
+		@Override
+		public double getKdb() {
+			return kdb;
+		}
+
+		@Override
+		public double getKrr() {
+			return krr;
+		}
+
+		@Override
+		public double getKrg() {
+			return krg;
+		}
+
+		@Override
+		public double getKrb() {
+			return krb;
+		}
+
+		@Override
+		public double getKrn() {
+			return krn;
+		}
+	}
+}
@@ -0,0 +1,730 @@
+package hr.fer.zemris.java.raytracer.model;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class that represents a hashed uniform grid over the objects of an animated
+ * scene. Each bounded object is placed into every cell its bounding box
+ * overlaps, and the cells along a ray are visited in order by a 3D-DDA, so the
+ * traversal stops at the first cell which contains the closest hit. Objects
+ * which are not {@link Bounded} are tested against every ray.
+ * <p>
+ * The grid is updated incrementally by inserting, removing and replacing
+ * objects, and the updates become visible to the readers only when they are
+ * committed as a new {@link Snapshot}. Snapshots are immutable, so render
+ * threads can keep reading the previous snapshot while the next frame is being
+ * updated. The cells are grouped into chunks of 4 by 4 by 4 cells kept in a
+ * hashed directory, and an update copies only the directory and the chunks it
+ * changes, once per commit. The cost of a frame is therefore proportional to
+ * the number of moved objects and the number of cells they overlap.
+ * <p>
+ * The objects of the library can not be changed, so a moving object is
+ * replaced by its moved copy with {@link #replace(GraphicalObject, GraphicalObject)}.
+ * The updating methods are synchronized, but the grid is meant to be updated
+ * by a single thread.
+ *
+ * @author Dinz
+ *
+ */
+public class UniformGrid {
+	/**
+	 * Number of bits of a cell index within its chunk, per axis.
+	 */
+	private static final int CHUNK_BITS = 2;
+	/**
+	 * Number of cells of a chunk along each axis.
+	 */
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	/**
+	 * Largest absolute cell index along each axis.
+	 */
+	private static final int CELL_LIMIT = 1 << 20;
+
+	/**
+	 * Width of the cells.
+	 */
+	private final double cellSize;
+	/**
+	 * Cell ranges of the bounded objects, as minimum and maximum indices along
+	 * each axis.
+	 */
+	private final Map<GraphicalObject, int[]> ranges = new IdentityHashMap<>();
+	/**
+	 * Objects which are not bounded.
+	 */
+	private final List<GraphicalObject> unbounded = new ArrayList<>();
+	/**
+	 * Directory of the chunks, open addressed by the chunk keys.
+	 */
+	private Chunk[] directory = new Chunk[16];
+	/**
+	 * Number of chunks in the directory.
+	 */
+	private int chunkCount;
+	/**
+	 * Whether the directory is shared with the last snapshot.
+	 */
+	private boolean directoryShared;
+	/**
+	 * Version of the chunks which are not shared with any snapshot.
+	 */
+	private int version;
+	/**
+	 * Range of the cells which have ever been occupied.
+	 */
+	private int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+	private int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+	/**
+	 * Last committed snapshot.
+	 */
+	private volatile Snapshot snapshot;
+
+	/**
+	 * Constructs a new empty grid.
+	 *
+	 * @param cellSize
+	 *            Width of the cells.
+	 * @throws IllegalArgumentException
+	 *             If the cell size is not positive.
+	 */
+	public UniformGrid(double cellSize) {
+		if (!(cellSize > 0)) {
+			throw new IllegalArgumentException("Cell size must be positive.");
+		}
+		this.cellSize = cellSize;
+		commit();
+	}
+
+	/**
+	 * Constructs a new grid over the objects of the scene and commits it.
+	 *
+	 * @param scene
+	 *            Scene.
+	 * @param cellSize
+	 *            Width of the cells.
+	 * @throws IllegalArgumentException
+	 *             If the cell size is not positive.
+	 */
+	public UniformGrid(Scene scene, double cellSize) {
+		this(cellSize);
+		for (GraphicalObject object : scene.getObjects()) {
+			insert(object);
+		}
+		commit();
+	}
+
+	/**
+	 * Gets the last committed snapshot.
+	 *
+	 * @return Snapshot.
+	 */
+	public Snapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Inserts the object into the grid.
+	 *
+	 * @param object
+	 *            Object.
+	 * @throws IllegalArgumentException
+	 *             If the object is already in the grid or lies outside of the
+	 *             range of the cells.
+	 */
+	public synchronized void insert(GraphicalObject object) {
+		if (!(object instanceof Bounded)) {
+			if (unbounded.contains(object)) {
+				throw new IllegalArgumentException("Object is already in the grid.");
+			}
+			unbounded.add(object);
+			return;
+		}
+		if (ranges.containsKey(object)) {
+			throw new IllegalArgumentException("Object is already in the grid.");
+		}
+		int[] range = rangeOf(((Bounded) object).getBoundingBox());
+		ranges.put(object, range);
+		minX = Math.min(minX, range[0]);
+		minY = Math.min(minY, range[1]);
+		minZ = Math.min(minZ, range[2]);
+		maxX = Math.max(maxX, range[3]);
+		maxY = Math.max(maxY, range[4]);
+		maxZ = Math.max(maxZ, range[5]);
+		update(object, range, true);
+	}
+
+	/**
+	 * Removes the object from the grid.
+	 *
+	 * @param object
+	 *            Object.
+	 * @throws IllegalArgumentException
+	 *             If the object is not in the grid.
+	 */
+	public synchronized void remove(GraphicalObject object) {
+		if (!(object instanceof Bounded)) {
+			if (!unbounded.remove(object)) {
+				throw new IllegalArgumentException("Object is not in the grid.");
+			}
+			return;
+		}
+		int[] range = ranges.remove(object);
+		if (range == null) {
+			throw new IllegalArgumentException("Object is not in the grid.");
+		}
+		update(object, range, false);
+	}
+
+	/**
+	 * Replaces the object with another one, usually its moved copy.
+	 *
+	 * @param object
+	 *            Object in the grid.
+	 * @param replacement
+	 *            Replacement.
+	 * @throws IllegalArgumentException
+	 *             If the object is not in the grid, the replacement is already in
+	 *             it, or lies outside of the range of the cells.
+	 */
+	public synchronized void replace(GraphicalObject object, GraphicalObject replacement) {
+		if (replacement instanceof Bounded) {
+			// fails before the object is removed
+			rangeOf(((Bounded) replacement).getBoundingBox());
+		}
+		remove(object);
+		insert(replacement);
+	}
+
+	/**
+	 * Publishes the updates made since the last commit as a new snapshot.
+	 *
+	 * @return New snapshot.
+	 */
+	public synchronized Snapshot commit() {
+		snapshot = new Snapshot(this);
+		directoryShared = true;
+		version++;
+		return snapshot;
+	}
+
+	/**
+	 * Adds the object to or removes it from all the cells of the range.
+	 *
+	 * @param object
+	 *            Object.
+	 * @param range
+	 *            Cell range.
+	 * @param add
+	 *            Whether the object is added or removed.
+	 */
+	private void update(GraphicalObject object, int[] range, boolean add) {
+		for (int x = range[0]; x <= range[3]; x++) {
+			for (int y = range[1]; y <= range[4]; y++) {
+				for (int z = range[2]; z <= range[5]; z++) {
+					Chunk chunk = writableChunk(chunkKey(x, y, z));
+					int cell = cellIndex(x, y, z);
+					chunk.cells[cell] = add ? with(chunk.cells[cell], object) : without(chunk.cells[cell], object);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the chunk of the key which can be changed, copying it and the
+	 * directory if they are shared with the last snapshot.
+	 *
+	 * @param key
+	 *            Key of the chunk.
+	 * @return Writable chunk.
+	 */
+	private Chunk writableChunk(long key) {
+		if (directoryShared) {
+			directory = directory.clone();
+			directoryShared = false;
+		}
+		int mask = directory.length - 1;
+		int slot = hash(key) & mask;
+		while (directory[slot] != null && directory[slot].key != key) {
+			slot = (slot + 1) & mask;
+		}
+
+		Chunk chunk = directory[slot];
+		if (chunk == null) {
+			chunk = new Chunk(key, version, new GraphicalObject[CHUNK_SIZE * CHUNK_SIZE * CHUNK_SIZE][]);
+			directory[slot] = chunk;
+			if (++chunkCount * 2 > directory.length) {
+				grow();
+			}
+		} else if (chunk.version != version) {
+			chunk = new Chunk(key, version, chunk.cells.clone());
+			directory[slot] = chunk;
+		}
+		return chunk;
+	}
+
+	/**
+	 * Doubles the directory and places the chunks into it again.
+	 */
+	private void grow() {
+		Chunk[] grown = new Chunk[directory.length * 2];
+		int mask = grown.length - 1;
+		for (Chunk chunk : directory) {
+			if (chunk == null) {
+				continue;
+			}
+			int slot = hash(chunk.key) & mask;
+			while (grown[slot] != null) {
+				slot = (slot + 1) & mask;
+			}
+			grown[slot] = chunk;
+		}
+		directory = grown;
+	}
+
+	/**
+	 * Gets the range of the cells overlapped by the box.
+	 *
+	 * @param box
+	 *            Bounding box.
+	 * @return Cell range.
+	 * @throws IllegalArgumentException
+	 *             If the box lies outside of the range of the cells.
+	 */
+	private int[] rangeOf(BoundingBox box) {
+		int[] range = { cellOf(box.minX), cellOf(box.minY), cellOf(box.minZ), cellOf(box.maxX), cellOf(box.maxY),
+				cellOf(box.maxZ) };
+		for (int index : range) {
+			if (index < -CELL_LIMIT || index > CELL_LIMIT) {
+				throw new IllegalArgumentException("Object " + box + " lies outside of the grid.");
+			}
+		}
+		return range;
+	}
+
+	/**
+	 * Gets the index of the cell which contains the coordinate.
+	 *
+	 * @param coordinate
+	 *            Coordinate.
+	 * @return Cell index.
+	 */
+	private int cellOf(double coordinate) {
+		double index = Math.floor(coordinate / cellSize);
+		// infinite and NaN coordinates end up outside of the limits
+		return index >= -CELL_LIMIT && index <= CELL_LIMIT ? (int) index : Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Gets the key of the chunk which contains the cell.
+	 *
+	 * @param x
+	 *            x index of the cell.
+	 * @param y
+	 *            y index of the cell.
+	 * @param z
+	 *            z index of the cell.
+	 * @return Chunk key.
+	 */
+	private static long chunkKey(int x, int y, int z) {
+		return ((long) (x >> CHUNK_BITS) & 0x1FFFFF) << 42 | ((long) (y >> CHUNK_BITS) & 0x1FFFFF) << 21
+				| (long) (z >> CHUNK_BITS) & 0x1FFFFF;
+	}
+
+	/**
+	 * Gets the index of the cell within its chunk.
+	 *
+	 * @param x
+	 *            x index of the cell.
+	 * @param y
+	 *            y index of the cell.
+	 * @param z
+	 *            z index of the cell.
+	 * @return Index within the chunk.
+	 */
+	private static int cellIndex(int x, int y, int z) {
+		int m = CHUNK_SIZE - 1;
+		return ((x & m) << CHUNK_BITS | (y & m)) << CHUNK_BITS | (z & m);
+	}
+
+	/**
+	 * Hashes the chunk key.
+	 *
+	 * @param key
+	 *            Chunk key.
+	 * @return Hash.
+	 */
+	private static int hash(long key) {
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32);
+	}
+
+	/**
+	 * Creates a new cell with the object appended.
+	 *
+	 * @param cell
+	 *            Objects of the cell, or null.
+	 * @param object
+	 *            Object.
+	 * @return New objects of the cell.
+	 */
+	private static GraphicalObject[] with(GraphicalObject[] cell, GraphicalObject object) {
+		if (cell == null) {
+			return new GraphicalObject[] { object };
+		}
+		GraphicalObject[] result = new GraphicalObject[cell.length + 1];
+		System.arraycopy(cell, 0, result, 0, cell.length);
+		result[cell.length] = object;
+		return result;
+	}
+
+	/**
+	 * Creates a new cell without the object.
+	 *
+	 * @param cell
+	 *            Objects of the cell.
+	 * @param object
+	 *            Object.
+	 * @return New objects of the cell, or null if it is empty.
+	 */
+	private static GraphicalObject[] without(GraphicalObject[] cell, GraphicalObject object) {
+		if (cell.length == 1) {
+			return null;
+		}
+		GraphicalObject[] result = new GraphicalObject[cell.length - 1];
+		for (int i = 0, j = 0; i < cell.length; i++) {
+			if (cell[i] != object) {
+				result[j++] = cell[i];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Class that represents a chunk of cells. A chunk is changed only by the
+	 * writer, and only while its version is the current one, which means it is
+	 * not shared with any snapshot.
+	 *
+	 * @author Dinz
+	 *
+	 */
+	private static class Chunk {
+		/**
+		 * Key of the chunk.
+		 */
+		final long key;
+		/**
+		 * Version in which the chunk was created.
+		 */
+		final int version;
+		/**
+		 * Objects of the cells, null for the empty ones.
+		 */
+		final GraphicalObject[][] cells;
+
+		Chunk(long key, int version, GraphicalObject[][] cells) {
+			this.key = key;
+			this.version = version;
+			this.cells = cells;
+		}
+	}
+
+	/**
+	 * Interface that represents a visitor of the cells along a ray.
+	 *
+	 * @author Dinz
+	 *
+	 */
+	private interface CellVisitor {
+		/**
+		 * Visits the objects of a cell.
+		 *
+		 * @param objects
+		 *            Objects of the cell.
+		 * @param tMax
+		 *            Current maximum distance along the ray.
+		 * @return New maximum distance, or a negative number to stop.
+		 */
+		double visit(GraphicalObject[] objects, double tMax);
+	}
+
+	/**
+	 * Class that represents an immutable state of the grid, which can be read
+	 * by any number of threads.
+	 *
+	 * @author Dinz
+	 *
+	 */
+	public static class Snapshot {
+		/**
+		 * Directory of the chunks.
+		 */
+		private final Chunk[] directory;
+		/**
+		 * Width of the cells.
+		 */
+		private final double cellSize;
+		/**
+		 * Range of the occupied cells.
+		 */
+		private final int minX, minY, minZ, maxX, maxY, maxZ;
+		/**
+		 * Objects which are not bounded.
+		 */
+		private final GraphicalObject[] unbounded;
+		/**
+		 * Number of objects.
+		 */
+		private final int objectCount;
+
+		/**
+		 * Constructs a snapshot of the current state of the grid.
+		 *
+		 * @param grid
+		 *            Grid.
+		 */
+		private Snapshot(UniformGrid grid) {
+			directory = grid.directory;
+			cellSize = grid.cellSize;
+			minX = grid.minX;
+			minY = grid.minY;
+			minZ = grid.minZ;
+			maxX = grid.maxX;
+			maxY = grid.maxY;
+			maxZ = grid.maxZ;
+			unbounded = grid.unbounded.toArray(new GraphicalObject[grid.unbounded.size()]);
+			objectCount = grid.ranges.size() + unbounded.length;
+		}
+
+		/**
+		 * Gets the number of objects.
+		 *
+		 * @return Number of objects.
+		 */
+		public int getObjectCount() {
+			return objectCount;
+		}
+
+		/**
+		 * Finds the closest intersection between the objects and the ray.
+		 *
+		 * @param ray
+		 *            Ray.
+		 * @return Closest intersection, or null if the ray misses all the objects.
+		 */
+		public RayIntersection findClosestIntersection(Ray ray) {
+			GraphicalObject[] closest = new GraphicalObject[1];
+			double[] distance = { Double.POSITIVE_INFINITY };
+			CellVisitor visitor = (objects, tMax) -> {
+				for (GraphicalObject object : objects) {
+					double t = distance(object, ray);
+					if (t < distance[0]) {
+						distance[0] = t;
+						closest[0] = object;
+					}
+				}
+				return distance[0];
+			};
+			visitor.visit(unbounded, distance[0]);
+			march(ray, distance[0], visitor);
+			if (closest[0] == null) {
+				return null;
+			}
+			return closest[0] instanceof Primitive ? ((Primitive) closest[0]).intersectionAt(ray, distance[0])
+					: closest[0].findClosestRayIntersection(ray);
+		}
+
+		/**
+		 * Checks whether any object intersects the ray closer than the maximum
+		 * distance.
+		 *
+		 * @param ray
+		 *            Ray.
+		 * @param maxDistance
+		 *            Maximum distance along the ray.
+		 * @return True if the ray is blocked before the maximum distance, false
+		 *         otherwise.
+		 */
+		public boolean isOccluded(Ray ray, double maxDistance) {
+			for (GraphicalObject object : unbounded) {
+				if (SceneBVH.blocks(object, ray, maxDistance)) {
+					return true;
+				}
+			}
+			boolean[] occluded = new boolean[1];
+			march(ray, maxDistance, (objects, tMax) -> {
+				for (GraphicalObject object : objects) {
+					if (SceneBVH.blocks(object, ray, maxDistance)) {
+						occluded[0] = true;
+						return -1;
+					}
+				}
+				return tMax;
+			});
+			return occluded[0];
+		}
+
+		/**
+		 * Visits the occupied cells along the ray in order, until the maximum
+		 * distance returned by the visitor lies within the visited cell.
+		 *
+		 * @param ray
+		 *            Ray.
+		 * @param tMax
+		 *            Initial maximum distance along the ray.
+		 * @param visitor
+		 *            Visitor of the cells.
+		 */
+		private void march(Ray ray, double tMax, CellVisitor visitor) {
+			if (minX > maxX) {
+				return;
+			}
+			double ox = ray.start.x, oy = ray.start.y, oz = ray.start.z;
+			double dx = ray.direction.x, dy = ray.direction.y, dz = ray.direction.z;
+
+			// clip the ray to the box of the occupied cells
+			double near = 0;
+			double far = tMax;
+			double[] clip = { near, far };
+			if (!clip(ox, dx, minX * cellSize, (maxX + 1) * cellSize, clip)
+					|| !clip(oy, dy, minY * cellSize, (maxY + 1) * cellSize, clip)
+					|| !clip(oz, dz, minZ * cellSize, (maxZ + 1) * cellSize, clip)) {
+				return;
+			}
+			near = clip[0];
+			far = clip[1];
+
+			int x = clamp(Math.floor((ox + dx * near) / cellSize), minX, maxX);
+			int y = clamp(Math.floor((oy + dy * near) / cellSize), minY, maxY);
+			int z = clamp(Math.floor((oz + dz * near) / cellSize), minZ, maxZ);
+			int stepX = dx < 0 ? -1 : 1, stepY = dy < 0 ? -1 : 1, stepZ = dz < 0 ? -1 : 1;
+			double deltaX = cellSize / Math.abs(dx), deltaY = cellSize / Math.abs(dy),
+					deltaZ = cellSize / Math.abs(dz);
+			double nextX = dx == 0 ? Double.POSITIVE_INFINITY : ((x + (dx < 0 ? 0 : 1)) * cellSize - ox) / dx;
+			double nextY = dy == 0 ? Double.POSITIVE_INFINITY : ((y + (dy < 0 ? 0 : 1)) * cellSize - oy) / dy;
+			double nextZ = dz == 0 ? Double.POSITIVE_INFINITY : ((z + (dz < 0 ? 0 : 1)) * cellSize - oz) / dz;
+
+			while (true) {
+				double exit = Math.min(Math.min(nextX, nextY), Math.min(nextZ, far));
+				GraphicalObject[] objects = cell(x, y, z);
+				if (objects != null) {
+					double t = visitor.visit(objects, far);
+					if (t < 0) {
+						return;
+					}
+					far = Math.min(far, t);
+				}
+				// the closest hit lies within the cells visited so far
+				if (far <= exit) {
+					return;
+				}
+
+				if (nextX <= nextY && nextX <= nextZ) {
+					x += stepX;
+					nextX += deltaX;
+					if (x < minX || x > maxX) {
+						return;
+					}
+				} else if (nextY <= nextZ) {
+					y += stepY;
+					nextY += deltaY;
+					if (y < minY || y > maxY) {
+						return;
+					}
+				} else {
+					z += stepZ;
+					nextZ += deltaZ;
+					if (z < minZ || z > maxZ) {
+						return;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Gets the objects of the cell.
+		 *
+		 * @param x
+		 *            x index of the cell.
+		 * @param y
+		 *            y index of the cell.
+		 * @param z
+		 *            z index of the cell.
+		 * @return Objects of the cell, or null if it is empty.
+		 */
+		private GraphicalObject[] cell(int x, int y, int z) {
+			long key = chunkKey(x, y, z);
+			int mask = directory.length - 1;
+			for (int slot = hash(key) & mask;; slot = (slot + 1) & mask) {
+				Chunk chunk = directory[slot];
+				if (chunk == null) {
+					return null;
+				}
+				if (chunk.key == key) {
+					return chunk.cells[cellIndex(x, y, z)];
+				}
+			}
+		}
+
+		/**
+		 * Clips the ray interval to a slab of the box.
+		 *
+		 * @param o
+		 *            Component of the ray origin.
+		 * @param d
+		 *            Component of the ray direction.
+		 * @param min
+		 *            Lower plane of the slab.
+		 * @param max
+		 *            Upper plane of the slab.
+		 * @param clip
+		 *            Interval of the ray, clipped in place.
+		 * @return True if the interval is not empty, false otherwise.
+		 */
+		private static boolean clip(double o, double d, double min, double max, double[] clip) {
+			if (d == 0) {
+				return o >= min && o <= max;
+			}
+			double t1 = (min - o) / d;
+			double t2 = (max - o) / d;
+			clip[0] = Math.max(clip[0], Math.min(t1, t2));
+			clip[1] = Math.min(clip[1], Math.max(t1, t2));
+			return clip[0] <= clip[1];
+		}
+
+		/**
+		 * Clamps the cell index to the range.
+		 *
+		 * @param index
+		 *            Cell index.
+		 * @param min
+		 *            Smallest index.
+		 * @param max
+		 *            Largest index.
+		 * @return Clamped index.
+		 */
+		private static int clamp(double index, int min, int max) {
+			return (int) Math.max(min, Math.min(max, index));
+		}
+
+		/**
+		 * Calculates the distance to the closest intersection of the object.
+		 *
+		 * @param object
+		 *            Object.
+		 * @param ray
+		 *            Ray.
+		 * @return Distance, or positive infinity if the ray misses the object.
+		 */
+		private static double distance(GraphicalObject object, Ray ray) {
+			if (object instanceof Primitive) {
+				return ((Primitive) object).intersect(ray.start.x, ray.start.y, ray.start.z, ray.direction.x,
+						ray.direction.y, ray.direction.z);
+			}
+			RayIntersection intersection = object.findClosestRayIntersection(ray);
+			return intersection == null ? Double.POSITIVE_INFINITY : intersection.getDistance();
+		}
+
+	}
+}
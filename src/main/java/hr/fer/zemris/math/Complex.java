@@ -60,7 +60,7 @@ public class Complex {
 	 * @return Module of the complex number.
 	 */
 	public double module() {
-		return sqrt(pow(im, 2) + pow(re, 2));
+		return sqrt(im * im + re * re);
 	}
 
 	/**
@@ -82,8 +82,9 @@ public class Complex {
 	 * @return Newly calculated complex number.
 	 */
 	public Complex divide(Complex c) {
-		return new Complex((this.re * c.re + this.im * c.im) / (pow(c.re, 2) + pow(c.im, 2)),
-				(this.im * c.re - this.re * c.im) / (pow(c.re, 2) + pow(c.im, 2)));
+		double denominator = c.re * c.re + c.im * c.im;
+		return new Complex((this.re * c.re + this.im * c.im) / denominator,
+				(this.im * c.re - this.re * c.im) / denominator);
 	}
 
 	/**
@@ -121,35 +122,48 @@ public class Complex {
 
 	/**
 	 * Calculates the complex power to the power of "n". N is a given number as an
-	 * argument.
+	 * argument. The power is calculated with binary exponentiation, which needs at
+	 * most 2 * log2(n) multiplications and no trigonometric functions. Negative
+	 * powers are calculated as positive powers of the reciprocal, so a power
+	 * too large to be represented underflows to zero instead of turning into
+	 * NaN.
 	 * 
 	 * @param n
 	 *            Power.
 	 * @return Newly calculated complex number.
 	 */
 	public Complex power(int n) {
-		double powerReal = pow(this.getMagnitude(), n) * cos(n * this.getAngle());
-		double powerImaginary = pow(this.getMagnitude(), n) * sin(n * this.getAngle());
-
-		return new Complex(powerReal, powerImaginary);
-	}
+		Complex base = n < 0 ? ONE.divide(this) : this;
+		double baseRe = base.re;
+		double baseIm = base.im;
+		double powerRe = 1;
+		double powerIm = 0;
+		// -Integer.MIN_VALUE overflows to itself, which the unsigned shift still
+		// reads as 2^31
+		for (int e = n < 0 ? -n : n; e != 0; e >>>= 1) {
+			if ((e & 1) != 0) {
+				double newRe = powerRe * baseRe - powerIm * baseIm;
+				powerIm = powerRe * baseIm + powerIm * baseRe;
+				powerRe = newRe;
+			}
+			double newBaseRe = baseRe * baseRe - baseIm * baseIm;
+			baseIm = 2 * baseRe * baseIm;
+			baseRe = newBaseRe;
+		}
 
-	/**
-	 * Gets the angle of the complex number.
-	 * 
-	 * @return Angle of the complex number.
-	 */
-	private double getAngle() {
-		return atan2(this.im, this.re);
+		return new Complex(powerRe, powerIm);
 	}
 
 	/**
-	 * Gets the magnitude of the complex number.
+	 * Creates a table of the repeated squares z, z^2, z^4, ... of this complex
+	 * number, used for calculating several powers of the same number.
 	 * 
-	 * @return Magnitude of the complex number.
+	 * @param maxExponent
+	 *            Maximum exponent which will be calculated from the table.
+	 * @return Table of powers.
 	 */
-	private double getMagnitude() {
-		return sqrt(pow(this.re, 2) + pow(this.im, 2));
+	public PowerTable powerTable(int maxExponent) {
+		return new PowerTable(this, maxExponent);
 	}
 
 	/**
@@ -158,18 +172,65 @@ public class Complex {
 	 * @param n
 	 *            Power of the root.
 	 * @return List of roots.
+	 * @throws IllegalArgumentException
+	 *             If n is not positive.
 	 */
 	public List<Complex> root(int n) {
-		List<Complex> list = new ArrayList<>();
+		double[] rootsRe = new double[n > 0 ? n : 0];
+		double[] rootsIm = new double[rootsRe.length];
+		roots(this.re, this.im, n, rootsRe, rootsIm);
+
+		List<Complex> list = new ArrayList<>(n);
 		for (int k = 0; k < n; k++) {
-			double rootReal = pow(this.getMagnitude(), 1 / n) * cos((this.getAngle() + 2 * k * PI) / n);
-			double rootImaginary = pow(this.getMagnitude(), 1 / n) * sin((this.getAngle() + 2 * k * PI) / n);
-			list.add(new Complex(rootReal, rootImaginary));
+			list.add(new Complex(rootsRe[k], rootsIm[k]));
 		}
 
 		return list;
 	}
 
+	/**
+	 * Calculates all the n-th roots of the given complex number into the output
+	 * arrays. Only the principal root is calculated with trigonometric functions,
+	 * the others are obtained by rotating it with the primitive n-th root of
+	 * unity, so the error of the k-th root grows by about one ulp per rotation.
+	 * 
+	 * @param re
+	 *            Real value.
+	 * @param im
+	 *            Imaginary value.
+	 * @param n
+	 *            Power of the root.
+	 * @param outRe
+	 *            Output array of real values of the roots.
+	 * @param outIm
+	 *            Output array of imaginary values of the roots.
+	 * @throws IllegalArgumentException
+	 *             If n is not positive or the output arrays are too short.
+	 */
+	public static void roots(double re, double im, int n, double[] outRe, double[] outIm) {
+		if (n <= 0) {
+			throw new IllegalArgumentException("Power of the root must be positive, got " + n + ".");
+		}
+		if (outRe.length < n || outIm.length < n) {
+			throw new IllegalArgumentException("Output arrays must hold " + n + " roots.");
+		}
+
+		double magnitude = pow(sqrt(re * re + im * im), 1.0 / n);
+		double angle = atan2(im, re) / n;
+		double rootRe = magnitude * cos(angle);
+		double rootIm = magnitude * sin(angle);
+		double unityRe = cos(2 * PI / n);
+		double unityIm = sin(2 * PI / n);
+
+		for (int k = 0; k < n; k++) {
+			outRe[k] = rootRe;
+			outIm[k] = rootIm;
+			double newRe = rootRe * unityRe - rootIm * unityIm;
+			rootIm = rootRe * unityIm + rootIm * unityRe;
+			rootRe = newRe;
+		}
+	}
+
 	/**
 	 * Transforms the complex number to the string format.
 	 */
@@ -191,4 +252,151 @@ public class Complex {
 		return sb.toString();
 	}
 
+	/**
+	 * Class that represents a table of the repeated squares z, z^2, z^4, ... of a
+	 * complex number. Any power up to the maximum exponent is calculated from the
+	 * table with one multiplication per set bit of the exponent, so several powers
+	 * of the same number share the squarings.
+	 * 
+	 * @author Dinz
+	 *
+	 */
+	public static class PowerTable {
+		/**
+		 * Real values of the repeated squares.
+		 */
+		private final double[] squaresRe;
+		/**
+		 * Imaginary values of the repeated squares.
+		 */
+		private final double[] squaresIm;
+		/**
+		 * Real and imaginary values of the repeated squares of the reciprocal,
+		 * calculated on the first negative power.
+		 */
+		private volatile double[][] inverseSquares;
+		/**
+		 * Maximum exponent.
+		 */
+		private final int maxExponent;
+
+		/**
+		 * Constructs a new table of powers.
+		 * 
+		 * @param z
+		 *            Complex number.
+		 * @param maxExponent
+		 *            Maximum exponent.
+		 * @throws IllegalArgumentException
+		 *             If the maximum exponent is negative.
+		 */
+		public PowerTable(Complex z, int maxExponent) {
+			if (maxExponent < 0) {
+				throw new IllegalArgumentException("Maximum exponent can not be negative.");
+			}
+			int bits = Math.max(32 - Integer.numberOfLeadingZeros(maxExponent), 1);
+			this.maxExponent = maxExponent;
+			this.squaresRe = new double[bits];
+			this.squaresIm = new double[bits];
+			square(z, squaresRe, squaresIm);
+		}
+
+		/**
+		 * Fills the arrays with the repeated squares of the complex number.
+		 * 
+		 * @param z
+		 *            Complex number.
+		 * @param squaresRe
+		 *            Real values of the repeated squares.
+		 * @param squaresIm
+		 *            Imaginary values of the repeated squares.
+		 */
+		private static void square(Complex z, double[] squaresRe, double[] squaresIm) {
+			squaresRe[0] = z.re;
+			squaresIm[0] = z.im;
+			for (int i = 1; i < squaresRe.length; i++) {
+				squaresRe[i] = squaresRe[i - 1] * squaresRe[i - 1] - squaresIm[i - 1] * squaresIm[i - 1];
+				squaresIm[i] = 2 * squaresRe[i - 1] * squaresIm[i - 1];
+			}
+		}
+
+		/**
+		 * Calculates the power of the complex number. Negative powers are
+		 * calculated from the repeated squares of the reciprocal, so a power too
+		 * large to be represented underflows to zero instead of turning into NaN.
+		 * 
+		 * @param n
+		 *            Power, at most the maximum exponent of the table in absolute
+		 *            value.
+		 * @return Newly calculated complex number.
+		 * @throws IllegalArgumentException
+		 *             If the power is out of the table.
+		 */
+		public Complex power(int n) {
+			if (n == Integer.MIN_VALUE) {
+				throw new IllegalArgumentException("Power " + n + " is out of the table.");
+			}
+			if (n < 0 && -n > maxExponent) {
+				throw new IllegalArgumentException("Power " + n + " is out of the table.");
+			}
+			double[] value = { 1, 0 };
+			if (n >= 0) {
+				multiply(value, n);
+			} else {
+				double[][] inverse = inverseSquares;
+				if (inverse == null) {
+					inverse = new double[2][squaresRe.length];
+					square(ONE.divide(new Complex(squaresRe[0], squaresIm[0])), inverse[0], inverse[1]);
+					inverseSquares = inverse;
+				}
+				multiply(value, -n, inverse[0], inverse[1]);
+			}
+			return new Complex(value[0], value[1]);
+		}
+
+		/**
+		 * Multiplies the given complex value by the power of the complex number in
+		 * place.
+		 * 
+		 * @param value
+		 *            Array holding the real and the imaginary value.
+		 * @param n
+		 *            Non-negative power, at most the maximum exponent of the table.
+		 * @throws IllegalArgumentException
+		 *             If the power is out of the table.
+		 */
+		public void multiply(double[] value, int n) {
+			if (n < 0 || n > maxExponent) {
+				throw new IllegalArgumentException("Power " + n + " is out of the table.");
+			}
+			multiply(value, n, squaresRe, squaresIm);
+		}
+
+		/**
+		 * Multiplies the given complex value by the power given by the repeated
+		 * squares in place.
+		 * 
+		 * @param value
+		 *            Array holding the real and the imaginary value.
+		 * @param n
+		 *            Non-negative power.
+		 * @param squaresRe
+		 *            Real values of the repeated squares.
+		 * @param squaresIm
+		 *            Imaginary values of the repeated squares.
+		 */
+		private static void multiply(double[] value, int n, double[] squaresRe, double[] squaresIm) {
+			double re = value[0];
+			double im = value[1];
+			for (int bit = 0; n != 0; n >>>= 1, bit++) {
+				if ((n & 1) != 0) {
+					double newRe = re * squaresRe[bit] - im * squaresIm[bit];
+					im = re * squaresIm[bit] + im * squaresRe[bit];
+					re = newRe;
+				}
+			}
+			value[0] = re;
+			value[1] = im;
+		}
+	}
 }
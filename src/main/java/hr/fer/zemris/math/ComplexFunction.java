@@ -0,0 +1,136 @@
+package hr.fer.zemris.math;
+
+/**
+ * Interface that represents an analytic complex function which can be
+ * evaluated together with its first derivation. Functions are evaluated in
+ * bulk over arrays of real and imaginary values, which lets the
+ * implementations run their loops without allocating a complex number per
+ * value.
+ *
+ * @author Dinz
+ *
+ */
+public interface ComplexFunction {
+
+	/**
+	 * Calculates the values of the function and of its first derivation for the
+	 * given complex numbers. Output arrays must not be the same as the input
+	 * ones.
+	 *
+	 * @param re
+	 *            Real values.
+	 * @param im
+	 *            Imaginary values.
+	 * @param length
+	 *            Number of values.
+	 * @param valueRe
+	 *            Output array of real values of the function.
+	 * @param valueIm
+	 *            Output array of imaginary values of the function.
+	 * @param derivativeRe
+	 *            Output array of real values of the derivation.
+	 * @param derivativeIm
+	 *            Output array of imaginary values of the derivation.
+	 */
+	void evaluate(double[] re, double[] im, int length, double[] valueRe, double[] valueIm, double[] derivativeRe,
+			double[] derivativeIm);
+
+	/**
+	 * Calculates the value of the function for the given complex number.
+	 *
+	 * @param z
+	 *            Complex number.
+	 * @return Value of the function.
+	 */
+	default Complex apply(Complex z) {
+		double[] re = new double[1];
+		double[] im = new double[1];
+		evaluate(new double[] { z.re }, new double[] { z.im }, 1, re, im, new double[1], new double[1]);
+		return new Complex(re[0], im[0]);
+	}
+
+	/**
+	 * Calculates the value of the first derivation of the function for the given
+	 * complex number.
+	 *
+	 * @param z
+	 *            Complex number.
+	 * @return Value of the derivation.
+	 */
+	default Complex derive(Complex z) {
+		double[] re = new double[1];
+		double[] im = new double[1];
+		evaluate(new double[] { z.re }, new double[] { z.im }, 1, new double[1], new double[1], re, im);
+		return new Complex(re[0], im[0]);
+	}
+
+	/**
+	 * Gets the complex sine, sin(z).
+	 *
+	 * @return Complex sine.
+	 */
+	static ComplexFunction sin() {
+		return (re, im, length, valueRe, valueIm, derivativeRe, derivativeIm) -> {
+			ComplexMath.sin(re, im, length, valueRe, valueIm);
+			ComplexMath.cos(re, im, length, derivativeRe, derivativeIm);
+		};
+	}
+
+	/**
+	 * Gets the function e^z - 1.
+	 *
+	 * @return Exponential function shifted by one.
+	 */
+	static ComplexFunction expMinusOne() {
+		return (re, im, length, valueRe, valueIm, derivativeRe, derivativeIm) -> {
+			ComplexMath.exp(re, im, length, derivativeRe, derivativeIm);
+			for (int i = 0; i < length; i++) {
+				valueRe[i] = derivativeRe[i] - 1;
+				valueIm[i] = derivativeIm[i];
+			}
+		};
+	}
+
+	/**
+	 * Gets the function z * e^z - 1, whose derivation is (z + 1) * e^z.
+	 *
+	 * @return Function z * e^z - 1.
+	 */
+	static ComplexFunction zExpMinusOne() {
+		return (re, im, length, valueRe, valueIm, derivativeRe, derivativeIm) -> {
+			ComplexMath.exp(re, im, length, derivativeRe, derivativeIm);
+			for (int i = 0; i < length; i++) {
+				double x = re[i];
+				double y = im[i];
+				double expRe = derivativeRe[i];
+				double expIm = derivativeIm[i];
+				valueRe[i] = x * expRe - y * expIm - 1;
+				valueIm[i] = x * expIm + y * expRe;
+				derivativeRe[i] = valueRe[i] + 1 + expRe;
+				derivativeIm[i] = valueIm[i] + expIm;
+			}
+		};
+	}
+
+	/**
+	 * Gets the function of the given polynom.
+	 *
+	 * @param polynomial
+	 *            Polynom.
+	 * @return Function of the polynom.
+	 */
+	static ComplexFunction of(ComplexPolynomial polynomial) {
+		ComplexPolynomial derived = polynomial.derive();
+		return (re, im, length, valueRe, valueIm, derivativeRe, derivativeIm) -> {
+			for (int i = 0; i < length; i++) {
+				Complex z = new Complex(re[i], im[i]);
+				Complex value = polynomial.apply(z);
+				Complex derivative = derived.apply(z);
+				valueRe[i] = value.re;
+				valueIm[i] = value.im;
+				derivativeRe[i] = derivative.re;
+				derivativeIm[i] = derivative.im;
+			}
+		};
+	}
+}
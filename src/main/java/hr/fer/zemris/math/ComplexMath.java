@@ -0,0 +1,336 @@
+package hr.fer.zemris.math;
+
+/**
+ * Class that offers fast complex exponential, sine and cosine functions, both
+ * for single complex numbers and in bulk over arrays of real and imaginary
+ * values. The functions are built from polynomial kernels of the real
+ * exponential, sine and cosine with a Cody-Waite range reduction, so their
+ * loops have no calls and only a few predictable branches.
+ * <p>
+ * The real kernels are accurate to 2 ulp. The sine and cosine reduction is
+ * exact for arguments up to {@link #TRIG_REDUCTION_LIMIT} in absolute value,
+ * above which the functions fall back to {@link Math#sin(double)} and
+ * {@link Math#cos(double)}. Each component of the complex results multiplies
+ * or adds at most three kernel results, which keeps them within 4 ulp
+ * relative to the magnitude of the result.
+ *
+ * @author Dinz
+ *
+ */
+public final class ComplexMath {
+	/**
+	 * Largest argument in absolute value for which the sine and cosine are
+	 * reduced by the three part Cody-Waite reduction.
+	 */
+	public static final double TRIG_REDUCTION_LIMIT = 0x1p19 * Math.PI / 2;
+	/**
+	 * 1 / ln(2).
+	 */
+	private static final double INV_LN2 = 1.44269504088896338700e+00;
+	/**
+	 * High part of ln(2), exactly representable in 32 bits.
+	 */
+	private static final double LN2_HI = 6.93147180369123816490e-01;
+	/**
+	 * Low part of ln(2).
+	 */
+	private static final double LN2_LO = 1.90821492927058770002e-10;
+	/**
+	 * Largest argument for which the exponential is finite.
+	 */
+	private static final double EXP_OVERFLOW = 7.09782712893383973096e+02;
+	/**
+	 * Smallest argument for which the exponential is not zero.
+	 */
+	private static final double EXP_UNDERFLOW = -7.45133219101941108420e+02;
+	/**
+	 * 2 / pi.
+	 */
+	private static final double INV_PIO2 = 6.36619772367581382433e-01;
+	/**
+	 * First 33 bits of pi / 2.
+	 */
+	private static final double PIO2_1 = 1.57079632673412561417e+00;
+	/**
+	 * Second 33 bits of pi / 2.
+	 */
+	private static final double PIO2_2 = 6.07710050630396597660e-11;
+	/**
+	 * Third 33 bits of pi / 2.
+	 */
+	private static final double PIO2_3 = 2.02226624871116645580e-21;
+	/**
+	 * Remaining bits of pi / 2.
+	 */
+	private static final double PIO2_3T = 8.47842766036889956997e-32;
+	/**
+	 * Sine kernel coefficients on [-pi/4, pi/4].
+	 */
+	private static final double S1 = -1.66666666666666324348e-01, S2 = 8.33333333332248946124e-03,
+			S3 = -1.98412698298579493134e-04, S4 = 2.75573137070700676789e-06, S5 = -2.50507602534068634195e-08,
+			S6 = 1.58969099521155010221e-10;
+	/**
+	 * Cosine kernel coefficients on [-pi/4, pi/4].
+	 */
+	private static final double C1 = 4.16666666666666019037e-02, C2 = -1.38888888888741095749e-03,
+			C3 = 2.48015872894767294178e-05, C4 = -2.75573143513906633035e-07, C5 = 2.08757232129817482790e-09,
+			C6 = -1.13596475577881948265e-11;
+
+	/**
+	 * Private constructor, the class only offers static functions.
+	 */
+	private ComplexMath() {
+	}
+
+	/**
+	 * Calculates the complex exponential e^z.
+	 *
+	 * @param z
+	 *            Complex number.
+	 * @return Newly calculated complex number.
+	 */
+	public static Complex exp(Complex z) {
+		double e = exp(z.re);
+		return new Complex(e * cos(z.im), e * sin(z.im));
+	}
+
+	/**
+	 * Calculates the complex sine.
+	 *
+	 * @param z
+	 *            Complex number.
+	 * @return Newly calculated complex number.
+	 */
+	public static Complex sin(Complex z) {
+		double e = exp(z.im);
+		return new Complex(sin(z.re) * cosh(z.im, e), cos(z.re) * sinh(z.im, e));
+	}
+
+	/**
+	 * Calculates the complex cosine.
+	 *
+	 * @param z
+	 *            Complex number.
+	 * @return Newly calculated complex number.
+	 */
+	public static Complex cos(Complex z) {
+		double e = exp(z.im);
+		return new Complex(cos(z.re) * cosh(z.im, e), -sin(z.re) * sinh(z.im, e));
+	}
+
+	/**
+	 * Calculates the complex exponentials of the given numbers into the output
+	 * arrays. Output arrays may be the same as the input ones.
+	 *
+	 * @param re
+	 *            Real values.
+	 * @param im
+	 *            Imaginary values.
+	 * @param length
+	 *            Number of values.
+	 * @param outRe
+	 *            Output array of real values.
+	 * @param outIm
+	 *            Output array of imaginary values.
+	 */
+	public static void exp(double[] re, double[] im, int length, double[] outRe, double[] outIm) {
+		for (int i = 0; i < length; i++) {
+			double e = exp(re[i]);
+			double y = im[i];
+			outRe[i] = e * cos(y);
+			outIm[i] = e * sin(y);
+		}
+	}
+
+	/**
+	 * Calculates the complex sines of the given numbers into the output arrays.
+	 * Output arrays may be the same as the input ones.
+	 *
+	 * @param re
+	 *            Real values.
+	 * @param im
+	 *            Imaginary values.
+	 * @param length
+	 *            Number of values.
+	 * @param outRe
+	 *            Output array of real values.
+	 * @param outIm
+	 *            Output array of imaginary values.
+	 */
+	public static void sin(double[] re, double[] im, int length, double[] outRe, double[] outIm) {
+		for (int i = 0; i < length; i++) {
+			double x = re[i];
+			double y = im[i];
+			double e = exp(y);
+			outRe[i] = sin(x) * cosh(y, e);
+			outIm[i] = cos(x) * sinh(y, e);
+		}
+	}
+
+	/**
+	 * Calculates the complex cosines of the given numbers into the output arrays.
+	 * Output arrays may be the same as the input ones.
+	 *
+	 * @param re
+	 *            Real values.
+	 * @param im
+	 *            Imaginary values.
+	 * @param length
+	 *            Number of values.
+	 * @param outRe
+	 *            Output array of real values.
+	 * @param outIm
+	 *            Output array of imaginary values.
+	 */
+	public static void cos(double[] re, double[] im, int length, double[] outRe, double[] outIm) {
+		for (int i = 0; i < length; i++) {
+			double x = re[i];
+			double y = im[i];
+			double e = exp(y);
+			outRe[i] = cos(x) * cosh(y, e);
+			outIm[i] = -sin(x) * sinh(y, e);
+		}
+	}
+
+	/**
+	 * Calculates the real exponential e^x.
+	 *
+	 * @param x
+	 *            Real number.
+	 * @return e^x.
+	 */
+	public static double exp(double x) {
+		if (!(x < EXP_OVERFLOW)) {
+			return x != x ? x : Double.POSITIVE_INFINITY;
+		}
+		if (x < EXP_UNDERFLOW) {
+			return 0;
+		}
+
+		double k = Math.rint(x * INV_LN2);
+		double hi = x - k * LN2_HI;
+		double r = hi - k * LN2_LO;
+		double p = 1 + r * (1 + r * (1.0 / 2 + r * (1.0 / 6 + r * (1.0 / 24 + r * (1.0 / 120 + r * (1.0 / 720
+				+ r * (1.0 / 5040 + r * (1.0 / 40320 + r * (1.0 / 362880 + r * (1.0 / 3628800
+						+ r * (1.0 / 39916800 + r * (1.0 / 479001600 + r * (1.0 / 6227020800.0)))))))))))));
+
+		int n = (int) k;
+		if (n < -1021) {
+			return p * Double.longBitsToDouble((long) (n + 1023 + 64) << 52) * 0x1p-64;
+		}
+		if (n > 1023) {
+			return p * 2 * Double.longBitsToDouble((long) (n - 1 + 1023) << 52);
+		}
+		return p * Double.longBitsToDouble((long) (n + 1023) << 52);
+	}
+
+	/**
+	 * Calculates the real sine.
+	 *
+	 * @param x
+	 *            Real number.
+	 * @return Sine of x.
+	 */
+	public static double sin(double x) {
+		if (!(Math.abs(x) <= TRIG_REDUCTION_LIMIT)) {
+			return Math.sin(x);
+		}
+		double n = Math.rint(x * INV_PIO2);
+		double r = reduce(x, n);
+		int quadrant = (int) n;
+		double value = (quadrant & 1) == 0 ? sinKernel(r) : cosKernel(r);
+		return (quadrant & 2) == 0 ? value : -value;
+	}
+
+	/**
+	 * Calculates the real cosine.
+	 *
+	 * @param x
+	 *            Real number.
+	 * @return Cosine of x.
+	 */
+	public static double cos(double x) {
+		if (!(Math.abs(x) <= TRIG_REDUCTION_LIMIT)) {
+			return Math.cos(x);
+		}
+		double n = Math.rint(x * INV_PIO2);
+		double r = reduce(x, n);
+		int quadrant = (int) n;
+		double value = (quadrant & 1) == 0 ? cosKernel(r) : sinKernel(r);
+		return ((quadrant + 1) & 2) == 0 ? value : -value;
+	}
+
+	/**
+	 * Reduces the argument to [-pi/4, pi/4] by subtracting n * pi / 2 in four
+	 * parts. Products of n with the first three parts are exact for the
+	 * arguments below {@link #TRIG_REDUCTION_LIMIT}.
+	 *
+	 * @param x
+	 *            Real number.
+	 * @param n
+	 *            Nearest integer to x * 2 / pi.
+	 * @return Reduced argument.
+	 */
+	private static double reduce(double x, double n) {
+		return ((x - n * PIO2_1) - n * PIO2_2) - (n * PIO2_3 + n * PIO2_3T);
+	}
+
+	/**
+	 * Calculates the sine on [-pi/4, pi/4].
+	 *
+	 * @param r
+	 *            Reduced argument.
+	 * @return Sine of r.
+	 */
+	private static double sinKernel(double r) {
+		double z = r * r;
+		return r + r * z * (S1 + z * (S2 + z * (S3 + z * (S4 + z * (S5 + z * S6)))));
+	}
+
+	/**
+	 * Calculates the cosine on [-pi/4, pi/4].
+	 *
+	 * @param r
+	 *            Reduced argument.
+	 * @return Cosine of r.
+	 */
+	private static double cosKernel(double r) {
+		double z = r * r;
+		double tail = z * z * (C1 + z * (C2 + z * (C3 + z * (C4 + z * (C5 + z * C6)))));
+		double half = 0.5 * z;
+		double w = 1 - half;
+		return w + (((1 - w) - half) + tail);
+	}
+
+	/**
+	 * Calculates the hyperbolic cosine from the already calculated exponential.
+	 * The two exponentials are added, so nothing cancels for any argument.
+	 *
+	 * @param y
+	 *            Real number.
+	 * @param e
+	 *            e^y.
+	 * @return Hyperbolic cosine of y.
+	 */
+	private static double cosh(double y, double e) {
+		return 0.5 * (e + 1 / e);
+	}
+
+	/**
+	 * Calculates the hyperbolic sine from the already calculated exponential.
+	 * Small arguments are calculated from the Taylor series to avoid the
+	 * cancellation of the exponentials.
+	 *
+	 * @param y
+	 *            Real number.
+	 * @param e
+	 *            e^y.
+	 * @return Hyperbolic sine of y.
+	 */
+	private static double sinh(double y, double e) {
+		double z = y * y;
+		return Math.abs(y) < 1 ? y + y * z * (1.0 / 6 + z * (1.0 / 120 + z * (1.0 / 5040 + z * (1.0 / 362880
+				+ z * (1.0 / 39916800 + z * (1.0 / 6227020800.0 + z * (1.0 / 1307674368000.0 + z / 355687428096000.0)))))))
+				: 0.5 * (e - 1 / e);
+	}
+}
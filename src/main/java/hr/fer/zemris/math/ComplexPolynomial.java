@@ -1,38 +1,200 @@
 package hr.fer.zemris.math;
 
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
 /**
- * Class that represents a complex polynom in a standard format.
- * 
+ * Class that represents a complex polynom in a standard format. The polynom is
+ * stored either densely, as an array of all its factors, or sparsely, as pairs
+ * of exponents and non-zero factors. The sparse format is picked automatically
+ * when only a small part of the factors is non-zero, so polynoms like z^n - 1
+ * are evaluated with a logarithmic number of multiplications.
+ *
  * @author Dinz
  *
  */
 public class ComplexPolynomial {
 	/**
-	 * Factors of the polynom.
+	 * A polynom is stored sparsely when less than one in this many factors is
+	 * non-zero.
+	 */
+	private static final int SPARSE_RATIO = 4;
+	/**
+	 * Minimum number of factors for which the sparse format is considered.
+	 */
+	private static final int SPARSE_MINIMUM = 8;
+	/**
+	 * Factors of the polynom, or null if the polynom is stored sparsely.
 	 */
 	private Complex[] factors;
+	/**
+	 * Exponents of the non-zero factors in ascending order, or null if the
+	 * polynom is stored densely.
+	 */
+	private int[] exponents;
+	/**
+	 * Non-zero factors matching the exponents, or null if the polynom is stored
+	 * densely.
+	 */
+	private Complex[] coefficients;
+	/**
+	 * Moduli of the factors, calculated on the first gamma bound.
+	 */
+	private volatile double[] moduli;
 
 	public ComplexPolynomial(Complex... factors) {
-		this.factors = factors;
+		if (factors.length - 1 > Short.MAX_VALUE) {
+			throw new IllegalArgumentException("Order can not be larger than " + Short.MAX_VALUE + ".");
+		}
+		int nonZero = 0;
+		for (Complex factor : factors) {
+			if (!isZero(factor)) {
+				nonZero++;
+			}
+		}
+
+		if (factors.length >= SPARSE_MINIMUM && nonZero > 0 && nonZero * SPARSE_RATIO < factors.length) {
+			this.exponents = new int[nonZero];
+			this.coefficients = new Complex[nonZero];
+			for (int i = 0, j = 0; i < factors.length; i++) {
+				if (!isZero(factors[i])) {
+					exponents[j] = i;
+					coefficients[j++] = factors[i];
+				}
+			}
+		} else {
+			this.factors = factors;
+		}
+	}
+
+	/**
+	 * Constructs a sparsely stored polynom.
+	 *
+	 * @param exponents
+	 *            Exponents of the non-zero factors in ascending order.
+	 * @param coefficients
+	 *            Non-zero factors.
+	 */
+	private ComplexPolynomial(int[] exponents, Complex[] coefficients) {
+		this.exponents = exponents;
+		this.coefficients = coefficients;
+	}
+
+	/**
+	 * Creates a polynom from the pairs of exponents and factors. Factors of the
+	 * same exponent are summed up. The polynom is stored densely or sparsely
+	 * depending on the number of its non-zero factors.
+	 *
+	 * @param exponents
+	 *            Exponents.
+	 * @param factors
+	 *            Factors of the given exponents.
+	 * @return New polynom.
+	 * @throws IllegalArgumentException
+	 *             If the arrays differ in length or an exponent is negative or
+	 *             larger than {@link Short#MAX_VALUE}.
+	 */
+	public static ComplexPolynomial fromTerms(int[] exponents, Complex[] factors) {
+		if (exponents.length != factors.length) {
+			throw new IllegalArgumentException("Every exponent needs exactly one factor.");
+		}
+
+		Map<Integer, Complex> terms = new TreeMap<>();
+		for (int i = 0; i < exponents.length; i++) {
+			if (exponents[i] < 0) {
+				throw new IllegalArgumentException("Exponent can not be negative: " + exponents[i]);
+			}
+			if (exponents[i] > Short.MAX_VALUE) {
+				throw new IllegalArgumentException("Exponent can not be larger than " + Short.MAX_VALUE + ": "
+						+ exponents[i]);
+			}
+			terms.merge(exponents[i], factors[i], Complex::add);
+		}
+		return fromTerms(terms);
+	}
+
+	/**
+	 * Creates a polynom from the ordered map of exponents and factors.
+	 *
+	 * @param terms
+	 *            Factors mapped by their exponents in ascending order.
+	 * @return New polynom.
+	 * @throws IllegalArgumentException
+	 *             If the order is larger than {@link Short#MAX_VALUE}.
+	 */
+	private static ComplexPolynomial fromTerms(Map<Integer, Complex> terms) {
+		terms.values().removeIf(ComplexPolynomial::isZero);
+		if (terms.isEmpty()) {
+			return new ComplexPolynomial(Complex.ZERO);
+		}
+
+		int order = 0;
+		for (int exponent : terms.keySet()) {
+			order = exponent;
+		}
+		if (order > Short.MAX_VALUE) {
+			throw new IllegalArgumentException("Order can not be larger than " + Short.MAX_VALUE + ".");
+		}
+
+		if (order + 1 >= SPARSE_MINIMUM && terms.size() * SPARSE_RATIO < order + 1) {
+			int[] exponents = new int[terms.size()];
+			Complex[] coefficients = new Complex[terms.size()];
+			int i = 0;
+			for (Map.Entry<Integer, Complex> term : terms.entrySet()) {
+				exponents[i] = term.getKey();
+				coefficients[i++] = term.getValue();
+			}
+			return new ComplexPolynomial(exponents, coefficients);
+		}
+
+		Complex[] factors = new Complex[order + 1];
+		for (int i = 0; i < factors.length; i++) {
+			factors[i] = terms.getOrDefault(i, Complex.ZERO);
+		}
+		return new ComplexPolynomial(factors);
+	}
+
+	/**
+	 * Checks whether the polynom is stored sparsely.
+	 *
+	 * @return True if the polynom is stored sparsely, false otherwise.
+	 */
+	public boolean isSparse() {
+		return factors == null;
 	}
 
 	/**
 	 * Gets the order of the polynom.
-	 * 
+	 *
 	 * @return Order of the polynom.
 	 */
 	public short order() {
+		if (isSparse()) {
+			return (short) exponents[exponents.length - 1];
+		}
 		return (short) (factors.length - 1);
 	}
 
 	/**
 	 * Multiplys the another polynom with the current one.
-	 * 
+	 *
 	 * @param p
 	 *            Another polynom.
 	 * @return New calculated polynom.
 	 */
 	public ComplexPolynomial multiply(ComplexPolynomial p) {
+		if (this.isSparse() || p.isSparse()) {
+			Map<Integer, Complex> terms = new TreeMap<>();
+			for (int i = 0, n = this.termCount(); i < n; i++) {
+				for (int j = 0, m = p.termCount(); j < m; j++) {
+					terms.merge(this.exponent(i) + p.exponent(j), this.coefficient(i).multiply(p.coefficient(j)),
+							Complex::add);
+				}
+			}
+			return fromTerms(terms);
+		}
+
 		int order = this.order() + p.order();
 		Complex[] newFactors = new Complex[order + 1];
 		for (int i = 0; i < this.order() + 1; i++) {
@@ -49,10 +211,21 @@ public class ComplexPolynomial {
 
 	/**
 	 * Calculates a first derivation of the polynom.
-	 * 
+	 *
 	 * @return First derivation of the polynom.
 	 */
 	public ComplexPolynomial derive() {
+		if (isSparse()) {
+			int start = exponents[0] == 0 ? 1 : 0;
+			int[] newExponents = new int[exponents.length - start];
+			Complex[] newCoefficients = new Complex[newExponents.length];
+			for (int i = start; i < exponents.length; i++) {
+				newExponents[i - start] = exponents[i] - 1;
+				newCoefficients[i - start] = coefficients[i].multiply(new Complex(exponents[i], 0));
+			}
+			return fromTerms(newExponents, newCoefficients);
+		}
+
 		Complex[] newFactors = new Complex[factors.length - 1];
 		for (int i = 0; i < newFactors.length; i++) {
 			newFactors[i] = factors[i + 1].multiply(new Complex(i + 1, 0));
@@ -62,34 +235,194 @@ public class ComplexPolynomial {
 	}
 
 	/**
-	 * Calculates the value of the polynom for the given complex number.
-	 * 
+	 * Calculates the value of the polynom for the given complex number. Densely
+	 * stored polynoms are evaluated with the Horner scheme. Sparsely stored ones
+	 * are evaluated term by term in ascending order, where each power is reached
+	 * from the previous one by multiplying it with the repeated squares of z.
+	 *
 	 * @param z
 	 *            Complex number.
 	 * @return Value of the polynom for the given complex number.
 	 */
 	public Complex apply(Complex z) {
-		Complex sum = new Complex(0, 0);
-		for (int i = 0; i < factors.length; i++) {
+		if (isSparse()) {
+			return applySparse(z);
+		}
 
-			sum = sum.add(z.power(i).multiply(factors[i]));
+		double re = 0;
+		double im = 0;
+		for (int i = factors.length - 1; i >= 0; i--) {
+			double newRe = re * z.re - im * z.im + factors[i].re;
+			im = re * z.im + im * z.re + factors[i].im;
+			re = newRe;
 		}
 
-		return sum;
+		return new Complex(re, im);
 	}
 
 	/**
-	 * Method that forms the polynom to a string format.
+	 * Calculates the value of the sparsely stored polynom for the given complex
+	 * number.
+	 *
+	 * @param z
+	 *            Complex number.
+	 * @return Value of the polynom for the given complex number.
+	 */
+	private Complex applySparse(Complex z) {
+		int maximumGap = exponents[0];
+		for (int i = 1; i < exponents.length; i++) {
+			maximumGap = Math.max(maximumGap, exponents[i] - exponents[i - 1]);
+		}
+
+		Complex.PowerTable table = z.powerTable(maximumGap);
+		double[] power = { 1, 0 };
+		double re = 0;
+		double im = 0;
+		int previous = 0;
+		for (int i = 0; i < exponents.length; i++) {
+			table.multiply(power, exponents[i] - previous);
+			previous = exponents[i];
+
+			re += power[0] * coefficients[i].re - power[1] * coefficients[i].im;
+			im += power[0] * coefficients[i].im + power[1] * coefficients[i].re;
+		}
+
+		return new Complex(re, im);
+	}
+
+	/**
+	 * Calculates an upper bound of Smale's gamma function of the polynom in the
+	 * given complex number. Gamma is defined as the supremum over k >= 2 of
+	 * |p^(k)(z) / (k! p'(z))|^(1/(k-1)). Each Taylor coefficient |p^(k)(z)/k!| is
+	 * bounded from above by the sum over the terms a_j z^j of C(j, k) |a_j|
+	 * |z|^(j-k). Each non-zero factor adds to the orders from 2 to its exponent,
+	 * so the bound takes time proportional to the sum of the exponents of the
+	 * non-zero factors, and only the orders with a non-zero coefficient enter
+	 * the supremum, compared by their logarithms.
+	 *
+	 * @param z
+	 *            Complex number.
+	 * @param derivativeModule
+	 *            Module of the first derivation of the polynom in z.
+	 * @return Upper bound of gamma, or positive infinity if it can not be
+	 *         bounded.
+	 */
+	public double gamma(Complex z, double derivativeModule) {
+		return gamma(z, derivativeModule, new double[order() + 1]);
+	}
+
+	/**
+	 * Calculates an upper bound of Smale's gamma function of the polynom in the
+	 * given complex number, as {@link #gamma(Complex, double)} does, keeping
+	 * the bounds of the Taylor coefficients in the given array, so that the
+	 * callers bounding gamma in many numbers can allocate it only once.
+	 *
+	 * @param z
+	 *            Complex number.
+	 * @param derivativeModule
+	 *            Module of the first derivation of the polynom in z.
+	 * @param taylor
+	 *            Array for the bounds of the Taylor coefficients, of at least
+	 *            the order of the polynom plus one elements.
+	 * @return Upper bound of gamma, or positive infinity if it can not be
+	 *         bounded.
+	 */
+	public double gamma(Complex z, double derivativeModule, double[] taylor) {
+		int count = termCount();
+		double[] moduli = this.moduli;
+		if (moduli == null) {
+			moduli = new double[count];
+			for (int i = 0; i < count; i++) {
+				moduli[i] = coefficient(i).module();
+			}
+			this.moduli = moduli;
+		}
+
+		double r = z.module();
+		int n = order();
+		Arrays.fill(taylor, 0, n + 1, 0);
+		for (int i = 0; i < count; i++) {
+			int j = exponent(i);
+			double term = moduli[i];
+			for (int k = j; k >= 2 && term != 0; k--) {
+				taylor[k] += term;
+				term *= r * k / (j - k + 1);
+			}
+		}
+
+		double logGamma = Double.NEGATIVE_INFINITY;
+		for (int k = 2; k <= n; k++) {
+			if (taylor[k] == 0) {
+				continue;
+			}
+			double logBound = Math.log(taylor[k] / derivativeModule) / (k - 1);
+			if (logBound > logGamma) {
+				logGamma = logBound;
+			}
+		}
+
+		double gamma = Math.exp(logGamma);
+		return Double.isFinite(gamma) ? gamma : Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Gets the number of stored terms.
+	 *
+	 * @return Number of stored terms.
+	 */
+	private int termCount() {
+		return isSparse() ? exponents.length : factors.length;
+	}
+
+	/**
+	 * Gets the exponent of the stored term.
+	 *
+	 * @param i
+	 *            Index of the term.
+	 * @return Exponent of the term.
+	 */
+	private int exponent(int i) {
+		return isSparse() ? exponents[i] : i;
+	}
+
+	/**
+	 * Gets the factor of the stored term.
+	 *
+	 * @param i
+	 *            Index of the term.
+	 * @return Factor of the term.
+	 */
+	private Complex coefficient(int i) {
+		return isSparse() ? coefficients[i] : factors[i];
+	}
+
+	/**
+	 * Checks whether the complex number is zero.
+	 *
+	 * @param c
+	 *            Complex number.
+	 * @return True if the number is zero, false otherwise.
+	 */
+	private static boolean isZero(Complex c) {
+		return c.re == 0 && c.im == 0;
+	}
+
+	/**
+	 * Method that forms the polynom to a string format. Sparsely stored polynoms
+	 * list only their non-zero factors.
 	 */
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
-		for (int i = factors.length - 1; i >= 0; i--) {
-			if (i == 0) {
-				sb.append(factors[0]);
+		for (int i = termCount() - 1; i >= 0; i--) {
+			if (exponent(i) == 0) {
+				sb.append(coefficient(i));
 			} else {
-				sb.append("(" + factors[i] + ")z^" + i + "+");
+				sb.append("(" + coefficient(i) + ")z^" + exponent(i) + "+");
 			}
 		}
+		if (sb.length() > 0 && sb.charAt(sb.length() - 1) == '+') {
+			sb.setLength(sb.length() - 1);
+		}
 
 		return sb.toString();
 	}
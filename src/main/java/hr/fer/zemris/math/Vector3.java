@@ -1,6 +1,5 @@
 package hr.fer.zemris.math;
 
-import static java.lang.Math.pow;
 import static java.lang.Math.sqrt;
 
 import java.util.Objects;
@@ -38,7 +37,7 @@ public class Vector3 {
 	 * @return Norm of the vector.
 	 */
 	public double norm() {
-		return sqrt(pow(this.x, 2) + pow(this.y, 2) + pow(this.z, 2));
+		return sqrt(this.x * this.x + this.y * this.y + this.z * this.z);
 	}
 
 	/**
@@ -47,7 +46,8 @@ public class Vector3 {
 	 * @return Normalized vector.
 	 */
 	public Vector3 normalized() {
-		return new Vector3(this.x / this.norm(), this.y / this.norm(), this.z / this.norm());
+		double norm = this.norm();
+		return new Vector3(this.x / norm, this.y / norm, this.z / norm);
 	}
 
 	/**
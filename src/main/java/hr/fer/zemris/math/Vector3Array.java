@@ -0,0 +1,289 @@
+package hr.fer.zemris.math;
+
+import java.util.Objects;
+
+/**
+ * Class that represents an array of 3D vectors stored as three separate
+ * columns of x, y and z components. Unlike {@link Vector3}, the array is
+ * mutable and its bulk operations write their results into output arrays
+ * without allocating, so the simple loops over the columns can be vectorized
+ * by the JIT compiler. Output arrays may be the same as the input ones.
+ *
+ * @author Dinz
+ *
+ */
+public class Vector3Array {
+	/**
+	 * x components.
+	 */
+	private final double[] x;
+	/**
+	 * y components.
+	 */
+	private final double[] y;
+	/**
+	 * z components.
+	 */
+	private final double[] z;
+
+	/**
+	 * Constructs a new array of the given number of zero vectors.
+	 *
+	 * @param size
+	 *            Number of vectors.
+	 */
+	public Vector3Array(int size) {
+		this(new double[size], new double[size], new double[size]);
+	}
+
+	/**
+	 * Constructs a new array over the given component columns. Columns are not
+	 * copied.
+	 *
+	 * @param x
+	 *            x components.
+	 * @param y
+	 *            y components.
+	 * @param z
+	 *            z components.
+	 * @throws IllegalArgumentException
+	 *             If the columns differ in length.
+	 */
+	public Vector3Array(double[] x, double[] y, double[] z) {
+		this.x = Objects.requireNonNull(x);
+		this.y = Objects.requireNonNull(y);
+		this.z = Objects.requireNonNull(z);
+		if (y.length != x.length || z.length != x.length) {
+			throw new IllegalArgumentException("Component columns must be of the same length.");
+		}
+	}
+
+	/**
+	 * Gets the number of vectors.
+	 *
+	 * @return Number of vectors.
+	 */
+	public int size() {
+		return x.length;
+	}
+
+	/**
+	 * Gets the vector at the given index.
+	 *
+	 * @param i
+	 *            Index.
+	 * @return Vector at the index.
+	 */
+	public Vector3 get(int i) {
+		return new Vector3(x[i], y[i], z[i]);
+	}
+
+	/**
+	 * Sets the vector at the given index.
+	 *
+	 * @param i
+	 *            Index.
+	 * @param vx
+	 *            x component.
+	 * @param vy
+	 *            y component.
+	 * @param vz
+	 *            z component.
+	 */
+	public void set(int i, double vx, double vy, double vz) {
+		x[i] = vx;
+		y[i] = vy;
+		z[i] = vz;
+	}
+
+	/**
+	 * Sets the vector at the given index.
+	 *
+	 * @param i
+	 *            Index.
+	 * @param vector
+	 *            Vector.
+	 */
+	public void set(int i, Vector3 vector) {
+		set(i, vector.getX(), vector.getY(), vector.getZ());
+	}
+
+	/**
+	 * Calculates the norms of all the vectors.
+	 *
+	 * @param out
+	 *            Output array of norms.
+	 */
+	public void norm(double[] out) {
+		checkSize(out.length);
+		for (int i = 0, n = x.length; i < n; i++) {
+			out[i] = Math.sqrt(x[i] * x[i] + y[i] * y[i] + z[i] * z[i]);
+		}
+	}
+
+	/**
+	 * Calculates the dot products between the vectors of this and the other array.
+	 *
+	 * @param other
+	 *            Other array.
+	 * @param out
+	 *            Output array of dot products.
+	 */
+	public void dot(Vector3Array other, double[] out) {
+		checkSize(other.size());
+		checkSize(out.length);
+		double[] ox = other.x, oy = other.y, oz = other.z;
+		for (int i = 0, n = x.length; i < n; i++) {
+			out[i] = x[i] * ox[i] + y[i] * oy[i] + z[i] * oz[i];
+		}
+	}
+
+	/**
+	 * Calculates the cross products between the vectors of this and the other
+	 * array.
+	 *
+	 * @param other
+	 *            Other array.
+	 * @param out
+	 *            Output array of cross products.
+	 */
+	public void cross(Vector3Array other, Vector3Array out) {
+		checkSize(other.size());
+		checkSize(out.size());
+		double[] ox = other.x, oy = other.y, oz = other.z;
+		double[] rx = out.x, ry = out.y, rz = out.z;
+		for (int i = 0, n = x.length; i < n; i++) {
+			double ax = x[i], ay = y[i], az = z[i];
+			double bx = ox[i], by = oy[i], bz = oz[i];
+			rx[i] = ay * bz - by * az;
+			ry[i] = bx * az - ax * bz;
+			rz[i] = ax * by - bx * ay;
+		}
+	}
+
+	/**
+	 * Normalizes all the vectors.
+	 *
+	 * @param out
+	 *            Output array of normalized vectors.
+	 */
+	public void normalize(Vector3Array out) {
+		checkSize(out.size());
+		double[] rx = out.x, ry = out.y, rz = out.z;
+		for (int i = 0, n = x.length; i < n; i++) {
+			double ax = x[i], ay = y[i], az = z[i];
+			double inverse = 1.0 / Math.sqrt(ax * ax + ay * ay + az * az);
+			rx[i] = ax * inverse;
+			ry[i] = ay * inverse;
+			rz[i] = az * inverse;
+		}
+	}
+
+	/**
+	 * Scales all the vectors and adds the vectors of the other array to them.
+	 *
+	 * @param s
+	 *            Value of vector scalation.
+	 * @param other
+	 *            Array of the vectors to be added.
+	 * @param out
+	 *            Output array of calculated vectors.
+	 */
+	public void scaleAdd(double s, Vector3Array other, Vector3Array out) {
+		checkSize(other.size());
+		checkSize(out.size());
+		double[] ox = other.x, oy = other.y, oz = other.z;
+		double[] rx = out.x, ry = out.y, rz = out.z;
+		for (int i = 0, n = x.length; i < n; i++) {
+			rx[i] = x[i] * s + ox[i];
+			ry[i] = y[i] * s + oy[i];
+			rz[i] = z[i] * s + oz[i];
+		}
+	}
+
+	/**
+	 * Scales each vector by its own value and adds the vectors of the other array
+	 * to them.
+	 *
+	 * @param s
+	 *            Values of vector scalation.
+	 * @param other
+	 *            Array of the vectors to be added.
+	 * @param out
+	 *            Output array of calculated vectors.
+	 */
+	public void scaleAdd(double[] s, Vector3Array other, Vector3Array out) {
+		checkSize(s.length);
+		checkSize(other.size());
+		checkSize(out.size());
+		double[] ox = other.x, oy = other.y, oz = other.z;
+		double[] rx = out.x, ry = out.y, rz = out.z;
+		for (int i = 0, n = x.length; i < n; i++) {
+			rx[i] = x[i] * s[i] + ox[i];
+			ry[i] = y[i] * s[i] + oy[i];
+			rz[i] = z[i] * s[i] + oz[i];
+		}
+	}
+
+	/**
+	 * Calculates the cosines of the angles between the vectors of this and the
+	 * other array.
+	 *
+	 * @param other
+	 *            Other array.
+	 * @param out
+	 *            Output array of cosines.
+	 */
+	public void cosAngle(Vector3Array other, double[] out) {
+		checkSize(other.size());
+		checkSize(out.length);
+		double[] ox = other.x, oy = other.y, oz = other.z;
+		for (int i = 0, n = x.length; i < n; i++) {
+			double ax = x[i], ay = y[i], az = z[i];
+			double bx = ox[i], by = oy[i], bz = oz[i];
+			double dot = ax * bx + ay * by + az * bz;
+			out[i] = dot / Math.sqrt((ax * ax + ay * ay + az * az) * (bx * bx + by * by + bz * bz));
+		}
+	}
+
+	/**
+	 * Gets the column of x components.
+	 *
+	 * @return x components.
+	 */
+	public double[] getX() {
+		return x;
+	}
+
+	/**
+	 * Gets the column of y components.
+	 *
+	 * @return y components.
+	 */
+	public double[] getY() {
+		return y;
+	}
+
+	/**
+	 * Gets the column of z components.
+	 *
+	 * @return z components.
+	 */
+	public double[] getZ() {
+		return z;
+	}
+
+	/**
+	 * Checks whether the given size matches the size of this array.
+	 *
+	 * @param size
+	 *            Size to be checked.
+	 * @throws IllegalArgumentException
+	 *             If the sizes differ.
+	 */
+	private void checkSize(int size) {
+		if (size != x.length) {
+			throw new IllegalArgumentException("Expected " + x.length + " elements, got " + size + ".");
+		}
+	}
+}
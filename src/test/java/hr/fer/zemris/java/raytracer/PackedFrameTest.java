@@ -0,0 +1,39 @@
+package hr.fer.zemris.java.raytracer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PackedFrameTest {
+
+	@Test
+	public void packTest() {
+		Assert.assertEquals(0xFF123456, PackedFrame.pack(0x12, 0x34, 0x56));
+	}
+
+	@Test
+	public void packNegativeTest() {
+		Assert.assertEquals(0xFF000000, PackedFrame.pack(-84, -24, -183));
+		Assert.assertEquals(0xFF00FF00, PackedFrame.pack(-1, 300, -1));
+	}
+
+	@Test
+	public void packOverflowTest() {
+		Assert.assertEquals(0xFFFFFFFF, PackedFrame.pack(256, 1000, Short.MAX_VALUE));
+		Assert.assertEquals(0xFFFF00FF, PackedFrame.pack(300, Short.MIN_VALUE, 256));
+	}
+
+	@Test
+	public void unpackTest() {
+		PackedFrame frame = new PackedFrame(2, 1);
+		frame.getPixels()[0] = PackedFrame.pack(-5, 128, 400);
+		frame.getPixels()[1] = PackedFrame.pack(1, 2, 3);
+		short[] red = new short[2];
+		short[] green = new short[2];
+		short[] blue = new short[2];
+		frame.unpack(red, green, blue);
+
+		Assert.assertArrayEquals(new short[] { 0, 1 }, red);
+		Assert.assertArrayEquals(new short[] { 128, 2 }, green);
+		Assert.assertArrayEquals(new short[] { 255, 3 }, blue);
+	}
+}
@@ -0,0 +1,41 @@
+package hr.fer.zemris.java.raytracer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import hr.fer.zemris.java.raytracer.model.LightSource;
+import hr.fer.zemris.java.raytracer.model.Point3D;
+import hr.fer.zemris.java.raytracer.model.Ray;
+import hr.fer.zemris.java.raytracer.model.Scene;
+import hr.fer.zemris.java.raytracer.model.SceneBVH;
+import hr.fer.zemris.java.raytracer.model.TriangleMesh;
+
+public class RaycasterParallelTest {
+
+	private static short[] trace(Point3D light) {
+		TriangleMesh triangle = new TriangleMesh(new float[] { -1, -1, 0, 1, -1, 0, 0, 1, 0 }, null,
+				new int[] { 0, 1, 2 }, 1, 1, 1, 0.5, 0.5, 0.5, 10);
+		Scene scene = new Scene();
+		scene.add(triangle);
+		scene.add(new LightSource(light, 200, 200, 200));
+
+		short[] rgb = new short[3];
+		RaycasterParallel.tracer(new SceneBVH(scene), Ray.fromPoints(new Point3D(0, 0, 5), new Point3D(0, 0, 0)),
+				rgb);
+		return rgb;
+	}
+
+	@Test
+	public void backLitTriangleTest() {
+		Assert.assertArrayEquals(new short[] { 15, 15, 15 }, trace(new Point3D(0.5, 0.2, -5)));
+	}
+
+	@Test
+	public void frontLitTriangleTest() {
+		short[] rgb = trace(new Point3D(0.5, 0.2, 5));
+
+		for (short channel : rgb) {
+			Assert.assertTrue(channel > 15);
+		}
+	}
+}
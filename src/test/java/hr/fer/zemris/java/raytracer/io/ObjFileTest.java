@@ -0,0 +1,117 @@
+package hr.fer.zemris.java.raytracer.io;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+import hr.fer.zemris.java.raytracer.model.Point3D;
+import hr.fer.zemris.java.raytracer.model.Ray;
+import hr.fer.zemris.java.raytracer.model.RayIntersection;
+import hr.fer.zemris.java.raytracer.model.TriangleMesh;
+
+public class ObjFileTest {
+	private static final double DELTA = 1E-6;
+
+	/**
+	 * Unit square in the z = 0 plane.
+	 */
+	private static final String SQUARE = "v 0 0 0\nv 1 0 0\nv 1 1 0\nv 0 1 0\n";
+
+	private static TriangleMesh load(String content) throws IOException {
+		Path path = Files.createTempFile("mesh", ".obj");
+		path.toFile().deleteOnExit();
+		Files.write(path, content.getBytes(StandardCharsets.US_ASCII));
+		return ObjFile.load(path, 1, 1, 1, 0, 0, 0, 0);
+	}
+
+	/**
+	 * Intersects the mesh with the ray going down the z axis through the point.
+	 */
+	private static RayIntersection down(TriangleMesh mesh, double x, double y) {
+		return mesh.findClosestRayIntersection(new Ray(new Point3D(x, y, 5), new Point3D(0, 0, -1)));
+	}
+
+	private static void assertNormal(double x, double y, double z, RayIntersection intersection) {
+		Assert.assertNotNull(intersection);
+		Point3D normal = intersection.getNormal();
+		Assert.assertEquals(x, normal.x, DELTA);
+		Assert.assertEquals(y, normal.y, DELTA);
+		Assert.assertEquals(z, normal.z, DELTA);
+	}
+
+	@Test
+	public void textureAndNormalTest() throws IOException {
+		TriangleMesh mesh = load(SQUARE + "vt 0 0\nvt 1 0\nvt 1 1\nvt 0 1\nvn 0 0.6 0.8\n"
+				+ "f 1/1/1 2/2/1 3/3/1 4/4/1\n");
+
+		Assert.assertEquals(2, mesh.getTriangleCount());
+		Assert.assertEquals(4, mesh.getVertexCount());
+		assertNormal(0, 0.6, 0.8, down(mesh, 0.25, 0.75));
+		assertNormal(0, 0.6, 0.8, down(mesh, 0.75, 0.25));
+	}
+
+	@Test
+	public void normalWithoutTextureTest() throws IOException {
+		TriangleMesh mesh = load(SQUARE + "vn 0.6 0 0.8\nf 1//1 2//1 3//1\n");
+
+		Assert.assertEquals(1, mesh.getTriangleCount());
+		assertNormal(0.6, 0, 0.8, down(mesh, 0.75, 0.25));
+		Assert.assertNull(down(mesh, 0.25, 0.75));
+	}
+
+	@Test
+	public void negativeIndicesTest() throws IOException {
+		TriangleMesh mesh = load(SQUARE + "vn 0 0.6 0.8\nf -4//-1 -3//-1 -2//-1\n" + "v 5 5 0\nf -2 -3 -1\n");
+
+		Assert.assertEquals(2, mesh.getTriangleCount());
+		// the second face has no normals, so the whole mesh is flat
+		assertNormal(0, 0, 1, down(mesh, 0.75, 0.25));
+		assertNormal(0, 0, 1, down(mesh, 2, 2.5));
+	}
+
+	@Test
+	public void polygonFanTest() throws IOException {
+		TriangleMesh mesh = load(SQUARE + "v 0.5 1.5 0\nf 1 2 3 5 4\n");
+
+		Assert.assertEquals(3, mesh.getTriangleCount());
+		Assert.assertNotNull(down(mesh, 0.1, 0.1));
+		Assert.assertNotNull(down(mesh, 0.9, 0.9));
+		Assert.assertNotNull(down(mesh, 0.5, 1.4));
+		Assert.assertNull(down(mesh, 0.1, 1.4));
+	}
+
+	@Test
+	public void crlfTest() throws IOException {
+		TriangleMesh mesh = load("# square\r\nv 0 0 0\r\nv 1 0 0\r\nv 1 1 0\r\nv 0 1 0\r\nvn 0 0.6 0.8\r\n"
+				+ "f 1//1 2//1 3//1\r\nf 1//1 3//1 4//1\r\n");
+
+		Assert.assertEquals(2, mesh.getTriangleCount());
+		assertNormal(0, 0.6, 0.8, down(mesh, 0.25, 0.75));
+	}
+
+	@Test
+	public void missingNormalTest() throws IOException {
+		TriangleMesh mesh = load(SQUARE + "vn 0 0.6 0.8\nf 1//1 2//1 3//1\nf 1//1 3 4//1\n");
+
+		assertNormal(0, 0, 1, down(mesh, 0.75, 0.25));
+		assertNormal(0, 0, 1, down(mesh, 0.25, 0.75));
+	}
+
+	@Test
+	public void vertexCopyTest() throws IOException {
+		TriangleMesh mesh = load(SQUARE + "vn 0 0.6 0.8\nvn 0.6 0 0.8\nf 1//1 2//1 3//1\nf 1//2 3//2 4//2\n");
+
+		Assert.assertEquals(6, mesh.getVertexCount());
+		assertNormal(0, 0.6, 0.8, down(mesh, 0.75, 0.25));
+		assertNormal(0.6, 0, 0.8, down(mesh, 0.25, 0.75));
+	}
+
+	@Test(expected = IOException.class)
+	public void indexOutOfRangeTest() throws IOException {
+		load(SQUARE + "f 1 2 5\n");
+	}
+}
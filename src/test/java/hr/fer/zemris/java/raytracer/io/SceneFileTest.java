@@ -0,0 +1,126 @@
+package hr.fer.zemris.java.raytracer.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+import hr.fer.zemris.java.raytracer.model.GraphicalObject;
+import hr.fer.zemris.java.raytracer.model.LightSource;
+import hr.fer.zemris.java.raytracer.model.Point3D;
+import hr.fer.zemris.java.raytracer.model.Ray;
+import hr.fer.zemris.java.raytracer.model.RayIntersection;
+import hr.fer.zemris.java.raytracer.model.Scene;
+import hr.fer.zemris.java.raytracer.model.Sphere;
+import hr.fer.zemris.java.raytracer.model.SphereSet;
+
+public class SceneFileTest {
+	private static final double DELTA = 1E-9;
+
+	/**
+	 * Creates a scene whose values are all exactly representable as floats, so
+	 * the loaded scene matches it exactly.
+	 */
+	private static Scene randomScene(Random random, int spheres) {
+		Scene scene = new Scene();
+		scene.add(new LightSource(new Point3D(10, 5, -3), 100, 50, 25));
+		scene.add(new LightSource(new Point3D(-2, 8, 0.5), 10, 20, 30));
+		for (int i = 0; i < spheres; i++) {
+			Point3D center = new Point3D(random.nextInt(200) / 4.0 - 25, random.nextInt(200) / 4.0 - 25,
+					random.nextInt(200) / 4.0 - 25);
+			double kd = random.nextInt(4) / 4.0;
+			scene.add(new Sphere(center, 0.5 + random.nextInt(8) / 8.0, kd, 0.5, 0.25, 0.125, 1 - kd, 0.5, 10));
+		}
+		return scene;
+	}
+
+	private static Path write(Scene scene) throws IOException {
+		Path path = Files.createTempFile("scene", ".rtsc");
+		path.toFile().deleteOnExit();
+		SceneWriter.write(scene, path);
+		return path;
+	}
+
+	private static RayIntersection closest(Scene scene, Ray ray) {
+		RayIntersection closest = null;
+		for (GraphicalObject object : scene.getObjects()) {
+			RayIntersection intersection = object.findClosestRayIntersection(ray);
+			if (intersection != null && (closest == null || intersection.getDistance() < closest.getDistance())) {
+				closest = intersection;
+			}
+		}
+		return closest;
+	}
+
+	private static void patchInt(Path path, long position, int value) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+			ByteBuffer buffer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(value);
+			buffer.flip();
+			channel.write(buffer, position);
+		}
+	}
+
+	@Test
+	public void roundTripTest() throws IOException {
+		Random random = new Random(42);
+		Scene scene = randomScene(random, 500);
+		Scene loaded = SceneFile.load(write(scene));
+
+		Assert.assertEquals(1, loaded.getObjects().size());
+		Assert.assertEquals(500, ((SphereSet) loaded.getObjects().get(0)).size());
+		Assert.assertEquals(2, loaded.getLights().size());
+		LightSource light = loaded.getLights().get(1);
+		Assert.assertEquals(0.5, light.getPoint().z, DELTA);
+		Assert.assertEquals(30, light.getB());
+
+		for (int i = 0; i < 5000; i++) {
+			Point3D start = new Point3D(random.nextDouble() * 60 - 30, random.nextDouble() * 60 - 30, -40);
+			Point3D direction = new Point3D(random.nextGaussian(), random.nextGaussian(), 2 + random.nextDouble());
+			Ray ray = new Ray(start, direction.normalize());
+			RayIntersection expected = closest(scene, ray);
+			RayIntersection actual = closest(loaded, ray);
+
+			if (expected == null) {
+				Assert.assertNull(actual);
+				continue;
+			}
+			Assert.assertNotNull(actual);
+			Assert.assertEquals(expected.getDistance(), actual.getDistance(), DELTA);
+			Assert.assertEquals(expected.isOuter(), actual.isOuter());
+			Assert.assertEquals(expected.getNormal().x, actual.getNormal().x, DELTA);
+			Assert.assertEquals(expected.getNormal().y, actual.getNormal().y, DELTA);
+			Assert.assertEquals(expected.getNormal().z, actual.getNormal().z, DELTA);
+			Assert.assertEquals(expected.getKdr(), actual.getKdr(), DELTA);
+			Assert.assertEquals(expected.getKrg(), actual.getKrg(), DELTA);
+			Assert.assertEquals(expected.getKrn(), actual.getKrn(), DELTA);
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void badMagicTest() throws IOException {
+		Path path = write(randomScene(new Random(1), 10));
+		patchInt(path, 0, 0x12345678);
+		SceneFile.load(path);
+	}
+
+	@Test(expected = IOException.class)
+	public void sizeMismatchTest() throws IOException {
+		Path path = write(randomScene(new Random(2), 10));
+		Files.write(path, new byte[] { 0 }, StandardOpenOption.APPEND);
+		SceneFile.load(path);
+	}
+
+	@Test(expected = IOException.class)
+	public void materialIndexTest() throws IOException {
+		Path path = write(randomScene(new Random(3), 10));
+		patchInt(path, SceneFile.HEADER_SIZE + 3 * SceneFile.SPHERE_RECORD + 16, 1000);
+		SceneFile.load(path);
+	}
+}
@@ -0,0 +1,104 @@
+package hr.fer.zemris.java.raytracer.model;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+public class InstanceTest {
+	private static final double DELTA = 1E-9;
+
+	/**
+	 * Semi-axes and center of the ellipsoid.
+	 */
+	private static final double A = 3, B = 0.5, C = 1.5, TX = 2, TY = -1, TZ = 4;
+
+	private static Instance ellipsoid() {
+		Sphere unit = new Sphere(new Point3D(0, 0, 0), 1, 1, 1, 1, 0.5, 0.5, 0.5, 10);
+		return new Instance(unit, new double[] { A, 0, 0, TX, 0, B, 0, TY, 0, 0, C, TZ });
+	}
+
+	/**
+	 * Calculates the distance to the closest hit of the ellipsoid in front of
+	 * the ray origin, or infinity.
+	 */
+	private static double analyticDistance(Ray ray) {
+		double ox = (ray.start.x - TX) / A, oy = (ray.start.y - TY) / B, oz = (ray.start.z - TZ) / C;
+		double dx = ray.direction.x / A, dy = ray.direction.y / B, dz = ray.direction.z / C;
+		double a = dx * dx + dy * dy + dz * dz;
+		double halfB = ox * dx + oy * dy + oz * dz;
+		double c = ox * ox + oy * oy + oz * oz - 1;
+		double discriminant = halfB * halfB - a * c;
+		if (discriminant < 0) {
+			return Double.POSITIVE_INFINITY;
+		}
+		double near = (-halfB - Math.sqrt(discriminant)) / a;
+		double far = (-halfB + Math.sqrt(discriminant)) / a;
+		return near >= 0 ? near : far >= 0 ? far : Double.POSITIVE_INFINITY;
+	}
+
+	@Test
+	public void ellipsoidTest() {
+		Instance instance = ellipsoid();
+		Random random = new Random(42);
+		int hits = 0;
+
+		for (int i = 0; i < 10000; i++) {
+			Point3D start = new Point3D(TX + random.nextGaussian() * 6, TY + random.nextGaussian() * 6,
+					TZ + random.nextGaussian() * 6);
+			Point3D target = new Point3D(TX + random.nextGaussian() * A, TY + random.nextGaussian() * B,
+					TZ + random.nextGaussian() * C);
+			Ray ray = Ray.fromPoints(start, target);
+			double expected = analyticDistance(ray);
+			RayIntersection intersection = instance.findClosestRayIntersection(ray);
+
+			if (expected == Double.POSITIVE_INFINITY) {
+				Assert.assertNull(intersection);
+				continue;
+			}
+			hits++;
+			Assert.assertNotNull(intersection);
+			Assert.assertEquals(expected, intersection.getDistance(), DELTA);
+
+			Point3D point = intersection.getPoint();
+			Assert.assertEquals(start.x + ray.direction.x * expected, point.x, DELTA);
+			Assert.assertEquals(start.y + ray.direction.y * expected, point.y, DELTA);
+			Assert.assertEquals(start.z + ray.direction.z * expected, point.z, DELTA);
+
+			// gradient of the implicit function of the ellipsoid
+			Point3D normal = new Point3D((point.x - TX) / (A * A), (point.y - TY) / (B * B),
+					(point.z - TZ) / (C * C)).normalize();
+			Assert.assertEquals(normal.x, intersection.getNormal().x, 1E-6);
+			Assert.assertEquals(normal.y, intersection.getNormal().y, 1E-6);
+			Assert.assertEquals(normal.z, intersection.getNormal().z, 1E-6);
+		}
+		Assert.assertTrue(hits > 1000);
+	}
+
+	@Test
+	public void boundingBoxTest() {
+		BoundingBox box = ellipsoid().getBoundingBox();
+
+		Assert.assertEquals(TX - A, box.minX, DELTA);
+		Assert.assertEquals(TY + B, box.maxY, DELTA);
+		Assert.assertEquals(TZ - C, box.minZ, DELTA);
+	}
+
+	@Test
+	public void sharedGeometryTest() {
+		float[] spheres = { 0, 0, 0, 1, 3, 0, 0, 1 };
+		SphereSet set = new SphereSet(spheres, new int[2], new float[SphereSet.MATERIAL_SIZE]);
+		Scene scene = new Scene();
+		for (int i = 0; i < 40; i++) {
+			scene.add(Instance.at(set, new Point3D(0, 0, 4 * i), 1));
+		}
+		SceneBVH accelerator = new SceneBVH(scene);
+
+		// the ray crosses every instance, and only the first one is the closest
+		RayIntersection intersection = accelerator
+				.findClosestIntersection(new Ray(new Point3D(3, 0, -5), new Point3D(0, 0, 1)));
+		Assert.assertEquals(4, intersection.getDistance(), DELTA);
+		Assert.assertEquals(3, intersection.getPoint().x, DELTA);
+		Assert.assertEquals(-1, intersection.getNormal().z, DELTA);
+	}
+}
@@ -0,0 +1,121 @@
+package hr.fer.zemris.java.raytracer.model;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+public class SceneBVHTest {
+	private static final double DELTA = 1E-9;
+
+	private static Scene randomScene(Random random, int spheres) {
+		Scene scene = new Scene();
+		for (int i = 0; i < spheres; i++) {
+			Point3D center = new Point3D(random.nextDouble() * 100 - 50, random.nextDouble() * 100 - 50,
+					random.nextDouble() * 100 - 50);
+			scene.add(new Sphere(center, 0.5 + random.nextDouble() * 1.5, 1, 1, 1, 0.5, 0.5, 0.5, 10));
+		}
+		return scene;
+	}
+
+	private static Ray randomRay(Random random) {
+		Point3D start = new Point3D(random.nextDouble() * 120 - 60, random.nextDouble() * 120 - 60,
+				random.nextDouble() * 120 - 60);
+		Point3D direction = new Point3D(random.nextGaussian(), random.nextGaussian(), random.nextGaussian());
+		return new Ray(start, direction.normalize());
+	}
+
+	private static RayIntersection bruteForce(Scene scene, Ray ray) {
+		RayIntersection closest = null;
+		for (GraphicalObject object : scene.getObjects()) {
+			RayIntersection intersection = object.findClosestRayIntersection(ray);
+			if (intersection != null && (closest == null || intersection.getDistance() < closest.getDistance())) {
+				closest = intersection;
+			}
+		}
+		return closest;
+	}
+
+	@Test
+	public void closestIntersectionTest() {
+		Random random = new Random(42);
+		Scene scene = randomScene(random, 3000);
+		SceneBVH accelerator = new SceneBVH(scene);
+
+		for (int i = 0; i < 20000; i++) {
+			Ray ray = randomRay(random);
+			RayIntersection expected = bruteForce(scene, ray);
+			RayIntersection actual = accelerator.findClosestIntersection(ray);
+
+			if (expected == null) {
+				Assert.assertNull(actual);
+				continue;
+			}
+			Assert.assertNotNull(actual);
+			Assert.assertEquals(expected.getDistance(), actual.getDistance(), DELTA);
+			Assert.assertEquals(expected.getPoint().x, actual.getPoint().x, DELTA);
+			Assert.assertEquals(expected.getPoint().y, actual.getPoint().y, DELTA);
+			Assert.assertEquals(expected.getPoint().z, actual.getPoint().z, DELTA);
+		}
+	}
+
+	@Test
+	public void packetIntersectionTest() {
+		Random random = new Random(7);
+		Scene scene = randomScene(random, 3000);
+		SceneBVH accelerator = new SceneBVH(scene);
+		RayPacket packet = new RayPacket(RayPacket.MAX_SIZE);
+		RayIntersection[] intersections = new RayIntersection[RayPacket.MAX_SIZE];
+
+		for (int i = 0; i < 500; i++) {
+			packet.clear();
+			for (int lane = 0; lane < packet.size(); lane++) {
+				packet.set(lane, randomRay(random), Double.POSITIVE_INFINITY);
+			}
+			accelerator.findClosestIntersections(packet, intersections);
+
+			for (int lane = 0; lane < packet.size(); lane++) {
+				RayIntersection expected = bruteForce(scene, packet.rays[lane]);
+				if (expected == null) {
+					Assert.assertNull(intersections[lane]);
+				} else {
+					Assert.assertEquals(expected.getDistance(), intersections[lane].getDistance(), DELTA);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void occlusionTest() {
+		Random random = new Random(11);
+		Scene scene = randomScene(random, 3000);
+		SceneBVH accelerator = new SceneBVH(scene);
+
+		for (int i = 0; i < 20000; i++) {
+			Ray ray = randomRay(random);
+			double maxDistance = random.nextDouble() * 40;
+			RayIntersection closest = bruteForce(scene, ray);
+			boolean expected = closest != null && closest.getDistance() < maxDistance;
+
+			Assert.assertEquals(expected, accelerator.isOccluded(ray, maxDistance, i & 3));
+		}
+	}
+
+	@Test
+	public void isCurrentTest() {
+		Random random = new Random(3);
+		Scene scene = randomScene(random, 100);
+		SceneBVH accelerator = new SceneBVH(scene);
+		Assert.assertTrue(accelerator.isCurrent());
+
+		GraphicalObject original = scene.getObjects().get(50);
+		scene.getObjects().set(50, randomScene(random, 1).getObjects().get(0));
+		Assert.assertFalse(accelerator.isCurrent());
+
+		scene.getObjects().set(50, original);
+		Assert.assertTrue(accelerator.isCurrent());
+
+		scene.add(original);
+		Assert.assertFalse(accelerator.isCurrent());
+	}
+}
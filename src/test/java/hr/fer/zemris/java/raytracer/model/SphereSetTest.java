@@ -0,0 +1,50 @@
+package hr.fer.zemris.java.raytracer.model;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+public class SphereSetTest {
+	private static final double DELTA = 1E-9;
+
+	/**
+	 * Creates a row of unit spheres along the x axis, two units apart.
+	 */
+	private static SphereSet row(int count) {
+		float[] spheres = new float[count * SphereSet.SPHERE_SIZE];
+		for (int i = 0; i < count; i++) {
+			spheres[i * SphereSet.SPHERE_SIZE] = 2 * i;
+			spheres[i * SphereSet.SPHERE_SIZE + 3] = 1;
+		}
+		return new SphereSet(spheres, new int[count], new float[SphereSet.MATERIAL_SIZE]);
+	}
+
+	private static Ray down(double x) {
+		return new Ray(new Point3D(x, 5, 0), new Point3D(0, -1, 0));
+	}
+
+	@Test
+	public void interleavedQueriesTest() {
+		int count = 3 * RayPacket.MAX_SIZE;
+		SphereSet set = row(count);
+		double[] distances = new double[count];
+		for (int i = 0; i < count; i++) {
+			Ray ray = down(2 * i);
+			distances[i] = set.intersect(ray.start.x, ray.start.y, ray.start.z, ray.direction.x, ray.direction.y,
+					ray.direction.z);
+			Assert.assertEquals(4, distances[i], DELTA);
+		}
+
+		// the oldest hits are no longer cached and are found again
+		for (int i = 0; i < count; i++) {
+			RayIntersection intersection = set.intersectionAt(down(2 * i), distances[i]);
+			Assert.assertEquals(2 * i, intersection.getPoint().x, DELTA);
+			Assert.assertEquals(0, intersection.getNormal().x, DELTA);
+			Assert.assertEquals(1, intersection.getNormal().y, DELTA);
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void missedRayTest() {
+		row(4).intersectionAt(down(-5), 4);
+	}
+}
@@ -0,0 +1,76 @@
+package hr.fer.zemris.java.raytracer.model;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+public class TriangleMeshTest {
+	private static final double DELTA = 1E-9;
+
+	/**
+	 * Corners of the cube [-1, 1]^3.
+	 */
+	private static final float[] CUBE_VERTICES = { -1, -1, -1, 1, -1, -1, 1, 1, -1, -1, 1, -1, -1, -1, 1, 1, -1, 1,
+			1, 1, 1, -1, 1, 1 };
+	/**
+	 * Two triangles of each face of the cube.
+	 */
+	private static final int[] CUBE_INDICES = { 0, 2, 1, 0, 3, 2, 4, 5, 6, 4, 6, 7, 0, 1, 5, 0, 5, 4, 3, 7, 6, 3, 6,
+			2, 0, 4, 7, 0, 7, 3, 1, 2, 6, 1, 6, 5 };
+
+	private static TriangleMesh cube() {
+		return new TriangleMesh(CUBE_VERTICES.clone(), null, CUBE_INDICES.clone(), 1, 1, 1, 0, 0, 0, 0);
+	}
+
+	/**
+	 * Fires the ray from inside the cube through the target on its surface.
+	 */
+	private static void assertHits(TriangleMesh mesh, Point3D start, Point3D target) {
+		Ray ray = Ray.fromPoints(start, target);
+		RayIntersection intersection = mesh.findClosestRayIntersection(ray);
+		Assert.assertNotNull("Ray through " + target.x + ", " + target.y + ", " + target.z + " slipped through.",
+				intersection);
+		Assert.assertEquals(target.sub(start).norm(), intersection.getDistance(), 1E-6);
+	}
+
+	@Test
+	public void watertightTest() {
+		TriangleMesh mesh = cube();
+		Point3D[] starts = { new Point3D(0, 0, 0), new Point3D(0.1, -0.2, 0.3), new Point3D(-0.7, 0.55, -0.35) };
+
+		for (Point3D start : starts) {
+			for (int v = 0; v < 8; v++) {
+				assertHits(mesh, start, new Point3D(CUBE_VERTICES[v * 3], CUBE_VERTICES[v * 3 + 1],
+						CUBE_VERTICES[v * 3 + 2]));
+			}
+			// edges of the triangles, including the diagonals shared inside the faces
+			for (int t = 0; t < CUBE_INDICES.length; t += 3) {
+				for (int e = 0; e < 3; e++) {
+					int a = CUBE_INDICES[t + e] * 3;
+					int b = CUBE_INDICES[t + (e + 1) % 3] * 3;
+					for (int step = 1; step < 8; step++) {
+						double s = step / 8.0;
+						assertHits(mesh, start, new Point3D(CUBE_VERTICES[a] + s * (CUBE_VERTICES[b] - CUBE_VERTICES[a]),
+								CUBE_VERTICES[a + 1] + s * (CUBE_VERTICES[b + 1] - CUBE_VERTICES[a + 1]),
+								CUBE_VERTICES[a + 2] + s * (CUBE_VERTICES[b + 2] - CUBE_VERTICES[a + 2])));
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void flatNormalFacesRayTest() {
+		TriangleMesh mesh = cube();
+		RayIntersection intersection = mesh
+				.findClosestRayIntersection(new Ray(new Point3D(0.2, 0.3, 0), new Point3D(0, 0, 1)));
+
+		Assert.assertEquals(1, intersection.getDistance(), DELTA);
+		Assert.assertEquals(-1, intersection.getNormal().z, DELTA);
+		Assert.assertFalse(intersection.isOuter());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void missedRayTest() {
+		cube().intersectionAt(new Ray(new Point3D(5, 5, 5), new Point3D(0, 0, 1)), 1);
+	}
+}
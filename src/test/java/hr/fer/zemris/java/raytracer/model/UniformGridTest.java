@@ -0,0 +1,123 @@
+package hr.fer.zemris.java.raytracer.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+public class UniformGridTest {
+	private static final double DELTA = 1E-9;
+
+	private static Sphere randomSphere(Random random) {
+		Point3D center = new Point3D(random.nextDouble() * 40 - 20, random.nextDouble() * 40 - 20,
+				random.nextDouble() * 40 - 20);
+		return new Sphere(center, 0.3 + random.nextDouble() * 1.5, 1, 1, 1, 0.5, 0.5, 0.5, 10);
+	}
+
+	private static Sphere moved(Sphere sphere, Random random) {
+		Point3D center = sphere.getCenter().add(random.nextGaussian(), random.nextGaussian(), random.nextGaussian());
+		return new Sphere(center, sphere.getRadius(), 1, 1, 1, 0.5, 0.5, 0.5, 10);
+	}
+
+	private static Ray randomRay(Random random) {
+		Point3D start = new Point3D(random.nextDouble() * 50 - 25, random.nextDouble() * 50 - 25,
+				random.nextDouble() * 50 - 25);
+		Point3D direction = new Point3D(random.nextGaussian(), random.nextGaussian(), random.nextGaussian());
+		return new Ray(start, direction.normalize());
+	}
+
+	private static RayIntersection bruteForce(List<Sphere> spheres, Ray ray) {
+		RayIntersection closest = null;
+		for (Sphere sphere : spheres) {
+			RayIntersection intersection = sphere.findClosestRayIntersection(ray);
+			if (intersection != null && (closest == null || intersection.getDistance() < closest.getDistance())) {
+				closest = intersection;
+			}
+		}
+		return closest;
+	}
+
+	private static void assertMatches(List<Sphere> spheres, UniformGrid.Snapshot snapshot, Random random) {
+		Assert.assertEquals(spheres.size(), snapshot.getObjectCount());
+		for (int i = 0; i < 2000; i++) {
+			Ray ray = randomRay(random);
+			RayIntersection expected = bruteForce(spheres, ray);
+			RayIntersection actual = snapshot.findClosestIntersection(ray);
+
+			if (expected == null) {
+				Assert.assertNull(actual);
+			} else {
+				Assert.assertNotNull(actual);
+				Assert.assertEquals(expected.getDistance(), actual.getDistance(), DELTA);
+				Assert.assertEquals(expected.getNormal().x, actual.getNormal().x, DELTA);
+			}
+
+			double maxDistance = random.nextDouble() * 30;
+			Assert.assertEquals(expected != null && expected.getDistance() < maxDistance,
+					snapshot.isOccluded(ray, maxDistance));
+		}
+	}
+
+	@Test
+	public void oldSnapshotsTest() {
+		Random random = new Random(42);
+		Scene scene = new Scene();
+		List<Sphere> spheres = new ArrayList<>();
+		for (int i = 0; i < 400; i++) {
+			Sphere sphere = randomSphere(random);
+			spheres.add(sphere);
+			scene.add(sphere);
+		}
+		UniformGrid grid = new UniformGrid(scene, 2);
+
+		List<List<Sphere>> states = new ArrayList<>();
+		List<UniformGrid.Snapshot> snapshots = new ArrayList<>();
+		states.add(new ArrayList<>(spheres));
+		snapshots.add(grid.getSnapshot());
+
+		for (int commit = 0; commit < 6; commit++) {
+			for (int i = 0; i < spheres.size(); i++) {
+				if (random.nextInt(4) == 0) {
+					Sphere replacement = moved(spheres.get(i), random);
+					grid.replace(spheres.get(i), replacement);
+					spheres.set(i, replacement);
+				}
+			}
+			for (int i = 0; i < 20; i++) {
+				grid.remove(spheres.remove(random.nextInt(spheres.size())));
+			}
+			for (int i = 0; i < 30; i++) {
+				Sphere sphere = randomSphere(random);
+				grid.insert(sphere);
+				spheres.add(sphere);
+			}
+			states.add(new ArrayList<>(spheres));
+			snapshots.add(grid.commit());
+		}
+
+		// every snapshot still answers from the geometry of its own commit
+		for (int i = 0; i < snapshots.size(); i++) {
+			assertMatches(states.get(i), snapshots.get(i), random);
+		}
+	}
+
+	@Test
+	public void uncommittedUpdatesTest() {
+		Random random = new Random(7);
+		Sphere sphere = new Sphere(new Point3D(0, 0, 10), 1, 1, 1, 1, 0.5, 0.5, 0.5, 10);
+		UniformGrid grid = new UniformGrid(1);
+		grid.insert(sphere);
+		UniformGrid.Snapshot snapshot = grid.commit();
+		grid.replace(sphere, new Sphere(new Point3D(0, 5, 10), 1, 1, 1, 1, 0.5, 0.5, 0.5, 10));
+
+		Ray ray = new Ray(new Point3D(0, 0, 0), new Point3D(0, 0, 1));
+		Assert.assertSame(snapshot, grid.getSnapshot());
+		Assert.assertEquals(9, grid.getSnapshot().findClosestIntersection(ray).getDistance(), DELTA);
+		Assert.assertNull(grid.commit().findClosestIntersection(ray));
+		Assert.assertEquals(9, snapshot.findClosestIntersection(ray).getDistance(), DELTA);
+		assertMatches(Collections.singletonList(sphere), snapshot, random);
+	}
+}
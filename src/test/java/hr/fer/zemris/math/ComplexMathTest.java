@@ -0,0 +1,123 @@
+package hr.fer.zemris.math;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+public class ComplexMathTest {
+
+	private static final double DELTA = 1E-12;
+
+	@Test
+	public void realKernelsUlpTest() {
+		Random random = new Random(42);
+		for (int i = 0; i < 100000; i++) {
+			double x = (random.nextDouble() * 2 - 1) * 700;
+			double y = (random.nextDouble() * 2 - 1) * ComplexMath.TRIG_REDUCTION_LIMIT;
+
+			Assert.assertTrue(Math.abs(ComplexMath.exp(x) - StrictMath.exp(x)) <= 2 * Math.ulp(StrictMath.exp(x)));
+			Assert.assertTrue(Math.abs(ComplexMath.sin(y) - StrictMath.sin(y)) <= 2 * Math.ulp(StrictMath.sin(y)));
+			Assert.assertTrue(Math.abs(ComplexMath.cos(y) - StrictMath.cos(y)) <= 2 * Math.ulp(StrictMath.cos(y)));
+		}
+	}
+
+	@Test
+	public void expLimitsTest() {
+		Assert.assertEquals(Double.POSITIVE_INFINITY, ComplexMath.exp(710), 0);
+		Assert.assertEquals(0, ComplexMath.exp(-746), 0);
+		Assert.assertTrue(Double.isNaN(ComplexMath.exp(Double.NaN)));
+		Assert.assertEquals(StrictMath.exp(-740), ComplexMath.exp(-740), Math.ulp(StrictMath.exp(-740)));
+	}
+
+	@Test
+	public void complexSinTest() {
+		Complex z = new Complex(0.7, -1.3);
+		Complex actual = ComplexMath.sin(z);
+
+		Assert.assertEquals(Math.sin(0.7) * Math.cosh(-1.3), actual.re, DELTA);
+		Assert.assertEquals(Math.cos(0.7) * Math.sinh(-1.3), actual.im, DELTA);
+	}
+
+	@Test
+	public void complexCosSmallImaginaryTest() {
+		Complex z = new Complex(2.1, 1E-9);
+		Complex actual = ComplexMath.cos(z);
+
+		Assert.assertEquals(Math.cos(2.1) * Math.cosh(1E-9), actual.re, DELTA);
+		Assert.assertEquals(-Math.sin(2.1) * Math.sinh(1E-9), actual.im, 1E-24);
+	}
+
+	@Test
+	public void complexSinCosUlpTest() {
+		Random random = new Random(7);
+		for (int i = 0; i < 100000; i++) {
+			double x = (random.nextDouble() * 2 - 1) * 10;
+			double y = (0.5 + random.nextDouble() * 0.5) * (random.nextBoolean() ? 1 : -1);
+
+			assertWithinUlp(StrictMath.sin(x) * StrictMath.cosh(y), StrictMath.cos(x) * StrictMath.sinh(y),
+					ComplexMath.sin(new Complex(x, y)));
+			assertWithinUlp(StrictMath.cos(x) * StrictMath.cosh(y), -StrictMath.sin(x) * StrictMath.sinh(y),
+					ComplexMath.cos(new Complex(x, y)));
+		}
+		assertWithinUlp(StrictMath.cosh(-0.9997), 0, ComplexMath.cos(new Complex(0, -0.9997)));
+	}
+
+	@Test
+	public void bulkSinCosUlpTest() {
+		Random random = new Random(11);
+		int length = 10000;
+		double[] re = new double[length];
+		double[] im = new double[length];
+		for (int i = 0; i < length; i++) {
+			re[i] = (random.nextDouble() * 2 - 1) * 10;
+			im[i] = (0.5 + random.nextDouble() * 0.5) * (random.nextBoolean() ? 1 : -1);
+		}
+		double[] sinRe = new double[length];
+		double[] sinIm = new double[length];
+		double[] cosRe = new double[length];
+		double[] cosIm = new double[length];
+		ComplexMath.sin(re, im, length, sinRe, sinIm);
+		ComplexMath.cos(re, im, length, cosRe, cosIm);
+
+		for (int i = 0; i < length; i++) {
+			double x = re[i];
+			double y = im[i];
+			assertWithinUlp(StrictMath.sin(x) * StrictMath.cosh(y), StrictMath.cos(x) * StrictMath.sinh(y),
+					new Complex(sinRe[i], sinIm[i]));
+			assertWithinUlp(StrictMath.cos(x) * StrictMath.cosh(y), -StrictMath.sin(x) * StrictMath.sinh(y),
+					new Complex(cosRe[i], cosIm[i]));
+		}
+	}
+
+	private static void assertWithinUlp(double re, double im, Complex actual) {
+		double ulp = 4 * Math.ulp(Math.hypot(re, im));
+		Assert.assertEquals(re, actual.re, ulp);
+		Assert.assertEquals(im, actual.im, ulp);
+	}
+
+	@Test
+	public void bulkExpTest() {
+		double[] re = { 0, 1, -2.5 };
+		double[] im = { Math.PI, 0.5, 10 };
+		double[] outRe = new double[3];
+		double[] outIm = new double[3];
+		ComplexMath.exp(re, im, 3, outRe, outIm);
+
+		for (int i = 0; i < re.length; i++) {
+			Assert.assertEquals(Math.exp(re[i]) * Math.cos(im[i]), outRe[i], DELTA);
+			Assert.assertEquals(Math.exp(re[i]) * Math.sin(im[i]), outIm[i], DELTA);
+		}
+	}
+
+	@Test
+	public void functionDerivativeTest() {
+		ComplexFunction function = ComplexFunction.zExpMinusOne();
+		Complex z = new Complex(0.3, 0.4);
+		Complex expected = z.add(Complex.ONE).multiply(ComplexMath.exp(z));
+		Complex actual = function.derive(z);
+
+		Assert.assertEquals(expected.re, actual.re, DELTA);
+		Assert.assertEquals(expected.im, actual.im, DELTA);
+	}
+}
@@ -0,0 +1,153 @@
+package hr.fer.zemris.math;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+public class ComplexPolynomialTest {
+
+	private static final double DELTA = 1E-5;
+
+	@Test
+	public void gammaTest() {
+		ComplexPolynomial cp = new ComplexPolynomial(Complex.ONE_NEG, Complex.ZERO, Complex.ONE);
+
+		double expected = 0.5;
+		double actual = cp.gamma(Complex.ONE, 2);
+
+		Assert.assertEquals(expected, actual, DELTA);
+	}
+
+	@Test
+	public void gammaBoundTest() {
+		ComplexPolynomial cp = new ComplexRootedPolynomial(Complex.ONE, Complex.ONE_NEG, Complex.IM, Complex.IM_NEG)
+				.toComplexPolynom();
+		Complex z = new Complex(0.9, 0.1);
+		Complex d = cp.derive().apply(z);
+
+		double exact = cp.derive().derive().apply(z).module() / (2 * d.module());
+		double actual = cp.gamma(z, d.module());
+
+		Assert.assertTrue(actual >= exact);
+	}
+
+	@Test
+	public void sparseSelectionTest() {
+		Complex[] factors = new Complex[33];
+		java.util.Arrays.fill(factors, Complex.ZERO);
+		factors[0] = Complex.ONE_NEG;
+		factors[32] = Complex.ONE;
+
+		Assert.assertTrue(new ComplexPolynomial(factors).isSparse());
+		Assert.assertFalse(new ComplexPolynomial(Complex.ONE_NEG, Complex.ZERO, Complex.ONE).isSparse());
+	}
+
+	@Test
+	public void sparseApplyTest() {
+		ComplexPolynomial cp = ComplexPolynomial.fromTerms(new int[] { 0, 4096 },
+				new Complex[] { Complex.ONE_NEG, Complex.ONE });
+		Complex z = new Complex(Math.cos(Math.PI / 2048), Math.sin(Math.PI / 2048));
+		Complex actual = cp.apply(z);
+
+		Assert.assertEquals(4096, cp.order());
+		Assert.assertEquals(0, actual.re, DELTA);
+		Assert.assertEquals(0, actual.im, DELTA);
+	}
+
+	@Test
+	public void sparseMatchesDenseTest() {
+		Complex[] factors = new Complex[40];
+		java.util.Arrays.fill(factors, Complex.ZERO);
+		factors[1] = new Complex(2, -1);
+		factors[17] = new Complex(0.5, 0.25);
+		factors[39] = Complex.IM;
+		ComplexPolynomial sparse = new ComplexPolynomial(factors);
+		Complex z = new Complex(0.9, 0.3);
+
+		Complex expected = Complex.ZERO;
+		for (int i = factors.length - 1; i >= 0; i--) {
+			expected = expected.multiply(z).add(factors[i]);
+		}
+		Complex actual = sparse.apply(z);
+
+		Assert.assertEquals(expected.re, actual.re, DELTA);
+		Assert.assertEquals(expected.im, actual.im, DELTA);
+	}
+
+	@Test
+	public void sparseDeriveTest() {
+		ComplexPolynomial cp = ComplexPolynomial.fromTerms(new int[] { 0, 1, 100 },
+				new Complex[] { Complex.ONE, Complex.ONE, Complex.ONE });
+		ComplexPolynomial derived = cp.derive();
+		Complex actual = derived.apply(Complex.ONE);
+
+		Assert.assertEquals(99, derived.order());
+		Assert.assertEquals(101, actual.re, DELTA);
+		Assert.assertEquals(0, actual.im, DELTA);
+	}
+
+	@Test
+	public void sparseToStringTest() {
+		ComplexPolynomial cp = ComplexPolynomial.fromTerms(new int[] { 64, 1 },
+				new Complex[] { Complex.ONE, new Complex(2, 0) });
+
+		Assert.assertEquals("(1.0)z^64+(2.0)z^1", cp.toString());
+	}
+
+	@Test
+	public void sparseGammaTest() {
+		ComplexPolynomial cp = ComplexPolynomial.fromTerms(new int[] { 0, 40 },
+				new Complex[] { Complex.ONE_NEG, Complex.ONE });
+		Complex z = new Complex(0.6, 0.7);
+		double r = z.module();
+		double d = 40 * Math.pow(r, 39);
+
+		double expected = 0;
+		double binomial = 40 * 39 / 2;
+		for (int k = 2; k <= 40; k++) {
+			expected = Math.max(expected, Math.pow(binomial * Math.pow(r, 40 - k) / d, 1.0 / (k - 1)));
+			binomial = binomial * (40 - k) / (k + 1);
+		}
+
+		Assert.assertTrue(cp.isSparse());
+		Assert.assertEquals(expected, cp.gamma(z, d), DELTA);
+		Assert.assertEquals(expected, cp.gamma(z, d), DELTA);
+	}
+
+	@Test
+	public void gammaScratchTest() {
+		ComplexPolynomial cp = ComplexPolynomial.fromTerms(new int[] { 0, 40 },
+				new Complex[] { Complex.ONE_NEG, Complex.ONE });
+		Complex z = new Complex(0.6, 0.7);
+		double[] taylor = new double[cp.order() + 1];
+
+		double expected = cp.gamma(z, 2);
+		Assert.assertEquals(expected, cp.gamma(z, 2, taylor), DELTA);
+		Assert.assertEquals(expected, cp.gamma(z, 2, taylor), DELTA);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void exponentTooLargeTest() {
+		ComplexPolynomial.fromTerms(new int[] { 0, 40000 }, new Complex[] { Complex.ONE_NEG, Complex.ONE });
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void productTooLargeTest() {
+		ComplexPolynomial cp = ComplexPolynomial.fromTerms(new int[] { 0, 20000 },
+				new Complex[] { Complex.ONE_NEG, Complex.ONE });
+		cp.multiply(cp);
+	}
+
+	@Test
+	public void largestExponentTest() {
+		ComplexPolynomial cp = ComplexPolynomial.fromTerms(new int[] { 0, Short.MAX_VALUE },
+				new Complex[] { Complex.ONE_NEG, Complex.ONE });
+
+		Assert.assertEquals(Short.MAX_VALUE, cp.order());
+		Assert.assertEquals(1, cp.gamma(Complex.ZERO, 1), DELTA);
+	}
+
+	@Test
+	public void emptyToStringTest() {
+		Assert.assertEquals("", new ComplexPolynomial(Complex.ONE).derive().toString());
+	}
+}
@@ -122,7 +122,108 @@ public class ComplexTest {
 		Assert.assertEquals(expected2, actual2, DELTA);
 		Assert.assertEquals(expected, actual, DELTA);
 	}
-	
-	
-	
+
+	@Test
+	public void powerTest() {
+		Complex c = new Complex(1, 2);
+		Complex c2 = c.power(3);
+
+		double expected = -11;
+		double expected2 = -2;
+
+		Assert.assertEquals(expected2, c2.im, DELTA);
+		Assert.assertEquals(expected, c2.re, DELTA);
+	}
+
+	@Test
+	public void powerNegativeTest() {
+		Complex c = new Complex(0, 2);
+		Complex c2 = c.power(-2);
+
+		Assert.assertEquals(0, c2.im, DELTA);
+		Assert.assertEquals(-0.25, c2.re, DELTA);
+	}
+
+	@Test
+	public void powerZeroTest() {
+		Complex c2 = Complex.ZERO.power(0);
+
+		Assert.assertEquals(0, c2.im, DELTA);
+		Assert.assertEquals(1, c2.re, DELTA);
+	}
+
+	@Test
+	public void powerMinIntTest() {
+		Complex c = new Complex(0, 1);
+		Complex c2 = c.power(Integer.MIN_VALUE);
+
+		Assert.assertEquals(0, c2.im, DELTA);
+		Assert.assertEquals(1, c2.re, DELTA);
+	}
+
+	@Test
+	public void largeNegativePowerTest() {
+		Complex c = new Complex(3, 4).power(-500);
+
+		Assert.assertEquals(0, c.re, DELTA);
+		Assert.assertEquals(0, c.im, DELTA);
+	}
+
+	@Test
+	public void powerTableLargeNegativePowerTest() {
+		Complex.PowerTable table = new Complex(3, 4).powerTable(500);
+		Complex c = table.power(-500);
+
+		Assert.assertEquals(0, c.re, DELTA);
+		Assert.assertEquals(0, c.im, DELTA);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void powerTableNegativeOutOfTableTest() {
+		Complex.ONE.powerTable(10).power(-11);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void powerTableMinIntTest() {
+		Complex.ONE.powerTable(Integer.MAX_VALUE).power(Integer.MIN_VALUE);
+	}
+
+	@Test
+	public void powerTableTest() {
+		Complex c = new Complex(0.8, -0.6);
+		Complex.PowerTable table = c.powerTable(100);
+
+		for (int n = -100; n <= 100; n += 7) {
+			Complex expected = c.power(n);
+			Complex actual = table.power(n);
+			Assert.assertEquals(expected.re, actual.re, DELTA);
+			Assert.assertEquals(expected.im, actual.im, DELTA);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void powerTableOutOfRangeTest() {
+		Complex.ONE.powerTable(8).power(9);
+	}
+
+	@Test
+	public void rootTest() {
+		Complex c = new Complex(0, 8);
+		java.util.List<Complex> roots = c.root(3);
+
+		Assert.assertEquals(3, roots.size());
+		for (Complex root : roots) {
+			Complex cube = root.power(3);
+			Assert.assertEquals(2, root.module(), DELTA);
+			Assert.assertEquals(c.re, cube.re, DELTA);
+			Assert.assertEquals(c.im, cube.im, DELTA);
+		}
+		Assert.assertEquals(Math.sqrt(3), roots.get(0).re, DELTA);
+		Assert.assertEquals(1, roots.get(0).im, DELTA);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rootInvalidTest() {
+		Complex.ONE.root(0);
+	}
 }
@@ -0,0 +1,79 @@
+package hr.fer.zemris.math;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+public class Vector3ArrayTest {
+	public static final double DELTA = 1E-4;
+
+	private static Vector3Array of(Vector3... vectors) {
+		Vector3Array array = new Vector3Array(vectors.length);
+		for (int i = 0; i < vectors.length; i++) {
+			array.set(i, vectors[i]);
+		}
+		return array;
+	}
+
+	@Test
+	public void dotTest() {
+		Vector3Array a = of(new Vector3(1, 2, 3), new Vector3(1, 0, 0));
+		Vector3Array b = of(new Vector3(3, 2, 2), new Vector3(0, 1, 0));
+		double[] out = new double[2];
+		a.dot(b, out);
+
+		Assert.assertEquals(13, out[0], DELTA);
+		Assert.assertEquals(0, out[1], DELTA);
+	}
+
+	@Test
+	public void crossTest() {
+		Vector3Array a = of(new Vector3(1, 0, 0), new Vector3(1, 2, 3));
+		Vector3Array b = of(new Vector3(0, 1, 0), new Vector3(3, 2, 2));
+		Vector3Array out = new Vector3Array(2);
+		a.cross(b, out);
+
+		Vector3 expected = new Vector3(1, 2, 3).cross(new Vector3(3, 2, 2));
+
+		Assert.assertEquals(1, out.getZ()[0], DELTA);
+		Assert.assertEquals(expected.getX(), out.getX()[1], DELTA);
+		Assert.assertEquals(expected.getY(), out.getY()[1], DELTA);
+		Assert.assertEquals(expected.getZ(), out.getZ()[1], DELTA);
+	}
+
+	@Test
+	public void normalizeInPlaceTest() {
+		Vector3Array a = of(new Vector3(1, 2, 3));
+		a.normalize(a);
+
+		Assert.assertEquals(1 / Math.sqrt(14), a.getX()[0], DELTA);
+		Assert.assertEquals(2 / Math.sqrt(14), a.getY()[0], DELTA);
+		Assert.assertEquals(3 / Math.sqrt(14), a.getZ()[0], DELTA);
+	}
+
+	@Test
+	public void scaleAddTest() {
+		Vector3Array a = of(new Vector3(1, 2, 3));
+		Vector3Array b = of(new Vector3(2, 3, 4));
+		Vector3Array out = new Vector3Array(1);
+		a.scaleAdd(2, b, out);
+
+		Assert.assertEquals(4, out.getX()[0], DELTA);
+		Assert.assertEquals(7, out.getY()[0], DELTA);
+		Assert.assertEquals(10, out.getZ()[0], DELTA);
+	}
+
+	@Test
+	public void cosAngleTest() {
+		Vector3 v1 = new Vector3(1, 2, 3);
+		Vector3 v2 = new Vector3(-2, 0.5, 4);
+		double[] out = new double[1];
+		of(v1).cosAngle(of(v2), out);
+
+		Assert.assertEquals(v1.cosAngle(v2), out[0], DELTA);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void sizeMismatchTest() {
+		new Vector3Array(2).dot(new Vector3Array(3), new double[2]);
+	}
+}